@@ -0,0 +1,506 @@
+/**
+ * AsyncAppenderExample.java
+ * This program demonstrates appending to a log file from many threads
+ * through one background writer. NIOExample.readWriteWithFiles appends with
+ * Files.write(..., APPEND), which opens the file and writes on the calling
+ * thread. An AsyncAppender takes records from a lock-free queue, writes
+ * them to a FileChannel in batches, and calls force() as often as the
+ * chosen durability mode asks. Each append returns a future that completes
+ * when the record is as durable as promised. With per-batch durability,
+ * one force() covers every record that arrived during the previous one
+ * (group commit).
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+public class AsyncAppenderExample {
+    public static void main(String[] args) {
+        System.out.println("--- Async Appender Examples ---");
+
+        // Seconds per benchmark run
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+
+        // Example 1: Appending and waiting for durability
+        System.out.println("\nExample 1: Appending and waiting for durability");
+        appendAndWait();
+
+        // Example 2: Appending after close
+        System.out.println("\nExample 2: Appending after close");
+        appendAfterClose();
+
+        // Example 3: Appends per second from 64 threads
+        System.out.println("\nExample 3: Appends per second from 64 threads");
+        benchmark(seconds);
+    }
+
+    /**
+     * Demonstrates appends whose futures report where each record ended.
+     */
+    public static void appendAndWait() {
+        Path file = Paths.get("async_log.txt");
+
+        try (AsyncAppender appender = new AsyncAppender(file, AsyncAppender.Durability.PER_BATCH, 0)) {
+            List<CompletableFuture<Long>> futures = new ArrayList<>();
+            for (int i = 1; i <= 3; i++) {
+                futures.add(appender.append(("Log entry " + i + "\n").getBytes(StandardCharsets.UTF_8)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                System.out.println("Entry " + (i + 1) + " durable up to byte " + futures.get(i).join());
+            }
+        } catch (IOException e) {
+            System.out.println("Error appending: " + e.getMessage());
+        }
+
+        try {
+            System.out.println("File content:");
+            Files.readAllLines(file).forEach(line -> System.out.println("  " + line));
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.out.println("Error reading log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Demonstrates that appends after close fail instead of being lost.
+     */
+    public static void appendAfterClose() {
+        Path file = Paths.get("async_log.txt");
+
+        try {
+            AsyncAppender appender = new AsyncAppender(file, AsyncAppender.Durability.NONE, 0);
+            appender.close();
+            appender.append("too late\n".getBytes(StandardCharsets.UTF_8)).join();
+        } catch (IOException e) {
+            System.out.println("Error opening log: " + e.getMessage());
+        } catch (CompletionException e) {
+            System.out.println("Error appending: " + e.getCause().getMessage());
+        }
+
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.out.println("Error cleaning up: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs 64 threads that each append a record and wait for it, in a loop,
+     * under each durability mode and two synchronous baselines.
+     */
+    public static void benchmark(int seconds) {
+        Path file = Paths.get("async_benchmark.log");
+        int threads = 64;
+        long duration = TimeUnit.SECONDS.toNanos(seconds);
+
+        try {
+            for (int round = 1; round <= 2; round++) {
+                System.out.println("Round " + round + ":");
+
+                // Baseline: Files.write with APPEND on the calling thread, no force()
+                Files.deleteIfExists(file);
+                long count = runThreads(threads, duration, record -> {
+                    Files.write(file, record, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                });
+                System.out.printf("  %-30s %,10.0f appends/s%n", "Files.write(APPEND)", count / (double) seconds);
+
+                // Baseline: a shared channel with write() and force() under a lock
+                Files.deleteIfExists(file);
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    Object lock = new Object();
+                    count = runThreads(threads, duration, record -> {
+                        synchronized (lock) {
+                            channel.write(ByteBuffer.wrap(record));
+                            channel.force(false);
+                        }
+                    });
+                }
+                System.out.printf("  %-30s %,10.0f appends/s%n", "Locked write + force", count / (double) seconds);
+
+                for (AsyncAppender.Durability durability : AsyncAppender.Durability.values()) {
+                    Files.deleteIfExists(file);
+                    AsyncAppender appender = new AsyncAppender(file, durability, 10);
+                    try {
+                        count = runThreads(threads, duration, record -> appender.append(record).join());
+                    } finally {
+                        appender.close();
+                    }
+                    String label = "AsyncAppender " + durability
+                            + (durability == AsyncAppender.Durability.PERIODIC ? " (10 ms)" : "");
+                    System.out.printf("  %-30s %,10.0f appends/s, %,d batches, %,d forces%n", label,
+                            count / (double) seconds, appender.batchCount(), appender.forceCount());
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error in benchmark: " + e.getMessage());
+        }
+
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.out.println("Error cleaning up: " + e.getMessage());
+        }
+    }
+
+    /**
+     * An append done by one benchmark thread.
+     */
+    interface AppendAction {
+        void append(byte[] record) throws IOException;
+    }
+
+    /**
+     * Helper method running the action on every thread until the duration
+     * has passed and returning the total number of appends.
+     */
+    private static long runThreads(int threads, long duration, AppendAction action) {
+        AtomicLong total = new AtomicLong();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            Thread worker = new Thread(() -> {
+                byte[] record = String.format("thread %02d %s%n", id, "x".repeat(80))
+                        .getBytes(StandardCharsets.UTF_8);
+                long count = 0;
+                ready.countDown();
+                try {
+                    start.await();
+                    long deadline = System.nanoTime() + duration;
+                    while (System.nanoTime() < deadline) {
+                        action.append(record);
+                        count++;
+                    }
+                } catch (IOException | InterruptedException | CompletionException e) {
+                    System.out.println("Error in thread " + id + ": " + e.getMessage());
+                }
+                total.addAndGet(count);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        try {
+            ready.await();
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return total.get();
+    }
+}
+
+/**
+ * Appends records to a file from any number of threads through a single
+ * writer thread.
+ *
+ * Producers link records onto a multi-producer, single-consumer queue with
+ * one atomic swap of the tail. They never take a lock or wait for I/O. The
+ * writer thread copies as many queued records as fit into one direct
+ * buffer, writes the buffer, and then completes the futures according to
+ * the durability mode:
+ *
+ *   NONE      - after write(): the data is in the operating system, not on disk.
+ *   PERIODIC  - after the next force(), which runs at most every interval.
+ *   PER_BATCH - after a force() following each batch. Records that arrive
+ *               while one force() runs make up the next batch, so the cost
+ *               of a force() is shared (group commit).
+ *
+ * Futures are completed on the writer thread, so dependent actions should
+ * be short or use the *Async variants. If a write or force fails, that
+ * batch and every later append fail with the IOException.
+ */
+class AsyncAppender implements AutoCloseable {
+    enum Durability { NONE, PERIODIC, PER_BATCH }
+
+    private static final int BATCH_BYTES = 1 << 20;
+
+    /**
+     * A queued record. The node that was consumed last serves as the
+     * queue's head.
+     */
+    private static final class Node {
+        byte[] data;
+        final CompletableFuture<Long> future;
+        volatile Node next;
+        long endOffset;
+
+        Node(byte[] data, CompletableFuture<Long> future) {
+            this.data = data;
+            this.future = future;
+        }
+    }
+
+    private final FileChannel channel;
+    private final Durability durability;
+    private final long intervalNanos;
+    private final Thread writer;
+
+    private final AtomicReference<Node> tail;
+    private Node head;
+
+    private final AtomicBoolean writerParked = new AtomicBoolean();
+    private final AtomicInteger activeAppends = new AtomicInteger();
+    private volatile boolean closed;
+    private volatile boolean shutdown;
+    private volatile IOException failure;
+
+    // Used by the writer thread only
+    private final ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_BYTES);
+    private final List<Node> written = new ArrayList<>();
+    private final List<Node> awaitingForce = new ArrayList<>();
+    private long position;
+    private long lastForce = System.nanoTime();
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong forces = new AtomicLong();
+
+    AsyncAppender(Path file, Durability durability, long intervalMillis) throws IOException {
+        if (durability == Durability.PERIODIC && intervalMillis <= 0) {
+            throw new IllegalArgumentException("PERIODIC durability needs a positive interval");
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.position = channel.size();
+        this.durability = durability;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+
+        Node stub = new Node(null, null);
+        this.head = stub;
+        this.tail = new AtomicReference<>(stub);
+
+        this.writer = new Thread(this::runWriter, "async-appender");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues a record and returns a future holding the file offset just
+     * past it, completed once the record is durable. The array must not be
+     * modified until the future completes.
+     */
+    public CompletableFuture<Long> append(byte[] record) {
+        activeAppends.incrementAndGet();
+        try {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Appender is closed"));
+            }
+            IOException error = failure;
+            if (error != null) {
+                return CompletableFuture.failedFuture(error);
+            }
+
+            CompletableFuture<Long> future = new CompletableFuture<>();
+            Node node = new Node(record, future);
+            Node previous = tail.getAndSet(node);
+            previous.next = node;
+
+            if (writerParked.get() && writerParked.compareAndSet(true, false)) {
+                LockSupport.unpark(writer);
+            }
+            return future;
+        } finally {
+            activeAppends.decrementAndGet();
+        }
+    }
+
+    public long batchCount() {
+        return batches.get();
+    }
+
+    public long forceCount() {
+        return forces.get();
+    }
+
+    /**
+     * Stops accepting records, waits until every queued record is written
+     * and forced, and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // An append that saw closed == false may still be linking its node
+        while (activeAppends.get() != 0) {
+            Thread.onSpinWait();
+        }
+        shutdown = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void runWriter() {
+        while (true) {
+            boolean wroteBatch = false;
+            try {
+                wroteBatch = writeBatch();
+                if (wroteBatch) {
+                    afterWrite();
+                } else if (!awaitingForce.isEmpty() && System.nanoTime() - lastForce >= intervalNanos) {
+                    force();
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+
+            if (!wroteBatch) {
+                if (shutdown && head.next == null) {
+                    break;
+                }
+                long waitNanos = awaitingForce.isEmpty()
+                        ? TimeUnit.MILLISECONDS.toNanos(100)
+                        : Math.max(0, intervalNanos - (System.nanoTime() - lastForce));
+                writerParked.set(true);
+                if (head.next == null && !shutdown) {
+                    LockSupport.parkNanos(this, waitNanos);
+                }
+                writerParked.set(false);
+            }
+        }
+
+        try {
+            if (!awaitingForce.isEmpty()) {
+                force();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Copies queued records into the batch buffer and writes it. Returns
+     * false if the queue was empty.
+     */
+    private boolean writeBatch() throws IOException {
+        Node next = head.next;
+        if (next == null) {
+            return false;
+        }
+        if (failure != null) {
+            // Drain without writing so that late appends fail rather than hang
+            for (; next != null; next = head.next) {
+                head = next;
+                next.data = null;
+                next.future.completeExceptionally(failure);
+            }
+            return false;
+        }
+
+        batch.clear();
+        while (next != null) {
+            byte[] data = next.data;
+            if (data.length > batch.remaining()) {
+                if (batch.position() > 0) {
+                    break;
+                }
+                // A record larger than the whole buffer is written on its own
+                writeFully(ByteBuffer.wrap(data));
+                position += data.length;
+                next.endOffset = position;
+            } else {
+                batch.put(data);
+                next.endOffset = position + batch.position();
+            }
+            next.data = null;
+            written.add(next);
+            head = next;
+            next = head.next;
+        }
+        if (batch.position() > 0) {
+            batch.flip();
+            writeFully(batch);
+            position += batch.limit();
+        }
+        batches.incrementAndGet();
+        return true;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Completes or parks the futures of the batch just written.
+     */
+    private void afterWrite() throws IOException {
+        switch (durability) {
+            case NONE:
+                completeAll(written);
+                break;
+            case PER_BATCH:
+                awaitingForce.addAll(written);
+                written.clear();
+                force();
+                break;
+            case PERIODIC:
+                awaitingForce.addAll(written);
+                written.clear();
+                if (System.nanoTime() - lastForce >= intervalNanos) {
+                    force();
+                }
+                break;
+        }
+    }
+
+    private void force() throws IOException {
+        channel.force(false);
+        forces.incrementAndGet();
+        lastForce = System.nanoTime();
+        completeAll(awaitingForce);
+    }
+
+    private void completeAll(List<Node> nodes) {
+        for (Node node : nodes) {
+            node.future.complete(node.endOffset);
+        }
+        nodes.clear();
+    }
+
+    private void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+        for (Node node : written) {
+            node.future.completeExceptionally(e);
+        }
+        for (Node node : awaitingForce) {
+            node.future.completeExceptionally(e);
+        }
+        written.clear();
+        awaitingForce.clear();
+    }
+}
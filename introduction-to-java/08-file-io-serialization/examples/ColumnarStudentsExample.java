@@ -0,0 +1,486 @@
+/**
+ * ColumnarStudentsExample.java
+ * This program demonstrates a columnar binary file format for the Student records
+ * from DataStreamsExample. Rows are grouped into blocks, and inside a block each
+ * field (id, name, age, gpa) is stored contiguously with its own min/max statistics.
+ * A query that only needs age and gpa reads just those two columns, decodes them
+ * straight into int[] and double[] arrays, and skips whole blocks whose statistics
+ * show they cannot match.
+ */
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+public class ColumnarStudentsExample {
+    public static void main(String[] args) {
+        System.out.println("--- Columnar Student File Examples ---");
+
+        // Pass 100000000 for the full-size benchmark (needs about 7GB of disk)
+        int studentCount = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+
+        // Example 1: Writing and reading a columnar file
+        System.out.println("\nExample 1: Writing and reading a columnar file");
+        writeAndRead();
+
+        // Example 2: Column aggregation compared with reading full rows
+        System.out.println("\nExample 2: Column aggregation compared with reading full rows");
+        benchmark(studentCount);
+    }
+
+    /**
+     * Demonstrates writing students column by column and reading them back.
+     */
+    public static void writeAndRead() {
+        Path path = Paths.get("students.col");
+
+        // Write the same three students as DataStreamsExample.workWithRecords
+        try (ColumnarStudentWriter writer = new ColumnarStudentWriter(path, 2)) {
+            writer.write(1, "Alice", 20, 3.75);
+            writer.write(2, "Bob", 22, 3.45);
+            writer.write(3, "Charlie", 21, 3.90);
+        } catch (IOException e) {
+            System.out.println("Error writing columnar file: " + e.getMessage());
+            return;
+        }
+
+        try (ColumnarStudentReader reader = new ColumnarStudentReader(path)) {
+            System.out.println("Rows: " + reader.rowCount() + ", blocks: " + reader.blockCount());
+
+            for (int block = 0; block < reader.blockCount(); block++) {
+                int rows = reader.blockRows(block);
+                int[] ids = reader.readIntColumn(block, ColumnarStudentReader.ID, new int[rows]);
+                String[] names = reader.readNames(block);
+                int[] ages = reader.readIntColumn(block, ColumnarStudentReader.AGE, new int[rows]);
+                double[] gpas = reader.readDoubleColumn(block, ColumnarStudentReader.GPA, new double[rows]);
+
+                System.out.println("Block " + block + ": age " + (long) reader.min(block, ColumnarStudentReader.AGE)
+                        + ".." + (long) reader.max(block, ColumnarStudentReader.AGE)
+                        + ", gpa " + reader.min(block, ColumnarStudentReader.GPA)
+                        + ".." + reader.max(block, ColumnarStudentReader.GPA));
+                for (int i = 0; i < rows; i++) {
+                    System.out.println("  Student{id=" + ids[i] + ", name='" + names[i]
+                            + "', age=" + ages[i] + ", gpa=" + gpas[i] + "}");
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading columnar file: " + e.getMessage());
+        }
+
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.out.println("Error cleaning up: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compares "average GPA by age" and a filtered average on the columnar file
+     * with reading every full row from a DataOutputStream-style row file.
+     */
+    public static void benchmark(int count) {
+        Path rowPath = Paths.get("students.rows");
+        Path columnPath = Paths.get("students.col");
+
+        try {
+            // Students are appended in enrollment order, so age drifts slowly
+            // with the row number; this clustering is what makes block skipping pay off
+            Random random = new Random(7);
+            try (DataOutputStream rows = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(rowPath.toFile()), 1 << 16));
+                 ColumnarStudentWriter columns = new ColumnarStudentWriter(columnPath, 65_536)) {
+                rows.writeInt(count);
+                for (int i = 0; i < count; i++) {
+                    int age = 18 + (int) ((long) i * 12 / count) + random.nextInt(2);
+                    double gpa = Math.round((2.0 + random.nextDouble() * 2.0) * 100) / 100.0;
+                    String name = "Student" + i;
+
+                    rows.writeInt(i);
+                    rows.writeUTF(name);
+                    rows.writeInt(age);
+                    rows.writeDouble(gpa);
+                    columns.write(i, name, age, gpa);
+                }
+            }
+            System.out.printf("%,d students: row file %,d bytes, columnar file %,d bytes%n",
+                    count, Files.size(rowPath), Files.size(columnPath));
+
+            for (int round = 1; round <= 2; round++) {
+                System.out.println("Round " + round + ":");
+
+                // Average GPA by age: full rows
+                long start = System.nanoTime();
+                double[] rowSums = new double[128];
+                long[] rowCounts = new long[128];
+                try (DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(rowPath.toFile()), 1 << 16))) {
+                    int n = dis.readInt();
+                    for (int i = 0; i < n; i++) {
+                        dis.readInt();
+                        dis.readUTF();
+                        int age = dis.readInt();
+                        double gpa = dis.readDouble();
+                        rowSums[age] += gpa;
+                        rowCounts[age]++;
+                    }
+                }
+                long rowTime = System.nanoTime() - start;
+
+                // Average GPA by age: only the age and gpa columns
+                start = System.nanoTime();
+                double[] colSums = new double[128];
+                long[] colCounts = new long[128];
+                try (ColumnarStudentReader reader = new ColumnarStudentReader(columnPath)) {
+                    int[] ages = new int[reader.maxBlockRows()];
+                    double[] gpas = new double[reader.maxBlockRows()];
+                    for (int block = 0; block < reader.blockCount(); block++) {
+                        int n = reader.blockRows(block);
+                        reader.readIntColumn(block, ColumnarStudentReader.AGE, ages);
+                        reader.readDoubleColumn(block, ColumnarStudentReader.GPA, gpas);
+                        for (int i = 0; i < n; i++) {
+                            colSums[ages[i]] += gpas[i];
+                            colCounts[ages[i]]++;
+                        }
+                    }
+                }
+                long columnTime = System.nanoTime() - start;
+
+                System.out.printf("  Average GPA by age: rows %d ms, columns %d ms%n",
+                        rowTime / 1_000_000, columnTime / 1_000_000);
+                if (round == 2) {
+                    for (int age = 0; age < colSums.length; age++) {
+                        if (colCounts[age] > 0) {
+                            System.out.printf("    age %d: %.4f (rows agree: %b)%n", age,
+                                    colSums[age] / colCounts[age], rowCounts[age] == colCounts[age]);
+                        }
+                    }
+                }
+
+                // Average GPA of students aged 28 or more: blocks are skipped by statistics
+                start = System.nanoTime();
+                double sum = 0;
+                long matched = 0;
+                int skipped = 0;
+                int blocks;
+                try (ColumnarStudentReader reader = new ColumnarStudentReader(columnPath)) {
+                    blocks = reader.blockCount();
+                    int[] ages = new int[reader.maxBlockRows()];
+                    double[] gpas = new double[reader.maxBlockRows()];
+                    for (int block = 0; block < blocks; block++) {
+                        if (reader.max(block, ColumnarStudentReader.AGE) < 28) {
+                            skipped++;
+                            continue;
+                        }
+                        int n = reader.blockRows(block);
+                        reader.readIntColumn(block, ColumnarStudentReader.AGE, ages);
+                        reader.readDoubleColumn(block, ColumnarStudentReader.GPA, gpas);
+                        for (int i = 0; i < n; i++) {
+                            if (ages[i] >= 28) {
+                                sum += gpas[i];
+                                matched++;
+                            }
+                        }
+                    }
+                }
+                long filterTime = System.nanoTime() - start;
+                System.out.printf("  Average GPA for age >= 28: %.4f over %,d students, %d of %d blocks skipped, %d ms%n",
+                        matched == 0 ? 0 : sum / matched, matched, skipped, blocks, filterTime / 1_000_000);
+            }
+        } catch (IOException e) {
+            System.out.println("Error in benchmark: " + e.getMessage());
+        }
+
+        try {
+            Files.deleteIfExists(rowPath);
+            Files.deleteIfExists(columnPath);
+        } catch (IOException e) {
+            System.out.println("Error cleaning up: " + e.getMessage());
+        }
+    }
+}
+
+/**
+ * Writes students into a columnar file.
+ *
+ * File layout:
+ *   [blocks...][footer][long footer offset][int magic]
+ * Each block stores its columns one after another:
+ *   id    int[rows]
+ *   age   int[rows]
+ *   gpa   double[rows]
+ *   name  int[rows] byte lengths, followed by the UTF-8 bytes of all names
+ * The footer holds, per block, the row count and for each column its
+ * offset, byte length, min and max (as doubles).
+ */
+class ColumnarStudentWriter implements AutoCloseable {
+    static final int MAGIC = 0x53434F4C;   // "SCOL"
+    static final int COLUMNS = 4;
+
+    private final FileChannel channel;
+    private final int blockRows;
+    private final int[] ids;
+    private final int[] ages;
+    private final double[] gpas;
+    private final byte[][] names;
+    private int rows;
+    private long position;
+
+    // Footer entries, grown as blocks are written
+    private long[] footer = new long[0];
+    private int blocks;
+
+    public ColumnarStudentWriter(Path path, int blockRows) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.blockRows = blockRows;
+        this.ids = new int[blockRows];
+        this.ages = new int[blockRows];
+        this.gpas = new double[blockRows];
+        this.names = new byte[blockRows][];
+    }
+
+    public void write(int id, String name, int age, double gpa) throws IOException {
+        ids[rows] = id;
+        ages[rows] = age;
+        gpas[rows] = gpa;
+        names[rows] = name.getBytes(StandardCharsets.UTF_8);
+        if (++rows == blockRows) {
+            flushBlock();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (rows == 0) {
+            return;
+        }
+
+        // One footer entry: rows, then (offset, length, min bits, max bits) per column
+        int entrySize = 1 + COLUMNS * 4;
+        if ((blocks + 1) * entrySize > footer.length) {
+            footer = Arrays.copyOf(footer, Math.max(64, footer.length * 2));
+        }
+        int entry = blocks * entrySize;
+        footer[entry] = rows;
+
+        writeIntColumn(ids, entry + 1);
+        writeIntColumn(ages, entry + 1 + 4);
+
+        // gpa column
+        ByteBuffer buffer = ByteBuffer.allocate(rows * 8);
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (int i = 0; i < rows; i++) {
+            min = Math.min(min, gpas[i]);
+            max = Math.max(max, gpas[i]);
+        }
+        buffer.asDoubleBuffer().put(gpas, 0, rows);
+        recordColumn(buffer, entry + 1 + 8, min, max);
+
+        // name column: lengths, then bytes
+        int totalBytes = 0;
+        for (int i = 0; i < rows; i++) {
+            totalBytes += names[i].length;
+        }
+        buffer = ByteBuffer.allocate(rows * 4 + totalBytes);
+        for (int i = 0; i < rows; i++) {
+            buffer.putInt(names[i].length);
+        }
+        for (int i = 0; i < rows; i++) {
+            buffer.put(names[i]);
+            names[i] = null;
+        }
+        buffer.flip();
+        recordColumn(buffer, entry + 1 + 12, Double.NaN, Double.NaN);
+
+        blocks++;
+        rows = 0;
+    }
+
+    private void writeIntColumn(int[] values, int at) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(rows * 4);
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < rows; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        buffer.asIntBuffer().put(values, 0, rows);
+        recordColumn(buffer, at, min, max);
+    }
+
+    private void recordColumn(ByteBuffer buffer, int at, double min, double max) throws IOException {
+        footer[at] = position;
+        footer[at + 1] = buffer.remaining();
+        footer[at + 2] = Double.doubleToLongBits(min);
+        footer[at + 3] = Double.doubleToLongBits(max);
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBlock();
+
+            int entrySize = 1 + COLUMNS * 4;
+            ByteBuffer tail = ByteBuffer.allocate(4 + blocks * entrySize * 8 + 8 + 4);
+            tail.putInt(blocks);
+            for (int i = 0; i < blocks * entrySize; i++) {
+                tail.putLong(footer[i]);
+            }
+            tail.putLong(position);
+            tail.putInt(MAGIC);
+            tail.flip();
+            while (tail.hasRemaining()) {
+                channel.write(tail);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
+
+/**
+ * Reads columns from a file written by ColumnarStudentWriter. Only the
+ * footer is read when the file is opened; column data is read on demand
+ * with positional reads, so files larger than 2GB are fine.
+ */
+class ColumnarStudentReader implements AutoCloseable {
+    static final int ID = 0;
+    static final int AGE = 1;
+    static final int GPA = 2;
+    static final int NAME = 3;
+
+    private static final int ENTRY_SIZE = 1 + ColumnarStudentWriter.COLUMNS * 4;
+
+    private final FileChannel channel;
+    private final int blockCount;
+    private final long[] footer;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+
+    public ColumnarStudentReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        long size = channel.size();
+
+        ByteBuffer trailer = ByteBuffer.allocate(12);
+        readFully(trailer, size - 12);
+        long footerOffset = trailer.getLong();
+        if (trailer.getInt() != ColumnarStudentWriter.MAGIC) {
+            channel.close();
+            throw new IOException("Not a columnar student file: " + path);
+        }
+
+        ByteBuffer footerBytes = ByteBuffer.allocate((int) (size - 12 - footerOffset));
+        readFully(footerBytes, footerOffset);
+        blockCount = footerBytes.getInt();
+        footer = new long[blockCount * ENTRY_SIZE];
+        footerBytes.asLongBuffer().get(footer);
+    }
+
+    public int blockCount() {
+        return blockCount;
+    }
+
+    public int blockRows(int block) {
+        return (int) footer[block * ENTRY_SIZE];
+    }
+
+    public int maxBlockRows() {
+        int max = 0;
+        for (int block = 0; block < blockCount; block++) {
+            max = Math.max(max, blockRows(block));
+        }
+        return max;
+    }
+
+    public long rowCount() {
+        long rows = 0;
+        for (int block = 0; block < blockCount; block++) {
+            rows += blockRows(block);
+        }
+        return rows;
+    }
+
+    public double min(int block, int column) {
+        return Double.longBitsToDouble(footer[block * ENTRY_SIZE + 1 + column * 4 + 2]);
+    }
+
+    public double max(int block, int column) {
+        return Double.longBitsToDouble(footer[block * ENTRY_SIZE + 1 + column * 4 + 3]);
+    }
+
+    /**
+     * Decodes an int column of one block into dst and returns dst.
+     */
+    public int[] readIntColumn(int block, int column, int[] dst) throws IOException {
+        ByteBuffer data = readColumn(block, column);
+        data.asIntBuffer().get(dst, 0, blockRows(block));
+        return dst;
+    }
+
+    /**
+     * Decodes a double column of one block into dst and returns dst.
+     */
+    public double[] readDoubleColumn(int block, int column, double[] dst) throws IOException {
+        ByteBuffer data = readColumn(block, column);
+        data.asDoubleBuffer().get(dst, 0, blockRows(block));
+        return dst;
+    }
+
+    public String[] readNames(int block) throws IOException {
+        int rows = blockRows(block);
+        ByteBuffer data = readColumn(block, NAME);
+        int[] lengths = new int[rows];
+        data.asIntBuffer().get(lengths);
+        data.position(rows * 4);
+
+        String[] names = new String[rows];
+        for (int i = 0; i < rows; i++) {
+            byte[] bytes = new byte[lengths[i]];
+            data.get(bytes);
+            names[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return names;
+    }
+
+    private ByteBuffer readColumn(int block, int column) throws IOException {
+        int at = block * ENTRY_SIZE + 1 + column * 4;
+        long offset = footer[at];
+        int length = (int) footer[at + 1];
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(length) << 1);
+        }
+        buffer.clear().limit(length);
+        readFully(buffer, offset);
+        return buffer;
+    }
+
+    private void readFully(ByteBuffer target, long offset) throws IOException {
+        while (target.hasRemaining()) {
+            int read = channel.read(target, offset);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            offset += read;
+        }
+        target.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
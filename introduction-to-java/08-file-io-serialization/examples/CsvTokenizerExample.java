@@ -0,0 +1,620 @@
+/**
+ * CsvTokenizerExample.java
+ * This program demonstrates a byte-level CSV tokenizer as a fast alternative to
+ * the Scanner-based parsing in ScannerPrintWriterExample.readCSVData. Scanner
+ * runs regular expressions and creates a String for every token. The tokenizer
+ * here walks the bytes of a memory-mapped file once, records where each field
+ * starts and ends, and parses ints and doubles straight from the bytes. Quoted
+ * fields (with "" escapes and embedded commas or newlines) are supported, and
+ * large files are parsed in parallel after being split on safe record boundaries.
+ */
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BinaryOperator;
+
+public class CsvTokenizerExample {
+    public static void main(String[] args) {
+        System.out.println("--- CSV Tokenizer Examples ---");
+
+        // Size of the benchmark file in MB (pass 10240 for a 10GB run)
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+
+        // Example 1: Tokenizing quoted and unquoted fields
+        System.out.println("\nExample 1: Tokenizing quoted and unquoted fields");
+        tokenizeFields();
+
+        // Example 2: Performance compared with Scanner
+        System.out.println("\nExample 2: Performance compared with Scanner");
+        benchmark(megabytes);
+    }
+
+    /**
+     * Demonstrates field offsets, typed parsing and quoted fields.
+     */
+    public static void tokenizeFields() {
+        Path path = Paths.get("tokenizer_data.csv");
+
+        try {
+            Files.writeString(path, "ID,Name,Age,Salary\r\n"
+                    + "1,Alice,30,75000.50\r\n"
+                    + "2,\"Smith, Bob\",25,65000.75\n"
+                    + "3,\"Charlie \"\"Chuck\"\" Brown\",35,-85000.25\n"
+                    + "4,\"Multi\nLine\",40,1.5e3\n"
+                    + "5,,28,0");
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                CsvTokenizer tokenizer = new CsvTokenizer(data, 0, data.limit(), (byte) ',');
+
+                // The header is the first record
+                tokenizer.nextRecord();
+                System.out.println("Header fields: " + tokenizer.fieldCount());
+
+                while (tokenizer.nextRecord()) {
+                    // Field offsets are available without creating anything
+                    System.out.printf("ID: %d, Name: %s (bytes %d-%d%s), Age: %d, Salary: %.2f%n",
+                            tokenizer.parseInt(0), tokenizer.string(1),
+                            tokenizer.fieldStart(1), tokenizer.fieldEnd(1),
+                            tokenizer.isQuoted(1) ? ", quoted" : "",
+                            tokenizer.parseInt(2), tokenizer.parseDouble(3));
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error tokenizing file: " + e.getMessage());
+        }
+
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.out.println("Error cleaning up: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sums the Age and Salary columns with Scanner (as in readCSVData), with the
+     * tokenizer on one thread, and with the tokenizer in parallel.
+     */
+    public static void benchmark(int megabytes) {
+        Path path = Paths.get("tokenizer_benchmark.csv");
+
+        try {
+            long rows = createCsvFile(path, megabytes * 1_000_000L);
+            long size = Files.size(path);
+            int threads = Runtime.getRuntime().availableProcessors();
+            System.out.printf("File: %,d rows, %.1f MB%n", rows, size / 1e6);
+
+            for (int round = 1; round <= 2; round++) {
+                // Scanner, one line at a time with a delimiter, as in readCSVData
+                long start = System.nanoTime();
+                long scannerAges = 0;
+                double scannerSalaries = 0;
+                try (Scanner scanner = new Scanner(new File(path.toString()), StandardCharsets.UTF_8)) {
+                    scanner.nextLine();
+                    while (scanner.hasNextLine()) {
+                        Scanner lineScanner = new Scanner(scanner.nextLine());
+                        lineScanner.useDelimiter(",");
+                        lineScanner.nextInt();
+                        lineScanner.next();
+                        scannerAges += lineScanner.nextInt();
+                        scannerSalaries += Double.parseDouble(lineScanner.next());
+                        lineScanner.close();
+                    }
+                } catch (FileNotFoundException e) {
+                    System.out.println("Error opening file: " + e.getMessage());
+                    return;
+                }
+                double scannerSeconds = (System.nanoTime() - start) / 1e9;
+
+                // Tokenizer on one thread
+                start = System.nanoTime();
+                CsvTotals single = CsvTokenizer.parallelParse(path, (byte) ',', 1,
+                        CsvTokenizerExample::sumColumns, CsvTotals::merge);
+                double singleSeconds = (System.nanoTime() - start) / 1e9;
+
+                // Tokenizer on all cores, split on record boundaries
+                start = System.nanoTime();
+                CsvTotals parallel = CsvTokenizer.parallelParse(path, (byte) ',', threads * 4,
+                        CsvTokenizerExample::sumColumns, CsvTotals::merge);
+                double parallelSeconds = (System.nanoTime() - start) / 1e9;
+
+                System.out.printf("Round %d: Scanner %.1f MB/s, tokenizer %.1f MB/s, parallel tokenizer (%d threads) %.1f MB/s%n",
+                        round, size / 1e6 / scannerSeconds, size / 1e6 / singleSeconds,
+                        threads, size / 1e6 / parallelSeconds);
+                if (round == 2) {
+                    System.out.printf("Age totals:    Scanner %d, tokenizer %d, parallel %d%n",
+                            scannerAges, single.ages, parallel.ages);
+                    System.out.printf("Salary totals: Scanner %.2f, tokenizer %.2f, parallel %.2f%n",
+                            scannerSalaries, single.salaries, parallel.salaries);
+                    System.out.printf("Records: tokenizer %d, parallel %d%n", single.records, parallel.records);
+                    System.out.println("(Parallel salary totals may differ in the last digits: the doubles are added in a different order)");
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error in benchmark: " + e.getMessage());
+        }
+
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.out.println("Error cleaning up: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The per-range work of the benchmark: skip the header and sum two columns.
+     */
+    private static CsvTotals sumColumns(CsvTokenizer tokenizer, boolean firstRange) {
+        CsvTotals totals = new CsvTotals();
+        if (firstRange) {
+            tokenizer.nextRecord();
+        }
+        while (tokenizer.nextRecord()) {
+            totals.ages += tokenizer.parseInt(2);
+            totals.salaries += tokenizer.parseDouble(3);
+            totals.records++;
+        }
+        return totals;
+    }
+
+    /**
+     * Helper method to write a CSV file of roughly the given size. Some names
+     * are quoted and contain "" escapes, so the quote handling is exercised.
+     */
+    private static long createCsvFile(Path path, long bytes) throws IOException {
+        String[] names = {"Alice", "Bob", "Charlie", "\"O\"\"Brien\"", "Dave", "\"Eve \"\"E\"\"\"", "Frank"};
+        Random random = new Random(5);
+        long rows = 0;
+        long written = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("ID,Name,Age,Salary\n");
+            while (written < bytes) {
+                String line = rows + "," + names[random.nextInt(names.length)] + "," + (18 + random.nextInt(50))
+                        + "," + (20000 + random.nextInt(100000)) + "." + (10 + random.nextInt(90)) + "\n";
+                writer.write(line);
+                written += line.length();
+                rows++;
+            }
+        }
+        return rows;
+    }
+}
+
+/**
+ * Totals collected by the benchmark; merged across parallel ranges.
+ */
+class CsvTotals {
+    long records;
+    long ages;
+    double salaries;
+
+    CsvTotals merge(CsvTotals other) {
+        records += other.records;
+        ages += other.ages;
+        salaries += other.salaries;
+        return this;
+    }
+}
+
+/**
+ * Tokenizes CSV records from a ByteBuffer without creating a String per field.
+ *
+ * After nextRecord() the start and end offsets of every field are held in
+ * int arrays that are reused from record to record. A quoted field's offsets
+ * exclude the surrounding quotes; if it contains "" escapes, string() removes
+ * them. parseInt/parseLong/parseDouble read the digits directly from the buffer.
+ */
+class CsvTokenizer {
+    private static final byte QUOTE = '"';
+    private static final byte NEWLINE = '\n';
+    private static final byte RETURN = '\r';
+
+    // Powers of ten that are exactly representable as doubles
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final ByteBuffer data;
+    private final int end;
+    private final byte delimiter;
+    private int position;
+
+    private int fieldCount;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private boolean[] quoted = new boolean[16];
+
+    public CsvTokenizer(ByteBuffer data, int start, int end, byte delimiter) {
+        this.data = data;
+        this.position = start;
+        this.end = end;
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * Advances to the next record. Returns false at the end of the range.
+     */
+    public boolean nextRecord() {
+        if (position >= end) {
+            return false;
+        }
+        fieldCount = 0;
+        int p = position;
+
+        while (true) {
+            if (fieldCount == starts.length) {
+                grow();
+            }
+            int field = fieldCount++;
+
+            if (p < end && data.get(p) == QUOTE) {
+                // Quoted field: runs to the next quote that is not part of a "" pair
+                p++;
+                starts[field] = p;
+                quoted[field] = true;
+                while (p < end) {
+                    if (data.get(p) == QUOTE) {
+                        if (p + 1 < end && data.get(p + 1) == QUOTE) {
+                            p += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    p++;
+                }
+                ends[field] = p;
+                p++;
+                // Skip anything between the closing quote and the delimiter
+                while (p < end && data.get(p) != delimiter && data.get(p) != NEWLINE) {
+                    p++;
+                }
+            } else {
+                starts[field] = p;
+                quoted[field] = false;
+                while (p < end) {
+                    byte b = data.get(p);
+                    if (b == delimiter || b == NEWLINE) {
+                        break;
+                    }
+                    p++;
+                }
+                // A CRLF line ending belongs to the record separator, not the field
+                ends[field] = p > starts[field] && data.get(p - 1) == RETURN && (p == end || data.get(p) == NEWLINE)
+                        ? p - 1 : p;
+            }
+
+            if (p >= end || data.get(p) == NEWLINE) {
+                position = p + 1;
+                return true;
+            }
+            p++;   // skip the delimiter
+        }
+    }
+
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    public int fieldStart(int field) {
+        return starts[field];
+    }
+
+    public int fieldEnd(int field) {
+        return ends[field];
+    }
+
+    public boolean isQuoted(int field) {
+        return quoted[field];
+    }
+
+    public int fieldLength(int field) {
+        return ends[field] - starts[field];
+    }
+
+    public int parseInt(int field) {
+        long value = parseLong(field);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Out of int range: " + string(field));
+        }
+        return (int) value;
+    }
+
+    public long parseLong(int field) {
+        int p = starts[field];
+        int limit = ends[field];
+        if (p == limit) {
+            throw new NumberFormatException("Empty field " + field);
+        }
+        boolean negative = false;
+        byte first = data.get(p);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            p++;
+        }
+        if (p == limit || limit - p > 18) {
+            // No digits, or too many to be sure the long does not overflow
+            return Long.parseLong(string(field));
+        }
+        long value = 0;
+        for (; p < limit; p++) {
+            int digit = data.get(p) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Not a number: " + string(field));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a decimal number. Values with at most 15 significant digits and
+     * a small exponent are computed exactly from a long mantissa and a power
+     * of ten; anything else falls back to Double.parseDouble.
+     */
+    public double parseDouble(int field) {
+        int p = starts[field];
+        int limit = ends[field];
+        boolean negative = false;
+        if (p < limit && (data.get(p) == '-' || data.get(p) == '+')) {
+            negative = data.get(p) == '-';
+            p++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean sawDigit = false;
+        for (; p < limit; p++) {
+            int digit = data.get(p) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            sawDigit = true;
+            if (digits < 18) {
+                mantissa = mantissa * 10 + digit;
+                if (mantissa != 0) {
+                    digits++;
+                }
+            } else {
+                exponent++;
+            }
+        }
+        if (p < limit && data.get(p) == '.') {
+            for (p++; p < limit; p++) {
+                int digit = data.get(p) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                sawDigit = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + digit;
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    exponent--;
+                }
+            }
+        }
+        if (p < limit && (data.get(p) == 'e' || data.get(p) == 'E')) {
+            p++;
+            boolean negativeExponent = false;
+            if (p < limit && (data.get(p) == '-' || data.get(p) == '+')) {
+                negativeExponent = data.get(p) == '-';
+                p++;
+            }
+            int e = 0;
+            int exponentStart = p;
+            for (; p < limit && e < 10_000; p++) {
+                int digit = data.get(p) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                e = e * 10 + digit;
+            }
+            if (p == exponentStart) {
+                throw new NumberFormatException("Not a number: " + string(field));
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if (!sawDigit || p != limit) {
+            // Not a plain decimal (NaN, Infinity, hex, junk): let the JDK decide
+            return Double.parseDouble(string(field));
+        }
+
+        double value;
+        if (digits <= 15 && exponent >= -22 && exponent <= 22) {
+            // Both operands are exact, so one multiply or divide is correctly rounded
+            value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        } else {
+            value = Double.parseDouble(string(field));
+            return value;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Compares a field with the given bytes without creating a String.
+     */
+    public boolean fieldEquals(int field, byte[] expected) {
+        if (fieldLength(field) != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (data.get(starts[field] + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a field as a UTF-8 String, removing "" escapes. This allocates;
+     * use the offsets or the typed parsers on hot paths.
+     */
+    public String string(int field) {
+        int length = fieldLength(field);
+        byte[] bytes = new byte[length];
+        data.get(starts[field], bytes);
+        if (!quoted[field]) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        int out = 0;
+        for (int i = 0; i < length; i++) {
+            bytes[out++] = bytes[i];
+            if (bytes[i] == QUOTE && i + 1 < length && bytes[i + 1] == QUOTE) {
+                i++;
+            }
+        }
+        return new String(bytes, 0, out, StandardCharsets.UTF_8);
+    }
+
+    private void grow() {
+        starts = Arrays.copyOf(starts, starts.length * 2);
+        ends = Arrays.copyOf(ends, ends.length * 2);
+        quoted = Arrays.copyOf(quoted, quoted.length * 2);
+    }
+
+    /**
+     * Work done on one range of records; firstRange is true for the range
+     * that starts at the beginning of the file (where a header would be).
+     */
+    interface RangeParser<T> {
+        T parse(CsvTokenizer tokenizer, boolean firstRange);
+    }
+
+    /**
+     * Parses a file in parallel and merges the per-range results with the
+     * given function, in file order, so merge need not be commutative.
+     *
+     * Splitting a CSV file at an arbitrary newline is not safe, because the
+     * newline may be inside a quoted field. So the split points are found in
+     * two passes: first the quote characters in each range are counted (in
+     * parallel); the running parity of those counts says whether each range
+     * starts inside quotes. Then each split point is moved forward to the
+     * first newline that is outside quotes. "" escapes add two quotes, so
+     * they do not change the parity.
+     */
+    static <T> T parallelParse(Path path, byte delimiter, int ranges,
+            RangeParser<T> parser, BinaryOperator<T> merge) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            // Each range is mapped on its own and must stay well below 2GB
+            ranges = (int) Math.max(ranges, size / (1L << 30) + 1);
+            long[] cuts = new long[ranges + 1];
+            for (int i = 0; i <= ranges; i++) {
+                cuts[i] = size * i / ranges;
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(
+                    Math.min(ranges, Runtime.getRuntime().availableProcessors()));
+            try {
+                // Pass 1: count quotes per range
+                List<Future<Long>> counts = new ArrayList<>();
+                for (int i = 0; i < ranges; i++) {
+                    long from = cuts[i];
+                    long to = cuts[i + 1];
+                    counts.add(pool.submit(() -> {
+                        MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+                        long quotes = 0;
+                        for (int p = 0; p < map.limit(); p++) {
+                            if (map.get(p) == QUOTE) {
+                                quotes++;
+                            }
+                        }
+                        return quotes;
+                    }));
+                }
+
+                // Pass 2: move every cut to the next record boundary
+                long[] boundaries = new long[ranges + 1];
+                boundaries[ranges] = size;
+                boolean inQuotes = false;
+                for (int i = 1; i < ranges; i++) {
+                    inQuotes ^= (get(counts.get(i - 1)) & 1) == 1;
+                    boundaries[i] = nextRecordStart(channel, cuts[i], size, inQuotes);
+                }
+                for (int i = 1; i < ranges; i++) {
+                    boundaries[i] = Math.max(boundaries[i], boundaries[i - 1]);
+                }
+
+                // Pass 3: tokenize each range
+                List<Future<T>> results = new ArrayList<>();
+                for (int i = 0; i < ranges; i++) {
+                    long from = boundaries[i];
+                    long to = boundaries[i + 1];
+                    boolean first = i == 0;
+                    Callable<T> task = () -> {
+                        MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+                        return parser.parse(new CsvTokenizer(map, 0, map.limit(), delimiter), first);
+                    };
+                    results.add(pool.submit(task));
+                }
+
+                T merged = get(results.get(0));
+                for (int i = 1; i < ranges; i++) {
+                    merged = merge.apply(merged, get(results.get(i)));
+                }
+                return merged;
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Returns the offset just after the first newline at or after 'from'
+     * that is outside quotes, given whether 'from' is inside quotes.
+     */
+    private static long nextRecordStart(FileChannel channel, long from, long size, boolean inQuotes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long position = from;
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                byte b = buffer.get(i);
+                if (b == QUOTE) {
+                    inQuotes = !inQuotes;
+                } else if (b == NEWLINE && !inQuotes) {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error parsing: " + e.getCause(), e.getCause());
+        }
+    }
+}
@@ -0,0 +1,825 @@
+/**
+ * DirectoryIndexExample.java
+ * This program demonstrates an incremental index of a directory tree.
+ * Walking a tree (as in NIOExample.walkDirectoryTree) stats every file, so
+ * tools that need sizes and modification times would rescan from scratch
+ * each time. DirectoryIndex keeps the size and modification time of every
+ * file in memory and saves them to a compact snapshot file. After a
+ * restart it loads the snapshot and only re-lists directories whose own
+ * modification time changed. A WatchService then keeps it current, and
+ * queries such as "changed since" or "largest N" are answered from memory.
+ */
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+public class DirectoryIndexExample {
+    public static void main(String[] args) {
+        System.out.println("--- Directory Index Examples ---");
+
+        // Number of files in the test tree
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        Path root = Paths.get("index_test_dir");
+        Path snapshot = Paths.get("index_test.snapshot");
+
+        try {
+            createTree(root, files);
+
+            // Example 1: Building the index and saving a snapshot
+            System.out.println("\nExample 1: Building the index and saving a snapshot");
+            buildIndex(root, snapshot);
+
+            // Example 2: Reconciling a snapshot after offline changes
+            System.out.println("\nExample 2: Reconciling a snapshot after offline changes");
+            reconcileAfterRestart(root, snapshot);
+
+            // Example 3: Staying current with a WatchService
+            System.out.println("\nExample 3: Staying current with a WatchService");
+            watchChanges(root, snapshot);
+
+            // Example 4: Queries from the index
+            System.out.println("\nExample 4: Queries from the index");
+            queryIndex(root, snapshot);
+        } catch (IOException e) {
+            System.out.println("Error in directory index example: " + e.getMessage());
+        } finally {
+            deleteTree(root);
+            try {
+                Files.deleteIfExists(snapshot);
+            } catch (IOException e) {
+                System.out.println("Error cleaning up: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Demonstrates a first full scan and saving the snapshot.
+     */
+    public static void buildIndex(Path root, Path snapshot) throws IOException {
+        long start = System.nanoTime();
+        try (DirectoryIndex index = DirectoryIndex.open(root, snapshot)) {
+            System.out.printf("Full scan: %d files in %d directories, %.0f ms%n",
+                    index.fileCount(), index.directoryCount(), (System.nanoTime() - start) / 1e6);
+        }
+        System.out.printf("Snapshot saved: %,d bytes%n", Files.size(snapshot));
+    }
+
+    /**
+     * Demonstrates that changes made while the index was closed are found
+     * by checking directory modification times.
+     */
+    public static void reconcileAfterRestart(Path root, Path snapshot) throws IOException {
+        // Change the tree while no index is open
+        Path team = root.resolve("dept-3").resolve("team-4");
+        Files.write(team.resolve("new-report.txt"), new byte[1234]);
+        Files.delete(root.resolve("dept-5").resolve("team-0").resolve("file-0.txt"));
+        Path newDirectory = Files.createDirectories(root.resolve("dept-9").resolve("team-new"));
+        Files.write(newDirectory.resolve("data.csv"), new byte[4321]);
+
+        long start = System.nanoTime();
+        try (DirectoryIndex index = DirectoryIndex.open(root, snapshot)) {
+            DirectoryIndex.ReconcileStats stats = index.lastReconcile();
+            System.out.printf("Reconciled in %.0f ms: %d directories checked, %d re-listed, %d files statted%n",
+                    (System.nanoTime() - start) / 1e6, stats.directoriesChecked, stats.directoriesListed,
+                    stats.filesStatted);
+            System.out.printf("Changes found: %d added, %d removed, %d modified%n",
+                    stats.added, stats.removed, stats.modified);
+            System.out.println("Indexed files now: " + index.fileCount());
+        }
+    }
+
+    /**
+     * Demonstrates live updates while the index is open.
+     */
+    public static void watchChanges(Path root, Path snapshot) throws IOException {
+        try (DirectoryIndex index = DirectoryIndex.open(root, snapshot)) {
+            index.startWatching();
+            long before = index.fileCount();
+            long changes = index.changeCount();
+
+            Path team = root.resolve("dept-1").resolve("team-1");
+            Files.write(team.resolve("live.log"), new byte[99]);
+            Path nested = Files.createDirectories(root.resolve("dept-2").resolve("live-dir").resolve("inner"));
+            Files.write(nested.resolve("deep.bin"), new byte[50_000]);
+            Files.delete(root.resolve("dept-0").resolve("team-0").resolve("file-2.txt"));
+
+            // Events arrive asynchronously; wait until the index has caught up
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (index.fileCount() != before + 1 && System.currentTimeMillis() < deadline) {
+                sleep(50);
+            }
+            sleep(200);
+            System.out.printf("Files before: %d, after: %d (%d index updates)%n",
+                    before, index.fileCount(), index.changeCount() - changes);
+            System.out.println("Indexed deep.bin size: " + index.sizeOf(
+                    root.resolve("dept-2").resolve("live-dir").resolve("inner").resolve("deep.bin")));
+        }
+    }
+
+    /**
+     * Demonstrates "changed since" and "largest N" queries.
+     */
+    public static void queryIndex(Path root, Path snapshot) throws IOException {
+        try (DirectoryIndex index = DirectoryIndex.open(root, snapshot)) {
+            FileTime since = FileTime.fromMillis(System.currentTimeMillis() - 60_000);
+
+            long start = System.nanoTime();
+            List<IndexedFile> recent = index.changedSince(since);
+            double recentMs = (System.nanoTime() - start) / 1e6;
+
+            start = System.nanoTime();
+            List<IndexedFile> largest = index.largest(3);
+            double largestMs = (System.nanoTime() - start) / 1e6;
+
+            System.out.printf("Files changed in the last minute: %d (%.1f ms over %d files)%n",
+                    recent.size(), recentMs, index.fileCount());
+            System.out.printf("Largest 3 files (%.1f ms):%n", largestMs);
+            for (IndexedFile file : largest) {
+                System.out.println("  " + file);
+            }
+        }
+    }
+
+    /**
+     * Helper method to create a tree of 10 departments with 10 teams each.
+     * Everything is dated yesterday, so the recent changes stand out.
+     */
+    private static void createTree(Path root, int files) throws IOException {
+        int perDirectory = Math.max(1, files / 100);
+        FileTime yesterday = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1));
+        for (int d = 0; d < 10; d++) {
+            for (int t = 0; t < 10; t++) {
+                Path team = Files.createDirectories(root.resolve("dept-" + d).resolve("team-" + t));
+                for (int f = 0; f < perDirectory; f++) {
+                    Path file = team.resolve("file-" + f + ".txt");
+                    Files.write(file, new byte[(d * 10 + t + f * 7) % 1000]);
+                    Files.setLastModifiedTime(file, yesterday);
+                }
+                Files.setLastModifiedTime(team, yesterday);
+            }
+            Files.setLastModifiedTime(root.resolve("dept-" + d), yesterday);
+        }
+        Files.setLastModifiedTime(root, yesterday);
+        System.out.println("Created test tree with " + perDirectory * 100 + " files");
+    }
+
+    private static void deleteTree(Path root) {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        } catch (IOException e) {
+            System.out.println("Error cleaning up: " + e.getMessage());
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+/**
+ * A file returned by an index query.
+ */
+class IndexedFile {
+    final Path path;
+    final long size;
+    final long modifiedMillis;
+
+    IndexedFile(Path path, long size, long modifiedMillis) {
+        this.path = path;
+        this.size = size;
+        this.modifiedMillis = modifiedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return path + " (" + size + " bytes, modified " + FileTime.fromMillis(modifiedMillis) + ")";
+    }
+}
+
+/**
+ * What the index knows about one directory: its own modification time,
+ * and the size and modification time of each file and the names of the
+ * subdirectories directly inside it.
+ */
+class IndexedDirectory {
+    long modifiedNanos;
+    // When the entries were last confirmed against the disk (wall clock)
+    long checkedNanos = Long.MAX_VALUE;
+    final Map<String, long[]> files = new HashMap<>();   // name -> {size, modifiedMillis}
+    final Set<String> subdirectories = new HashSet<>();
+}
+
+/**
+ * An in-memory index of a directory tree with a persisted snapshot.
+ *
+ * Creating, deleting or renaming an entry updates its directory's
+ * modification time, so on open() only directories whose time changed
+ * since the snapshot are listed again. Unchanged directories cost one stat
+ * each instead of one per file. Note that rewriting an existing file in
+ * place does not touch its directory, so such edits made while the index
+ * was closed are only seen by rescan(). A directory that was modified just
+ * before it was listed is saved as "unknown" and listed again on the next
+ * open, since another change in the same clock tick would not move its time.
+ *
+ * Every file is also kept in two sorted sets, by modification time and by
+ * size, so changedSince() and largest() read only the files they return
+ * instead of scanning the tree.
+ *
+ * While watching, WatchService events update single entries; an overflow
+ * re-lists the affected directory. Every directory is registered with the
+ * WatchService before it is listed, so nothing created in between is
+ * missed. A snapshot that cannot be read is ignored and the tree scanned.
+ * All access is guarded by a read/write lock, so queries can run while
+ * events are applied.
+ */
+class DirectoryIndex implements AutoCloseable {
+    private static final int MAGIC = 0x44494458;   // "DIDX"
+    private static final int VERSION = 1;
+    // Directories modified this close to when they were listed are listed again next time
+    private static final long RACY_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final String SEPARATOR = FileSystems.getDefault().getSeparator();
+
+    private final Path root;
+    private final Path snapshotFile;
+    private final Map<String, IndexedDirectory> directories = new HashMap<>();
+    private final NavigableSet<IndexedFile> byModified = new TreeSet<>(
+            Comparator.comparingLong((IndexedFile file) -> file.modifiedMillis).thenComparing(file -> file.path));
+    private final NavigableSet<IndexedFile> bySize = new TreeSet<>(
+            Comparator.comparingLong((IndexedFile file) -> file.size).thenComparing(file -> file.path));
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private long fileCount;
+    private long changeCount;
+    private ReconcileStats lastReconcile = new ReconcileStats();
+
+    private WatchService watchService;
+    private final Map<WatchKey, String> watchKeys = new HashMap<>();
+    private final Map<String, WatchKey> registered = new HashMap<>();
+    private final Queue<IOException> errors = new ConcurrentLinkedQueue<>();
+    private Thread watcher;
+
+    /**
+     * Counts of the work done by the last reconcile.
+     */
+    static class ReconcileStats {
+        int directoriesChecked;
+        int directoriesListed;
+        int filesStatted;
+        int added;
+        int removed;
+        int modified;
+    }
+
+    private DirectoryIndex(Path root, Path snapshotFile) {
+        this.root = root;
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * Opens the index for a tree: loads the snapshot if there is a valid
+     * one and reconciles it with the tree, or scans the whole tree.
+     */
+    public static DirectoryIndex open(Path root, Path snapshotFile) throws IOException {
+        DirectoryIndex index = new DirectoryIndex(root, snapshotFile);
+        index.loadSnapshot();
+        index.lock.writeLock().lock();
+        try {
+            index.lastReconcile = new ReconcileStats();
+            index.reconcile("", true);
+        } finally {
+            index.lock.writeLock().unlock();
+        }
+        return index;
+    }
+
+    public long fileCount() {
+        lock.readLock().lock();
+        try {
+            return fileCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int directoryCount() {
+        lock.readLock().lock();
+        try {
+            return directories.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Number of entries added, removed or updated since the index was opened.
+     */
+    public long changeCount() {
+        lock.readLock().lock();
+        try {
+            return changeCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public ReconcileStats lastReconcile() {
+        return lastReconcile;
+    }
+
+    /**
+     * Errors from applying watch events. The directories involved are
+     * listed again on the next open.
+     */
+    public Queue<IOException> errors() {
+        return errors;
+    }
+
+    /**
+     * Returns the indexed size of a file, or -1 if it is not in the index.
+     */
+    public long sizeOf(Path file) {
+        String parent = key(file.getParent());
+        lock.readLock().lock();
+        try {
+            IndexedDirectory directory = directories.get(parent);
+            long[] info = directory == null ? null : directory.files.get(file.getFileName().toString());
+            return info == null ? -1 : info[0];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns files modified at or after the given time, newest first.
+     */
+    public List<IndexedFile> changedSince(FileTime time) {
+        // The root sorts before every path under it, so this is the first file at that time
+        IndexedFile from = new IndexedFile(root, 0, time.toMillis());
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(byModified.tailSet(from, true).descendingSet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the n largest files, largest first.
+     */
+    public List<IndexedFile> largest(int n) {
+        List<IndexedFile> result = new ArrayList<>(n);
+        lock.readLock().lock();
+        try {
+            Iterator<IndexedFile> files = bySize.descendingIterator();
+            while (result.size() < n && files.hasNext()) {
+                result.add(files.next());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Re-lists every directory and re-stats every file, for when in-place
+     * edits made while the index was closed must be found.
+     */
+    public void rescan() throws IOException {
+        lock.writeLock().lock();
+        try {
+            lastReconcile = new ReconcileStats();
+            reconcile("", false);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary file and moves it into place, so
+     * a crash never leaves a half-written snapshot.
+     */
+    public void save() throws IOException {
+        Path temporary = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        lock.readLock().lock();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(directories.size());
+            for (Map.Entry<String, IndexedDirectory> entry : directories.entrySet()) {
+                IndexedDirectory directory = entry.getValue();
+                out.writeUTF(entry.getKey());
+                boolean racy = directory.checkedNanos - directory.modifiedNanos < RACY_WINDOW_NANOS;
+                out.writeLong(racy ? -1 : directory.modifiedNanos);
+                out.writeInt(directory.subdirectories.size());
+                for (String name : directory.subdirectories) {
+                    out.writeUTF(name);
+                }
+                out.writeInt(directory.files.size());
+                for (Map.Entry<String, long[]> file : directory.files.entrySet()) {
+                    out.writeUTF(file.getKey());
+                    out.writeLong(file.getValue()[0]);
+                    out.writeLong(file.getValue()[1]);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Files.move(temporary, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Starts a daemon thread that applies WatchService events to the index.
+     */
+    public synchronized void startWatching() throws IOException {
+        if (watcher != null) {
+            return;
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        lock.writeLock().lock();
+        try {
+            for (String directory : directories.keySet()) {
+                register(directory);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        watcher = new Thread(this::watchLoop, "directory-index-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Stops watching and saves the snapshot.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (watcher != null) {
+            watchService.close();
+            try {
+                watcher.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            watcher = null;
+        }
+        save();
+    }
+
+    /**
+     * Loads the snapshot into memory, if there is a valid one. A snapshot
+     * in another format, truncated or otherwise unreadable leaves the index
+     * empty, so open() scans the whole tree.
+     */
+    private void loadSnapshot() {
+        if (!Files.exists(snapshotFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(snapshotFile), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int directoryCount = in.readInt();
+            for (int i = 0; i < directoryCount; i++) {
+                String key = in.readUTF();
+                IndexedDirectory directory = new IndexedDirectory();
+                directory.modifiedNanos = in.readLong();
+                int subdirectoryCount = in.readInt();
+                for (int j = 0; j < subdirectoryCount; j++) {
+                    directory.subdirectories.add(in.readUTF());
+                }
+                int count = in.readInt();
+                for (int j = 0; j < count; j++) {
+                    String name = in.readUTF();
+                    long[] info = {in.readLong(), in.readLong()};
+                    directory.files.put(name, info);
+                    sortFile(key, name, info);
+                }
+                directories.put(key, directory);
+                fileCount += count;
+            }
+        } catch (IOException e) {
+            directories.clear();
+            byModified.clear();
+            bySize.clear();
+            fileCount = 0;
+        }
+    }
+
+    /**
+     * Brings one directory and everything below it up to date. With
+     * trustUnchanged, a directory whose modification time matches the index
+     * keeps its entries and only its subdirectories are checked.
+     */
+    private void reconcile(String key, boolean trustUnchanged) throws IOException {
+        Path directoryPath = path(key);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(directoryPath, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            removeDirectory(key);
+            return;
+        }
+        if (!attributes.isDirectory()) {
+            removeDirectory(key);
+            return;
+        }
+        lastReconcile.directoriesChecked++;
+
+        long modified = nanos(attributes.lastModifiedTime());
+        IndexedDirectory directory = directories.get(key);
+        boolean unchanged = trustUnchanged && directory != null && directory.modifiedNanos == modified;
+
+        if (!unchanged) {
+            directory = listDirectory(key, modified);
+        }
+        for (String name : new ArrayList<>(directory.subdirectories)) {
+            reconcile(child(key, name), trustUnchanged);
+        }
+    }
+
+    /**
+     * Lists a directory and updates its entries. Every entry is statted,
+     * known files included: a changed directory time means entries were
+     * added or removed, and a file may have been replaced by a directory of
+     * the same name (or the other way round).
+     */
+    private IndexedDirectory listDirectory(String key, long modified) throws IOException {
+        lastReconcile.directoriesListed++;
+        // Register first so entries created after the listing still raise events
+        register(key);
+        IndexedDirectory directory = directories.computeIfAbsent(key, k -> new IndexedDirectory());
+        directory.modifiedNanos = modified;
+        directory.checkedNanos = nowNanos();
+        Set<String> seenFiles = new HashSet<>();
+        Set<String> seenDirectories = new HashSet<>();
+
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(path(key))) {
+            for (Path child : children) {
+                String name = child.getFileName().toString();
+                long[] known = directory.files.get(name);
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (NoSuchFileException e) {
+                    continue;   // deleted while listing
+                }
+                lastReconcile.filesStatted++;
+                if (attributes.isDirectory()) {
+                    seenDirectories.add(name);
+                    if (directory.subdirectories.add(name)) {
+                        // New directory: nothing under it can be trusted
+                        removeDirectory(child(key, name));
+                    }
+                } else {
+                    seenFiles.add(name);
+                    if (putFile(key, directory, name, attributes)) {
+                        lastReconcile.added++;
+                    } else if (known != null && (known[0] != attributes.size()
+                            || known[1] != attributes.lastModifiedTime().toMillis())) {
+                        lastReconcile.modified++;
+                    }
+                }
+            }
+        }
+
+        // Whatever was not seen has been deleted
+        for (String name : new ArrayList<>(directory.files.keySet())) {
+            if (!seenFiles.contains(name)) {
+                removeFile(key, directory, name);
+                lastReconcile.removed++;
+            }
+        }
+        for (String name : new ArrayList<>(directory.subdirectories)) {
+            if (!seenDirectories.contains(name)) {
+                directory.subdirectories.remove(name);
+                removeDirectory(child(key, name));
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * Adds or replaces a file; returns true if it was not indexed before.
+     */
+    private boolean putFile(String key, IndexedDirectory directory, String name, BasicFileAttributes attributes) {
+        long[] info = {attributes.size(), attributes.lastModifiedTime().toMillis()};
+        long[] previous = directory.files.put(name, info);
+        changeCount++;
+        if (previous != null) {
+            unsortFile(key, name, previous);
+        }
+        sortFile(key, name, info);
+        if (previous == null) {
+            fileCount++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes a file; returns true if it was indexed.
+     */
+    private boolean removeFile(String key, IndexedDirectory directory, String name) {
+        long[] previous = directory.files.remove(name);
+        if (previous == null) {
+            return false;
+        }
+        unsortFile(key, name, previous);
+        fileCount--;
+        changeCount++;
+        return true;
+    }
+
+    private void sortFile(String key, String name, long[] info) {
+        IndexedFile file = new IndexedFile(path(key).resolve(name), info[0], info[1]);
+        byModified.add(file);
+        bySize.add(file);
+    }
+
+    private void unsortFile(String key, String name, long[] info) {
+        IndexedFile file = new IndexedFile(path(key).resolve(name), info[0], info[1]);
+        byModified.remove(file);
+        bySize.remove(file);
+    }
+
+    /**
+     * Removes a directory and everything under it from the index.
+     */
+    private void removeDirectory(String key) {
+        WatchKey watchKey = registered.remove(key);
+        if (watchKey != null) {
+            watchKey.cancel();
+            watchKeys.remove(watchKey);
+        }
+        IndexedDirectory directory = directories.remove(key);
+        if (directory == null) {
+            return;
+        }
+        fileCount -= directory.files.size();
+        changeCount += directory.files.size();
+        lastReconcile.removed += directory.files.size();
+        for (Map.Entry<String, long[]> file : directory.files.entrySet()) {
+            unsortFile(key, file.getKey(), file.getValue());
+        }
+        for (String name : directory.subdirectories) {
+            removeDirectory(child(key, name));
+        }
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                lock.writeLock().lock();
+                try {
+                    String directoryKey = watchKeys.get(key);
+                    if (directoryKey != null) {
+                        applyEvents(directoryKey, key.pollEvents());
+                    }
+                    if (!key.reset()) {
+                        registered.remove(watchKeys.remove(key), key);
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Shutting down
+        }
+    }
+
+    /**
+     * Applies the events for one directory; called with the write lock held.
+     */
+    private void applyEvents(String directoryKey, List<WatchEvent<?>> events) {
+        IndexedDirectory directory = directories.get(directoryKey);
+        if (directory == null) {
+            return;
+        }
+        try {
+            for (WatchEvent<?> event : events) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // Events were lost: list this directory again from scratch
+                    lastReconcile = new ReconcileStats();
+                    reconcile(directoryKey, false);
+                    continue;
+                }
+                String name = event.context().toString();
+                String childKey = child(directoryKey, name);
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(path(childKey), BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                } catch (NoSuchFileException e) {
+                    attributes = null;
+                }
+
+                if (attributes == null) {
+                    // Deleted (or renamed away)
+                    removeFile(directoryKey, directory, name);
+                    if (directory.subdirectories.remove(name)) {
+                        removeDirectory(childKey);
+                    }
+                } else if (attributes.isDirectory()) {
+                    // A file may have been replaced by a directory of the same name
+                    removeFile(directoryKey, directory, name);
+                    if (directory.subdirectories.add(name) || !directories.containsKey(childKey)) {
+                        // Lists (and so registers) the new directory and everything under it
+                        lastReconcile = new ReconcileStats();
+                        reconcile(childKey, false);
+                    }
+                } else {
+                    if (directory.subdirectories.remove(name)) {
+                        removeDirectory(childKey);
+                    }
+                    putFile(directoryKey, directory, name, attributes);
+                }
+            }
+            long checked = nowNanos();
+            directory.modifiedNanos = nanos(Files.getLastModifiedTime(path(directoryKey), LinkOption.NOFOLLOW_LINKS));
+            directory.checkedNanos = checked;
+        } catch (NoSuchFileException e) {
+            // The directory itself was deleted; its parent's event removes it
+        } catch (IOException e) {
+            // The index may have missed changes here: list the directory again on the next open
+            directory.modifiedNanos = -1;
+            errors.add(e);
+        }
+    }
+
+    private void register(String key) throws IOException {
+        if (watchService == null) {
+            return;
+        }
+        WatchKey existing = registered.get(key);
+        if (existing != null && existing.isValid()) {
+            return;
+        }
+        WatchKey watchKey = path(key).register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchKeys.put(watchKey, key);
+        registered.put(key, watchKey);
+    }
+
+    private static long nowNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    }
+
+    private Path path(String key) {
+        return key.isEmpty() ? root : root.resolve(key);
+    }
+
+    private String key(Path path) {
+        return root.relativize(path).toString();
+    }
+
+    private static String child(String key, String name) {
+        return key.isEmpty() ? name : key + SEPARATOR + name;
+    }
+
+    private static long nanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,621 @@
+/**
+ * FixedRecordFileExample.java
+ * This program demonstrates a reusable fixed-length record file. It generalizes
+ * DataStreamsExample.randomAccessWithDataStreams: instead of reopening the file
+ * and calling skipBytes to reach record N, the file is memory-mapped and record N
+ * is found with a multiplication. The byte layout is the same big-endian layout
+ * DataOutputStream writes, so files from DataStreamsExample can be opened directly.
+ */
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+public class FixedRecordFileExample {
+    // Same layout as DataStreamsExample: int id, double value, 20-char name = 52 bytes
+    static final RecordLayout LAYOUT = new RecordLayout.Builder()
+            .intField("id")
+            .doubleField("value")
+            .charsField("name", 20)
+            .build();
+    static final int ID = LAYOUT.field("id");
+    static final int VALUE = LAYOUT.field("value");
+    static final int NAME = LAYOUT.field("name");
+
+    public static void main(String[] args) {
+        System.out.println("--- Fixed Record File Examples ---");
+
+        long recordCount = args.length > 0 ? Long.parseLong(args[0]) : 2_000_000;
+
+        // Example 1: Random get and put by record number
+        System.out.println("\nExample 1: Random get and put by record number");
+        randomAccess();
+
+        // Example 2: Flyweight scans
+        System.out.println("\nExample 2: Flyweight scans");
+        flyweightScan();
+
+        // Example 3: Performance compared with DataInputStream
+        System.out.println("\nExample 3: Performance compared with DataInputStream");
+        benchmark(recordCount);
+    }
+
+    /**
+     * Demonstrates reading and writing individual records.
+     */
+    public static void randomAccess() {
+        Path path = Paths.get("fixed_record_file.bin");
+
+        try (FixedRecordFile file = FixedRecordFile.create(path, LAYOUT, 5)) {
+            System.out.println("Layout: " + LAYOUT);
+
+            // Write 5 records through a cursor
+            FixedRecordFile.Cursor cursor = file.cursor();
+            for (int i = 1; i <= 5; i++) {
+                cursor.moveTo(i - 1)
+                        .putInt(ID, i)
+                        .putDouble(VALUE, i * 1.1)
+                        .putString(NAME, "Record-" + i);
+            }
+
+            // Read record 3 without touching records 1 and 2
+            cursor.moveTo(2);
+            System.out.println("Record 3: id=" + cursor.getInt(ID) + ", value=" + cursor.getDouble(VALUE)
+                    + ", name=" + cursor.getString(NAME));
+
+            // Update record 5 in place
+            cursor.moveTo(4).putDouble(VALUE, 99.9);
+            System.out.println("Record 5 after update: value=" + cursor.getDouble(VALUE));
+
+            // Grow the file to hold more records
+            file.ensureCapacity(1000);
+            cursor.moveTo(999).putInt(ID, 1000).putString(NAME, "Record-1000");
+            System.out.println("Record 1000: id=" + cursor.getInt(ID) + ", name=" + cursor.getString(NAME));
+            System.out.println("Records in file: " + file.recordCount());
+        } catch (IOException e) {
+            System.out.println("Error using record file: " + e.getMessage());
+        }
+
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.out.println("Error cleaning up: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Demonstrates sequential and parallel scans that reuse one cursor per
+     * thread and compare names without creating Strings.
+     */
+    public static void flyweightScan() {
+        Path path = Paths.get("fixed_record_file.bin");
+
+        try (FixedRecordFile file = FixedRecordFile.create(path, LAYOUT, 100_000)) {
+            fill(file);
+
+            // Sequential scan: one cursor is moved over every record
+            double[] total = new double[1];
+            int[] matches = new int[1];
+            char[] target = "Record-7".toCharArray();
+            file.scan(0, file.recordCount(), cursor -> {
+                total[0] += cursor.getDouble(VALUE);
+                if (cursor.stringEquals(NAME, target)) {
+                    matches[0]++;
+                }
+            });
+            System.out.printf("Sequential sum of values: %.1f, records named Record-7: %d%n", total[0], matches[0]);
+
+            // Parallel scan: the record range is split across the common pool
+            double parallelTotal = file.parallelSum(0, file.recordCount(), cursor -> cursor.getDouble(VALUE));
+            System.out.printf("Parallel sum of values:   %.1f%n", parallelTotal);
+        } catch (IOException e) {
+            System.out.println("Error scanning record file: " + e.getMessage());
+        }
+
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.out.println("Error cleaning up: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compares random reads and full scans with the DataInputStream approach
+     * from DataStreamsExample.
+     */
+    public static void benchmark(long recordCount) {
+        Path path = Paths.get("fixed_record_file.bin");
+
+        try (FixedRecordFile file = FixedRecordFile.create(path, LAYOUT, recordCount)) {
+            fill(file);
+            file.force();
+            double gigabytes = (double) recordCount * LAYOUT.recordSize() / (1L << 30);
+            System.out.printf("%d records, %.2f GB%n", recordCount, gigabytes);
+
+            Random random = new Random(42);
+
+            // Random reads: DataInputStream reopens the file and skips to the record
+            int streamReads = 2_000;
+            long start = System.nanoTime();
+            long check = 0;
+            for (int i = 0; i < streamReads; i++) {
+                long index = (long) (random.nextDouble() * recordCount);
+                try (DataInputStream dis = new DataInputStream(new FileInputStream(path.toFile()))) {
+                    dis.skipBytes((int) (index * LAYOUT.recordSize()));
+                    check += dis.readInt();
+                    dis.readDouble();
+                    readFixedLengthString(dis, 20);
+                }
+            }
+            double streamRate = streamReads / ((System.nanoTime() - start) / 1e9);
+
+            // Random reads: the cursor just moves to the record
+            int mappedReads = 5_000_000;
+            FixedRecordFile.Cursor cursor = file.cursor();
+            start = System.nanoTime();
+            for (int i = 0; i < mappedReads; i++) {
+                long index = (long) (random.nextDouble() * recordCount);
+                cursor.moveTo(index);
+                check += cursor.getInt(ID);
+                check += (long) cursor.getDouble(VALUE);
+                check += cursor.getChar(NAME, 0);
+            }
+            double mappedRate = mappedReads / ((System.nanoTime() - start) / 1e9);
+
+            System.out.printf("Random reads/sec: DataInputStream %,.0f, mapped %,.0f%n", streamRate, mappedRate);
+
+            // Sequential scans: sum the value column
+            for (int round = 1; round <= 2; round++) {
+                start = System.nanoTime();
+                double streamSum = 0;
+                try (DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(path.toFile()), 1 << 16))) {
+                    for (long i = 0; i < recordCount; i++) {
+                        dis.readInt();
+                        streamSum += dis.readDouble();
+                        readFixedLengthString(dis, 20);
+                    }
+                }
+                double streamSeconds = (System.nanoTime() - start) / 1e9;
+
+                start = System.nanoTime();
+                double[] mappedSum = new double[1];
+                file.scan(0, recordCount, c -> mappedSum[0] += c.getDouble(VALUE));
+                double mappedSeconds = (System.nanoTime() - start) / 1e9;
+
+                start = System.nanoTime();
+                double parallelSum = file.parallelSum(0, recordCount, c -> c.getDouble(VALUE));
+                double parallelSeconds = (System.nanoTime() - start) / 1e9;
+
+                System.out.printf("Scan round %d: DataInputStream %.2f GB/s, mapped %.2f GB/s, parallel (%d threads) %.2f GB/s%n",
+                        round, gigabytes / streamSeconds, gigabytes / mappedSeconds,
+                        ForkJoinPool.commonPool().getParallelism(), gigabytes / parallelSeconds);
+                check += (long) (streamSum + mappedSum[0] + parallelSum);
+            }
+
+            if (check == 42) {
+                System.out.println("Unlikely checksum");
+            }
+        } catch (IOException e) {
+            System.out.println("Error in benchmark: " + e.getMessage());
+        }
+
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.out.println("Error cleaning up: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Helper method to fill a file with numbered records.
+     */
+    private static void fill(FixedRecordFile file) {
+        FixedRecordFile.Cursor cursor = file.cursor();
+        for (long i = 0; i < file.recordCount(); i++) {
+            cursor.moveTo(i)
+                    .putInt(ID, (int) i + 1)
+                    .putDouble(VALUE, (i % 100) * 1.1)
+                    .putString(NAME, "Record-" + (i % 10));
+        }
+    }
+
+    /**
+     * Helper method to read a fixed-length string from a DataInputStream,
+     * as in DataStreamsExample.
+     */
+    private static String readFixedLengthString(DataInputStream dis, int length) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            char c = dis.readChar();
+            if (c != '\0') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
+
+/**
+ * Describes the fields of a fixed-length record and their byte offsets.
+ * Fields are referred to by the index returned from field(name), so the hot
+ * accessors never look anything up by name.
+ */
+final class RecordLayout {
+    enum Type {
+        INT(4), LONG(8), DOUBLE(8), CHARS(2);
+
+        final int size;
+
+        Type(int size) {
+            this.size = size;
+        }
+    }
+
+    private final String[] names;
+    private final Type[] types;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final int recordSize;
+
+    private RecordLayout(List<String> names, List<Type> types, List<Integer> lengths) {
+        int count = names.size();
+        this.names = names.toArray(new String[0]);
+        this.types = types.toArray(new Type[0]);
+        this.offsets = new int[count];
+        this.lengths = new int[count];
+
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            this.offsets[i] = offset;
+            this.lengths[i] = lengths.get(i);
+            offset += this.types[i].size * this.lengths[i];
+        }
+        this.recordSize = offset;
+    }
+
+    public int field(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No such field: " + name);
+    }
+
+    public int recordSize() {
+        return recordSize;
+    }
+
+    int offset(int field) {
+        return offsets[field];
+    }
+
+    int length(int field) {
+        return lengths[field];
+    }
+
+    Type type(int field) {
+        return types[field];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("RecordLayout{");
+        for (int i = 0; i < names.length; i++) {
+            sb.append(i == 0 ? "" : ", ").append(names[i]).append(':').append(types[i]);
+            if (types[i] == Type.CHARS) {
+                sb.append('[').append(lengths[i]).append(']');
+            }
+            sb.append("@").append(offsets[i]);
+        }
+        return sb.append(", size=").append(recordSize).append('}').toString();
+    }
+
+    static class Builder {
+        private final List<String> names = new ArrayList<>();
+        private final List<Type> types = new ArrayList<>();
+        private final List<Integer> lengths = new ArrayList<>();
+
+        public Builder intField(String name) {
+            return add(name, Type.INT, 1);
+        }
+
+        public Builder longField(String name) {
+            return add(name, Type.LONG, 1);
+        }
+
+        public Builder doubleField(String name) {
+            return add(name, Type.DOUBLE, 1);
+        }
+
+        /** A fixed number of UTF-16 chars, padded with '\0' like DataStreamsExample.padString. */
+        public Builder charsField(String name, int chars) {
+            return add(name, Type.CHARS, chars);
+        }
+
+        private Builder add(String name, Type type, int length) {
+            if (names.contains(name)) {
+                throw new IllegalArgumentException("Duplicate field: " + name);
+            }
+            names.add(name);
+            types.add(type);
+            lengths.add(length);
+            return this;
+        }
+
+        public RecordLayout build() {
+            return new RecordLayout(names, types, lengths);
+        }
+    }
+}
+
+/**
+ * A file of fixed-length records accessed through MappedByteBuffers.
+ *
+ * A single MappedByteBuffer is limited to 2GB, so the file is mapped in
+ * segments. Each segment holds a whole number of records, which means a
+ * record never straddles two mappings and an accessor needs one division
+ * to find its segment and one multiplication to find its offset.
+ */
+class FixedRecordFile implements AutoCloseable {
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private final FileChannel channel;
+    private final RecordLayout layout;
+    private final int recordSize;
+    private final long recordsPerSegment;
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private volatile long recordCount;
+
+    private FixedRecordFile(FileChannel channel, RecordLayout layout) {
+        this.channel = channel;
+        this.layout = layout;
+        this.recordSize = layout.recordSize();
+        this.recordsPerSegment = MAX_SEGMENT_BYTES / recordSize;
+    }
+
+    /**
+     * Creates (or opens) a record file with room for at least the given number of records.
+     */
+    public static FixedRecordFile create(Path path, RecordLayout layout, long records) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FixedRecordFile file = new FixedRecordFile(channel, layout);
+        file.ensureCapacity(Math.max(records, channel.size() / layout.recordSize()));
+        return file;
+    }
+
+    /**
+     * Opens an existing record file; the record count comes from the file size.
+     */
+    public static FixedRecordFile open(Path path, RecordLayout layout) throws IOException {
+        return create(path, layout, 0);
+    }
+
+    public long recordCount() {
+        return recordCount;
+    }
+
+    public RecordLayout layout() {
+        return layout;
+    }
+
+    /**
+     * Grows the file (and its mappings) to hold at least the given number of records.
+     */
+    public synchronized void ensureCapacity(long records) throws IOException {
+        if (records <= recordCount && segments.length > 0) {
+            return;
+        }
+        int segmentCount = (int) ((records + recordsPerSegment - 1) / recordsPerSegment);
+        MappedByteBuffer[] grown = new MappedByteBuffer[Math.max(segmentCount, 1)];
+        for (int s = 0; s < grown.length; s++) {
+            long first = s * recordsPerSegment;
+            long inSegment = Math.min(recordsPerSegment, records - first);
+            // Full segments that are already mapped can be kept as they are
+            if (s < segments.length && segments[s].capacity() == inSegment * recordSize) {
+                grown[s] = segments[s];
+            } else {
+                grown[s] = channel.map(FileChannel.MapMode.READ_WRITE, first * recordSize, inSegment * recordSize);
+            }
+        }
+        segments = grown;
+        recordCount = records;
+    }
+
+    /**
+     * Returns a new cursor. Cursors are flyweights: moving one to another
+     * record only changes two fields. A cursor must not be shared between threads.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Visits the records in [from, to) with a single cursor.
+     */
+    public void scan(long from, long to, RecordVisitor visitor) {
+        Cursor cursor = new Cursor();
+        for (long i = from; i < to; i++) {
+            cursor.moveTo(i);
+            visitor.visit(cursor);
+        }
+    }
+
+    /**
+     * Sums a value over the records in [from, to), splitting the range
+     * across the ForkJoin common pool. Each task uses its own cursor.
+     */
+    public double parallelSum(long from, long to, RecordFunction function) {
+        return ForkJoinPool.commonPool().invoke(new SumTask(from, to, function));
+    }
+
+    /**
+     * Flushes changes to the storage device.
+     */
+    public void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    interface RecordVisitor {
+        void visit(Cursor cursor);
+    }
+
+    interface RecordFunction {
+        double apply(Cursor cursor);
+    }
+
+    private class SumTask extends RecursiveTask<Double> {
+        private static final long serialVersionUID = 1L;
+        private static final long THRESHOLD = 1 << 16;
+
+        private final long from;
+        private final long to;
+        private final RecordFunction function;
+
+        SumTask(long from, long to, RecordFunction function) {
+            this.from = from;
+            this.to = to;
+            this.function = function;
+        }
+
+        @Override
+        protected Double compute() {
+            if (to - from <= THRESHOLD) {
+                Cursor cursor = new Cursor();
+                double sum = 0;
+                for (long i = from; i < to; i++) {
+                    sum += function.apply(cursor.moveTo(i));
+                }
+                return sum;
+            }
+            long middle = (from + to) >>> 1;
+            SumTask left = new SumTask(from, middle, function);
+            SumTask right = new SumTask(middle, to, function);
+            left.fork();
+            return right.compute() + left.join();
+        }
+    }
+
+    /**
+     * A movable view of one record. All accessors use absolute ByteBuffer
+     * operations, so nothing is allocated per record.
+     */
+    class Cursor {
+        private MappedByteBuffer segment;
+        private int base;
+
+        public Cursor moveTo(long index) {
+            if (index < 0 || index >= recordCount) {
+                throw new IndexOutOfBoundsException("Record " + index + " of " + recordCount);
+            }
+            segment = segments[(int) (index / recordsPerSegment)];
+            base = (int) (index % recordsPerSegment) * recordSize;
+            return this;
+        }
+
+        public int getInt(int field) {
+            return segment.getInt(base + layout.offset(field));
+        }
+
+        public Cursor putInt(int field, int value) {
+            segment.putInt(base + layout.offset(field), value);
+            return this;
+        }
+
+        public long getLong(int field) {
+            return segment.getLong(base + layout.offset(field));
+        }
+
+        public Cursor putLong(int field, long value) {
+            segment.putLong(base + layout.offset(field), value);
+            return this;
+        }
+
+        public double getDouble(int field) {
+            return segment.getDouble(base + layout.offset(field));
+        }
+
+        public Cursor putDouble(int field, double value) {
+            segment.putDouble(base + layout.offset(field), value);
+            return this;
+        }
+
+        public char getChar(int field, int position) {
+            return segment.getChar(base + layout.offset(field) + position * 2);
+        }
+
+        /**
+         * Copies the chars of a string field into dst and returns the length
+         * without the '\0' padding.
+         */
+        public int getChars(int field, char[] dst) {
+            int offset = base + layout.offset(field);
+            int length = Math.min(layout.length(field), dst.length);
+            int end = 0;
+            for (int i = 0; i < length; i++) {
+                char c = segment.getChar(offset + i * 2);
+                if (c == '\0') {
+                    break;
+                }
+                dst[i] = c;
+                end = i + 1;
+            }
+            return end;
+        }
+
+        /**
+         * Compares a string field with the given chars without creating a String.
+         */
+        public boolean stringEquals(int field, char[] expected) {
+            int offset = base + layout.offset(field);
+            int length = layout.length(field);
+            if (expected.length > length) {
+                return false;
+            }
+            for (int i = 0; i < expected.length; i++) {
+                if (segment.getChar(offset + i * 2) != expected[i]) {
+                    return false;
+                }
+            }
+            return expected.length == length || segment.getChar(offset + expected.length * 2) == '\0';
+        }
+
+        /**
+         * Convenience accessor that allocates a String; avoid it in scans.
+         */
+        public String getString(int field) {
+            char[] chars = new char[layout.length(field)];
+            return new String(chars, 0, getChars(field, chars));
+        }
+
+        public Cursor putString(int field, String value) {
+            int offset = base + layout.offset(field);
+            int length = layout.length(field);
+            for (int i = 0; i < length; i++) {
+                segment.putChar(offset + i * 2, i < value.length() ? value.charAt(i) : '\0');
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,548 @@
+/**
+ * FormatTemplateExample.java
+ * This program demonstrates a precompiled format template as a fast
+ * alternative to PrintWriter.printf and String.format in report loops.
+ * printf parses its format string and boxes its arguments on every call.
+ * A FormatTemplate parses the format once; a TemplateWriter then appends
+ * Strings, ints, longs and fixed-precision doubles straight into a reusable
+ * byte buffer and writes it out in large blocks.
+ */
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class FormatTemplateExample {
+    public static void main(String[] args) {
+        System.out.println("--- Format Template Examples ---");
+
+        // Number of report lines in the benchmark
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+
+        // Example 1: Writing a table with precompiled templates
+        System.out.println("\nExample 1: Writing a table with precompiled templates");
+        writeTable();
+
+        // Example 2: Error handling
+        System.out.println("\nExample 2: Error handling");
+        handleErrors();
+
+        // Example 3: Performance compared with printf
+        System.out.println("\nExample 3: Performance compared with printf");
+        benchmark(lines);
+    }
+
+    /**
+     * Demonstrates the same student table as writeFormattedOutput in
+     * ScannerPrintWriterExample, written with templates.
+     */
+    public static void writeTable() {
+        // Parse the formats once, outside any loop
+        FormatTemplate header = FormatTemplate.compile("%-15s %-5s %-10s%n");
+        FormatTemplate row = FormatTemplate.compile("%-15s %-5d %-10.2f%n");
+        FormatTemplate total = FormatTemplate.compile("Average GPA: %.3f (%d students, 100%% complete)%n");
+
+        String[] names = {"Alice", "Bob", "Charlie"};
+        int[] ages = {20, 22, 21};
+        double[] gpas = {3.75, 3.45, 3.90};
+
+        try (TemplateWriter writer = new TemplateWriter(System.out, 8192, false)) {
+            writer.begin(header).arg("Name").arg("Age").arg("GPA").end();
+            double sum = 0;
+            for (int i = 0; i < names.length; i++) {
+                writer.begin(row).arg(names[i]).arg(ages[i]).arg(gpas[i]).end();
+                sum += gpas[i];
+            }
+            writer.begin(total).arg(sum / names.length).arg(names.length).end();
+        } catch (IOException e) {
+            System.out.println("Error writing table: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Demonstrates the errors reported for bad formats and bad arguments.
+     */
+    public static void handleErrors() {
+        try {
+            FormatTemplate.compile("Value: %x%n");
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error compiling format: " + e.getMessage());
+        }
+
+        FormatTemplate template = FormatTemplate.compile("%s is %d%n");
+        try (TemplateWriter writer = new TemplateWriter(System.out, 8192, false)) {
+            writer.begin(template).arg("Alice").arg(3.5).end();
+        } catch (IllegalArgumentException | IOException e) {
+            System.out.println("Error writing line: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the same report with PrintWriter.printf and with a template, and
+     * compares lines per second and bytes allocated per line.
+     */
+    public static void benchmark(int lines) {
+        Path printfFile = Paths.get("report_printf.txt");
+        Path templateFile = Paths.get("report_template.txt");
+        String[] names = {"Alice", "Bob", "Charlie", "Diana", "Edward", "Fiona", "George"};
+        String format = "%-8d %-15s %5d %12.2f %8.3f%n";
+        FormatTemplate template = FormatTemplate.compile(format);
+
+        try {
+            for (int round = 1; round <= 2; round++) {
+                long allocated = allocatedBytes();
+                long start = System.nanoTime();
+                try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(printfFile.toFile()), 1 << 16))) {
+                    for (int i = 0; i < lines; i++) {
+                        writer.printf(format, (long) i, names[i % names.length], 18 + i % 50,
+                                (20_000_00 + i % 10_000_000) / 100.0, (i % 4001) / 1000.0);
+                    }
+                }
+                double printfSeconds = (System.nanoTime() - start) / 1e9;
+                long printfAllocated = allocatedBytes() - allocated;
+
+                allocated = allocatedBytes();
+                start = System.nanoTime();
+                try (TemplateWriter writer = new TemplateWriter(new FileOutputStream(templateFile.toFile()), 1 << 16, true)) {
+                    for (int i = 0; i < lines; i++) {
+                        writer.begin(template).arg((long) i).arg(names[i % names.length]).arg(18 + i % 50)
+                                .arg((20_000_00 + i % 10_000_000) / 100.0).arg((i % 4001) / 1000.0).end();
+                    }
+                }
+                double templateSeconds = (System.nanoTime() - start) / 1e9;
+                long templateAllocated = allocatedBytes() - allocated;
+
+                System.out.printf("Round %d: printf %,.0f lines/s (%d bytes allocated/line), "
+                        + "template %,.0f lines/s (%d bytes allocated/line)%n",
+                        round, lines / printfSeconds, printfAllocated / lines,
+                        lines / templateSeconds, templateAllocated / lines);
+            }
+
+            long mismatch = Files.mismatch(printfFile, templateFile);
+            System.out.println(mismatch == -1 ? "Both reports are identical"
+                    : "Reports differ at byte " + mismatch);
+        } catch (IOException e) {
+            System.out.println("Error in benchmark: " + e.getMessage());
+        }
+
+        try {
+            Files.deleteIfExists(printfFile);
+            Files.deleteIfExists(templateFile);
+        } catch (IOException e) {
+            System.out.println("Error cleaning up: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Helper method returning the bytes allocated so far by this thread, or
+     * 0 if the JVM does not report it.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
+
+/**
+ * A format string parsed once into literal text and typed fields.
+ *
+ * Supported: %s, %d (int or long) and %.Nf (double), each with an optional
+ * '-' (left-justify) or '0' (zero-pad numbers) flag and a width, plus %n
+ * and %%. Anything else is rejected by compile().
+ */
+class FormatTemplate {
+    static final char STRING = 's';
+    static final char INTEGER = 'd';
+    static final char FLOAT = 'f';
+
+    // Literal text before each field, and after the last one
+    final byte[][] literals;
+    final char[] types;
+    final int[] widths;
+    final int[] precisions;
+    final boolean[] leftJustify;
+    final boolean[] zeroPad;
+    final String source;
+
+    private FormatTemplate(String source, List<byte[]> literals, List<int[]> fields) {
+        this.source = source;
+        this.literals = literals.toArray(new byte[0][]);
+        int count = fields.size();
+        types = new char[count];
+        widths = new int[count];
+        precisions = new int[count];
+        leftJustify = new boolean[count];
+        zeroPad = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            int[] field = fields.get(i);
+            types[i] = (char) field[0];
+            widths[i] = field[1];
+            precisions[i] = field[2];
+            leftJustify[i] = field[3] == 1;
+            zeroPad[i] = field[4] == 1;
+        }
+    }
+
+    int fieldCount() {
+        return types.length;
+    }
+
+    public static FormatTemplate compile(String format) {
+        List<byte[]> literals = new ArrayList<>();
+        List<int[]> fields = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+
+        while (i < format.length()) {
+            char c = format.charAt(i++);
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+            if (i >= format.length()) {
+                throw new IllegalArgumentException("Format ends with '%': " + format);
+            }
+            if (format.charAt(i) == '%') {
+                literal.append('%');
+                i++;
+                continue;
+            }
+            if (format.charAt(i) == 'n') {
+                literal.append(System.lineSeparator());
+                i++;
+                continue;
+            }
+
+            boolean left = false;
+            boolean zero = false;
+            while (i < format.length() && (format.charAt(i) == '-' || format.charAt(i) == '0')) {
+                left |= format.charAt(i) == '-';
+                zero |= format.charAt(i) == '0';
+                i++;
+            }
+            int width = 0;
+            while (i < format.length() && Character.isDigit(format.charAt(i))) {
+                width = width * 10 + (format.charAt(i++) - '0');
+            }
+            int precision = -1;
+            if (i < format.length() && format.charAt(i) == '.') {
+                precision = 0;
+                i++;
+                while (i < format.length() && Character.isDigit(format.charAt(i))) {
+                    precision = precision * 10 + (format.charAt(i++) - '0');
+                }
+            }
+            if (i >= format.length()) {
+                throw new IllegalArgumentException("Incomplete field at end of: " + format);
+            }
+            char type = format.charAt(i++);
+
+            if (type != STRING && type != INTEGER && type != FLOAT) {
+                throw new IllegalArgumentException("Unsupported conversion '%" + type + "' in: " + format);
+            }
+            if (left && zero) {
+                throw new IllegalArgumentException("Cannot combine '-' and '0' flags in: " + format);
+            }
+            if (zero && (type == STRING || width == 0)) {
+                throw new IllegalArgumentException("'0' flag needs a numeric field with a width in: " + format);
+            }
+            if (precision >= 0 && type != FLOAT) {
+                throw new IllegalArgumentException("Precision is only supported for %f in: " + format);
+            }
+            if (precision > 9) {
+                throw new IllegalArgumentException("At most 9 decimal places are supported in: " + format);
+            }
+            if (type == FLOAT && precision < 0) {
+                precision = 6;   // same default as printf
+            }
+
+            literals.add(literal.toString().getBytes(StandardCharsets.UTF_8));
+            literal.setLength(0);
+            fields.add(new int[] {type, width, precision, left ? 1 : 0, zero ? 1 : 0});
+        }
+        literals.add(literal.toString().getBytes(StandardCharsets.UTF_8));
+        return new FormatTemplate(format, literals, fields);
+    }
+}
+
+/**
+ * Writes lines from FormatTemplates into a reusable byte buffer (UTF-8),
+ * flushing to the underlying stream only when the buffer is full.
+ *
+ * Usage: writer.begin(template).arg(...).arg(...).end(). Each arg() must
+ * match the type of the next field. Doubles are rounded half-up from their
+ * binary value, so a value such as 1.005 (stored as 1.00499...) prints as
+ * 1.00, where printf rounds its shortest decimal form and prints 1.01.
+ * Values too large to scale into a long fall back to String.format.
+ */
+class TemplateWriter implements AutoCloseable {
+    private static final long[] POWERS_OF_TEN = {
+        1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L
+    };
+
+    private final OutputStream out;
+    private final boolean closeStream;
+    private final byte[] buffer;
+    private int count;
+
+    // Digits are produced backwards into this scratch array
+    private final byte[] digits = new byte[32];
+
+    private FormatTemplate template;
+    private int field;
+    // Where the current line starts in the buffer, so a failed line can be dropped
+    private int lineStart;
+
+    public TemplateWriter(OutputStream out, int bufferSize, boolean closeStream) {
+        this.out = out;
+        this.closeStream = closeStream;
+        this.buffer = new byte[Math.max(bufferSize, 256)];
+    }
+
+    public TemplateWriter begin(FormatTemplate template) {
+        if (this.template != null) {
+            throw new IllegalStateException("Previous line was not ended: " + this.template.source);
+        }
+        this.template = template;
+        this.field = 0;
+        this.lineStart = count;
+        return this;
+    }
+
+    public TemplateWriter arg(String value) throws IOException {
+        int width = nextField(FormatTemplate.STRING);
+        String text = value == null ? "null" : value;
+        int padding = Math.max(0, width - text.length());
+        if (!template.leftJustify[field]) {
+            pad(padding, (byte) ' ');
+        }
+        writeString(text);
+        if (template.leftJustify[field]) {
+            pad(padding, (byte) ' ');
+        }
+        field++;
+        return this;
+    }
+
+    public TemplateWriter arg(int value) throws IOException {
+        return arg((long) value);
+    }
+
+    public TemplateWriter arg(long value) throws IOException {
+        nextField(FormatTemplate.INTEGER);
+        int start = formatLong(value, digits.length);
+        writeNumber(start, value < 0);
+        field++;
+        return this;
+    }
+
+    public TemplateWriter arg(double value) throws IOException {
+        nextField(FormatTemplate.FLOAT);
+        int precision = template.precisions[field];
+        double scaled = Math.abs(value) * POWERS_OF_TEN[precision];
+
+        if (Double.isNaN(value) || scaled >= 0x1p53) {
+            // Out of the exact long range (or not a number): let the JDK format it
+            String text = String.format("%." + precision + "f", value);
+            int width = template.widths[field];
+            int padding = Math.max(0, width - text.length());
+            if (!template.leftJustify[field]) {
+                pad(padding, (byte) ' ');
+            }
+            writeString(text);
+            if (template.leftJustify[field]) {
+                pad(padding, (byte) ' ');
+            }
+        } else {
+            long units = Math.round(scaled);
+            int start = digits.length;
+            if (precision > 0) {
+                long fraction = units % POWERS_OF_TEN[precision];
+                for (int i = 0; i < precision; i++) {
+                    digits[--start] = (byte) ('0' + fraction % 10);
+                    fraction /= 10;
+                }
+                digits[--start] = '.';
+            }
+            start = formatLong(units / POWERS_OF_TEN[precision], start);
+            // -0.00 is printed as "-0.00" by printf as well
+            writeNumber(start, value < 0 || (value == 0 && 1 / value < 0));
+        }
+        field++;
+        return this;
+    }
+
+    /**
+     * Writes the remaining literal text of the line.
+     */
+    public void end() throws IOException {
+        if (template == null) {
+            throw new IllegalStateException("end() called without begin()");
+        }
+        if (field != template.fieldCount()) {
+            FormatTemplate t = abandonLine();
+            throw new IllegalArgumentException("Expected " + t.fieldCount() + " arguments but got " + field
+                    + " for: " + t.source);
+        }
+        write(template.literals[field]);
+        template = null;
+    }
+
+    public void flush() throws IOException {
+        out.write(buffer, 0, count);
+        count = 0;
+        lineStart = 0;
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (closeStream) {
+            out.close();
+        }
+    }
+
+    /**
+     * Checks the next field's type, writes the literal before it and
+     * returns its width.
+     */
+    private int nextField(char type) throws IOException {
+        if (template == null) {
+            throw new IllegalStateException("arg() called without begin()");
+        }
+        if (field >= template.fieldCount() || template.types[field] != type) {
+            FormatTemplate t = abandonLine();
+            String expected = field >= t.fieldCount() ? "no more arguments" : "%" + t.types[field];
+            throw new IllegalArgumentException("Argument " + (field + 1) + " is a %" + type + " value but the format expects "
+                    + expected + ": " + t.source.trim());
+        }
+        write(template.literals[field]);
+        return template.widths[field];
+    }
+
+    /**
+     * Drops the part of the current line that is still in the buffer and
+     * returns its template. Text already flushed cannot be taken back.
+     */
+    private FormatTemplate abandonLine() {
+        FormatTemplate t = template;
+        template = null;
+        count = lineStart;
+        return t;
+    }
+
+    /**
+     * Writes the absolute value of a long backwards into the digit scratch
+     * array ending at 'end', returning the index of the first digit.
+     */
+    private int formatLong(long value, int end) {
+        int start = end;
+        // Work with negative numbers so Long.MIN_VALUE needs no special case
+        long negative = value > 0 ? -value : value;
+        do {
+            digits[--start] = (byte) ('0' - negative % 10);
+            negative /= 10;
+        } while (negative != 0);
+        return start;
+    }
+
+    /**
+     * Writes digits[start..] with a sign and the field's padding.
+     */
+    private void writeNumber(int start, boolean negative) throws IOException {
+        int digitCount = digits.length - start;
+        int length = digitCount + (negative ? 1 : 0);
+        int padding = Math.max(0, template.widths[field] - length);
+
+        if (template.zeroPad[field]) {
+            if (negative) {
+                ensureCapacity(1);
+                buffer[count++] = '-';
+            }
+            pad(padding, (byte) '0');
+            ensureCapacity(digitCount);
+        } else {
+            if (!template.leftJustify[field]) {
+                pad(padding, (byte) ' ');
+            }
+            ensureCapacity(length);
+            if (negative) {
+                buffer[count++] = '-';
+            }
+        }
+        System.arraycopy(digits, start, buffer, count, digitCount);
+        count += digitCount;
+        if (template.leftJustify[field]) {
+            pad(padding, (byte) ' ');
+        }
+    }
+
+    private void writeString(String text) throws IOException {
+        int length = text.length();
+        // Up to three UTF-8 bytes per char (surrogate pairs take four bytes for two chars)
+        if (length * 3 > buffer.length) {
+            write(text.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        ensureCapacity(length * 3);
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer[count++] = (byte) c;
+            } else {
+                // Rare path: encode the rest of the string with the JDK encoder
+                byte[] encoded = text.substring(i).getBytes(StandardCharsets.UTF_8);
+                write(encoded);
+                return;
+            }
+        }
+    }
+
+    private void pad(int padding, byte b) throws IOException {
+        while (padding > 0) {
+            int chunk = Math.min(padding, buffer.length);
+            ensureCapacity(chunk);
+            Arrays.fill(buffer, count, count + chunk, b);
+            count += chunk;
+            padding -= chunk;
+        }
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length) {
+            out.write(buffer, 0, count);
+            count = 0;
+            lineStart = 0;
+            out.write(bytes);
+            return;
+        }
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private void ensureCapacity(int needed) throws IOException {
+        if (count + needed > buffer.length) {
+            out.write(buffer, 0, count);
+            count = 0;
+            lineStart = 0;
+        }
+        if (needed > buffer.length) {
+            throw new IOException("Field of " + needed + " bytes is larger than the buffer");
+        }
+    }
+}
@@ -0,0 +1,1278 @@
+/**
+ * GraphSerializerExample.java
+ * This program demonstrates a compact object-graph serializer as an
+ * alternative to ObjectOutputStream for large graphs such as the
+ * Employee -> Address graphs in SerializationExample.serializeObjectGraphs.
+ * Field accessors for each class are built once as MethodHandles and cached,
+ * so no reflection happens per object. Shared objects are written once and
+ * referenced by handle afterwards, transient fields are skipped, and classes
+ * can add their own data with hooks, much like BankAccount's writeObject and
+ * readObject. The graph is walked breadth-first with a queue instead of
+ * recursion, so very deep graphs do not overflow the stack.
+ */
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class GraphSerializerExample {
+    public static void main(String[] args) {
+        System.out.println("--- Graph Serializer Examples ---");
+
+        // Number of nodes in the benchmark graphs
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        // Example 1: Serializing an object graph with shared references
+        System.out.println("\nExample 1: Serializing an object graph with shared references");
+        serializeSharedGraph();
+
+        // Example 2: Transient fields and custom hooks
+        System.out.println("\nExample 2: Transient fields and custom hooks");
+        serializeWithHooks();
+
+        // Example 3: Wide graph compared with ObjectOutputStream
+        System.out.println("\nExample 3: Wide graph compared with ObjectOutputStream");
+        benchmark("Wide graph", createWideGraph(nodes));
+
+        // Example 4: Deep graphs compared with ObjectOutputStream
+        System.out.println("\nExample 4: Deep graphs compared with ObjectOutputStream");
+        benchmark("Shallow chain", createDeepGraph(1000));
+        benchmark("Deep chain", createDeepGraph(nodes));
+    }
+
+    /**
+     * Demonstrates that shared objects and cycles survive a round trip.
+     */
+    public static void serializeSharedGraph() {
+        StaffAddress office = new StaffAddress("123 Main St", "Anytown", "CA", "12345");
+        StaffManager alice = new StaffManager("Alice", 45, "Engineering", office, 1);
+        StaffMember bob = new StaffMember("Bob", 30, "Engineering", office, 2);
+        StaffMember carol = new StaffMember("Carol", 28, "Engineering", office, 3);
+        bob.manager = alice;
+        carol.manager = alice;
+        alice.reports.add(bob);
+        alice.reports.add(carol);
+
+        try {
+            byte[] bytes = GraphSerializer.toBytes(alice);
+            StaffManager copy = (StaffManager) GraphSerializer.fromBytes(bytes);
+
+            System.out.println("Serialized " + bytes.length + " bytes: " + copy);
+            StaffMember bobCopy = copy.reports.get(0);
+            System.out.println("Bob's manager is the same object as the root: " + (bobCopy.manager == copy));
+            System.out.println("All three share one address object: "
+                    + (bobCopy.address == copy.address && copy.reports.get(1).address == copy.address));
+        } catch (IOException e) {
+            System.out.println("Error serializing graph: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Demonstrates a transient field that a hook restores after reading.
+     */
+    public static void serializeWithHooks() {
+        SecureAccount account = new SecureAccount("123456789", "John Doe", 1000.0);
+        System.out.println("Original: " + account);
+
+        try {
+            SecureAccount copy = (SecureAccount) GraphSerializer.fromBytes(GraphSerializer.toBytes(account));
+            System.out.println("Copy:     " + copy);
+        } catch (IOException e) {
+            System.out.println("Error serializing account: " + e.getMessage());
+        }
+
+        // Types the serializer does not support are rejected up front
+        try {
+            GraphSerializer.toBytes(new Thread());
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Error serializing Thread: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes and reads a graph with both serializers and reports time and size.
+     */
+    public static void benchmark(String label, Object graph) {
+        System.out.println(label + ": " + describe(graph));
+
+        for (int round = 1; round <= 2; round++) {
+            String javaResult;
+            try {
+                long start = System.nanoTime();
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(buffer, 1 << 16))) {
+                    out.writeObject(graph);
+                }
+                double writeMs = (System.nanoTime() - start) / 1e6;
+
+                start = System.nanoTime();
+                Object copy;
+                try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(
+                        new ByteArrayInputStream(buffer.toByteArray()), 1 << 16))) {
+                    copy = in.readObject();
+                }
+                double readMs = (System.nanoTime() - start) / 1e6;
+                javaResult = String.format("write %.0f ms, read %.0f ms, %,d bytes (%s)",
+                        writeMs, readMs, buffer.size(), describe(copy));
+            } catch (StackOverflowError e) {
+                javaResult = "failed with StackOverflowError";
+            } catch (IOException | ClassNotFoundException e) {
+                javaResult = "failed: " + e.getMessage();
+            }
+
+            String graphResult;
+            try {
+                long start = System.nanoTime();
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                try (GraphWriter out = new GraphWriter(buffer)) {
+                    out.writeGraph(graph);
+                }
+                double writeMs = (System.nanoTime() - start) / 1e6;
+
+                start = System.nanoTime();
+                Object copy;
+                try (GraphReader in = new GraphReader(new ByteArrayInputStream(buffer.toByteArray()))) {
+                    copy = in.readGraph();
+                }
+                double readMs = (System.nanoTime() - start) / 1e6;
+                graphResult = String.format("write %.0f ms, read %.0f ms, %,d bytes (%s)",
+                        writeMs, readMs, buffer.size(), describe(copy));
+            } catch (IOException e) {
+                graphResult = "failed: " + e.getMessage();
+            }
+
+            System.out.println("Round " + round + ":");
+            System.out.println("  ObjectOutputStream: " + javaResult);
+            System.out.println("  GraphSerializer:    " + graphResult);
+        }
+    }
+
+    /**
+     * Helper method to build a list of members where every 50th is a manager
+     * of the following 49, and addresses and department names are shared.
+     */
+    private static ArrayList<StaffMember> createWideGraph(int nodes) {
+        String[] departments = {"Engineering", "Sales", "Marketing", "Finance", "Support"};
+        StaffAddress[] addresses = new StaffAddress[1000];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = new StaffAddress(i + " Main St", "City " + (i % 100), "CA", String.valueOf(10000 + i));
+        }
+
+        ArrayList<StaffMember> members = new ArrayList<>(nodes);
+        StaffManager manager = null;
+        for (int i = 0; i < nodes; i++) {
+            String department = departments[i % departments.length];
+            StaffAddress address = addresses[i % addresses.length];
+            if (i % 50 == 0) {
+                manager = new StaffManager("Manager " + i, 30 + i % 30, department, address, i);
+                members.add(manager);
+            } else {
+                StaffMember member = new StaffMember("Employee " + i, 20 + i % 40, department, address, i);
+                member.manager = manager;
+                manager.reports.add(member);
+                members.add(member);
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Helper method to build a reporting chain: each member's manager is
+     * the previous one, so the graph is as deep as it has nodes.
+     */
+    private static StaffMember createDeepGraph(int nodes) {
+        StaffAddress address = new StaffAddress("1 Chain Rd", "Deepville", "CA", "99999");
+        StaffMember previous = null;
+        for (int i = 0; i < nodes; i++) {
+            StaffMember member = new StaffMember("Member " + i, 20 + i % 40, "Chain", address, i);
+            member.manager = previous;
+            previous = member;
+        }
+        return previous;
+    }
+
+    /**
+     * Helper method counting the members and distinct addresses reachable
+     * from a graph, to check that a copy has the same shape.
+     */
+    private static String describe(Object graph) {
+        Set<StaffAddress> addresses = Collections.newSetFromMap(new IdentityHashMap<>());
+        long members = 0;
+        long ages = 0;
+        if (graph instanceof List) {
+            for (Object item : (List<?>) graph) {
+                StaffMember member = (StaffMember) item;
+                members++;
+                ages += member.age;
+                addresses.add(member.address);
+            }
+        } else {
+            for (StaffMember member = (StaffMember) graph; member != null; member = member.manager) {
+                members++;
+                ages += member.age;
+                addresses.add(member.address);
+            }
+        }
+        return members + " members, " + addresses.size() + " distinct addresses, age sum " + ages;
+    }
+}
+
+/**
+ * An address shared by many staff members.
+ */
+class StaffAddress implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    String street;
+    String city;
+    String state;
+    String zipCode;
+
+    // Used by GraphReader to create instances before filling their fields
+    private StaffAddress() {
+    }
+
+    StaffAddress(String street, String city, String state, String zipCode) {
+        this.street = street;
+        this.city = city;
+        this.state = state;
+        this.zipCode = zipCode;
+    }
+
+    @Override
+    public String toString() {
+        return street + ", " + city + ", " + state + " " + zipCode;
+    }
+}
+
+/**
+ * A staff member with a reference to an address and to a manager.
+ */
+class StaffMember implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    String name;
+    int age;
+    String department;
+    StaffAddress address;
+    StaffMember manager;
+    long employeeId;
+
+    protected StaffMember() {
+    }
+
+    StaffMember(String name, int age, String department, StaffAddress address, long employeeId) {
+        this.name = name;
+        this.age = age;
+        this.department = department;
+        this.address = address;
+        this.employeeId = employeeId;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + age + ", " + department + ", " + address + ")";
+    }
+}
+
+/**
+ * A manager with a list of direct reports.
+ */
+class StaffManager extends StaffMember {
+    private static final long serialVersionUID = 1L;
+
+    final ArrayList<StaffMember> reports = new ArrayList<>();
+
+    private StaffManager() {
+    }
+
+    StaffManager(String name, int age, String department, StaffAddress address, long employeeId) {
+        super(name, age, department, address, employeeId);
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + " managing " + reports.size();
+    }
+}
+
+/**
+ * Hooks called by GraphWriter and GraphReader after a class's own fields,
+ * like writeObject and readObject for ObjectOutputStream. When readExtra
+ * runs, objects this one refers to may not have been filled in yet.
+ */
+interface GraphHooks {
+    void writeExtra(GraphWriter out) throws IOException;
+
+    void readExtra(GraphReader in) throws IOException;
+}
+
+/**
+ * An account whose transient security code is regenerated after reading.
+ */
+class SecureAccount implements Serializable, GraphHooks {
+    private static final long serialVersionUID = 1L;
+
+    private String accountNumber;
+    private String accountHolder;
+    private double balance;
+    private transient String securityCode;  // Not serialized
+
+    private SecureAccount() {
+    }
+
+    SecureAccount(String accountNumber, String accountHolder, double balance) {
+        this.accountNumber = accountNumber;
+        this.accountHolder = accountHolder;
+        this.balance = balance;
+        this.securityCode = generateSecurityCode();
+    }
+
+    private String generateSecurityCode() {
+        return "SEC-" + Math.round(Math.random() * 10000);
+    }
+
+    @Override
+    public void writeExtra(GraphWriter out) throws IOException {
+        out.writeString("SECURE-DATA");
+    }
+
+    @Override
+    public void readExtra(GraphReader in) throws IOException {
+        if (!"SECURE-DATA".equals(in.readString())) {
+            throw new StreamCorruptedException("Missing secure data marker");
+        }
+        this.securityCode = generateSecurityCode();
+    }
+
+    @Override
+    public String toString() {
+        return "SecureAccount{accountNumber='" + accountNumber + "', accountHolder='" + accountHolder
+                + "', balance=" + balance + ", securityCode='" + securityCode + "'}";
+    }
+}
+
+/**
+ * Convenience methods for whole graphs in byte arrays.
+ */
+class GraphSerializer {
+    static byte[] toBytes(Object graph) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (GraphWriter out = new GraphWriter(buffer)) {
+            out.writeGraph(graph);
+        }
+        return buffer.toByteArray();
+    }
+
+    static Object fromBytes(byte[] bytes) throws IOException {
+        try (GraphReader in = new GraphReader(new ByteArrayInputStream(bytes))) {
+            return in.readGraph();
+        }
+    }
+}
+
+/**
+ * The per-class accessors, built once per class and cached in a ClassValue.
+ *
+ * Fields are the non-static, non-transient fields of the class and its
+ * superclasses, superclass fields first. Each field gets a getter and a
+ * setter MethodHandle adapted to (Object) -> type, so the hot path calls
+ * invokeExact without boxing. Instances are created with the class's
+ * no-argument constructor, which may be private.
+ */
+class ClassCodec {
+    private static final ClassValue<ClassCodec> CODECS = new ClassValue<ClassCodec>() {
+        @Override
+        protected ClassCodec computeValue(Class<?> type) {
+            return new ClassCodec(type);
+        }
+    };
+
+    final Class<?> type;
+    final String[] names;
+    final char[] kinds;   // 'Z', 'B', 'C', 'S', 'I', 'J', 'F', 'D', or 'L' for references
+    final MethodHandle[] getters;
+    final MethodHandle[] setters;
+    private final MethodHandle constructor;
+    final boolean hasHooks;
+
+    static ClassCodec of(Class<?> type) {
+        return CODECS.get(type);
+    }
+
+    private ClassCodec(Class<?> type) {
+        this.type = type;
+        this.hasHooks = GraphHooks.class.isAssignableFrom(type);
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        List<Class<?>> hierarchy = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            hierarchy.add(0, c);
+        }
+        List<Field> fields = new ArrayList<>();
+        for (Class<?> c : hierarchy) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                    fields.add(field);
+                }
+            }
+        }
+
+        names = new String[fields.size()];
+        kinds = new char[fields.size()];
+        getters = new MethodHandle[fields.size()];
+        setters = new MethodHandle[fields.size()];
+        try {
+            for (int i = 0; i < fields.size(); i++) {
+                Field field = fields.get(i);
+                field.setAccessible(true);
+                Class<?> fieldType = field.getType();
+                boolean reference = !fieldType.isPrimitive();
+                Class<?> accessType = reference ? Object.class : fieldType;
+                names[i] = field.getDeclaringClass().getName() + "." + field.getName();
+                kinds[i] = reference ? 'L' : kindOf(fieldType);
+                getters[i] = lookup.unreflectGetter(field)
+                        .asType(MethodType.methodType(accessType, Object.class));
+                setters[i] = lookup.unreflectSetter(field)
+                        .asType(MethodType.methodType(void.class, Object.class, accessType));
+            }
+            Constructor<?> noArguments = type.getDeclaredConstructor();
+            noArguments.setAccessible(true);
+            constructor = lookup.unreflectConstructor(noArguments).asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(type.getName() + " has no no-argument constructor");
+        } catch (IllegalAccessException | RuntimeException e) {
+            throw new IllegalArgumentException("Cannot access the fields of " + type.getName() + ": " + e, e);
+        }
+    }
+
+    Object newInstance() throws IOException {
+        try {
+            return (Object) constructor.invokeExact();
+        } catch (Throwable e) {
+            throw new InvalidClassException(type.getName(), "constructor failed: " + e);
+        }
+    }
+
+    static char kindOf(Class<?> primitive) {
+        if (primitive == boolean.class) {
+            return 'Z';
+        } else if (primitive == byte.class) {
+            return 'B';
+        } else if (primitive == char.class) {
+            return 'C';
+        } else if (primitive == short.class) {
+            return 'S';
+        } else if (primitive == int.class) {
+            return 'I';
+        } else if (primitive == long.class) {
+            return 'J';
+        } else if (primitive == float.class) {
+            return 'F';
+        }
+        return 'D';
+    }
+}
+
+/**
+ * Writes object graphs in a compact binary format.
+ *
+ * Each reference is a tag byte, followed by a handle number for an object
+ * already written, or by the object's class for a new one. A class's name
+ * and field list are written the first time the class is used. Objects are
+ * written breadth-first: a new object's header is written where it is
+ * referenced and its fields later, in queue order, so the stack depth does
+ * not grow with the depth of the graph. Numbers are variable-length.
+ *
+ * Supported values: objects of Serializable classes with a no-argument
+ * constructor, Strings, boxed Integer/Long/Double/Boolean (written by
+ * value), arrays of int, long, double, byte and references, ArrayList and
+ * HashMap.
+ */
+class GraphWriter implements AutoCloseable {
+    static final int MAGIC = 0x47524146;   // "GRAF"
+    static final byte NULL = 0;
+    static final byte HANDLE = 1;
+    static final byte OBJECT = 2;
+    static final byte STRING = 3;
+    static final byte INTEGER = 4;
+    static final byte LONG = 5;
+    static final byte DOUBLE = 6;
+    static final byte BOOLEAN = 7;
+    static final byte INT_ARRAY = 8;
+    static final byte LONG_ARRAY = 9;
+    static final byte DOUBLE_ARRAY = 10;
+    static final byte BYTE_ARRAY = 11;
+    static final byte OBJECT_ARRAY = 12;
+    static final byte LIST = 13;
+    static final byte MAP = 14;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[1 << 16];
+    private int count;
+
+    // Identity hash table from object to handle, without boxing the handles
+    private Object[] handleKeys = new Object[1024];
+    private int[] handleValues = new int[1024];
+    private int handleCount;
+    // A class used both as an array component and as an object gets one id for each use
+    private final Map<Class<?>, Integer> componentClassIds = new HashMap<>();
+    private final Map<Class<?>, Integer> objectClassIds = new HashMap<>();
+    private final ArrayDeque<Object> pending = new ArrayDeque<>();
+
+    public GraphWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes a complete graph. Each graph is independent: handles and
+     * classes are not shared between calls.
+     */
+    public void writeGraph(Object root) throws IOException {
+        writeInt(MAGIC);
+        writeReference(root);
+        Object next;
+        while ((next = pending.poll()) != null) {
+            writeContents(next);
+        }
+        handleKeys = new Object[1024];
+        handleValues = new int[1024];
+        handleCount = 0;
+        componentClassIds.clear();
+        objectClassIds.clear();
+    }
+
+    private void writeReference(Object value) throws IOException {
+        if (value == null) {
+            writeByte(NULL);
+            return;
+        }
+        int handle = findHandle(value);
+        if (handle >= 0) {
+            writeByte(HANDLE);
+            writeVarInt(handle);
+            return;
+        }
+
+        Class<?> type = value.getClass();
+        if (type == String.class) {
+            assignHandle(value);
+            writeByte(STRING);
+            writeString((String) value);
+        } else if (type == Integer.class) {
+            writeByte(INTEGER);
+            writeInt((Integer) value);
+        } else if (type == Long.class) {
+            writeByte(LONG);
+            writeLong((Long) value);
+        } else if (type == Double.class) {
+            writeByte(DOUBLE);
+            writeDouble((Double) value);
+        } else if (type == Boolean.class) {
+            writeByte(BOOLEAN);
+            writeByte((Boolean) value ? 1 : 0);
+        } else if (type == int[].class) {
+            assignHandle(value);
+            int[] array = (int[]) value;
+            writeByte(INT_ARRAY);
+            writeVarInt(array.length);
+            for (int element : array) {
+                writeInt(element);
+            }
+        } else if (type == long[].class) {
+            assignHandle(value);
+            long[] array = (long[]) value;
+            writeByte(LONG_ARRAY);
+            writeVarInt(array.length);
+            for (long element : array) {
+                writeLong(element);
+            }
+        } else if (type == double[].class) {
+            assignHandle(value);
+            double[] array = (double[]) value;
+            writeByte(DOUBLE_ARRAY);
+            writeVarInt(array.length);
+            for (double element : array) {
+                writeDouble(element);
+            }
+        } else if (type == byte[].class) {
+            assignHandle(value);
+            byte[] array = (byte[]) value;
+            writeByte(BYTE_ARRAY);
+            writeVarInt(array.length);
+            writeBytes(array, 0, array.length);
+        } else if (type.isArray() && !type.getComponentType().isPrimitive()) {
+            assignHandle(value);
+            writeByte(OBJECT_ARRAY);
+            writeClass(type.getComponentType(), false);
+            writeVarInt(((Object[]) value).length);
+            pending.add(value);
+        } else if (type == ArrayList.class) {
+            assignHandle(value);
+            writeByte(LIST);
+            pending.add(value);
+        } else if (type == HashMap.class) {
+            assignHandle(value);
+            writeByte(MAP);
+            pending.add(value);
+        } else if (type.isArray() || type.isEnum() || GraphReader.isJdkClass(type.getName())) {
+            throw new IllegalArgumentException("Unsupported type: " + type.getName());
+        } else if (!Serializable.class.isAssignableFrom(type)) {
+            throw new IllegalArgumentException(type.getName() + " is not Serializable");
+        } else {
+            // Fails here, before anything is written, if the class is not usable
+            ClassCodec.of(type);
+            assignHandle(value);
+            writeByte(OBJECT);
+            writeClass(type, true);
+            pending.add(value);
+        }
+    }
+
+    /**
+     * Writes the elements or fields of an object whose header was written earlier.
+     */
+    private void writeContents(Object value) throws IOException {
+        if (value instanceof Object[]) {
+            for (Object element : (Object[]) value) {
+                writeReference(element);
+            }
+        } else if (value.getClass() == ArrayList.class) {
+            ArrayList<?> list = (ArrayList<?>) value;
+            writeVarInt(list.size());
+            for (int i = 0; i < list.size(); i++) {
+                writeReference(list.get(i));
+            }
+        } else if (value.getClass() == HashMap.class) {
+            HashMap<?, ?> map = (HashMap<?, ?>) value;
+            writeVarInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeReference(entry.getKey());
+                writeReference(entry.getValue());
+            }
+        } else {
+            ClassCodec codec = ClassCodec.of(value.getClass());
+            writeFields(codec, value);
+            if (codec.hasHooks) {
+                ((GraphHooks) value).writeExtra(this);
+            }
+        }
+    }
+
+    private void writeFields(ClassCodec codec, Object value) throws IOException {
+        MethodHandle[] getters = codec.getters;
+        char[] kinds = codec.kinds;
+        try {
+            for (int i = 0; i < kinds.length; i++) {
+                MethodHandle getter = getters[i];
+                switch (kinds[i]) {
+                    case 'Z': writeByte((boolean) getter.invokeExact(value) ? 1 : 0); break;
+                    case 'B': writeByte((byte) getter.invokeExact(value)); break;
+                    case 'C': writeVarInt((char) getter.invokeExact(value)); break;
+                    case 'S': writeInt((short) getter.invokeExact(value)); break;
+                    case 'I': writeInt((int) getter.invokeExact(value)); break;
+                    case 'J': writeLong((long) getter.invokeExact(value)); break;
+                    case 'F': writeInt(Float.floatToRawIntBits((float) getter.invokeExact(value))); break;
+                    case 'D': writeDouble((double) getter.invokeExact(value)); break;
+                    default: writeReference((Object) getter.invokeExact(value)); break;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IOException("Cannot read fields of " + codec.type.getName() + ": " + e, e);
+        }
+    }
+
+    /**
+     * Writes a class id, preceded the first time by the class name and,
+     * for object classes, its field names and kinds. Ids are kept apart
+     * for the two uses, so an object's class always has its field list
+     * even if the class was first seen as an array component.
+     */
+    private void writeClass(Class<?> type, boolean withFields) throws IOException {
+        Map<Class<?>, Integer> ids = withFields ? objectClassIds : componentClassIds;
+        Integer id = ids.get(type);
+        if (id != null) {
+            writeVarInt(id + 1);
+            return;
+        }
+        ids.put(type, componentClassIds.size() + objectClassIds.size());
+        writeVarInt(0);
+        writeString(type.getName());
+        if (withFields) {
+            ClassCodec codec = ClassCodec.of(type);
+            writeVarInt(codec.names.length);
+            for (int i = 0; i < codec.names.length; i++) {
+                writeString(codec.names[i]);
+                writeByte(codec.kinds[i]);
+            }
+        }
+    }
+
+    private int findHandle(Object value) {
+        int mask = handleKeys.length - 1;
+        int slot = slot(value, mask);
+        Object key;
+        while ((key = handleKeys[slot]) != null) {
+            if (key == value) {
+                return handleValues[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void assignHandle(Object value) {
+        if ((handleCount + 1) * 2 > handleKeys.length) {
+            Object[] oldKeys = handleKeys;
+            int[] oldValues = handleValues;
+            handleKeys = new Object[oldKeys.length * 2];
+            handleValues = new int[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    insert(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+        insert(value, handleCount++);
+    }
+
+    private void insert(Object value, int handle) {
+        int mask = handleKeys.length - 1;
+        int slot = slot(value, mask);
+        while (handleKeys[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        handleKeys[slot] = value;
+        handleValues[slot] = handle;
+    }
+
+    private static int slot(Object value, int mask) {
+        // Fibonacci hashing spreads identity hash codes over the table
+        return (System.identityHashCode(value) * 0x9E3779B9 >>> 7) & mask;
+    }
+
+    // Primitive writers, also used by GraphHooks implementations
+
+    public void writeByte(int value) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) value;
+    }
+
+    /**
+     * Unsigned variable-length int: 7 bits per byte, high bit means "more".
+     */
+    public void writeVarInt(int value) throws IOException {
+        if (count + 5 > buffer.length) {
+            flushBuffer();
+        }
+        while ((value & ~0x7F) != 0) {
+            buffer[count++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[count++] = (byte) value;
+    }
+
+    /**
+     * Signed int as a zig-zag varint, so small negative numbers stay short.
+     */
+    public void writeInt(int value) throws IOException {
+        writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    public void writeLong(long value) throws IOException {
+        if (count + 10 > buffer.length) {
+            flushBuffer();
+        }
+        long zigZag = (value << 1) ^ (value >> 63);
+        while ((zigZag & ~0x7FL) != 0) {
+            buffer[count++] = (byte) ((zigZag & 0x7F) | 0x80);
+            zigZag >>>= 7;
+        }
+        buffer[count++] = (byte) zigZag;
+    }
+
+    public void writeDouble(double value) throws IOException {
+        if (count + 8 > buffer.length) {
+            flushBuffer();
+        }
+        long bits = Double.doubleToRawLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[count++] = (byte) (bits >>> shift);
+        }
+    }
+
+    public void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buffer.length - count) {
+            flushBuffer();
+            if (length > buffer.length) {
+                out.write(bytes, offset, length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, count);
+        count = 0;
+    }
+
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+}
+
+/**
+ * Reads graphs written by GraphWriter.
+ *
+ * Objects are created with their no-argument constructor when their header
+ * is read, registered under the next handle (so later references, including
+ * cycles, resolve to them), and filled in queue order. Fields are matched
+ * to the local class by declaring class, name and kind; stream fields the
+ * class no longer has are skipped, and new local fields keep the values set
+ * by the constructor. HashMaps are filled after all objects, because keys
+ * need their fields for hashCode. Only Serializable classes outside the
+ * JDK are instantiated, so a stream cannot name an arbitrary class and
+ * have its constructor run or its private fields set.
+ */
+class GraphReader implements AutoCloseable {
+    private final InputStream in;
+    private final byte[] buffer = new byte[1 << 16];
+    private int position;
+    private int limit;
+
+    private final ArrayList<Object> handles = new ArrayList<>();
+    private final ArrayList<ReadPlan> classes = new ArrayList<>();
+    private final Map<Class<?>, ReadPlan> objectPlans = new HashMap<>();
+    private final ArrayDeque<Object> pending = new ArrayDeque<>();
+    private final ArrayList<Object[]> deferredMaps = new ArrayList<>();
+
+    /**
+     * How to read one class's fields as the stream describes them.
+     */
+    private static class ReadPlan {
+        final Class<?> type;
+        final ClassCodec codec;
+        final char[] kinds;
+        final MethodHandle[] setters;   // null for fields to skip
+
+        ReadPlan(Class<?> type, ClassCodec codec, char[] kinds, MethodHandle[] setters) {
+            this.type = type;
+            this.codec = codec;
+            this.kinds = kinds;
+            this.setters = setters;
+        }
+    }
+
+    public GraphReader(InputStream in) {
+        this.in = in;
+    }
+
+    public Object readGraph() throws IOException {
+        if (readInt() != GraphWriter.MAGIC) {
+            throw new StreamCorruptedException("Not a graph stream");
+        }
+        Object root = readReference();
+        Object next;
+        while ((next = pending.poll()) != null) {
+            readContents(next);
+        }
+        // Populate maps last, innermost (created latest) first
+        for (int i = deferredMaps.size() - 1; i >= 0; i--) {
+            Object[] entries = deferredMaps.get(i);
+            @SuppressWarnings("unchecked")
+            HashMap<Object, Object> map = (HashMap<Object, Object>) entries[0];
+            for (int j = 1; j < entries.length; j += 2) {
+                map.put(entries[j], entries[j + 1]);
+            }
+        }
+        handles.clear();
+        classes.clear();
+        objectPlans.clear();
+        deferredMaps.clear();
+        return root;
+    }
+
+    private Object readReference() throws IOException {
+        byte tag = readByte();
+        switch (tag) {
+            case GraphWriter.NULL:
+                return null;
+            case GraphWriter.HANDLE: {
+                int handle = readVarInt();
+                if (handle >= handles.size()) {
+                    throw new StreamCorruptedException("Unknown handle " + handle);
+                }
+                return handles.get(handle);
+            }
+            case GraphWriter.STRING:
+                return register(readString());
+            case GraphWriter.INTEGER:
+                return readInt();
+            case GraphWriter.LONG:
+                return readLong();
+            case GraphWriter.DOUBLE:
+                return readDouble();
+            case GraphWriter.BOOLEAN:
+                return readByte() != 0;
+            case GraphWriter.INT_ARRAY: {
+                int[] array = new int[readLength()];
+                register(array);
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readInt();
+                }
+                return array;
+            }
+            case GraphWriter.LONG_ARRAY: {
+                long[] array = new long[readLength()];
+                register(array);
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readLong();
+                }
+                return array;
+            }
+            case GraphWriter.DOUBLE_ARRAY: {
+                double[] array = new double[readLength()];
+                register(array);
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readDouble();
+                }
+                return array;
+            }
+            case GraphWriter.BYTE_ARRAY: {
+                byte[] array = new byte[readLength()];
+                register(array);
+                readBytes(array, 0, array.length);
+                return array;
+            }
+            case GraphWriter.OBJECT_ARRAY: {
+                Class<?> componentType = readClass(false).type;
+                Object array = Array.newInstance(componentType, readLength());
+                pending.add(register(array));
+                return array;
+            }
+            case GraphWriter.LIST:
+                return queue(register(new ArrayList<>()));
+            case GraphWriter.MAP:
+                return queue(register(new HashMap<>()));
+            case GraphWriter.OBJECT: {
+                ReadPlan plan = readClass(true);
+                return queue(register(plan.codec.newInstance()));
+            }
+            default:
+                throw new StreamCorruptedException("Unknown tag " + tag);
+        }
+    }
+
+    private Object queue(Object value) {
+        pending.add(value);
+        return value;
+    }
+
+    private Object register(Object value) {
+        handles.add(value);
+        return value;
+    }
+
+    private void readContents(Object value) throws IOException {
+        if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            for (int i = 0; i < array.length; i++) {
+                Object element = readReference();
+                if (element != null && !array.getClass().getComponentType().isInstance(element)) {
+                    throw new StreamCorruptedException("Cannot store " + element.getClass().getName()
+                            + " in " + array.getClass().getComponentType().getName() + "[]");
+                }
+                array[i] = element;
+            }
+        } else if (value instanceof ArrayList) {
+            @SuppressWarnings("unchecked")
+            ArrayList<Object> list = (ArrayList<Object>) value;
+            int size = readLength();
+            list.ensureCapacity(size);
+            for (int i = 0; i < size; i++) {
+                list.add(readReference());
+            }
+        } else if (value instanceof HashMap) {
+            int size = readLength();
+            Object[] entries = new Object[1 + size * 2];
+            entries[0] = value;
+            for (int i = 1; i < entries.length; i++) {
+                entries[i] = readReference();
+            }
+            deferredMaps.add(entries);
+        } else {
+            ReadPlan plan = objectPlans.get(value.getClass());
+            readFields(plan, value);
+            if (plan.codec.hasHooks) {
+                ((GraphHooks) value).readExtra(this);
+            }
+        }
+    }
+
+    private void readFields(ReadPlan plan, Object value) throws IOException {
+        char[] kinds = plan.kinds;
+        MethodHandle[] setters = plan.setters;
+        try {
+            for (int i = 0; i < kinds.length; i++) {
+                MethodHandle setter = setters[i];
+                switch (kinds[i]) {
+                    case 'Z': {
+                        boolean v = readByte() != 0;
+                        if (setter != null) setter.invokeExact(value, v);
+                        break;
+                    }
+                    case 'B': {
+                        byte v = readByte();
+                        if (setter != null) setter.invokeExact(value, v);
+                        break;
+                    }
+                    case 'C': {
+                        char v = (char) readVarInt();
+                        if (setter != null) setter.invokeExact(value, v);
+                        break;
+                    }
+                    case 'S': {
+                        short v = (short) readInt();
+                        if (setter != null) setter.invokeExact(value, v);
+                        break;
+                    }
+                    case 'I': {
+                        int v = readInt();
+                        if (setter != null) setter.invokeExact(value, v);
+                        break;
+                    }
+                    case 'J': {
+                        long v = readLong();
+                        if (setter != null) setter.invokeExact(value, v);
+                        break;
+                    }
+                    case 'F': {
+                        float v = Float.intBitsToFloat(readInt());
+                        if (setter != null) setter.invokeExact(value, v);
+                        break;
+                    }
+                    case 'D': {
+                        double v = readDouble();
+                        if (setter != null) setter.invokeExact(value, v);
+                        break;
+                    }
+                    default: {
+                        Object v = readReference();
+                        if (setter != null) setter.invokeExact(value, v);
+                        break;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (ClassCastException e) {
+            throw new InvalidClassException(plan.type.getName(), "field type changed: " + e.getMessage());
+        } catch (Throwable e) {
+            throw new IOException("Cannot set fields of " + plan.type.getName() + ": " + e, e);
+        }
+    }
+
+    /**
+     * Returns true for classes of the JDK, which the reader never
+     * instantiates or fills in, whatever the stream says.
+     */
+    static boolean isJdkClass(String name) {
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("jdk.")
+                || name.startsWith("sun.") || name.startsWith("com.sun.");
+    }
+
+    private ReadPlan readClass(boolean withFields) throws IOException {
+        int id = readVarInt();
+        if (id > 0) {
+            if (id > classes.size()) {
+                throw new StreamCorruptedException("Unknown class id " + id);
+            }
+            ReadPlan plan = classes.get(id - 1);
+            if (withFields && plan.codec == null) {
+                throw new StreamCorruptedException("Class id " + id + " was sent without its fields");
+            }
+            return plan;
+        }
+
+        String name = readString();
+        Class<?> type;
+        try {
+            type = Class.forName(name, false, GraphReader.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new InvalidClassException(name, "class not found");
+        }
+        if (!withFields) {
+            ReadPlan plan = new ReadPlan(type, null, null, null);
+            classes.add(plan);
+            return plan;
+        }
+
+        // Checked before ClassCodec opens up the class's constructor and fields
+        if (isJdkClass(name)) {
+            throw new InvalidClassException(name, "JDK classes cannot be read as objects");
+        }
+        if (!Serializable.class.isAssignableFrom(type)) {
+            throw new InvalidClassException(name, "class is not Serializable");
+        }
+        ClassCodec codec;
+        try {
+            codec = ClassCodec.of(type);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidClassException(name, e.getMessage());
+        }
+        int fieldCount = readLength();
+        char[] kinds = new char[fieldCount];
+        MethodHandle[] setters = new MethodHandle[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            String fieldName = readString();
+            kinds[i] = (char) readByte();
+            for (int j = 0; j < codec.names.length; j++) {
+                if (codec.names[j].equals(fieldName) && codec.kinds[j] == kinds[i]) {
+                    setters[i] = codec.setters[j];
+                }
+            }
+        }
+        ReadPlan plan = new ReadPlan(type, codec, kinds, setters);
+        classes.add(plan);
+        objectPlans.put(type, plan);
+        return plan;
+    }
+
+    // Primitive readers, also used by GraphHooks implementations
+
+    public byte readByte() throws IOException {
+        if (position == limit) {
+            fill();
+        }
+        return buffer[position++];
+    }
+
+    public int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Malformed varint");
+    }
+
+    public int readInt() throws IOException {
+        int zigZag = readVarInt();
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+
+    public long readLong() throws IOException {
+        long zigZag = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = readByte();
+            zigZag |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return (zigZag >>> 1) ^ -(zigZag & 1);
+            }
+        }
+        throw new StreamCorruptedException("Malformed varlong");
+    }
+
+    public double readDouble() throws IOException {
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | (readByte() & 0xFF);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    public String readString() throws IOException {
+        int length = readLength();
+        if (limit - position >= length) {
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        readBytes(bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readLength() throws IOException {
+        int length = readVarInt();
+        if (length < 0) {
+            throw new StreamCorruptedException("Negative length " + length);
+        }
+        return length;
+    }
+
+    private void readBytes(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (position == limit) {
+                fill();
+            }
+            int chunk = Math.min(length, limit - position);
+            System.arraycopy(buffer, position, bytes, offset, chunk);
+            position += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    private void fill() throws IOException {
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            throw new EOFException("Unexpected end of graph stream");
+        }
+        position = 0;
+        limit = read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
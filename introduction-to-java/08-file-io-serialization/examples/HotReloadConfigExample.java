@@ -0,0 +1,633 @@
+/**
+ * HotReloadConfigExample.java
+ * This program demonstrates a configuration manager for code that reads settings
+ * on hot paths. Each profile's properties file is parsed once into an immutable,
+ * typed snapshot and published through a single volatile reference, so a read is
+ * a field load plus an array load: no string lookup, no parsing and no locking.
+ * A WatchService rebuilds the snapshot and swaps it in when the file changes.
+ */
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+public class HotReloadConfigExample {
+    // The schema is declared once; every key knows its type, default and slot
+    static final ConfigSchema SCHEMA = new ConfigSchema();
+    static final ConfigSchema.StringKey DB_URL = SCHEMA.stringKey("database.url", "jdbc:mysql://localhost:3306/defaultdb");
+    static final ConfigSchema.StringKey DB_USERNAME = SCHEMA.stringKey("database.username", "root");
+    static final ConfigSchema.IntKey DB_POOL_SIZE = SCHEMA.intKey("database.poolSize", 10);
+    static final ConfigSchema.IntKey DB_TIMEOUT = SCHEMA.intKey("database.timeout", 30);
+    static final ConfigSchema.StringKey UI_THEME = SCHEMA.stringKey("ui.theme", "light");
+    static final ConfigSchema.IntKey UI_FONT_SIZE = SCHEMA.intKey("ui.fontSize", 12);
+    static final ConfigSchema.StringKey LOG_LEVEL = SCHEMA.stringKey("app.logLevel", "INFO");
+    static final ConfigSchema.BooleanKey FEATURE_CACHE = SCHEMA.booleanKey("app.cacheEnabled", true);
+    static final ConfigSchema.DoubleKey SAMPLE_RATE = SCHEMA.doubleKey("app.sampleRate", 0.1);
+
+    public static void main(String[] args) {
+        System.out.println("--- Hot-Reloading Configuration Examples ---");
+
+        int readers = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int readsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+
+        // Example 1: Typed snapshots and profiles
+        System.out.println("\nExample 1: Typed snapshots and profiles");
+        typedSnapshots();
+
+        // Example 2: Hot reload on file change
+        System.out.println("\nExample 2: Hot reload on file change");
+        hotReload();
+
+        // Example 3: Read cost compared with Properties
+        System.out.println("\nExample 3: Read cost compared with Properties");
+        benchmarkReads(readers, readsPerThread);
+
+        cleanUp();
+    }
+
+    /**
+     * Demonstrates loading profiles and reading typed values from a snapshot.
+     */
+    public static void typedSnapshots() {
+        try {
+            writeProfile("dev", "database.url=jdbc:h2:mem:devdb", "database.poolSize=4", "app.logLevel=DEBUG");
+            writeProfile("prod", "database.url=jdbc:mysql://db:3306/proddb", "database.poolSize=64",
+                    "app.cacheEnabled=true", "app.sampleRate=0.01");
+
+            try (TypedConfigManager manager = new TypedConfigManager(SCHEMA, Paths.get("config_profiles"))) {
+                manager.loadProfile("dev");
+                manager.loadProfile("prod");
+
+                // A snapshot is read once and then used like a plain object
+                ConfigSnapshot dev = manager.profile("dev");
+                System.out.println("dev:  url=" + dev.get(DB_URL) + ", poolSize=" + dev.get(DB_POOL_SIZE)
+                        + ", logLevel=" + dev.get(LOG_LEVEL) + ", theme=" + dev.get(UI_THEME) + " (default)");
+
+                manager.switchProfile("prod");
+                ConfigSnapshot active = manager.current();
+                System.out.println("prod: url=" + active.get(DB_URL) + ", poolSize=" + active.get(DB_POOL_SIZE)
+                        + ", cache=" + active.get(FEATURE_CACHE) + ", sampleRate=" + active.get(SAMPLE_RATE));
+
+                // Bad values are rejected when the snapshot is built, not on every read
+                writeProfile("broken", "database.poolSize=lots");
+                try {
+                    manager.loadProfile("broken");
+                } catch (ConfigLoadException e) {
+                    System.out.println("Rejected profile: " + e.getMessage());
+                }
+            }
+        } catch (IOException | ConfigLoadException e) {
+            System.out.println("Error loading profiles: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Demonstrates the watcher swapping in a new snapshot after a file change.
+     */
+    public static void hotReload() {
+        try (TypedConfigManager manager = new TypedConfigManager(SCHEMA, Paths.get("config_profiles"))) {
+            writeProfile("live", "database.poolSize=8", "ui.theme=light");
+            manager.loadProfile("live");
+            manager.switchProfile("live");
+
+            CountDownLatch reloaded = new CountDownLatch(1);
+            manager.addListener(snapshot -> {
+                System.out.println("Reloaded profile '" + snapshot.profile() + "' version " + snapshot.version());
+                reloaded.countDown();
+            });
+            manager.startWatching();
+
+            ConfigSnapshot before = manager.current();
+            System.out.println("Before: poolSize=" + before.get(DB_POOL_SIZE) + ", theme=" + before.get(UI_THEME));
+
+            // Rewrite the file the way an operator or deploy tool would
+            writeProfile("live", "database.poolSize=32", "ui.theme=dark");
+
+            // Some platforms poll for changes, so allow a generous wait
+            if (reloaded.await(15, TimeUnit.SECONDS)) {
+                ConfigSnapshot after = manager.current();
+                System.out.println("After:  poolSize=" + after.get(DB_POOL_SIZE) + ", theme=" + after.get(UI_THEME));
+                System.out.println("Old snapshot is unchanged: poolSize=" + before.get(DB_POOL_SIZE));
+
+                // A bad edit is rejected and the last good snapshot stays active
+                writeProfile("live", "database.poolSize=lots", "ui.theme=dark");
+                long deadline = System.currentTimeMillis() + 15_000;
+                while (manager.lastReloadError() == null && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(50);
+                }
+                Exception error = manager.lastReloadError();
+                System.out.println("Rejected reload: " + (error == null ? "none reported" : error.getMessage()));
+                System.out.println("Still active: poolSize=" + manager.current().get(DB_POOL_SIZE));
+            } else {
+                System.out.println("No change event received");
+            }
+        } catch (IOException | ConfigLoadException e) {
+            System.out.println("Error in hot reload: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Compares the cost of reading an int setting from a snapshot with
+     * Properties.getProperty + Integer.parseInt under many reader threads.
+     */
+    public static void benchmarkReads(int readers, int readsPerThread) {
+        try (TypedConfigManager manager = new TypedConfigManager(SCHEMA, Paths.get("config_profiles"))) {
+            manager.loadProfile("prod");
+            manager.switchProfile("prod");
+
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(Paths.get("config_profiles", "prod.properties"))) {
+                properties.load(reader);
+            }
+
+            System.out.println(readers + " reader threads, " + readsPerThread + " reads each");
+
+            // Run both twice so the second round is measured with warm code
+            for (int round = 1; round <= 2; round++) {
+                long snapshotNanos = runReaders(readers, () -> {
+                    long sum = 0;
+                    for (int i = 0; i < readsPerThread; i++) {
+                        sum += manager.current().get(DB_POOL_SIZE);
+                    }
+                    return sum;
+                });
+                long propertiesNanos = runReaders(readers, () -> {
+                    long sum = 0;
+                    for (int i = 0; i < readsPerThread; i++) {
+                        sum += Integer.parseInt(properties.getProperty("database.poolSize"));
+                    }
+                    return sum;
+                });
+
+                long totalReads = (long) readers * readsPerThread;
+                System.out.printf("Round %d: snapshot %.2f ns/read, Properties+parseInt %.2f ns/read%n",
+                        round, (double) snapshotNanos / totalReads, (double) propertiesNanos / totalReads);
+            }
+        } catch (IOException | ConfigLoadException e) {
+            System.out.println("Error in benchmark: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Helper method to run the same read loop on several threads and time it.
+     */
+    private static long runReaders(int readers, LongSupplier loop) {
+        long[] sums = new long[readers];
+        Thread[] threads = new Thread[readers];
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < readers; t++) {
+            final int index = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                sums[index] = loop.getAsLong();
+            });
+            threads[t].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        // Use the results so the JIT cannot drop the loops
+        long check = 0;
+        for (long sum : sums) {
+            check += sum;
+        }
+        if (check == 42) {
+            System.out.println("Unlikely checksum");
+        }
+        return elapsed;
+    }
+
+    /**
+     * Helper method to write a profile file through a temporary file and an
+     * atomic move, so the watcher never sees a half-written file.
+     */
+    private static void writeProfile(String profile, String... lines) throws IOException {
+        Path dir = Paths.get("config_profiles");
+        Files.createDirectories(dir);
+        Path tmp = dir.resolve(profile + ".properties.tmp");
+        Files.write(tmp, List.of(lines));
+        Files.move(tmp, dir.resolve(profile + ".properties"),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void cleanUp() {
+        Path dir = Paths.get("config_profiles");
+        try {
+            if (Files.exists(dir)) {
+                try (var files = Files.list(dir)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        Files.delete(file);
+                    }
+                }
+                Files.delete(dir);
+            }
+            System.out.println("\nCleaned up profile files");
+        } catch (IOException e) {
+            System.out.println("Error cleaning up: " + e.getMessage());
+        }
+    }
+}
+
+/**
+ * Declares the known configuration keys. Each key gets a slot in the typed
+ * array for its type, which is how a snapshot can answer a read with a
+ * single array load.
+ */
+class ConfigSchema {
+    private final Map<String, Key> keys = new LinkedHashMap<>();
+    private int intSlots;
+    private int booleanSlots;
+    private int doubleSlots;
+    private int stringSlots;
+
+    abstract static class Key {
+        final String name;
+        final int slot;
+
+        Key(String name, int slot) {
+            this.name = name;
+            this.slot = slot;
+        }
+
+        /** Parses the raw value into the snapshot; throws on a bad value. */
+        abstract void parse(String raw, ConfigSnapshot target);
+
+        abstract void applyDefault(ConfigSnapshot target);
+    }
+
+    static final class IntKey extends Key {
+        final int defaultValue;
+
+        IntKey(String name, int slot, int defaultValue) {
+            super(name, slot);
+            this.defaultValue = defaultValue;
+        }
+
+        void parse(String raw, ConfigSnapshot target) {
+            target.ints[slot] = Integer.parseInt(raw.trim());
+        }
+
+        void applyDefault(ConfigSnapshot target) {
+            target.ints[slot] = defaultValue;
+        }
+    }
+
+    static final class BooleanKey extends Key {
+        final boolean defaultValue;
+
+        BooleanKey(String name, int slot, boolean defaultValue) {
+            super(name, slot);
+            this.defaultValue = defaultValue;
+        }
+
+        void parse(String raw, ConfigSnapshot target) {
+            String value = raw.trim();
+            if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+                throw new IllegalArgumentException("not a boolean: " + raw);
+            }
+            target.booleans[slot] = Boolean.parseBoolean(value);
+        }
+
+        void applyDefault(ConfigSnapshot target) {
+            target.booleans[slot] = defaultValue;
+        }
+    }
+
+    static final class DoubleKey extends Key {
+        final double defaultValue;
+
+        DoubleKey(String name, int slot, double defaultValue) {
+            super(name, slot);
+            this.defaultValue = defaultValue;
+        }
+
+        void parse(String raw, ConfigSnapshot target) {
+            target.doubles[slot] = Double.parseDouble(raw.trim());
+        }
+
+        void applyDefault(ConfigSnapshot target) {
+            target.doubles[slot] = defaultValue;
+        }
+    }
+
+    static final class StringKey extends Key {
+        final String defaultValue;
+
+        StringKey(String name, int slot, String defaultValue) {
+            super(name, slot);
+            this.defaultValue = defaultValue;
+        }
+
+        void parse(String raw, ConfigSnapshot target) {
+            target.strings[slot] = raw;
+        }
+
+        void applyDefault(ConfigSnapshot target) {
+            target.strings[slot] = defaultValue;
+        }
+    }
+
+    public synchronized IntKey intKey(String name, int defaultValue) {
+        return register(new IntKey(name, intSlots++, defaultValue));
+    }
+
+    public synchronized BooleanKey booleanKey(String name, boolean defaultValue) {
+        return register(new BooleanKey(name, booleanSlots++, defaultValue));
+    }
+
+    public synchronized DoubleKey doubleKey(String name, double defaultValue) {
+        return register(new DoubleKey(name, doubleSlots++, defaultValue));
+    }
+
+    public synchronized StringKey stringKey(String name, String defaultValue) {
+        return register(new StringKey(name, stringSlots++, defaultValue));
+    }
+
+    private <K extends Key> K register(K key) {
+        if (keys.putIfAbsent(key.name, key) != null) {
+            throw new IllegalArgumentException("Duplicate config key: " + key.name);
+        }
+        return key;
+    }
+
+    /**
+     * Parses the properties into a new snapshot. All values are converted
+     * here, so a bad value fails the whole load and the old snapshot stays.
+     */
+    synchronized ConfigSnapshot compile(String profile, long version, Properties properties)
+            throws ConfigLoadException {
+        ConfigSnapshot snapshot = new ConfigSnapshot(profile, version,
+                intSlots, booleanSlots, doubleSlots, stringSlots);
+        List<String> errors = new ArrayList<>();
+
+        for (Key key : keys.values()) {
+            String raw = properties.getProperty(key.name);
+            if (raw == null) {
+                key.applyDefault(snapshot);
+                continue;
+            }
+            try {
+                key.parse(raw, snapshot);
+            } catch (IllegalArgumentException e) {
+                errors.add(key.name + "='" + raw + "'");
+            }
+        }
+
+        if (!errors.isEmpty()) {
+            throw new ConfigLoadException("Invalid values in profile '" + profile + "': " + errors);
+        }
+        return snapshot;
+    }
+}
+
+/**
+ * An immutable, fully parsed view of one profile. The arrays are filled
+ * before the snapshot is published and never written again, so the
+ * volatile publish in TypedConfigManager makes them safely visible.
+ */
+final class ConfigSnapshot {
+    final int[] ints;
+    final boolean[] booleans;
+    final double[] doubles;
+    final String[] strings;
+    private final String profile;
+    private final long version;
+
+    ConfigSnapshot(String profile, long version, int ints, int booleans, int doubles, int strings) {
+        this.profile = profile;
+        this.version = version;
+        this.ints = new int[ints];
+        this.booleans = new boolean[booleans];
+        this.doubles = new double[doubles];
+        this.strings = new String[strings];
+    }
+
+    public int get(ConfigSchema.IntKey key) {
+        return ints[key.slot];
+    }
+
+    public boolean get(ConfigSchema.BooleanKey key) {
+        return booleans[key.slot];
+    }
+
+    public double get(ConfigSchema.DoubleKey key) {
+        return doubles[key.slot];
+    }
+
+    public String get(ConfigSchema.StringKey key) {
+        return strings[key.slot];
+    }
+
+    public String profile() {
+        return profile;
+    }
+
+    public long version() {
+        return version;
+    }
+}
+
+/**
+ * Thrown when a profile file cannot be read or contains invalid values.
+ */
+class ConfigLoadException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public ConfigLoadException(String message) {
+        super(message);
+    }
+
+    public ConfigLoadException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
+
+/**
+ * Holds one snapshot per profile plus the active one. Writers (load, reload,
+ * switch) are rare and synchronized; readers only ever do a volatile read.
+ */
+class TypedConfigManager implements AutoCloseable {
+    private final ConfigSchema schema;
+    private final Path directory;
+    private final Map<String, ConfigSnapshot> profiles = new LinkedHashMap<>();
+    private final List<Consumer<ConfigSnapshot>> listeners = new ArrayList<>();
+    private volatile ConfigSnapshot current;
+    private volatile Exception lastReloadError;
+    private long nextVersion = 1;
+    private WatchService watchService;
+    private Thread watcher;
+
+    public TypedConfigManager(ConfigSchema schema, Path directory) {
+        this.schema = schema;
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the active snapshot. This is the hot-path read.
+     */
+    public ConfigSnapshot current() {
+        return current;
+    }
+
+    public synchronized ConfigSnapshot profile(String name) {
+        return profiles.get(name);
+    }
+
+    public synchronized ConfigSnapshot loadProfile(String name) throws ConfigLoadException {
+        Path file = directory.resolve(name + ".properties");
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            throw new ConfigLoadException("Cannot read " + file + ": " + e.getMessage(), e);
+        }
+
+        ConfigSnapshot snapshot = schema.compile(name, nextVersion++, properties);
+        profiles.put(name, snapshot);
+        if (current == null || current.profile().equals(name)) {
+            current = snapshot;
+        }
+        return snapshot;
+    }
+
+    public synchronized void switchProfile(String name) throws ConfigLoadException {
+        ConfigSnapshot snapshot = profiles.get(name);
+        if (snapshot == null) {
+            throw new ConfigLoadException("Unknown profile: " + name);
+        }
+        current = snapshot;
+    }
+
+    public synchronized void addListener(Consumer<ConfigSnapshot> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Returns the most recent problem on the watcher thread, or null: a
+     * ConfigLoadException for a reload that was rejected (the previous
+     * snapshot stays active) or the exception a listener threw.
+     */
+    public Exception lastReloadError() {
+        return lastReloadError;
+    }
+
+    /**
+     * Starts a daemon thread that reloads a profile whenever its file changes.
+     */
+    public synchronized void startWatching() throws IOException {
+        if (watcher != null) {
+            return;
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+
+        watcher = new Thread(this::watchLoop, "config-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        reloadAll();
+                        continue;
+                    }
+                    String fileName = event.context().toString();
+                    if (fileName.endsWith(".properties")) {
+                        reload(fileName.substring(0, fileName.length() - ".properties".length()));
+                    }
+                }
+                if (!key.reset()) {
+                    break;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Shutting down
+        }
+    }
+
+    private void reloadAll() {
+        List<String> names;
+        synchronized (this) {
+            names = new ArrayList<>(profiles.keySet());
+        }
+        for (String name : names) {
+            reload(name);
+        }
+    }
+
+    private void reload(String name) {
+        List<Consumer<ConfigSnapshot>> toNotify;
+        ConfigSnapshot snapshot;
+        synchronized (this) {
+            // Only profiles that were loaded explicitly are reloaded
+            if (!profiles.containsKey(name)) {
+                return;
+            }
+            try {
+                snapshot = loadProfile(name);
+            } catch (ConfigLoadException e) {
+                lastReloadError = e;
+                return;
+            }
+            toNotify = new ArrayList<>(listeners);
+        }
+        for (Consumer<ConfigSnapshot> listener : toNotify) {
+            // One failing listener must not stop the others or the watcher thread
+            try {
+                listener.accept(snapshot);
+            } catch (RuntimeException e) {
+                lastReloadError = e;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (watcher != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                lastReloadError = e;
+            }
+            watcher.interrupt();
+            watcher = null;
+        }
+    }
+}
@@ -0,0 +1,1035 @@
+/**
+ * IndexedContactStoreExample.java
+ * This program demonstrates an on-disk contact store built from an append-only
+ * record log, a persisted hash index on the contact id and a sorted prefix index
+ * on the contact name. It is the "database" version of the ContactManager from
+ * Exercise 3: instead of serializing the whole collection on every save, each
+ * change is appended to the log and only the records a query needs are read
+ * back through a MappedByteBuffer.
+ */
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+
+public class IndexedContactStoreExample {
+    public static void main(String[] args) {
+        System.out.println("--- Indexed Contact Store Examples ---");
+
+        // Number of contacts for the startup benchmark (pass 5000000 for the full run)
+        int benchmarkSize = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        // Example 1: Adding, searching and editing contacts
+        System.out.println("\nExample 1: Adding, searching and editing contacts");
+        basicOperations();
+
+        // Example 2: Reopening the store from its persisted indexes
+        System.out.println("\nExample 2: Reopening the store from its persisted indexes");
+        reopenStore();
+
+        // Example 3: Background compaction
+        System.out.println("\nExample 3: Background compaction");
+        backgroundCompaction();
+
+        // Example 4: Startup time on a large store
+        System.out.println("\nExample 4: Startup time on a large store");
+        startupBenchmark(benchmarkSize);
+    }
+
+    /**
+     * Demonstrates the basic CRUD operations of the store.
+     */
+    public static void basicOperations() {
+        Path dir = Paths.get("contact_store");
+        deleteStore(dir);
+
+        try (ContactLogStore store = ContactLogStore.open(dir)) {
+            // Add some contacts; the store assigns the ids
+            long alice = store.add("Alice Smith", "555-1234", "alice@example.com");
+            long bob = store.add("Bob Johnson", "555-5678", "bob@example.com");
+            store.add("Alicia Keys", "555-0000", "alicia@example.com");
+            store.add("Charlie Brown", "555-9999", "charlie@example.com");
+
+            System.out.println("Contacts stored: " + store.size());
+            System.out.println("Lookup by id " + bob + ": " + store.get(bob));
+
+            // Prefix search on the name touches only the matching records
+            System.out.println("\nSearch for 'ali':");
+            for (StoredContact contact : store.searchByName("ali")) {
+                System.out.println("  " + contact);
+            }
+
+            // An edit appends a new version of the record
+            store.update(alice, "Alice Smith-Jones", "555-4321", "alice@example.org");
+            System.out.println("\nAfter editing Alice: " + store.get(alice));
+
+            // A delete appends a tombstone
+            store.delete(bob);
+            System.out.println("After deleting Bob: " + store.get(bob));
+            System.out.println("Contacts stored: " + store.size());
+            System.out.println("Log size: " + store.logSize() + " bytes, stale: " + store.staleBytes() + " bytes");
+
+            // Each field has a two-byte length prefix
+            try {
+                store.add("Long Note", "555-0101", "x".repeat(70_000));
+            } catch (IllegalArgumentException e) {
+                System.out.println("Rejected: " + e.getMessage());
+            }
+        } catch (IOException e) {
+            System.out.println("Error using contact store: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Demonstrates that a reopened store uses the persisted indexes and only
+     * replays the records appended after the last checkpoint.
+     */
+    public static void reopenStore() {
+        Path dir = Paths.get("contact_store");
+
+        try {
+            // Reopen the store written by Example 1 and append without a checkpoint
+            ContactLogStore store = ContactLogStore.open(dir);
+            long dave = store.add("Dave Wilson", "555-2468", "dave@example.com");
+            store.closeWithoutCheckpoint();
+
+            // The next open loads the indexes and replays only Dave's record
+            try (ContactLogStore reopened = ContactLogStore.open(dir)) {
+                System.out.println("Contacts after reopen: " + reopened.size());
+                System.out.println("Records replayed from the log tail: " + reopened.replayedRecords());
+                System.out.println("Dave: " + reopened.get(dave));
+
+                System.out.println("Search for 'a':");
+                for (StoredContact contact : reopened.searchByName("a")) {
+                    System.out.println("  " + contact);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error reopening contact store: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Demonstrates compacting the log in the background while writes continue.
+     */
+    public static void backgroundCompaction() {
+        Path dir = Paths.get("contact_store");
+
+        try (ContactLogStore store = ContactLogStore.open(dir)) {
+            // Create lots of stale versions of the same contacts
+            long[] ids = new long[100];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = store.add("Temp " + i, "000-0000", "temp" + i + "@example.com");
+            }
+            for (int version = 1; version <= 20; version++) {
+                for (int i = 0; i < ids.length; i++) {
+                    store.update(ids[i], "Temp " + i, "000-" + version, "temp" + i + "@example.com");
+                }
+            }
+
+            System.out.println("Before compaction: log " + store.logSize() + " bytes, stale " + store.staleBytes() + " bytes");
+
+            // Start the compaction and keep writing while it runs
+            Future<?> compaction = store.compactAsync();
+            long late = store.add("Written During Compaction", "555-1357", "late@example.com");
+            compaction.get();
+
+            System.out.println("After compaction:  log " + store.logSize() + " bytes, stale " + store.staleBytes() + " bytes");
+            System.out.println("Contacts stored: " + store.size());
+            System.out.println("Contact written during compaction: " + store.get(late));
+            System.out.println("Temp 42: " + store.get(ids[42]));
+        } catch (Exception e) {
+            System.out.println("Error compacting contact store: " + e.getMessage());
+        }
+
+        deleteStore(dir);
+    }
+
+    /**
+     * Measures how long it takes to open a large store from its persisted indexes.
+     */
+    public static void startupBenchmark(int count) {
+        Path dir = Paths.get("contact_store_large");
+        deleteStore(dir);
+
+        try {
+            // Build the store once with a bulk load
+            long start = System.nanoTime();
+            try (ContactLogStore store = ContactLogStore.open(dir)) {
+                store.bulkLoad(count, i -> new String[] {
+                    "Contact " + i, "555-" + (i % 10000), "contact" + i + "@example.com"
+                });
+            }
+            long buildTime = System.nanoTime() - start;
+            System.out.println("Built " + count + " contacts in " + (buildTime / 1_000_000) + " ms");
+
+            // Time the reopen: the indexes are mapped, nothing is scanned
+            start = System.nanoTime();
+            try (ContactLogStore store = ContactLogStore.open(dir)) {
+                long openTime = System.nanoTime() - start;
+                System.out.println("Opened store in " + (openTime / 1_000_000) + " ms");
+
+                start = System.nanoTime();
+                StoredContact contact = store.get(count / 2);
+                List<StoredContact> matches = store.searchByName("Contact 12345");
+                long queryTime = System.nanoTime() - start;
+                System.out.println("First lookup: " + contact);
+                System.out.println("Prefix search matched " + matches.size() + " contacts");
+                System.out.println("First queries took " + (queryTime / 1000) + " us");
+            }
+        } catch (IOException e) {
+            System.out.println("Error running startup benchmark: " + e.getMessage());
+        }
+
+        deleteStore(dir);
+    }
+
+    /**
+     * Helper method to remove a store directory.
+     */
+    private static void deleteStore(Path dir) {
+        try {
+            if (Files.exists(dir)) {
+                try (var files = Files.list(dir)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        Files.delete(file);
+                    }
+                }
+                Files.delete(dir);
+            }
+        } catch (IOException e) {
+            System.out.println("Error deleting " + dir + ": " + e.getMessage());
+        }
+    }
+}
+
+/**
+ * An immutable contact as read from the store.
+ */
+class StoredContact {
+    private final long id;
+    private final String name;
+    private final String phone;
+    private final String email;
+
+    public StoredContact(long id, String name, String phone, String email) {
+        this.id = id;
+        this.name = name;
+        this.phone = phone;
+        this.email = email;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getPhone() {
+        return phone;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    @Override
+    public String toString() {
+        return "Contact{id=" + id + ", name='" + name + "', phone='" + phone + "', email='" + email + "'}";
+    }
+}
+
+/**
+ * A contact store made of three files:
+ *
+ * contacts.log   - append-only records: [int length][byte type][long id][name][phone][email]
+ *                  where each string is a short length followed by UTF-8 bytes
+ * contacts.idx   - open-addressing hash table of (id, log offset) slots
+ * contacts.names - log offsets sorted by lower-case name, for binary prefix search
+ *
+ * Both index files record the log length they cover. On open they are mapped
+ * as they are and only the log records past that length are replayed into
+ * small in-memory "delta" indexes, so startup does not depend on the number
+ * of contacts. The delta is folded back into the index files on close().
+ *
+ * The log is read through a single MappedByteBuffer, which limits it to 2GB.
+ */
+class ContactLogStore implements AutoCloseable {
+    private static final int INDEX_MAGIC = 0x43494458;   // "CIDX"
+    private static final int NAMES_MAGIC = 0x434E4D53;   // "CNMS"
+    private static final int ID_HEADER = 32;             // magic, capacity, log length, count, next id
+    private static final int NAMES_HEADER = 16;          // magic, count, log length
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final long DELETED = -1;
+
+    private final Path dir;
+    private final Path logPath;
+    private final Path idPath;
+    private final Path namesPath;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "contact-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private FileChannel log;
+    private long logLength;
+    private volatile MappedByteBuffer logMap;
+
+    // Persisted indexes (null for a brand new store)
+    private MappedByteBuffer idIndex;
+    private int idCapacity;
+    private MappedByteBuffer nameIndex;
+    private int nameCount;
+
+    // Changes since the persisted indexes were written
+    private final Map<Long, Long> idDelta = new HashMap<>();
+    private final NavigableMap<String, Long> nameDelta = new TreeMap<>();
+
+    private long size;
+    private long nextId = 1;
+    private long staleBytes;
+    private int replayedRecords;
+    private boolean compactionScheduled;
+
+    private ContactLogStore(Path dir) {
+        this.dir = dir;
+        this.logPath = dir.resolve("contacts.log");
+        this.idPath = dir.resolve("contacts.idx");
+        this.namesPath = dir.resolve("contacts.names");
+    }
+
+    /**
+     * Opens (or creates) the store in the given directory.
+     */
+    public static ContactLogStore open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        ContactLogStore store = new ContactLogStore(dir);
+        store.load();
+        return store;
+    }
+
+    private void load() throws IOException {
+        resetIndexes();
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        logLength = log.size();
+        logMap = null;
+
+        long indexedLength = loadIndexes();
+        if (indexedLength < 0) {
+            // No usable index: rebuild it from the whole log
+            resetIndexes();
+            indexedLength = 0;
+        }
+        replay(indexedLength);
+    }
+
+    /**
+     * Maps the persisted index files. Returns the log length they cover,
+     * or -1 if they are missing or do not match the log.
+     */
+    private long loadIndexes() throws IOException {
+        if (!Files.exists(idPath) || !Files.exists(namesPath)) {
+            return -1;
+        }
+
+        MappedByteBuffer ids;
+        MappedByteBuffer names;
+        try (FileChannel idChannel = FileChannel.open(idPath, StandardOpenOption.READ);
+             FileChannel nameChannel = FileChannel.open(namesPath, StandardOpenOption.READ)) {
+            ids = idChannel.map(FileChannel.MapMode.READ_ONLY, 0, idChannel.size());
+            names = nameChannel.map(FileChannel.MapMode.READ_ONLY, 0, nameChannel.size());
+        }
+
+        if (ids.capacity() < ID_HEADER || names.capacity() < NAMES_HEADER
+                || ids.getInt(0) != INDEX_MAGIC || names.getInt(0) != NAMES_MAGIC) {
+            return -1;
+        }
+        long coveredLength = ids.getLong(8);
+        if (coveredLength != names.getLong(8) || coveredLength > logLength) {
+            return -1;
+        }
+
+        // Everything needed at startup is in the two headers
+        idIndex = ids;
+        idCapacity = ids.getInt(4);
+        size = ids.getLong(16);
+        nextId = ids.getLong(24);
+        nameIndex = names;
+        nameCount = names.getInt(4);
+        return coveredLength;
+    }
+
+    /**
+     * Replays the log records from the given offset into the delta indexes.
+     * A torn record at the end of the log (from a crash mid-append) is cut off.
+     */
+    private void replay(long from) throws IOException {
+        long offset = from;
+        while (offset + 4 <= logLength) {
+            MappedByteBuffer map = logMap(offset + 4);
+            int length = map.getInt((int) offset);
+            if (length <= 0 || offset + 4 + length > logLength) {
+                break;
+            }
+            byte type = map.get((int) offset + 4);
+            long id = map.getLong((int) offset + 5);
+            if (type == PUT) {
+                indexPut(id, offset, readName(offset));
+            } else {
+                indexDelete(id, 4 + length);
+            }
+            if (id >= nextId) {
+                nextId = id + 1;
+            }
+            replayedRecords++;
+            offset += 4 + length;
+        }
+
+        if (offset < logLength) {
+            log.truncate(offset);
+            logLength = offset;
+            logMap = null;
+        }
+    }
+
+    // ----- public API -----
+
+    public long add(String name, String phone, String email) throws IOException {
+        lock.writeLock().lock();
+        try {
+            long id = nextId;
+            long offset = append(PUT, id, name, phone, email);
+            nextId++;
+            indexPut(id, offset, name);
+            return id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean update(long id, String name, String phone, String email) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (lookupOffset(id) == DELETED) {
+                return false;
+            }
+            long offset = append(PUT, id, name, phone, email);
+            indexPut(id, offset, name);
+            maybeCompact();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean delete(long id) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (lookupOffset(id) == DELETED) {
+                return false;
+            }
+            long offset = append(DELETE, id, "", "", "");
+            indexDelete(id, (int) (logLength - offset));
+            maybeCompact();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public StoredContact get(long id) {
+        lock.readLock().lock();
+        try {
+            long offset = lookupOffset(id);
+            return offset == DELETED ? null : readContact(offset);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds all contacts whose name starts with the given prefix (case-insensitive).
+     * Only the index entries in the prefix range and their records are read.
+     */
+    public List<StoredContact> searchByName(String prefix) {
+        String key = prefix.toLowerCase();
+        List<StoredContact> results = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            // Binary search for the first persisted entry >= prefix
+            int low = 0;
+            int high = nameCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (readName(nameOffset(mid)).toLowerCase().compareTo(key) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            for (int i = low; i < nameCount; i++) {
+                long offset = nameOffset(i);
+                if (!readName(offset).toLowerCase().startsWith(key)) {
+                    break;
+                }
+                // Skip entries superseded by a later version or a delete
+                if (lookupOffset(readId(offset)) == offset) {
+                    results.add(readContact(offset));
+                }
+            }
+
+            // Entries added since the last checkpoint
+            for (Long offset : nameDelta.subMap(key, true, key + Character.MAX_VALUE, true).values()) {
+                if (lookupOffset(readId(offset)) == offset) {
+                    results.add(readContact(offset));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        results.sort(Comparator.comparing((StoredContact c) -> c.getName().toLowerCase())
+                .thenComparingLong(StoredContact::getId));
+        return results;
+    }
+
+    /**
+     * Appends many contacts in one pass and writes the indexes directly,
+     * without going through the delta indexes.
+     */
+    public void bulkLoad(int count, IntFunction<String[]> generator) throws IOException {
+        lock.writeLock().lock();
+        try {
+            // Fold any pending changes in first so the new indexes cover everything
+            long[] oldOffsets = liveOffsets();
+            int total = oldOffsets.length + count;
+            long[] ids = new long[total];
+            long[] offsets = new long[total];
+            String[] keys = new String[total];
+            for (int i = 0; i < oldOffsets.length; i++) {
+                ids[i] = readId(oldOffsets[i]);
+                offsets[i] = oldOffsets[i];
+                keys[i] = readName(oldOffsets[i]).toLowerCase();
+            }
+
+            long offset = logLength;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(logPath.toFile(), true), 1 << 16))) {
+                for (int i = 0; i < count; i++) {
+                    String[] fields = generator.apply(i);
+                    int n = oldOffsets.length + i;
+                    ids[n] = nextId++;
+                    offsets[n] = offset;
+                    keys[n] = fields[0].toLowerCase();
+                    offset += writeRecord(out, PUT, ids[n], fields[0], fields[1], fields[2]);
+                }
+            }
+            logLength = offset;
+
+            writeIndexes(ids, offsets, keys, logLength, nextId, ".tmp");
+            installIndexes(".tmp");
+            resetIndexes();
+            loadIndexes();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the log with only the live records on a background thread.
+     * Writers are only blocked while the records appended during the
+     * compaction are copied over and the files are swapped.
+     */
+    public Future<?> compactAsync() {
+        return compactor.submit(() -> {
+            compact();
+            return null;
+        });
+    }
+
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long logSize() {
+        lock.readLock().lock();
+        try {
+            return logLength;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long staleBytes() {
+        lock.readLock().lock();
+        try {
+            return staleBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int replayedRecords() {
+        return replayedRecords;
+    }
+
+    /**
+     * Writes the indexes so the next open does not need to replay anything.
+     */
+    @Override
+    public void close() throws IOException {
+        stopCompactor();
+        lock.writeLock().lock();
+        try {
+            if (!idDelta.isEmpty() || idIndex == null) {
+                checkpoint();
+            }
+            log.force(true);
+            log.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the log without updating the indexes, as a crash would.
+     */
+    void closeWithoutCheckpoint() throws IOException {
+        stopCompactor();
+        log.close();
+    }
+
+    private void stopCompactor() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for compaction", e);
+        }
+    }
+
+    // ----- compaction and checkpoints -----
+
+    private void maybeCompact() {
+        // Compact once more than half of the log is stale
+        if (!compactionScheduled && staleBytes > 64 * 1024 && staleBytes > logLength / 2) {
+            compactionScheduled = true;
+            compactAsync();
+        }
+    }
+
+    private void compact() throws IOException {
+        try {
+            compactLog();
+        } finally {
+            // Whatever failed, a later update may schedule another compaction
+            lock.writeLock().lock();
+            try {
+                compactionScheduled = false;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * The new log and its indexes are written under ".compact" names, so a
+     * checkpoint during the copy cannot overwrite them. The swap happens
+     * under the write lock: the old indexes are deleted first, so a crash
+     * part-way through leaves either the old log or the new one without
+     * indexes that describe a different log, and the next open rebuilds.
+     * The old log stays open until the new one is in place, so a failed
+     * move leaves the store working on the old log.
+     */
+    private void compactLog() throws IOException {
+        Path tmpLog = dir.resolve("contacts.log.compact");
+        long snapshotEnd;
+        long[] liveOffsets;
+        MappedByteBuffer snapshot;
+
+        // 1. Under the read lock, snapshot the live offsets. Records below
+        //    snapshotEnd never change, so they can be copied without the lock.
+        lock.readLock().lock();
+        try {
+            snapshotEnd = logLength;
+            snapshot = logMap(snapshotEnd);
+            liveOffsets = liveOffsets();
+        } finally {
+            lock.readLock().unlock();
+        }
+        Arrays.sort(liveOffsets);
+
+        // 2. Copy the live records into a new log and index them, still without the lock
+        long[] ids = new long[liveOffsets.length];
+        long[] newOffsets = new long[liveOffsets.length];
+        String[] keys = new String[liveOffsets.length];
+        long nextIdAtSnapshot;
+        long copied = 0;
+
+        try (FileChannel out = FileChannel.open(tmpLog, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (int i = 0; i < liveOffsets.length; i++) {
+                int offset = (int) liveOffsets[i];
+                int recordLength = 4 + snapshot.getInt(offset);
+                ByteBuffer record = snapshot.duplicate();
+                record.position(offset).limit(offset + recordLength);
+                while (record.hasRemaining()) {
+                    out.write(record);
+                }
+                ids[i] = snapshot.getLong(offset + 5);
+                newOffsets[i] = copied;
+                keys[i] = readString(snapshot, offset + 13).toLowerCase();
+                copied += recordLength;
+            }
+
+            lock.readLock().lock();
+            try {
+                nextIdAtSnapshot = nextId;
+            } finally {
+                lock.readLock().unlock();
+            }
+            writeIndexes(ids, newOffsets, keys, copied, nextIdAtSnapshot, ".compact");
+
+            // 3. Under the write lock, copy whatever was appended meanwhile and swap
+            lock.writeLock().lock();
+            try {
+                log.transferTo(snapshotEnd, logLength - snapshotEnd, out);
+                out.force(true);
+                Files.deleteIfExists(idPath);
+                Files.deleteIfExists(namesPath);
+                Files.move(tmpLog, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+                // The open channel now belongs to the replaced file, so reopen even if
+                // installing the indexes fails; load() then rebuilds them from the log
+                FileChannel oldLog = log;
+                try {
+                    installIndexes(".compact");
+                } finally {
+                    oldLog.close();
+                    // The new indexes cover the copied records; load() replays the tail
+                    load();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Rewrites both index files from the persisted indexes plus the delta.
+     * Must be called with the write lock held.
+     */
+    private void checkpoint() throws IOException {
+        long[] offsets = liveOffsets();
+        long[] ids = new long[offsets.length];
+        String[] keys = new String[offsets.length];
+        for (int i = 0; i < offsets.length; i++) {
+            ids[i] = readId(offsets[i]);
+            keys[i] = readName(offsets[i]).toLowerCase();
+        }
+
+        long stale = staleBytes;
+        writeIndexes(ids, offsets, keys, logLength, nextId, ".tmp");
+        installIndexes(".tmp");
+        resetIndexes();
+        loadIndexes();
+        staleBytes = stale;
+    }
+
+    /**
+     * Writes the hash index and the sorted name index for the given records
+     * to temporary files named after the index files plus the suffix.
+     * installIndexes() then moves them into place.
+     */
+    private void writeIndexes(long[] ids, long[] offsets, String[] keys,
+            long coveredLength, long nextId, String suffix) throws IOException {
+        // Hash index: capacity is a power of two at least twice the live count
+        int capacity = Integer.highestOneBit(Math.max(8, ids.length)) << 2;
+        Path tmpIds = dir.resolve(idPath.getFileName() + suffix);
+        try (FileChannel channel = FileChannel.open(tmpIds, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_WRITE, 0, ID_HEADER + capacity * 16L);
+            index.putInt(0, INDEX_MAGIC);
+            index.putInt(4, capacity);
+            index.putLong(8, coveredLength);
+            index.putLong(16, ids.length);
+            index.putLong(24, nextId);
+            for (int i = 0; i < ids.length; i++) {
+                int slot = slotFor(ids[i], capacity);
+                while (index.getLong((int) (ID_HEADER + slot * 16L)) != 0) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                index.putLong((int) (ID_HEADER + slot * 16L), ids[i]);
+                index.putLong((int) (ID_HEADER + slot * 16L + 8), offsets[i]);
+            }
+            index.force();
+        }
+
+        // Name index: offsets sorted by lower-case name, then id
+        Integer[] order = new Integer[ids.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing((Integer i) -> keys[i]).thenComparingLong(i -> ids[i]));
+
+        Path tmpNames = dir.resolve(namesPath.getFileName() + suffix);
+        try (FileChannel channel = FileChannel.open(tmpNames, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer names = channel.map(FileChannel.MapMode.READ_WRITE, 0, NAMES_HEADER + ids.length * 8L);
+            names.putInt(0, NAMES_MAGIC);
+            names.putInt(4, ids.length);
+            names.putLong(8, coveredLength);
+            for (int i = 0; i < order.length; i++) {
+                names.putLong((int) (NAMES_HEADER + i * 8L), offsets[order[i]]);
+            }
+            names.force();
+        }
+    }
+
+    /**
+     * Moves the index files written by writeIndexes() into place atomically.
+     * Must be called with the write lock held.
+     */
+    private void installIndexes(String suffix) throws IOException {
+        Files.move(dir.resolve(idPath.getFileName() + suffix), idPath,
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(dir.resolve(namesPath.getFileName() + suffix), namesPath,
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void resetIndexes() {
+        idIndex = null;
+        nameIndex = null;
+        idCapacity = 0;
+        nameCount = 0;
+        idDelta.clear();
+        nameDelta.clear();
+        size = 0;
+        staleBytes = 0;
+        replayedRecords = 0;
+    }
+
+    /**
+     * Collects the log offsets of all live records.
+     */
+    private long[] liveOffsets() {
+        long[] offsets = new long[(int) size];
+        int count = 0;
+        for (int slot = 0; slot < idCapacity; slot++) {
+            long id = idIndex.getLong((int) (ID_HEADER + slot * 16L));
+            if (id != 0 && !idDelta.containsKey(id)) {
+                offsets[count++] = idIndex.getLong((int) (ID_HEADER + slot * 16L + 8));
+            }
+        }
+        for (long offset : idDelta.values()) {
+            if (offset != DELETED) {
+                offsets[count++] = offset;
+            }
+        }
+        return offsets;
+    }
+
+    // ----- index maintenance -----
+
+    private void indexPut(long id, long offset, String name) {
+        long previous = lookupOffset(id);
+        if (previous == DELETED) {
+            size++;
+        } else {
+            staleBytes += 4 + logMap(previous + 4).getInt((int) previous);
+        }
+        idDelta.put(id, offset);
+        nameDelta.put(name.toLowerCase() + '\0' + id, offset);
+    }
+
+    private void indexDelete(long id, int tombstoneLength) {
+        long previous = lookupOffset(id);
+        if (previous != DELETED) {
+            size--;
+            staleBytes += 4 + logMap(previous + 4).getInt((int) previous);
+        }
+        staleBytes += tombstoneLength;
+        idDelta.put(id, DELETED);
+    }
+
+    /**
+     * Returns the log offset of the current version of a contact, or DELETED.
+     */
+    private long lookupOffset(long id) {
+        Long delta = idDelta.get(id);
+        if (delta != null) {
+            return delta;
+        }
+        if (idIndex == null) {
+            return DELETED;
+        }
+        int slot = slotFor(id, idCapacity);
+        while (true) {
+            long slotId = idIndex.getLong((int) (ID_HEADER + slot * 16L));
+            if (slotId == id) {
+                return idIndex.getLong((int) (ID_HEADER + slot * 16L + 8));
+            }
+            if (slotId == 0) {
+                return DELETED;
+            }
+            slot = (slot + 1) & (idCapacity - 1);
+        }
+    }
+
+    private static int slotFor(long id, int capacity) {
+        // Spread sequential ids across the table (Fibonacci hashing)
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (capacity - 1);
+    }
+
+    private long nameOffset(int position) {
+        return nameIndex.getLong((int) (NAMES_HEADER + position * 8L));
+    }
+
+    // ----- record encoding -----
+
+    private long append(byte type, long id, String name, String phone, String email) throws IOException {
+        byte[][] fields = {
+            encodeField(name),
+            encodeField(phone),
+            encodeField(email)
+        };
+        int length = 1 + 8 + 6 + fields[0].length + fields[1].length + fields[2].length;
+
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+        buffer.putInt(length).put(type).putLong(id);
+        for (byte[] field : fields) {
+            buffer.putShort((short) field.length).put(field);
+        }
+        buffer.flip();
+
+        long offset = logLength;
+        while (buffer.hasRemaining()) {
+            log.write(buffer, offset + buffer.position());
+        }
+        logLength += 4 + length;
+        return offset;
+    }
+
+    /**
+     * Writes one record and returns the number of bytes written.
+     */
+    private static int writeRecord(DataOutputStream out, byte type, long id,
+            String name, String phone, String email) throws IOException {
+        byte[] n = encodeField(name);
+        byte[] p = encodeField(phone);
+        byte[] e = encodeField(email);
+        int length = 1 + 8 + 6 + n.length + p.length + e.length;
+        out.writeInt(length);
+        out.writeByte(type);
+        out.writeLong(id);
+        out.writeShort(n.length);
+        out.write(n);
+        out.writeShort(p.length);
+        out.write(p);
+        out.writeShort(e.length);
+        out.write(e);
+        return 4 + length;
+    }
+
+    /**
+     * Encodes a field as UTF-8, rejecting one too long for its unsigned
+     * short length prefix.
+     */
+    private static byte[] encodeField(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Field is " + bytes.length + " bytes, the limit is 65535");
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns a mapping of the log that covers at least the given position.
+     * Mapping past the end of a writable channel would extend the file, so
+     * the log is mapped up to its current length and remapped lazily when a
+     * read reaches past the end of the mapping.
+     */
+    private MappedByteBuffer logMap(long end) {
+        MappedByteBuffer map = logMap;
+        if (map != null && map.capacity() >= end) {
+            return map;
+        }
+        synchronized (this) {
+            if (logMap == null || logMap.capacity() < end) {
+                if (logLength > Integer.MAX_VALUE) {
+                    throw new IllegalStateException("Log larger than 2GB is not supported");
+                }
+                try {
+                    logMap = log.map(FileChannel.MapMode.READ_ONLY, 0, logLength);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return logMap;
+        }
+    }
+
+    private long readId(long offset) {
+        return logMap(offset + 13).getLong((int) offset + 5);
+    }
+
+    private String readName(long offset) {
+        return readString(logMap(offset + 15), (int) offset + 13);
+    }
+
+    private StoredContact readContact(long offset) {
+        MappedByteBuffer map = logMap(offset + 4);
+        map = logMap(offset + 4 + map.getInt((int) offset));
+        int position = (int) offset + 13;
+        String name = readString(map, position);
+        position += 2 + (map.getShort(position) & 0xFFFF);
+        String phone = readString(map, position);
+        position += 2 + (map.getShort(position) & 0xFFFF);
+        String email = readString(map, position);
+        return new StoredContact(map.getLong((int) offset + 5), name, phone, email);
+    }
+
+    private static String readString(MappedByteBuffer map, int position) {
+        int length = map.getShort(position) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        map.get(position + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
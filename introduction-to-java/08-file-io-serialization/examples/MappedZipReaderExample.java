@@ -0,0 +1,678 @@
+/**
+ * MappedZipReaderExample.java
+ * This program demonstrates a random-access ZIP reader. ZipFilesExample reads
+ * archives by enumerating every entry with ZipFile.entries() or ZipInputStream
+ * and extracts them one after another. Here the archive is memory-mapped, the
+ * central directory is parsed once into a compact index keyed by entry name,
+ * and a single entry is found in O(1). extractAll inflates entries on several
+ * threads into preallocated output files.
+ */
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class MappedZipReaderExample {
+    public static void main(String[] args) {
+        System.out.println("--- Mapped ZIP Reader Examples ---");
+
+        // Number of entries in the benchmark archive (pass 500000 for the full run)
+        int entryCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+        // Example 1: Looking up and reading single entries
+        System.out.println("\nExample 1: Looking up and reading single entries");
+        singleEntryReads();
+
+        // Example 2: Lookup cost on a large archive
+        System.out.println("\nExample 2: Lookup cost on a large archive");
+        lookupBenchmark(entryCount);
+
+        // Example 3: Parallel extraction
+        System.out.println("\nExample 3: Parallel extraction");
+        extractionBenchmark(Math.min(entryCount, 20_000), threads);
+    }
+
+    /**
+     * Demonstrates opening an archive and reading entries by name.
+     */
+    public static void singleEntryReads() {
+        Path archive = Paths.get("mapped_example.zip");
+
+        try {
+            createArchive(archive, 10, 10);
+
+            try (MappedZipReader reader = new MappedZipReader(archive)) {
+                System.out.println("Entries: " + reader.size());
+                for (int i = 0; i < Math.min(3, reader.size()); i++) {
+                    System.out.println("  " + reader.name(i) + " (" + reader.size(i) + " bytes, "
+                            + reader.compressedSize(i) + " compressed)");
+                }
+
+                String name = "dir3/file7.txt";
+                int index = reader.find(name);
+                System.out.println("\nFound " + name + " at index " + index);
+                String content = new String(reader.read(index), StandardCharsets.UTF_8);
+                System.out.println("Content: " + content.substring(0, Math.min(60, content.length())) + "...");
+
+                System.out.println("Missing entry index: " + reader.find("no/such/file.txt"));
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading archive: " + e.getMessage());
+        }
+
+        deleteRecursively(archive.toFile());
+    }
+
+    /**
+     * Compares the cost of finding one entry: enumerating ZipFile.entries()
+     * as ZipFilesExample does, ZipFile.getEntry, and the mapped index.
+     */
+    public static void lookupBenchmark(int entryCount) {
+        Path archive = Paths.get("mapped_benchmark.zip");
+
+        try {
+            createArchive(archive, entryCount / 100, 100);
+            System.out.printf("Archive: %,d entries, %,d bytes%n", entryCount, Files.size(archive));
+
+            Random random = new Random(3);
+            int lookups = 100_000;
+            String[] names = new String[lookups];
+            for (int i = 0; i < lookups; i++) {
+                names[i] = "dir" + random.nextInt(entryCount / 100) + "/file" + random.nextInt(100) + ".txt";
+            }
+
+            // ZipFile.entries(): walk the entries until the name matches
+            int scans = 20;
+            long start = System.nanoTime();
+            long found = 0;
+            try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+                for (int i = 0; i < scans; i++) {
+                    Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                    while (entries.hasMoreElements()) {
+                        if (entries.nextElement().getName().equals(names[i])) {
+                            found++;
+                            break;
+                        }
+                    }
+                }
+            }
+            System.out.printf("ZipFile.entries() scan: %.0f us/lookup%n", (System.nanoTime() - start) / 1e3 / scans);
+
+            // Two rounds, so the second one runs with warm code
+            for (int round = 1; round <= 2; round++) {
+                start = System.nanoTime();
+                long open;
+                try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+                    open = System.nanoTime() - start;
+                    start = System.nanoTime();
+                    for (String name : names) {
+                        found += zipFile.getEntry(name) != null ? 1 : 0;
+                    }
+                }
+                long getEntryNanos = (System.nanoTime() - start) / lookups;
+
+                start = System.nanoTime();
+                long mappedOpen;
+                long findNanos;
+                long readNanos;
+                try (MappedZipReader reader = new MappedZipReader(archive)) {
+                    mappedOpen = System.nanoTime() - start;
+                    start = System.nanoTime();
+                    for (String name : names) {
+                        found += reader.find(name) >= 0 ? 1 : 0;
+                    }
+                    findNanos = (System.nanoTime() - start) / lookups;
+
+                    start = System.nanoTime();
+                    for (int i = 0; i < 10_000; i++) {
+                        found += reader.read(reader.find(names[i])).length > 0 ? 1 : 0;
+                    }
+                    readNanos = (System.nanoTime() - start) / 10_000;
+                }
+
+                System.out.printf("Round %d: ZipFile open %.1f ms, getEntry %.2f us | "
+                        + "MappedZipReader open %.1f ms, find %.2f us, find+read %.2f us%n",
+                        round, open / 1e6, getEntryNanos / 1e3, mappedOpen / 1e6, findNanos / 1e3, readNanos / 1e3);
+            }
+            System.out.println("Entries found: " + found);
+        } catch (IOException e) {
+            System.out.println("Error in lookup benchmark: " + e.getMessage());
+        }
+
+        deleteRecursively(archive.toFile());
+    }
+
+    /**
+     * Compares sequential ZipFile extraction with MappedZipReader.extractAll.
+     */
+    public static void extractionBenchmark(int entryCount, int threads) {
+        Path archive = Paths.get("mapped_extract.zip");
+        Path sequentialDir = Paths.get("mapped_extract_sequential");
+        Path parallelDir = Paths.get("mapped_extract_parallel");
+
+        try {
+            createArchive(archive, Math.max(1, entryCount / 100), 100);
+
+            long start = System.nanoTime();
+            try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    Path target = sequentialDir.resolve(entry.getName());
+                    if (entry.isDirectory()) {
+                        Files.createDirectories(target);
+                    } else {
+                        Files.createDirectories(target.getParent());
+                        Files.copy(zipFile.getInputStream(entry), target);
+                    }
+                }
+            }
+            long sequential = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            try (MappedZipReader reader = new MappedZipReader(archive)) {
+                reader.extractAll(parallelDir, threads);
+            }
+            long parallel = System.nanoTime() - start;
+
+            System.out.printf("Extracted %,d entries: sequential ZipFile %d ms, extractAll (%d threads) %d ms%n",
+                    entryCount, sequential / 1_000_000, threads, parallel / 1_000_000);
+
+            // Check one file from each extraction
+            Path sample = Paths.get("dir0", "file42.txt");
+            System.out.println("Sample files identical: " + Arrays.equals(
+                    Files.readAllBytes(sequentialDir.resolve(sample)),
+                    Files.readAllBytes(parallelDir.resolve(sample))));
+        } catch (IOException e) {
+            System.out.println("Error in extraction benchmark: " + e.getMessage());
+        }
+
+        deleteRecursively(archive.toFile());
+        deleteRecursively(sequentialDir.toFile());
+        deleteRecursively(parallelDir.toFile());
+    }
+
+    /**
+     * Helper method to create an archive with directories of small text files.
+     * Every third file is STORED so both methods are exercised.
+     */
+    private static void createArchive(Path archive, int directories, int filesPerDirectory) throws IOException {
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(archive.toFile()))) {
+            CRC32 crc = new CRC32();
+            for (int d = 0; d < directories; d++) {
+                zos.putNextEntry(new ZipEntry("dir" + d + "/"));
+                zos.closeEntry();
+                for (int f = 0; f < filesPerDirectory; f++) {
+                    StringBuilder sb = new StringBuilder();
+                    for (int line = 0; line < 5 + f % 20; line++) {
+                        sb.append("Directory ").append(d).append(", file ").append(f)
+                                .append(", line ").append(line).append('\n');
+                    }
+                    byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+                    ZipEntry entry = new ZipEntry("dir" + d + "/file" + f + ".txt");
+                    if (f % 3 == 0) {
+                        crc.reset();
+                        crc.update(data);
+                        entry.setMethod(ZipEntry.STORED);
+                        entry.setSize(data.length);
+                        entry.setCompressedSize(data.length);
+                        entry.setCrc(crc.getValue());
+                    }
+                    zos.putNextEntry(entry);
+                    zos.write(data);
+                    zos.closeEntry();
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method to recursively delete a file or directory.
+     */
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
+
+/**
+ * A read-only ZIP archive backed by memory mappings.
+ *
+ * The constructor parses the central directory once into parallel primitive
+ * arrays (offsets, sizes, CRCs, methods) and a byte pool of UTF-8 names, plus
+ * an open-addressing hash table from name to entry index. A lookup hashes the
+ * name and compares bytes; it allocates nothing but the UTF-8 key.
+ *
+ * The archive is mapped in 1GB segments, so archives larger than 2GB work;
+ * an entry that spans two segments is read across both.
+ */
+class MappedZipReader implements AutoCloseable {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long fileSize;
+
+    // The index: one slot per entry in each array
+    private final int count;
+    private final long[] headerOffsets;
+    private final long[] compressedSizes;
+    private final long[] sizes;
+    private final int[] crcs;
+    private final short[] methods;
+    private final int[] nameStarts;
+    private final byte[] names;
+    private final int[] table;
+
+    // Inflaters are expensive to create, so read() borrows one from this pool and
+    // returns it; close() ends them, which frees their native zlib memory
+    private final Queue<Inflater> readInflaters = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    public MappedZipReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        fileSize = channel.size();
+        int segmentCount = (int) ((fileSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        segments = new MappedByteBuffer[segmentCount];
+        for (int s = 0; s < segmentCount; s++) {
+            long start = s * SEGMENT_SIZE;
+            segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, fileSize - start));
+            segments[s].order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        // Find the end of central directory record (it may be followed by a comment)
+        long eocd = -1;
+        for (long p = fileSize - 22; p >= Math.max(0, fileSize - 22 - 65535); p--) {
+            if (getInt(p) == END_OF_CENTRAL_DIRECTORY) {
+                eocd = p;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            close();
+            throw new ZipException("End of central directory not found: " + path);
+        }
+
+        long entries = getShort(eocd + 10);
+        long centralOffset = getInt(eocd + 16) & 0xFFFFFFFFL;
+        if (eocd >= 20 && getInt(eocd - 20) == ZIP64_LOCATOR) {
+            long zip64End = getLong(eocd - 20 + 8);
+            if (getInt(zip64End) != ZIP64_END_OF_CENTRAL_DIRECTORY) {
+                close();
+                throw new ZipException("Invalid ZIP64 end of central directory: " + path);
+            }
+            entries = getLong(zip64End + 32);
+            centralOffset = getLong(zip64End + 48);
+        }
+
+        count = (int) entries;
+        headerOffsets = new long[count];
+        compressedSizes = new long[count];
+        sizes = new long[count];
+        crcs = new int[count];
+        methods = new short[count];
+        nameStarts = new int[count + 1];
+        byte[] namePool = new byte[Math.max(64, count * 24)];
+        int poolSize = 0;
+
+        long p = centralOffset;
+        for (int i = 0; i < count; i++) {
+            if (getInt(p) != CENTRAL_HEADER) {
+                close();
+                throw new ZipException("Invalid central directory header for entry " + i);
+            }
+            methods[i] = (short) getShort(p + 10);
+            crcs[i] = getInt(p + 16);
+            compressedSizes[i] = getInt(p + 20) & 0xFFFFFFFFL;
+            sizes[i] = getInt(p + 24) & 0xFFFFFFFFL;
+            int nameLength = getShort(p + 28);
+            int extraLength = getShort(p + 30);
+            int commentLength = getShort(p + 32);
+            headerOffsets[i] = getInt(p + 42) & 0xFFFFFFFFL;
+
+            if (poolSize + nameLength > namePool.length) {
+                namePool = Arrays.copyOf(namePool, Math.max(namePool.length * 2, poolSize + nameLength));
+            }
+            get(p + 46, namePool, poolSize, nameLength);
+            nameStarts[i] = poolSize;
+            poolSize += nameLength;
+
+            // ZIP64 extra: only the fields that were 0xFFFFFFFF are present, in order
+            long extra = p + 46 + nameLength;
+            long extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = getShort(extra);
+                int length = getShort(extra + 2);
+                if (id == 0x0001) {
+                    long field = extra + 4;
+                    if (sizes[i] == 0xFFFFFFFFL) {
+                        sizes[i] = getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSizes[i] == 0xFFFFFFFFL) {
+                        compressedSizes[i] = getLong(field);
+                        field += 8;
+                    }
+                    if (headerOffsets[i] == 0xFFFFFFFFL) {
+                        headerOffsets[i] = getLong(field);
+                    }
+                }
+                extra += 4 + length;
+            }
+            p = extraEnd + commentLength;
+        }
+        nameStarts[count] = poolSize;
+        names = Arrays.copyOf(namePool, poolSize);
+
+        // Open-addressing table of entry index + 1 (0 means empty), load factor <= 0.5
+        table = new int[Integer.highestOneBit(Math.max(16, count * 2 - 1)) << 1];
+        for (int i = 0; i < count; i++) {
+            int slot = hash(names, nameStarts[i], nameStarts[i + 1]) & (table.length - 1);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public String name(int index) {
+        return new String(names, nameStarts[index], nameStarts[index + 1] - nameStarts[index], StandardCharsets.UTF_8);
+    }
+
+    public long size(int index) {
+        return sizes[index];
+    }
+
+    public long compressedSize(int index) {
+        return compressedSizes[index];
+    }
+
+    public boolean isDirectory(int index) {
+        return names[nameStarts[index + 1] - 1] == '/';
+    }
+
+    /**
+     * Returns the index of the named entry, or -1 if there is none.
+     */
+    public int find(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int slot = hash(key, 0, key.length) & (table.length - 1);
+        while (table[slot] != 0) {
+            int index = table[slot] - 1;
+            if (Arrays.equals(names, nameStarts[index], nameStarts[index + 1], key, 0, key.length)) {
+                return index;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Reads and inflates one entry into memory, checking its CRC.
+     */
+    public byte[] read(int index) throws IOException {
+        if (sizes[index] > Integer.MAX_VALUE - 8) {
+            throw new IOException("Entry too large to read into memory: " + name(index));
+        }
+        byte[] data = new byte[(int) sizes[index]];
+        int[] filled = {0};
+        Inflater inflater = readInflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        try {
+            decode(index, inflater, (chunk, length) -> {
+                if (filled[0] + length > data.length) {
+                    throw new ZipException("Entry larger than its recorded size: " + name(index));
+                }
+                System.arraycopy(chunk, 0, data, filled[0], length);
+                filled[0] += length;
+            });
+        } finally {
+            readInflaters.offer(inflater);
+            if (closed) {
+                // Closed while this read ran: end what close() could not see
+                endReadInflaters();
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Extracts every entry below the target directory. Directories are created
+     * first; files are then inflated on a thread pool, each into an output file
+     * preallocated to its final size.
+     */
+    public void extractAll(Path target, int threads) throws IOException {
+        Path root = target.toAbsolutePath().normalize();
+        Files.createDirectories(root);
+
+        // Resolve every path up front and refuse entries that escape the target ("zip slip")
+        Path[] outputs = new Path[count];
+        for (int i = 0; i < count; i++) {
+            outputs[i] = root.resolve(name(i)).normalize();
+            if (!outputs[i].startsWith(root)) {
+                throw new ZipException("Entry outside target directory: " + name(i));
+            }
+            Files.createDirectories(isDirectory(i) ? outputs[i] : outputs[i].getParent());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            // Each task extracts a contiguous range of entries with one Inflater and buffer
+            int tasks = threads * 8;
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < tasks; t++) {
+                int from = (int) ((long) count * t / tasks);
+                int to = (int) ((long) count * (t + 1) / tasks);
+                futures.add(pool.submit(() -> {
+                    Inflater inflater = new Inflater(true);
+                    try {
+                        for (int i = from; i < to; i++) {
+                            if (!isDirectory(i)) {
+                                extract(i, outputs[i], inflater);
+                            }
+                        }
+                    } finally {
+                        inflater.end();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error extracting: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void extract(int index, Path output, Inflater inflater) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(output.toFile(), "rw")) {
+            // Preallocating lets the file system lay out the file once
+            file.setLength(sizes[index]);
+            FileChannel out = file.getChannel();
+            decode(index, inflater, (chunk, length) -> {
+                ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, length);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            });
+        }
+    }
+
+    /**
+     * Streams the decoded bytes of one entry to a sink, in chunks, and
+     * verifies the CRC at the end.
+     */
+    private void decode(int index, Inflater inflater, ChunkSink sink) throws IOException {
+        long header = headerOffsets[index];
+        if (getInt(header) != LOCAL_HEADER) {
+            throw new ZipException("Invalid local header for " + name(index));
+        }
+        // The local extra field can differ from the central one, so read its length here
+        long dataStart = header + 30 + getShort(header + 26) + getShort(header + 28);
+        long remaining = compressedSizes[index];
+        long position = dataStart;
+
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[(int) Math.min(64 * 1024, sizes[index] + 1)];
+
+        if (methods[index] == ZipEntry.STORED) {
+            while (remaining > 0) {
+                int length = (int) Math.min(chunk.length, remaining);
+                get(position, chunk, 0, length);
+                crc.update(chunk, 0, length);
+                sink.accept(chunk, length);
+                position += length;
+                remaining -= length;
+            }
+        } else if (methods[index] == ZipEntry.DEFLATED) {
+            inflater.reset();
+            try {
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        if (remaining == 0) {
+                            throw new ZipException("Truncated entry: " + name(index));
+                        }
+                        // Feed the inflater straight from the mapping, one segment slice at a time
+                        int segment = (int) (position / SEGMENT_SIZE);
+                        int offset = (int) (position % SEGMENT_SIZE);
+                        int length = (int) Math.min(remaining, segments[segment].capacity() - offset);
+                        inflater.setInput(segments[segment].slice(offset, length));
+                        position += length;
+                        remaining -= length;
+                    }
+                    int produced = inflater.inflate(chunk);
+                    if (produced > 0) {
+                        crc.update(chunk, 0, produced);
+                        sink.accept(chunk, produced);
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException("Corrupt entry " + name(index) + ": " + e.getMessage());
+            }
+        } else {
+            throw new ZipException("Unsupported compression method " + methods[index] + " for " + name(index));
+        }
+
+        if ((int) crc.getValue() != crcs[index]) {
+            throw new ZipException("CRC mismatch for " + name(index));
+        }
+    }
+
+    /**
+     * Receives decoded data in order, one chunk at a time.
+     */
+    private interface ChunkSink {
+        void accept(byte[] chunk, int length) throws IOException;
+    }
+
+    // ----- little-endian access across segments -----
+
+    private int getShort(long position) {
+        return (get(position) & 0xFF) | (get(position + 1) & 0xFF) << 8;
+    }
+
+    private int getInt(long position) {
+        int segment = (int) (position / SEGMENT_SIZE);
+        int offset = (int) (position % SEGMENT_SIZE);
+        if (offset + 4 <= segments[segment].capacity()) {
+            return segments[segment].getInt(offset);
+        }
+        return getShort(position) | getShort(position + 2) << 16;
+    }
+
+    private long getLong(long position) {
+        return (getInt(position) & 0xFFFFFFFFL) | (long) getInt(position + 4) << 32;
+    }
+
+    private byte get(long position) {
+        return segments[(int) (position / SEGMENT_SIZE)].get((int) (position % SEGMENT_SIZE));
+    }
+
+    private void get(long position, byte[] dst, int offset, int length) {
+        while (length > 0) {
+            int segment = (int) (position / SEGMENT_SIZE);
+            int segmentOffset = (int) (position % SEGMENT_SIZE);
+            int n = Math.min(length, segments[segment].capacity() - segmentOffset);
+            segments[segment].get(segmentOffset, dst, offset, n);
+            position += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private static int hash(byte[] bytes, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + bytes[i];
+        }
+        // Mix the high bits into the low bits used by the table mask
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        return h ^ (h >>> 13);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        endReadInflaters();
+        channel.close();
+    }
+
+    private void endReadInflaters() {
+        Inflater inflater;
+        while ((inflater = readInflaters.poll()) != null) {
+            inflater.end();
+        }
+    }
+}
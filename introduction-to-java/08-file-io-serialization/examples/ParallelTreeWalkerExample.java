@@ -0,0 +1,582 @@
+/**
+ * ParallelTreeWalkerExample.java
+ * This program demonstrates walking a large directory tree in parallel.
+ * Files.walkFileTree (as in NIOExample.walkDirectoryTree) and recursive
+ * File.listFiles (as in FileBasicsExample.listDirectoryContents) list one
+ * directory at a time on one thread. On network shares every listing and
+ * every attribute lookup is a round trip, so a tree with millions of files
+ * takes hours. ParallelTreeWalker lists many directories at once on a
+ * ForkJoinPool. It reads each entry's attributes while listing, and hands
+ * the results to the caller through a bounded queue as a Stream<PathEntry>.
+ */
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SecureDirectoryStream;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class ParallelTreeWalkerExample {
+    public static void main(String[] args) {
+        System.out.println("--- Parallel Tree Walker Examples ---");
+
+        // Number of files in the benchmark tree
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        Path root = Paths.get("walker_test_dir");
+
+        try {
+            createTree(root, files);
+
+            // Example 1: Streaming entries with attributes
+            System.out.println("\nExample 1: Streaming entries with attributes");
+            streamEntries(root);
+
+            // Example 2: Glob filters, pruning and early cutoff
+            System.out.println("\nExample 2: Glob filters, pruning and early cutoff");
+            filterAndCutOff(root);
+
+            // Example 3: Performance compared with walkFileTree and listFiles
+            System.out.println("\nExample 3: Performance compared with walkFileTree and listFiles");
+            benchmark(root);
+        } catch (IOException e) {
+            System.out.println("Error creating test tree: " + e.getMessage());
+        } finally {
+            deleteTree(root);
+        }
+    }
+
+    /**
+     * Demonstrates collecting totals from the stream of entries.
+     */
+    public static void streamEntries(Path root) {
+        ParallelTreeWalker walker = ParallelTreeWalker.builder(root).build();
+
+        try (Stream<PathEntry> entries = walker.stream()) {
+            long[] totals = new long[3];
+            entries.forEach(entry -> {
+                if (entry.isDirectory()) {
+                    totals[0]++;
+                } else {
+                    totals[1]++;
+                    totals[2] += entry.size();
+                }
+            });
+            System.out.printf("Directories: %d, files: %d, total size: %,d bytes%n", totals[0], totals[1], totals[2]);
+        }
+
+        // The attributes come with the entry, so no further file system calls are needed
+        try (Stream<PathEntry> entries = walker.stream()) {
+            entries.filter(entry -> !entry.isDirectory())
+                    .max(Comparator.comparingLong(PathEntry::size))
+                    .ifPresent(entry -> System.out.println("Largest file: " + entry.path()
+                            + " (" + entry.size() + " bytes, depth " + entry.depth() + ")"));
+        }
+        System.out.println("Errors during the walks: " + walker.errors().size());
+    }
+
+    /**
+     * Demonstrates glob and predicate filters, skipping whole subtrees, and
+     * stopping the walk as soon as a match is found.
+     */
+    public static void filterAndCutOff(Path root) {
+        // Only .log files, and never descend into "archive" directories
+        ParallelTreeWalker logs = ParallelTreeWalker.builder(root)
+                .glob("**.log")
+                .pruneDirectories(entry -> entry.path().getFileName().toString().equals("archive"))
+                .build();
+        try (Stream<PathEntry> entries = logs.stream()) {
+            System.out.println("Log files outside archive directories: " + entries.count());
+        }
+
+        // Directories deeper than 2 levels are never listed
+        ParallelTreeWalker shallow = ParallelTreeWalker.builder(root).maxDepth(2).build();
+        try (Stream<PathEntry> entries = shallow.stream()) {
+            System.out.println("Entries within 2 levels: " + entries.count());
+        }
+
+        // Closing the stream after the first match cancels the remaining listings
+        ParallelTreeWalker reports = ParallelTreeWalker.builder(root)
+                .filter(entry -> entry.path().getFileName().toString().startsWith("report-7"))
+                .build();
+        long start = System.nanoTime();
+        try (Stream<PathEntry> entries = reports.stream()) {
+            Optional<PathEntry> first = entries.findAny();
+            System.out.printf("First report-7 file: %s (found in %.1f ms)%n",
+                    first.map(PathEntry::path).orElse(null), (System.nanoTime() - start) / 1e6);
+        }
+    }
+
+    /**
+     * Counts files and bytes with the three approaches.
+     */
+    public static void benchmark(Path root) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        System.out.println("Available processors: " + threads
+                + " (parallel listing helps most on slow or remote file systems)");
+
+        for (int round = 1; round <= 2; round++) {
+            long start = System.nanoTime();
+            long[] visitorTotals = new long[2];
+            try {
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        visitorTotals[0]++;
+                        visitorTotals[1] += attrs.size();
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                System.out.println("Error walking tree: " + e.getMessage());
+                return;
+            }
+            double visitorMs = (System.nanoTime() - start) / 1e6;
+
+            start = System.nanoTime();
+            long[] listTotals = new long[2];
+            listFilesRecursively(root.toFile(), listTotals);
+            double listMs = (System.nanoTime() - start) / 1e6;
+
+            start = System.nanoTime();
+            long[] walkerTotals = new long[2];
+            ParallelTreeWalker walker = ParallelTreeWalker.builder(root)
+                    .parallelism(Math.max(4, threads * 2))
+                    .filter(entry -> !entry.isDirectory())
+                    .build();
+            try (Stream<PathEntry> entries = walker.stream()) {
+                entries.forEach(entry -> {
+                    walkerTotals[0]++;
+                    walkerTotals[1] += entry.size();
+                });
+            }
+            double walkerMs = (System.nanoTime() - start) / 1e6;
+
+            System.out.printf("Round %d: walkFileTree %.0f ms, listFiles %.0f ms, ParallelTreeWalker %.0f ms%n",
+                    round, visitorMs, listMs, walkerMs);
+            if (round == 2) {
+                System.out.printf("Files/bytes: walkFileTree %d/%d, listFiles %d/%d, walker %d/%d%n",
+                        visitorTotals[0], visitorTotals[1], listTotals[0], listTotals[1],
+                        walkerTotals[0], walkerTotals[1]);
+            }
+        }
+    }
+
+    /**
+     * Helper method walking a tree the way FileBasicsExample lists a directory.
+     */
+    private static void listFilesRecursively(File directory, long[] totals) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                listFilesRecursively(child, totals);
+            } else {
+                totals[0]++;
+                totals[1] += child.length();
+            }
+        }
+    }
+
+    /**
+     * Helper method to create a tree of the given number of files: 10
+     * departments, each with 10 teams, each with an "archive" directory.
+     */
+    private static void createTree(Path root, int files) throws IOException {
+        String[] extensions = {".txt", ".log", ".csv", ".dat"};
+        int directories = 100;
+        int perDirectory = Math.max(1, files / (directories * 2));
+        int count = 0;
+
+        for (int d = 0; d < 10; d++) {
+            for (int t = 0; t < 10; t++) {
+                Path team = root.resolve("dept-" + d).resolve("team-" + t);
+                Path archive = team.resolve("archive");
+                Files.createDirectories(archive);
+                for (int f = 0; f < perDirectory; f++) {
+                    Path target = (f % 2 == 0 ? team : archive)
+                            .resolve("report-" + count + extensions[count % extensions.length]);
+                    Files.write(target, new byte[count % 200]);
+                    count++;
+                    target = (f % 3 == 0 ? archive : team)
+                            .resolve("data-" + count + extensions[count % extensions.length]);
+                    Files.write(target, new byte[count % 300]);
+                    count++;
+                }
+            }
+        }
+        System.out.println("Created test tree with " + count + " files");
+    }
+
+    /**
+     * Helper method to delete the test tree, deepest entries first.
+     */
+    private static void deleteTree(Path root) {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Error cleaning up: " + e.getMessage());
+        }
+    }
+}
+
+/**
+ * One file or directory found by the walker, with its attributes.
+ */
+class PathEntry {
+    private final Path path;
+    private final BasicFileAttributes attributes;
+    private final int depth;
+
+    PathEntry(Path path, BasicFileAttributes attributes, int depth) {
+        this.path = path;
+        this.attributes = attributes;
+        this.depth = depth;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public BasicFileAttributes attributes() {
+        return attributes;
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    public boolean isDirectory() {
+        return attributes.isDirectory();
+    }
+
+    public long size() {
+        return attributes.size();
+    }
+
+    @Override
+    public String toString() {
+        return path + (isDirectory() ? "/" : " (" + size() + " bytes)");
+    }
+}
+
+/**
+ * Walks a directory tree on a ForkJoinPool and streams the entries.
+ *
+ * Each directory is one task. It lists its children, reads their attributes
+ * (relative to the open directory where the platform supports it, which
+ * avoids resolving the full path for every file), puts matching entries on
+ * a bounded queue and forks a task per subdirectory. The bounded queue
+ * stops the walk from running far ahead of a slow consumer. Closing the
+ * stream cancels the walk. Symbolic links are reported but not followed.
+ *
+ * Directories that cannot be read are skipped, and their errors are
+ * available from errors().
+ */
+class ParallelTreeWalker {
+    // Marks the end of the walk on the queue
+    private static final PathEntry END = new PathEntry(null, null, -1);
+
+    private final Path root;
+    private final int parallelism;
+    private final int queueCapacity;
+    private final int maxDepth;
+    private final Predicate<PathEntry> filter;
+    private final Predicate<PathEntry> prune;
+    private final Queue<IOException> errors = new ConcurrentLinkedQueue<>();
+
+    private ParallelTreeWalker(Builder builder) {
+        this.root = builder.root;
+        this.parallelism = builder.parallelism;
+        this.queueCapacity = builder.queueCapacity;
+        this.maxDepth = builder.maxDepth;
+        this.filter = builder.filter;
+        this.prune = builder.prune;
+    }
+
+    public static Builder builder(Path root) {
+        return new Builder(root);
+    }
+
+    /**
+     * Errors from directories that could not be listed, across all walks.
+     */
+    public Queue<IOException> errors() {
+        return errors;
+    }
+
+    /**
+     * Starts a walk and returns its entries in no particular order. The
+     * root itself is not included. Close the stream (try-with-resources) so
+     * that a walk which is not read to the end is cancelled.
+     */
+    public Stream<PathEntry> stream() {
+        Walk walk = new Walk();
+        walk.start();
+        Spliterator<PathEntry> spliterator = new Spliterators.AbstractSpliterator<PathEntry>(
+                Long.MAX_VALUE, Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super PathEntry> action) {
+                PathEntry entry = walk.take();
+                if (entry == END) {
+                    return false;
+                }
+                action.accept(entry);
+                return true;
+            }
+        };
+        return StreamSupport.stream(spliterator, false).onClose(walk::cancel);
+    }
+
+    /**
+     * The state of one walk: its pool, queue and cancellation flag.
+     */
+    private class Walk {
+        private final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        private final BlockingQueue<PathEntry> queue = new ArrayBlockingQueue<>(queueCapacity);
+        private volatile boolean cancelled;
+        private boolean finished;
+
+        void start() {
+            pool.execute(() -> {
+                try {
+                    DirectoryTask task = new DirectoryTask(root, 1);
+                    task.quietlyInvoke();
+                    recordFailure(task);
+                } finally {
+                    put(END);
+                    pool.shutdown();
+                }
+            });
+        }
+
+        PathEntry take() {
+            if (finished) {
+                return END;
+            }
+            try {
+                PathEntry entry = queue.take();
+                finished = entry == END;
+                return entry;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+                return END;
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            pool.shutdownNow();
+            queue.clear();
+        }
+
+        /**
+         * Keeps an unexpected failure of a task (for example a filter that
+         * threw) as an error; tasks stopped by cancel() are not errors.
+         */
+        void recordFailure(DirectoryTask task) {
+            Throwable failure = task.getException();
+            if (failure != null && !cancelled) {
+                errors.add(new IOException("Walk of " + task.directory + " failed: " + failure, failure));
+            }
+        }
+
+        /**
+         * Puts an entry on the queue, waiting while it is full. The wait is
+         * deliberately not a ForkJoinPool.managedBlock: that would start a
+         * compensating thread for each blocked worker, and each of those
+         * would open another directory while the consumer is behind. A full
+         * queue should instead hold the whole walk back.
+         */
+        void put(PathEntry entry) {
+            try {
+                // Time out now and then to notice a cancelled walk
+                while (!cancelled) {
+                    if (queue.offer(entry, 50, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Lists one directory and forks a task for each subdirectory.
+         */
+        private class DirectoryTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+            private final Path directory;
+            private final int depth;
+
+            DirectoryTask(Path directory, int depth) {
+                this.directory = directory;
+                this.depth = depth;
+            }
+
+            @Override
+            protected void compute() {
+                if (cancelled) {
+                    return;
+                }
+                List<DirectoryTask> subtasks = new ArrayList<>();
+                try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+                    for (Path child : children) {
+                        if (cancelled) {
+                            return;
+                        }
+                        PathEntry entry = new PathEntry(child, readAttributes(children, child), depth);
+                        if (entry.isDirectory() && prune.test(entry)) {
+                            continue;
+                        }
+                        if (filter.test(entry)) {
+                            put(entry);
+                        }
+                        if (entry.isDirectory() && depth < maxDepth) {
+                            DirectoryTask subtask = new DirectoryTask(child, depth + 1);
+                            subtask.fork();
+                            subtasks.add(subtask);
+                        }
+                    }
+                } catch (IOException | SecurityException e) {
+                    errors.add(e instanceof IOException ? (IOException) e
+                            : new IOException("Cannot list " + directory + ": " + e.getMessage(), e));
+                }
+                for (DirectoryTask subtask : subtasks) {
+                    subtask.quietlyJoin();
+                    recordFailure(subtask);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads attributes relative to the open directory when the stream
+     * supports it (SecureDirectoryStream on Linux), or by path otherwise.
+     */
+    private static BasicFileAttributes readAttributes(DirectoryStream<Path> directory, Path child)
+            throws IOException {
+        if (directory instanceof SecureDirectoryStream) {
+            @SuppressWarnings("unchecked")
+            SecureDirectoryStream<Path> secure = (SecureDirectoryStream<Path>) directory;
+            return secure.getFileAttributeView(child.getFileName(), BasicFileAttributeView.class,
+                    LinkOption.NOFOLLOW_LINKS).readAttributes();
+        }
+        return Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    /**
+     * Builder for walker options.
+     */
+    static class Builder {
+        private final Path root;
+        private int parallelism = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        private int queueCapacity = 4096;
+        private int maxDepth = Integer.MAX_VALUE;
+        private Predicate<PathEntry> filter = entry -> true;
+        private Predicate<PathEntry> prune = entry -> false;
+
+        private Builder(Path root) {
+            this.root = root;
+        }
+
+        /**
+         * Number of directories listed at the same time. Listing is mostly
+         * waiting on the file system, so this can exceed the CPU count.
+         */
+        public Builder parallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        public Builder queueCapacity(int queueCapacity) {
+            if (queueCapacity < 1) {
+                throw new IllegalArgumentException("Queue capacity must be positive: " + queueCapacity);
+            }
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Deepest level to report; children of the root are at depth 1.
+         */
+        public Builder maxDepth(int maxDepth) {
+            if (maxDepth < 1) {
+                throw new IllegalArgumentException("Max depth must be at least 1: " + maxDepth);
+            }
+            this.maxDepth = maxDepth;
+            return this;
+        }
+
+        /**
+         * Only entries matching the predicate are streamed. Directories
+         * that do not match are still walked.
+         */
+        public Builder filter(Predicate<PathEntry> filter) {
+            this.filter = this.filter.and(filter);
+            return this;
+        }
+
+        /**
+         * Only entries whose path relative to the root matches the glob
+         * (for example "**.log" or "dept-1/**") are streamed.
+         */
+        public Builder glob(String pattern) {
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            return filter(entry -> matcher.matches(root.relativize(entry.path())));
+        }
+
+        /**
+         * Directories matching the predicate are neither streamed nor
+         * walked, so none of their contents is listed.
+         */
+        public Builder pruneDirectories(Predicate<PathEntry> prune) {
+            this.prune = this.prune.or(prune);
+            return this;
+        }
+
+        public ParallelTreeWalker build() {
+            return new ParallelTreeWalker(this);
+        }
+    }
+}
@@ -0,0 +1,715 @@
+/**
+ * ParallelZipExample.java
+ * This program demonstrates a ZIP writer that compresses on several threads.
+ * ZipFilesExample.zipDirectory deflates one entry at a time on one thread, and
+ * compressionLevels shows that the Deflater level is what dominates the cost.
+ * Here files (and chunks of large files) are deflated in parallel into
+ * per-task buffers, and a single writer thread stitches the results into a
+ * valid archive in the original order.
+ */
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class ParallelZipExample {
+    public static void main(String[] args) {
+        System.out.println("--- Parallel ZIP Compression Examples ---");
+
+        // Total size of the generated test directory in MB
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+
+        // Example 1: Zipping a directory in parallel
+        System.out.println("\nExample 1: Zipping a directory in parallel");
+        zipDirectoryInParallel();
+
+        // Example 2: Throughput by thread count and compression level
+        System.out.println("\nExample 2: Throughput by thread count and compression level");
+        benchmark(megabytes);
+    }
+
+    /**
+     * Demonstrates zipping a directory and checking the archive with ZipInputStream.
+     */
+    public static void zipDirectoryInParallel() {
+        Path source = Paths.get("parallel_zip_source");
+        Path archive = Paths.get("parallel_directory.zip");
+
+        try {
+            createTestDirectory(source, 8, new Random(1));
+
+            try (ParallelZipWriter writer = new ParallelZipWriter(archive, Deflater.DEFAULT_COMPRESSION, 4, 256 * 1024)) {
+                writer.addDirectory(source);
+            }
+            System.out.println("Archive size: " + Files.size(archive) + " bytes");
+
+            // ZipInputStream checks every entry's CRC and sizes while reading
+            verify(archive, source);
+        } catch (IOException e) {
+            System.out.println("Error zipping directory: " + e.getMessage());
+        }
+
+        deleteDirectory(source.toFile());
+        deleteDirectory(archive.toFile());
+    }
+
+    /**
+     * Measures MB/s and CPU utilization for several thread counts and levels.
+     */
+    public static void benchmark(int megabytes) {
+        Path source = Paths.get("parallel_zip_source");
+        Path archive = Paths.get("parallel_benchmark.zip");
+
+        try {
+            long total = createTestDirectory(source, megabytes, new Random(2));
+            int cores = Runtime.getRuntime().availableProcessors();
+            System.out.printf("Source: %.1f MB, %d available cores%n", total / 1e6, cores);
+            System.out.println("Level  Threads      MB/s   CPU util   Ratio");
+
+            com.sun.management.OperatingSystemMXBean os =
+                    (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+            int[] levels = {Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION};
+            int[] threadCounts = {1, 4, 16};
+            for (int level : levels) {
+                for (int threads : threadCounts) {
+                    long cpuStart = os.getProcessCpuTime();
+                    long start = System.nanoTime();
+                    try (ParallelZipWriter writer = new ParallelZipWriter(archive, level, threads, 1 << 20)) {
+                        writer.addDirectory(source);
+                    }
+                    long wall = System.nanoTime() - start;
+                    long cpu = os.getProcessCpuTime() - cpuStart;
+
+                    // Utilization is CPU time over the wall time of all cores
+                    System.out.printf("%5d  %7d  %8.1f  %8.0f%%  %5.1f%%%n",
+                            level, threads, total / 1e6 / (wall / 1e9),
+                            100.0 * cpu / ((double) wall * cores),
+                            100.0 * Files.size(archive) / total);
+                }
+            }
+
+            verify(archive, source);
+        } catch (IOException e) {
+            System.out.println("Error in benchmark: " + e.getMessage());
+        }
+
+        deleteDirectory(source.toFile());
+        deleteDirectory(archive.toFile());
+    }
+
+    /**
+     * Helper method to read every entry back and compare it with the source file.
+     */
+    private static void verify(Path archive, Path source) throws IOException {
+        int entries = 0;
+        try (ZipInputStream zis = new ZipInputStream(Files.newInputStream(archive))) {
+            ZipEntry entry;
+            byte[] buffer = new byte[65536];
+            while ((entry = zis.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                Path original = source.resolve(entry.getName());
+                try (InputStream expected = Files.newInputStream(original)) {
+                    int read;
+                    while ((read = zis.read(buffer)) > 0) {
+                        byte[] other = expected.readNBytes(read);
+                        for (int i = 0; i < read; i++) {
+                            if (other[i] != buffer[i]) {
+                                throw new IOException("Content mismatch in " + entry.getName());
+                            }
+                        }
+                    }
+                }
+                entries++;
+            }
+        }
+        System.out.println("Verified " + entries + " entries with ZipInputStream");
+    }
+
+    /**
+     * Helper method to create a directory of compressible text files: many
+     * small files plus a few large ones that get split into chunks.
+     */
+    private static long createTestDirectory(Path root, int megabytes, Random random) throws IOException {
+        deleteDirectory(root.toFile());
+        Files.createDirectories(root.resolve("logs"));
+        Files.createDirectories(root.resolve("data/empty"));
+
+        String[] words = {"alpha", "beta", "gamma", "delta", "request", "response", "error",
+                "warning", "user", "session", "cache", "miss", "hit", "latency", "ms"};
+        long target = megabytes * 1_000_000L;
+        long written = 0;
+        int fileNumber = 0;
+
+        Files.write(root.resolve("data/empty.txt"), new byte[0]);
+        while (written < target) {
+            // Every tenth file is large (a quarter of the remaining budget, at most 16MB)
+            long size = fileNumber % 10 == 9
+                    ? Math.min(16_000_000, (target - written) / 4 + 1)
+                    : 1_000 + random.nextInt(200_000);
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) size + 100);
+            while (out.size() < size) {
+                String line = "2024-01-01T12:" + random.nextInt(60) + " " + words[random.nextInt(words.length)]
+                        + " " + words[random.nextInt(words.length)] + " id=" + random.nextInt(100000) + "\n";
+                out.write(line.getBytes(StandardCharsets.UTF_8));
+            }
+            String dir = fileNumber % 3 == 0 ? "logs" : "data";
+            Files.write(root.resolve(dir + "/file" + fileNumber + ".log"), out.toByteArray());
+            written += out.size();
+            fileNumber++;
+        }
+        return written;
+    }
+
+    /**
+     * Helper method to recursively delete a file or directory.
+     */
+    private static void deleteDirectory(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteDirectory(child);
+            }
+        }
+        file.delete();
+    }
+}
+
+/**
+ * Writes a ZIP archive whose entries are deflated on a thread pool.
+ *
+ * Each file is split into chunks. Every chunk is compressed independently
+ * into its own buffer, using the last 32KB of the previous chunk as a preset
+ * dictionary so the ratio stays close to a single-threaded deflate. All but
+ * the last chunk end with a SYNC_FLUSH, which ends on a byte boundary, so the
+ * chunk outputs can simply be concatenated into one valid deflate stream (the
+ * same trick pigz uses). Per-chunk CRCs are combined with crc32Combine.
+ *
+ * Only the calling thread writes to the output file. It submits chunks ahead
+ * of itself, bounded by a window, and writes the results back in order.
+ * Large archives and entries use the ZIP64 extensions.
+ */
+class ParallelZipWriter implements AutoCloseable {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int UTF8_FLAG = 1 << 11;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final long ZIP64_ENTRY_THRESHOLD = 0xF0000000L;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final FileChannel out;
+    private final int level;
+    private final int chunkSize;
+    private final int window;
+    private final ExecutorService pool;
+    private final ThreadLocal<Deflater> deflaters;
+    private final ConcurrentLinkedQueue<Deflater> allDeflaters = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+    private final List<CentralEntry> central = new ArrayList<>();
+    private long position;
+
+    public ParallelZipWriter(Path path, int level, int threads, int chunkSize) throws IOException {
+        this.out = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.level = level;
+        this.chunkSize = chunkSize;
+        this.window = threads * 4;
+        this.pool = Executors.newFixedThreadPool(threads);
+        this.deflaters = ThreadLocal.withInitial(() -> {
+            Deflater deflater = new Deflater(level, true);
+            allDeflaters.add(deflater);
+            return deflater;
+        });
+    }
+
+    /**
+     * Adds every file and directory below root, in sorted order, with
+     * names relative to root.
+     */
+    public void addDirectory(Path root) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(root)) {
+            paths = walk.filter(p -> !p.equals(root)).sorted().collect(Collectors.toList());
+        }
+
+        Deque<PendingChunk> inFlight = new ArrayDeque<>();
+        for (Path path : paths) {
+            String name = root.relativize(path).toString().replace(File.separatorChar, '/');
+            if (Files.isDirectory(path)) {
+                // Queued as already done, so the writer emits it in turn without waiting
+                // for every chunk ahead of it first
+                FileEntry directory = new FileEntry(name + "/", null, 0, Files.getLastModifiedTime(path));
+                inFlight.add(new PendingChunk(directory, 0, CompletableFuture.completedFuture(null)));
+                continue;
+            }
+
+            // Submit every chunk of this file, writing finished chunks whenever the window is full
+            FileEntry entry = new FileEntry(name, path, Files.size(path), Files.getLastModifiedTime(path));
+            int chunks = (int) Math.max(1, (entry.size + chunkSize - 1) / chunkSize);
+            entry.chunks = chunks;
+            for (int c = 0; c < chunks; c++) {
+                drain(inFlight, window - 1);
+                long start = (long) c * chunkSize;
+                long end = Math.min(entry.size, start + chunkSize);
+                boolean last = c == chunks - 1;
+                inFlight.add(new PendingChunk(entry, c, pool.submit(() -> compressChunk(entry, start, end, last))));
+            }
+        }
+        drain(inFlight, 0);
+    }
+
+    /**
+     * Writes finished chunks, oldest first, until at most 'keep' are in flight.
+     */
+    private void drain(Deque<PendingChunk> inFlight, int keep) throws IOException {
+        while (inFlight.size() > keep) {
+            PendingChunk pending = inFlight.removeFirst();
+            if (pending.entry.path == null) {
+                writeDirectoryEntry(pending.entry.name, pending.entry.modified);
+                continue;
+            }
+            CompressedChunk chunk;
+            try {
+                chunk = pending.future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while compressing", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Error compressing " + pending.entry.name, e.getCause());
+            }
+            writeChunk(pending.entry, pending.index, chunk);
+        }
+    }
+
+    /**
+     * Runs on a pool thread: reads one chunk of a file and deflates it.
+     */
+    private CompressedChunk compressChunk(FileEntry entry, long start, long end, boolean last) throws IOException {
+        int dictionary = (int) Math.min(DICTIONARY_SIZE, start);
+        byte[] input = new byte[(int) (end - start) + dictionary];
+        try (FileChannel channel = FileChannel.open(entry.path, StandardOpenOption.READ)) {
+            ByteBuffer target = ByteBuffer.wrap(input);
+            long offset = start - dictionary;
+            while (target.hasRemaining()) {
+                int read = channel.read(target, offset + target.position());
+                if (read < 0) {
+                    throw new IOException("File changed while zipping: " + entry.path);
+                }
+            }
+        }
+
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if (dictionary > 0) {
+            deflater.setDictionary(input, 0, dictionary);
+        }
+        deflater.setInput(input, dictionary, input.length - dictionary);
+
+        byte[] output = new byte[Math.max(64, (input.length - dictionary) / 2)];
+        int length = 0;
+        if (last) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (length == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                length += deflater.deflate(output, length, output.length - length);
+            }
+        } else {
+            // SYNC_FLUSH must be repeated while it fills the whole output buffer
+            while (true) {
+                int written = deflater.deflate(output, length, output.length - length, Deflater.SYNC_FLUSH);
+                length += written;
+                if (length < output.length) {
+                    break;
+                }
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(input, dictionary, input.length - dictionary);
+        return new CompressedChunk(output, length, crc.getValue(), input.length - dictionary);
+    }
+
+    /**
+     * Runs on the writer thread: appends one compressed chunk to the archive.
+     */
+    private void writeChunk(FileEntry entry, int index, CompressedChunk chunk) throws IOException {
+        if (index == 0) {
+            entry.zip64 = entry.size >= ZIP64_ENTRY_THRESHOLD;
+            entry.headerOffset = position;
+            entry.crc = chunk.crc;
+            // A single-chunk entry is complete, so its header gets the real values;
+            // a multi-chunk entry's CRC and sizes are patched after the last chunk
+            entry.compressedSize = entry.chunks == 1 ? chunk.length : 0;
+            writeLocalHeader(entry);
+        } else {
+            entry.crc = crc32Combine(entry.crc, chunk.crc, chunk.uncompressedLength);
+        }
+
+        write(chunk.data, chunk.length);
+        if (entry.chunks > 1) {
+            entry.compressedSize += chunk.length;
+        }
+
+        if (index == entry.chunks - 1) {
+            if (entry.chunks > 1) {
+                patchLocalHeader(entry);
+            }
+            central.add(new CentralEntry(entry.name, entry.crc, entry.compressedSize, entry.size,
+                    entry.headerOffset, entry.modified, Deflater.DEFLATED));
+        }
+    }
+
+    private void writeDirectoryEntry(String name, FileTime modified) throws IOException {
+        FileEntry entry = new FileEntry(name, null, 0, modified);
+        entry.headerOffset = position;
+        entry.method = 0;
+        writeLocalHeader(entry);
+        central.add(new CentralEntry(name, 0, 0, 0, entry.headerOffset, modified, 0));
+    }
+
+    private void writeLocalHeader(FileEntry entry) throws IOException {
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        ensureBuffer(30 + name.length + 20);
+        buffer.putInt(LOCAL_HEADER);
+        buffer.putShort((short) (entry.zip64 ? 45 : 20));
+        buffer.putShort((short) UTF8_FLAG);
+        buffer.putShort((short) entry.method);
+        buffer.putInt(dosTime(entry.modified));
+        buffer.putInt((int) entry.crc);
+        buffer.putInt((int) (entry.zip64 ? ZIP64_MAGIC : entry.compressedSize));
+        buffer.putInt((int) (entry.zip64 ? ZIP64_MAGIC : entry.size));
+        buffer.putShort((short) name.length);
+        buffer.putShort((short) (entry.zip64 ? 20 : 0));
+        buffer.put(name);
+        if (entry.zip64) {
+            buffer.putShort((short) 0x0001);
+            buffer.putShort((short) 16);
+            buffer.putLong(entry.size);
+            buffer.putLong(entry.compressedSize);
+        }
+        position += 30 + name.length + (entry.zip64 ? 20 : 0);
+        entry.nameLength = name.length;
+    }
+
+    /**
+     * Rewrites the CRC and sizes of a multi-chunk entry's local header in place.
+     */
+    private void patchLocalHeader(FileEntry entry) throws IOException {
+        flush();
+        ByteBuffer patch = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        patch.putInt((int) entry.crc);
+        patch.putInt((int) (entry.zip64 ? ZIP64_MAGIC : entry.compressedSize));
+        patch.putInt((int) (entry.zip64 ? ZIP64_MAGIC : entry.size));
+        writeAt(patch, entry.headerOffset + 14);
+
+        if (entry.zip64) {
+            ByteBuffer extra = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            extra.putLong(entry.size);
+            extra.putLong(entry.compressedSize);
+            writeAt(extra, entry.headerOffset + 30 + entry.nameLength + 4);
+        }
+    }
+
+    private void writeAt(ByteBuffer data, long offset) throws IOException {
+        data.flip();
+        while (data.hasRemaining()) {
+            offset += out.write(data, offset);
+        }
+    }
+
+    /**
+     * Writes the central directory and the end records, then closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            long centralStart = position;
+            for (CentralEntry entry : central) {
+                writeCentralHeader(entry);
+            }
+            long centralSize = position - centralStart;
+            int count = central.size();
+
+            boolean zip64 = count >= 0xFFFF || centralStart >= ZIP64_MAGIC || centralSize >= ZIP64_MAGIC;
+            if (zip64) {
+                long zip64End = position;
+                ensureBuffer(56 + 20);
+                buffer.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY);
+                buffer.putLong(44);
+                buffer.putShort((short) 45);
+                buffer.putShort((short) 45);
+                buffer.putInt(0);
+                buffer.putInt(0);
+                buffer.putLong(count);
+                buffer.putLong(count);
+                buffer.putLong(centralSize);
+                buffer.putLong(centralStart);
+
+                buffer.putInt(ZIP64_LOCATOR);
+                buffer.putInt(0);
+                buffer.putLong(zip64End);
+                buffer.putInt(1);
+                position += 56 + 20;
+            }
+
+            ensureBuffer(22);
+            buffer.putInt(END_OF_CENTRAL_DIRECTORY);
+            buffer.putShort((short) 0);
+            buffer.putShort((short) 0);
+            buffer.putShort((short) Math.min(count, 0xFFFF));
+            buffer.putShort((short) Math.min(count, 0xFFFF));
+            buffer.putInt((int) Math.min(centralSize, ZIP64_MAGIC));
+            buffer.putInt((int) Math.min(centralStart, ZIP64_MAGIC));
+            buffer.putShort((short) 0);
+            position += 22;
+            flush();
+        } finally {
+            pool.shutdownNow();
+            for (Deflater deflater : allDeflaters) {
+                deflater.end();
+            }
+            out.close();
+        }
+    }
+
+    private void writeCentralHeader(CentralEntry entry) throws IOException {
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+
+        // The ZIP64 extra only holds the fields that overflowed, in this order
+        boolean bigSize = entry.size >= ZIP64_ENTRY_THRESHOLD;
+        boolean bigOffset = entry.headerOffset >= ZIP64_MAGIC;
+        int extraLength = (bigSize ? 16 : 0) + (bigOffset ? 8 : 0);
+        int extraHeader = extraLength > 0 ? 4 : 0;
+
+        ensureBuffer(46 + name.length + extraHeader + extraLength);
+        buffer.putInt(CENTRAL_HEADER);
+        buffer.putShort((short) 45);
+        buffer.putShort((short) (extraLength > 0 ? 45 : 20));
+        buffer.putShort((short) UTF8_FLAG);
+        buffer.putShort((short) entry.method);
+        buffer.putInt(dosTime(entry.modified));
+        buffer.putInt((int) entry.crc);
+        buffer.putInt((int) (bigSize ? ZIP64_MAGIC : entry.compressedSize));
+        buffer.putInt((int) (bigSize ? ZIP64_MAGIC : entry.size));
+        buffer.putShort((short) name.length);
+        buffer.putShort((short) (extraHeader + extraLength));
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putInt(0);
+        buffer.putInt((int) (bigOffset ? ZIP64_MAGIC : entry.headerOffset));
+        buffer.put(name);
+        if (extraLength > 0) {
+            buffer.putShort((short) 0x0001);
+            buffer.putShort((short) extraLength);
+            if (bigSize) {
+                buffer.putLong(entry.size);
+                buffer.putLong(entry.compressedSize);
+            }
+            if (bigOffset) {
+                buffer.putLong(entry.headerOffset);
+            }
+        }
+        position += 46 + name.length + extraHeader + extraLength;
+    }
+
+    private void write(byte[] data, int length) throws IOException {
+        if (length > buffer.capacity() / 2) {
+            flush();
+            ByteBuffer wrapped = ByteBuffer.wrap(data, 0, length);
+            while (wrapped.hasRemaining()) {
+                out.write(wrapped);
+            }
+        } else {
+            ensureBuffer(length);
+            buffer.put(data, 0, length);
+        }
+        position += length;
+    }
+
+    private void ensureBuffer(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static int dosTime(FileTime time) {
+        LocalDateTime t = LocalDateTime.ofInstant(time.toInstant(), ZoneId.systemDefault());
+        if (t.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (t.getYear() - 1980) << 25 | t.getMonthValue() << 21 | t.getDayOfMonth() << 16
+                | t.getHour() << 11 | t.getMinute() << 5 | t.getSecond() >> 1;
+    }
+
+    /**
+     * Combines the CRC-32 of two consecutive blocks of data, given the CRC of
+     * the second block and its length (port of zlib's crc32_combine).
+     */
+    static long crc32Combine(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        // Operator for one zero bit in odd
+        odd[0] = 0xEDB88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd);   // two zero bits
+        gf2MatrixSquare(odd, even);   // four zero bits
+
+        // Apply length2 zero bytes to crc1 (the first square puts the operator for one zero byte in even)
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+
+        return (crc1 ^ crc2) & 0xFFFFFFFFL;
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
+        }
+    }
+
+    private static class FileEntry {
+        final String name;
+        final Path path;
+        final long size;
+        final FileTime modified;
+        int method = Deflater.DEFLATED;
+        int chunks;
+        int nameLength;
+        boolean zip64;
+        long headerOffset;
+        long crc;
+        long compressedSize;
+
+        FileEntry(String name, Path path, long size, FileTime modified) {
+            this.name = name;
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    private static class CentralEntry {
+        final String name;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long headerOffset;
+        final FileTime modified;
+        final int method;
+
+        CentralEntry(String name, long crc, long compressedSize, long size,
+                long headerOffset, FileTime modified, int method) {
+            this.name = name;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.headerOffset = headerOffset;
+            this.modified = modified;
+            this.method = method;
+        }
+    }
+
+    private static class PendingChunk {
+        final FileEntry entry;
+        final int index;
+        final Future<CompressedChunk> future;
+
+        PendingChunk(FileEntry entry, int index, Future<CompressedChunk> future) {
+            this.entry = entry;
+            this.index = index;
+            this.future = future;
+        }
+    }
+
+    private static class CompressedChunk {
+        final byte[] data;
+        final int length;
+        final long crc;
+        final long uncompressedLength;
+
+        CompressedChunk(byte[] data, int length, long crc, long uncompressedLength) {
+            this.data = data;
+            this.length = length;
+            this.crc = crc;
+            this.uncompressedLength = uncompressedLength;
+        }
+    }
+}
@@ -0,0 +1,523 @@
+/**
+ * SlabBufferExample.java
+ * This program demonstrates a chunked byte buffer built from pooled slabs.
+ * ByteStreamsExample collects bytes in a ByteArrayOutputStream, which
+ * doubles and copies its array as it grows and is thrown away afterwards.
+ * A SlabBuffer instead appends fixed-size slabs taken from a SlabPool, so
+ * growing never copies. It writes all of its slabs to a channel with one
+ * gathering write, and hands them back to the pool for the next buffer.
+ */
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+public class SlabBufferExample {
+    public static void main(String[] args) {
+        System.out.println("--- Slab Buffer Examples ---");
+
+        // Megabytes of messages for the benchmark; pass 1024 for 1 GB
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+
+        // Example 1: Building a buffer from slabs
+        System.out.println("\nExample 1: Building a buffer from slabs");
+        buildAndWrite();
+
+        // Example 2: Sharing a pool between threads
+        System.out.println("\nExample 2: Sharing a pool between threads");
+        shareBetweenThreads();
+
+        // Example 3: Slab buffers versus ByteArrayOutputStream
+        System.out.println("\nExample 3: Slab buffers versus ByteArrayOutputStream");
+        benchmark(megabytes);
+    }
+
+    /**
+     * Demonstrates writes that cross slab boundaries, a gathering write and
+     * reading a file back into slabs.
+     */
+    public static void buildAndWrite() {
+        // Tiny slabs so that a few lines span several of them
+        SlabPool pool = new SlabPool(16, false, 8, 64);
+        Path file = Paths.get("slab_output.txt");
+
+        try (SlabBuffer buffer = new SlabBuffer(pool)) {
+            buffer.write("This is a test of SlabBuffer.\n".getBytes(StandardCharsets.UTF_8));
+            buffer.write("Slabs are appended, never copied.\n".getBytes(StandardCharsets.UTF_8));
+            buffer.writeInt(42);
+            System.out.println("Buffered " + buffer.size() + " bytes in " + buffer.slabCount() + " slabs");
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long written = buffer.writeTo(channel);
+                System.out.println("Wrote " + written + " bytes with gathering writes");
+            }
+        } catch (IOException e) {
+            System.out.println("Error writing slabs: " + e.getMessage());
+        }
+
+        // The slabs went back to the pool when the buffer was closed
+        try (SlabBuffer buffer = new SlabBuffer(pool);
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.readFrom(channel);
+            byte[] bytes = buffer.toByteArray();
+            System.out.print("Read back: " + new String(bytes, 0, bytes.length - 4, StandardCharsets.UTF_8));
+            System.out.println("Trailing int: " + ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt());
+        } catch (IOException e) {
+            System.out.println("Error reading slabs: " + e.getMessage());
+        }
+        System.out.println("Pool: " + pool);
+
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.out.println("Error cleaning up: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Demonstrates several threads taking slabs from one pool, mostly from
+     * their own thread-local caches.
+     */
+    public static void shareBetweenThreads() {
+        SlabPool pool = new SlabPool(4096, true, 16, 256);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Long>> results = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            results.add(executor.submit(() -> {
+                long total = 0;
+                byte[] message = new byte[100];
+                for (int round = 0; round < 1000; round++) {
+                    try (SlabBuffer buffer = new SlabBuffer(pool)) {
+                        for (int i = 0; i < 200; i++) {
+                            buffer.write(message);
+                        }
+                        total += buffer.size();
+                    }
+                }
+                return total;
+            }));
+        }
+
+        try {
+            long total = 0;
+            for (Future<Long> result : results) {
+                total += result.get();
+            }
+            System.out.println("Buffered " + total / 1_000_000 + " MB in 4000 buffers");
+            System.out.println("Pool: " + pool);
+        } catch (Exception e) {
+            System.out.println("Error in worker: " + e.getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Builds the same stream of small messages in a ByteArrayOutputStream
+     * and in heap and direct slab buffers, writes each to a file and
+     * compares time, allocation and garbage collections.
+     */
+    public static void benchmark(int megabytes) {
+        long target = megabytes * 1_000_000L;
+        byte[][] messages = new byte[64][];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = ("message " + i + " " + "x".repeat(20 + (i * 37) % 160) + "\n")
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+        Path baosFile = Paths.get("slab_baos.bin");
+        Path heapFile = Paths.get("slab_heap.bin");
+        Path directFile = Paths.get("slab_direct.bin");
+        SlabPool heapPool = new SlabPool(1 << 16, false, 64, 1 << 16);
+        SlabPool directPool = new SlabPool(1 << 16, true, 64, 1 << 16);
+
+        if (target > Integer.MAX_VALUE - 8) {
+            System.out.println("ByteArrayOutputStream cannot hold " + megabytes + " MB; its run is skipped");
+        }
+
+        try {
+            for (int round = 1; round <= 2; round++) {
+                System.out.println("Round " + round + " (" + megabytes + " MB of small messages):");
+
+                if (target <= Integer.MAX_VALUE - 8) {
+                    long allocated = allocatedBytes();
+                    long collections = gcCount();
+                    long start = System.nanoTime();
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    for (int i = 0; baos.size() < target; i++) {
+                        baos.write(messages[i & 63]);
+                    }
+                    try (OutputStream out = Files.newOutputStream(baosFile)) {
+                        baos.writeTo(out);
+                    }
+                    report("ByteArrayOutputStream", start, allocated, collections);
+                }
+
+                for (SlabPool pool : new SlabPool[] {heapPool, directPool}) {
+                    long allocated = allocatedBytes();
+                    long collections = gcCount();
+                    long start = System.nanoTime();
+                    try (SlabBuffer buffer = new SlabBuffer(pool);
+                         FileChannel channel = FileChannel.open(pool.isDirect() ? directFile : heapFile,
+                                 StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                 StandardOpenOption.TRUNCATE_EXISTING)) {
+                        for (int i = 0; buffer.size() < target; i++) {
+                            buffer.write(messages[i & 63]);
+                        }
+                        buffer.writeTo(channel);
+                    }
+                    report(pool.isDirect() ? "SlabBuffer (direct)" : "SlabBuffer (heap)", start, allocated,
+                            collections);
+                }
+            }
+
+            long heapCrc = crc(heapFile);
+            boolean same = heapCrc == crc(directFile)
+                    && (!Files.exists(baosFile) || heapCrc == crc(baosFile));
+            System.out.println("Files identical: " + same);
+            System.out.println("Heap pool: " + heapPool);
+            System.out.println("Direct pool: " + directPool);
+        } catch (IOException | OutOfMemoryError e) {
+            System.out.println("Error in benchmark: " + e);
+        }
+
+        try {
+            Files.deleteIfExists(baosFile);
+            Files.deleteIfExists(heapFile);
+            Files.deleteIfExists(directFile);
+        } catch (IOException e) {
+            System.out.println("Error cleaning up: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Helper method printing one benchmark line.
+     */
+    private static void report(String label, long start, long allocated, long collections) {
+        System.out.printf("  %-22s %6.0f ms, %,8d KB allocated, %d GCs%n", label,
+                (System.nanoTime() - start) / 1e6, (allocatedBytes() - allocated) / 1024,
+                gcCount() - collections);
+    }
+
+    /**
+     * Helper method computing a file's CRC-32.
+     */
+    private static long crc(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Helper method returning the bytes allocated so far by the current thread.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * Helper method returning the total number of garbage collections so far.
+     */
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+}
+
+/**
+ * A pool of equally sized heap or direct slabs.
+ *
+ * Each thread keeps a small cache of free slabs, so taking and returning
+ * a slab on the same thread touches no shared state. When a thread's
+ * cache is empty or full it falls back to a shared queue, which is bounded
+ * too; slabs beyond both limits are left to the garbage collector.
+ */
+class SlabPool {
+    private final int slabSize;
+    private final boolean direct;
+    private final int threadCacheLimit;
+    private final int sharedLimit;
+
+    private final ThreadLocal<ArrayDeque<ByteBuffer>> threadCache = ThreadLocal.withInitial(ArrayDeque::new);
+    private final ConcurrentLinkedQueue<ByteBuffer> shared = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger sharedSize = new AtomicInteger();
+
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong fromThreadCache = new AtomicLong();
+    private final AtomicLong fromShared = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    SlabPool(int slabSize, boolean direct, int threadCacheLimit, int sharedLimit) {
+        if (slabSize < 8) {
+            throw new IllegalArgumentException("Slab size must be at least 8 bytes");
+        }
+        this.slabSize = slabSize;
+        this.direct = direct;
+        this.threadCacheLimit = threadCacheLimit;
+        this.sharedLimit = sharedLimit;
+    }
+
+    /**
+     * Returns an empty slab, reused if possible.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer slab = threadCache.get().pollLast();
+        if (slab != null) {
+            fromThreadCache.incrementAndGet();
+            return slab;
+        }
+        slab = shared.poll();
+        if (slab != null) {
+            sharedSize.decrementAndGet();
+            fromShared.incrementAndGet();
+            return slab;
+        }
+        allocated.incrementAndGet();
+        return direct ? ByteBuffer.allocateDirect(slabSize) : ByteBuffer.allocate(slabSize);
+    }
+
+    /**
+     * Returns a slab to the pool. The caller must not use it afterwards.
+     */
+    void release(ByteBuffer slab) {
+        slab.clear();
+        ArrayDeque<ByteBuffer> cache = threadCache.get();
+        if (cache.size() < threadCacheLimit) {
+            cache.addLast(slab);
+        } else if (sharedSize.incrementAndGet() <= sharedLimit) {
+            shared.offer(slab);
+        } else {
+            sharedSize.decrementAndGet();
+            dropped.incrementAndGet();
+        }
+    }
+
+    int slabSize() {
+        return slabSize;
+    }
+
+    boolean isDirect() {
+        return direct;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d slabs allocated (%d bytes each), %d reused from thread caches, "
+                + "%d from the shared queue, %d dropped", allocated.get(), slabSize,
+                fromThreadCache.get(), fromShared.get(), dropped.get());
+    }
+}
+
+/**
+ * A growable byte buffer made of pooled slabs.
+ *
+ * Writes fill the last slab and take a new one when it is full, so the
+ * bytes already written are never moved. The buffer is not thread-safe.
+ * Closing it returns its slabs to the pool.
+ */
+class SlabBuffer implements AutoCloseable {
+    private final SlabPool pool;
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private ByteBuffer current;
+    private long size;
+    private boolean closed;
+
+    SlabBuffer(SlabPool pool) {
+        this.pool = pool;
+    }
+
+    public void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+
+    public void write(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            ByteBuffer slab = writableSlab();
+            int n = Math.min(length, slab.remaining());
+            slab.put(bytes, offset, n);
+            offset += n;
+            length -= n;
+            size += n;
+        }
+    }
+
+    public void write(ByteBuffer source) {
+        while (source.hasRemaining()) {
+            ByteBuffer slab = writableSlab();
+            int n = Math.min(source.remaining(), slab.remaining());
+            int limit = source.limit();
+            source.limit(source.position() + n);
+            slab.put(source);
+            source.limit(limit);
+            size += n;
+        }
+    }
+
+    public void writeByte(int b) {
+        writableSlab().put((byte) b);
+        size++;
+    }
+
+    public void writeInt(int value) {
+        ByteBuffer slab = writableSlab();
+        if (slab.remaining() >= 4) {
+            slab.putInt(value);
+            size += 4;
+        } else {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                writeByte(value >>> shift);
+            }
+        }
+    }
+
+    public void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    /**
+     * Reads the channel to its end, filling slabs directly.
+     */
+    public long readFrom(ReadableByteChannel channel) throws IOException {
+        long total = 0;
+        int n;
+        while ((n = channel.read(writableSlab())) >= 0) {
+            total += n;
+            size += n;
+        }
+        return total;
+    }
+
+    /**
+     * Writes the whole buffer with gathering writes. The buffer's contents
+     * are unchanged, so it can be written again.
+     */
+    public long writeTo(GatheringByteChannel channel) throws IOException {
+        ensureOpen();
+        ByteBuffer[] views = new ByteBuffer[slabs.size()];
+        for (int i = 0; i < views.length; i++) {
+            views[i] = slabs.get(i).duplicate().flip();
+        }
+        long written = 0;
+        int first = 0;
+        while (written < size) {
+            written += channel.write(views, first, views.length - first);
+            while (first < views.length && !views[first].hasRemaining()) {
+                first++;
+            }
+        }
+        return written;
+    }
+
+    public byte[] toByteArray() {
+        ensureOpen();
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Buffer too large for an array: " + size);
+        }
+        byte[] bytes = new byte[(int) size];
+        int offset = 0;
+        for (ByteBuffer slab : slabs) {
+            ByteBuffer view = slab.duplicate().flip();
+            int n = view.remaining();
+            view.get(bytes, offset, n);
+            offset += n;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns an OutputStream that appends to this buffer, for code that
+     * expects a stream.
+     */
+    public OutputStream asOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+                writeByte(b);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                SlabBuffer.this.write(bytes, offset, length);
+            }
+        };
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public int slabCount() {
+        return slabs.size();
+    }
+
+    /**
+     * Returns all slabs to the pool and empties the buffer.
+     */
+    public void clear() {
+        for (ByteBuffer slab : slabs) {
+            pool.release(slab);
+        }
+        slabs.clear();
+        current = null;
+        size = 0;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            clear();
+            closed = true;
+        }
+    }
+
+    private ByteBuffer writableSlab() {
+        ensureOpen();
+        if (current == null || !current.hasRemaining()) {
+            current = pool.acquire();
+            slabs.add(current);
+        }
+        return current;
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Buffer is closed");
+        }
+    }
+}
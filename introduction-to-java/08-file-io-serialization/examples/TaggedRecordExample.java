@@ -0,0 +1,779 @@
+/**
+ * TaggedRecordExample.java
+ * This program demonstrates a tagged-field binary format that lets persisted
+ * objects change shape over time. SerializationExample.versioningWithSerialVersionUID
+ * shows that Java serialization ties old data to the class version. Here
+ * every field is written with a numeric tag and a wire type. A reader that
+ * does not know a tag skips the field (strings and nested records by their
+ * length prefix), and a field missing from old data takes a default value.
+ * Records are decoded lazily, so a reader that needs two fields of a
+ * 40-field record never decodes the other 38.
+ */
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+public class TaggedRecordExample {
+    public static void main(String[] args) {
+        System.out.println("--- Tagged Record Examples ---");
+
+        // Number of 40-field records in the benchmark archive
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        // Example 1: Writing and reading tagged records
+        System.out.println("\nExample 1: Writing and reading tagged records");
+        writeAndReadRecords();
+
+        // Example 2: Adding and removing fields
+        System.out.println("\nExample 2: Adding and removing fields");
+        evolveProduct();
+
+        // Example 3: Partial reads from an archive
+        System.out.println("\nExample 3: Partial reads from an archive");
+        benchmarkPartialReads(records);
+    }
+
+    /**
+     * Demonstrates round trips for the four record types.
+     */
+    public static void writeAndReadRecords() {
+        TaggedWriter writer = new TaggedWriter();
+        RecordView view = new RecordView();
+
+        ArchivedPerson person = new ArchivedPerson("John Doe", 30);
+        person.write(writer);
+        System.out.println("Person (" + writer.size() + " bytes): " + ArchivedPerson.read(view.reset(writer.toByteArray())));
+
+        writer.clear();
+        ArchivedEmployee employee = new ArchivedEmployee("Alice", 30, "Engineering",
+                new ArchivedAddress("123 Main St", "Anytown", "CA", "12345"));
+        employee.write(writer);
+        System.out.println("Employee (" + writer.size() + " bytes): "
+                + ArchivedEmployee.read(view.reset(writer.toByteArray())));
+
+        writer.clear();
+        ArchivedUser user = new ArchivedUser("johndoe", "secret123", System.currentTimeMillis());
+        user.write(writer);
+        System.out.println("User (" + writer.size() + " bytes, password not stored): "
+                + ArchivedUser.read(view.reset(writer.toByteArray())));
+
+        // Reading a single field of the nested address without building the employee
+        writer.clear();
+        employee.write(writer);
+        RecordView address = view.reset(writer.toByteArray()).getRecord(ArchivedEmployee.ADDRESS);
+        System.out.println("Only the employee's city: " + address.getString(ArchivedAddress.CITY, "?"));
+    }
+
+    /**
+     * Demonstrates old and new readers with old and new product data.
+     */
+    public static void evolveProduct() {
+        TaggedWriter writer = new TaggedWriter();
+        RecordView view = new RecordView();
+
+        // Version 1 of Product had id, name and price
+        writer.writeInt(ArchivedProduct.ID, 1);
+        writer.writeString(ArchivedProduct.NAME, "Laptop");
+        writer.writeDouble(ArchivedProduct.PRICE, 999.99);
+        byte[] oldData = writer.toByteArray();
+
+        // Version 2 added a category and a stock count
+        writer.clear();
+        new ArchivedProduct(2, "Phone", 599.0, "Electronics", 42).write(writer);
+        byte[] newData = writer.toByteArray();
+
+        System.out.println("New reader, old data: " + ArchivedProduct.read(view.reset(oldData)));
+        System.out.println("New reader, new data: " + ArchivedProduct.read(view.reset(newData)));
+
+        // A version 1 reader only asks for the tags it knows; the rest is skipped
+        view.reset(newData);
+        System.out.println("Old reader, new data: Product{id=" + view.getInt(ArchivedProduct.ID, 0)
+                + ", name='" + view.getString(ArchivedProduct.NAME, "") + "', price="
+                + view.getDouble(ArchivedProduct.PRICE, 0) + "}");
+
+        // A reader that has dropped the name field simply never asks for it
+        view.reset(newData);
+        System.out.println("Reader without name: id=" + view.getInt(ArchivedProduct.ID, 0)
+                + ", stock=" + view.getInt(ArchivedProduct.STOCK, 0));
+
+        // A field whose wire type changed is reported instead of misread
+        writer.clear();
+        writer.writeString(ArchivedProduct.ID, "P-1");
+        try {
+            view.reset(writer.toByteArray()).getInt(ArchivedProduct.ID, 0);
+        } catch (IllegalStateException e) {
+            System.out.println("Error reading product: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes an archive of 40-field records and reads it fully, then reads
+     * only two early fields, then only two late fields.
+     */
+    public static void benchmarkPartialReads(int records) {
+        Path archive = Paths.get("tagged_archive.bin");
+
+        try {
+            long start = System.nanoTime();
+            try (TaggedArchiveWriter out = new TaggedArchiveWriter(Files.newOutputStream(archive))) {
+                TaggedWriter writer = new TaggedWriter();
+                for (int i = 0; i < records; i++) {
+                    writer.clear();
+                    writeWideRecord(writer, i);
+                    out.append(writer);
+                }
+            }
+            System.out.printf("Wrote %d records (%.1f MB) in %.0f ms%n", records,
+                    Files.size(archive) / 1e6, (System.nanoTime() - start) / 1e6);
+
+            for (int round = 1; round <= 2; round++) {
+                // Every field decoded
+                start = System.nanoTime();
+                long checksum = 0;
+                try (TaggedArchiveReader in = new TaggedArchiveReader(Files.newInputStream(archive))) {
+                    RecordView view;
+                    while ((view = in.next()) != null) {
+                        for (int tag = 1; tag <= 40; tag++) {
+                            switch (tag % 3) {
+                                case 0: checksum += view.getString(tag, "").length(); break;
+                                case 1: checksum += view.getLong(tag, 0); break;
+                                default: checksum += (long) view.getDouble(tag, 0); break;
+                            }
+                        }
+                    }
+                }
+                double fullMs = (System.nanoTime() - start) / 1e6;
+
+                // Two fields near the start: the rest of the record is never scanned
+                start = System.nanoTime();
+                long early = 0;
+                try (TaggedArchiveReader in = new TaggedArchiveReader(Files.newInputStream(archive))) {
+                    RecordView view;
+                    while ((view = in.next()) != null) {
+                        early += view.getLong(1, 0) + view.getString(3, "").length();
+                    }
+                }
+                double earlyMs = (System.nanoTime() - start) / 1e6;
+
+                // Two fields near the end: earlier fields are skipped, not decoded
+                start = System.nanoTime();
+                long late = 0;
+                try (TaggedArchiveReader in = new TaggedArchiveReader(Files.newInputStream(archive))) {
+                    RecordView view;
+                    while ((view = in.next()) != null) {
+                        late += view.getLong(37, 0) + view.getString(39, "").length();
+                    }
+                }
+                double lateMs = (System.nanoTime() - start) / 1e6;
+
+                System.out.printf("Round %d: all 40 fields %,.0f records/s, fields 1+3 %,.0f records/s, "
+                        + "fields 37+39 %,.0f records/s%n", round,
+                        records / (fullMs / 1000), records / (earlyMs / 1000), records / (lateMs / 1000));
+                if (round == 2) {
+                    System.out.println("Checksums: " + checksum + ", " + early + ", " + late);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error in benchmark: " + e.getMessage());
+        }
+
+        try {
+            Files.deleteIfExists(archive);
+        } catch (IOException e) {
+            System.out.println("Error cleaning up: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Helper method writing a 40-field record: every third field is a
+     * string, the others are integers and doubles.
+     */
+    private static void writeWideRecord(TaggedWriter writer, int i) {
+        for (int tag = 1; tag <= 40; tag++) {
+            switch (tag % 3) {
+                case 0: writer.writeString(tag, "value-" + tag + "-" + (i % 1000)); break;
+                case 1: writer.writeLong(tag, (long) i * tag); break;
+                default: writer.writeDouble(tag, i * 0.5 + tag); break;
+            }
+        }
+    }
+}
+
+/**
+ * Builds one tagged record in a growable byte array.
+ *
+ * Each field starts with a key: (tag << 3) | wire type, as a varint. The
+ * value follows: a zig-zag varint, 8 bytes for a double, or a varint
+ * length and that many bytes for strings and nested records. Tags must be
+ * positive and should stay the same for the life of a field; a removed
+ * field's tag should not be reused.
+ */
+class TaggedWriter {
+    static final int VARINT = 0;
+    static final int FIXED64 = 1;
+    static final int LENGTH_DELIMITED = 2;
+
+    private byte[] bytes = new byte[256];
+    private int size;
+
+    public TaggedWriter writeInt(int tag, int value) {
+        return writeLong(tag, value);
+    }
+
+    public TaggedWriter writeLong(int tag, long value) {
+        writeKey(tag, VARINT);
+        writeVarLong((value << 1) ^ (value >> 63));
+        return this;
+    }
+
+    public TaggedWriter writeBoolean(int tag, boolean value) {
+        return writeLong(tag, value ? 1 : 0);
+    }
+
+    public TaggedWriter writeDouble(int tag, double value) {
+        writeKey(tag, FIXED64);
+        ensureCapacity(8);
+        long bits = Double.doubleToRawLongBits(value);
+        for (int i = 0; i < 8; i++) {
+            bytes[size++] = (byte) (bits >>> (8 * i));
+        }
+        return this;
+    }
+
+    /**
+     * Writes a string; null writes nothing, so the reader sees its default.
+     */
+    public TaggedWriter writeString(int tag, String value) {
+        if (value == null) {
+            return this;
+        }
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        writeKey(tag, LENGTH_DELIMITED);
+        writeVarLong(encoded.length);
+        ensureCapacity(encoded.length);
+        System.arraycopy(encoded, 0, bytes, size, encoded.length);
+        size += encoded.length;
+        return this;
+    }
+
+    /**
+     * Writes a nested record that was built in another writer.
+     */
+    public TaggedWriter writeRecord(int tag, TaggedWriter nested) {
+        writeKey(tag, LENGTH_DELIMITED);
+        writeVarLong(nested.size);
+        ensureCapacity(nested.size);
+        System.arraycopy(nested.bytes, 0, bytes, size, nested.size);
+        size += nested.size;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, size);
+    }
+
+    private void writeKey(int tag, int wireType) {
+        if (tag <= 0 || tag > (Integer.MAX_VALUE >>> 3)) {
+            throw new IllegalArgumentException("Invalid tag: " + tag);
+        }
+        writeVarLong(((long) tag << 3) | wireType);
+    }
+
+    void writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[size++] = (byte) value;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+}
+
+/**
+ * A lazily decoded view of one tagged record.
+ *
+ * Nothing is decoded when the view is reset. Asking for a tag scans keys
+ * from where the last scan stopped until the tag is found, skipping the
+ * values in between by their wire type, and remembers where every tag it
+ * passed starts. Fields before the one asked for are skipped, never
+ * decoded; fields after it are not touched. A view can be reused for many
+ * records.
+ */
+class RecordView {
+    // Offsets are cached for tags below this; higher tags are searched each time
+    private static final int CACHED_TAGS = 64;
+
+    private byte[] data;
+    private int start;
+    private int end;
+    private int scanPosition;
+
+    // A cached entry is valid only if its stamp equals the current generation
+    private final int[] valueOffsets = new int[CACHED_TAGS];
+    private final byte[] wireTypes = new byte[CACHED_TAGS];
+    private final int[] stamps = new int[CACHED_TAGS];
+    private int generation;
+
+    // Set by readVarLong to the first byte after the varint
+    private int position;
+    // Wire type of the field most recently found
+    private int foundWireType;
+
+    public RecordView reset(byte[] data) {
+        return reset(data, 0, data.length);
+    }
+
+    public RecordView reset(byte[] data, int offset, int length) {
+        this.data = data;
+        this.start = offset;
+        this.end = offset + length;
+        this.scanPosition = offset;
+        if (++generation == 0) {
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
+        return this;
+    }
+
+    public boolean has(int tag) {
+        return find(tag) >= 0;
+    }
+
+    public long getLong(int tag, long defaultValue) {
+        int offset = find(tag);
+        if (offset < 0) {
+            return defaultValue;
+        }
+        checkWireType(tag, TaggedWriter.VARINT);
+        long zigZag = readVarLong(offset);
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+
+    public int getInt(int tag, int defaultValue) {
+        long value = getLong(tag, defaultValue);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Field " + tag + " does not fit in an int: " + value);
+        }
+        return (int) value;
+    }
+
+    public boolean getBoolean(int tag, boolean defaultValue) {
+        return getLong(tag, defaultValue ? 1 : 0) != 0;
+    }
+
+    public double getDouble(int tag, double defaultValue) {
+        int offset = find(tag);
+        if (offset < 0) {
+            return defaultValue;
+        }
+        checkWireType(tag, TaggedWriter.FIXED64);
+        long bits = 0;
+        for (int i = 7; i >= 0; i--) {
+            bits = (bits << 8) | (data[offset + i] & 0xFF);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    public String getString(int tag, String defaultValue) {
+        int offset = find(tag);
+        if (offset < 0) {
+            return defaultValue;
+        }
+        checkWireType(tag, TaggedWriter.LENGTH_DELIMITED);
+        int length = (int) readVarLong(offset);
+        return new String(data, position, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a new view of a nested record (sharing the same bytes), or
+     * null if the field is absent.
+     */
+    public RecordView getRecord(int tag) {
+        int offset = find(tag);
+        if (offset < 0) {
+            return null;
+        }
+        checkWireType(tag, TaggedWriter.LENGTH_DELIMITED);
+        int length = (int) readVarLong(offset);
+        return new RecordView().reset(data, position, length);
+    }
+
+    /**
+     * Returns the offset of the tag's value, or -1 if the record has no such field.
+     */
+    private int find(int tag) {
+        if (tag < CACHED_TAGS && stamps[tag] == generation) {
+            foundWireType = wireTypes[tag];
+            return valueOffsets[tag];
+        }
+        // Tags at or above CACHED_TAGS are not remembered, so they are searched from the start
+        int p = tag < CACHED_TAGS ? scanPosition : start;
+        while (p < end) {
+            long key = readVarLong(p);
+            p = position;
+            if (key >>> 3 < 1 || key >>> 3 > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Invalid field tag " + (key >>> 3) + " in record");
+            }
+            int fieldTag = (int) (key >>> 3);
+            int wireType = (int) (key & 7);
+            int valueOffset = p;
+
+            switch (wireType) {
+                case TaggedWriter.VARINT:
+                    // Skipped by reading it, which stops at the end of the record
+                    readVarLong(p);
+                    p = position;
+                    break;
+                case TaggedWriter.FIXED64:
+                    p += 8;
+                    break;
+                case TaggedWriter.LENGTH_DELIMITED:
+                    long length = readVarLong(p);
+                    p = position;
+                    if (length < 0 || length > end - p) {
+                        throw new IllegalStateException("Field " + fieldTag + " has length " + length
+                                + " but only " + (end - p) + " bytes remain in the record");
+                    }
+                    p += (int) length;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown wire type " + wireType + " for field " + fieldTag);
+            }
+            if (p > end) {
+                throw new IllegalStateException("Field " + fieldTag + " runs past the end of the record");
+            }
+
+            if (fieldTag < CACHED_TAGS) {
+                // Only the first occurrence counts
+                if (stamps[fieldTag] != generation) {
+                    stamps[fieldTag] = generation;
+                    valueOffsets[fieldTag] = valueOffset;
+                    wireTypes[fieldTag] = (byte) wireType;
+                }
+                scanPosition = p;
+            }
+            if (fieldTag == tag) {
+                foundWireType = wireType;
+                return valueOffset;
+            }
+        }
+        if (tag < CACHED_TAGS) {
+            scanPosition = end;
+        }
+        return -1;
+    }
+
+    private void checkWireType(int tag, int expected) {
+        if (foundWireType != expected) {
+            throw new IllegalStateException("Field " + tag + " has wire type " + foundWireType
+                    + ", expected " + expected);
+        }
+    }
+
+    private long readVarLong(int p) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (p >= end) {
+                throw new IllegalStateException("Truncated varint in record");
+            }
+            byte b = data[p++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                position = p;
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint in record");
+    }
+}
+
+/**
+ * Appends length-prefixed records to a stream.
+ */
+class TaggedArchiveWriter implements AutoCloseable {
+    private final OutputStream out;
+    private final TaggedWriter prefix = new TaggedWriter();
+
+    TaggedArchiveWriter(OutputStream out) {
+        this.out = new BufferedOutputStream(out, 1 << 16);
+    }
+
+    void append(TaggedWriter record) throws IOException {
+        prefix.clear();
+        prefix.writeVarLong(record.size());
+        prefix.writeTo(out);
+        record.writeTo(out);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
+
+/**
+ * Reads length-prefixed records one at a time into a reused buffer and
+ * returns a reused view of each.
+ */
+class TaggedArchiveReader implements AutoCloseable {
+    private final InputStream in;
+    private final RecordView view = new RecordView();
+    private byte[] buffer = new byte[1024];
+
+    TaggedArchiveReader(InputStream in) {
+        this.in = new BufferedInputStream(in, 1 << 16);
+    }
+
+    /**
+     * Returns the next record, or null at the end of the archive. The view
+     * is only valid until the next call.
+     */
+    RecordView next() throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        long length = 0;
+        int shift = 0;
+        int b = first;
+        while (true) {
+            length |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            shift += 7;
+            b = in.read();
+            if (b < 0 || shift > 28) {
+                throw new StreamCorruptedException("Bad record length");
+            }
+        }
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new StreamCorruptedException("Record too large: " + length);
+        }
+        if (buffer.length < length) {
+            buffer = new byte[(int) Math.max(length, buffer.length * 2L)];
+        }
+        int read = in.readNBytes(buffer, 0, (int) length);
+        if (read < length) {
+            throw new EOFException("Truncated record");
+        }
+        return view.reset(buffer, 0, (int) length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
+
+/**
+ * Person as a tagged record.
+ */
+class ArchivedPerson {
+    static final int NAME = 1;
+    static final int AGE = 2;
+
+    final String name;
+    final int age;
+
+    ArchivedPerson(String name, int age) {
+        this.name = name;
+        this.age = age;
+    }
+
+    void write(TaggedWriter out) {
+        out.writeString(NAME, name).writeInt(AGE, age);
+    }
+
+    static ArchivedPerson read(RecordView in) {
+        return new ArchivedPerson(in.getString(NAME, ""), in.getInt(AGE, 0));
+    }
+
+    @Override
+    public String toString() {
+        return "Person{name='" + name + "', age=" + age + "}";
+    }
+}
+
+/**
+ * Address as a tagged record, nested inside an employee.
+ */
+class ArchivedAddress {
+    static final int STREET = 1;
+    static final int CITY = 2;
+    static final int STATE = 3;
+    static final int ZIP_CODE = 4;
+
+    final String street;
+    final String city;
+    final String state;
+    final String zipCode;
+
+    ArchivedAddress(String street, String city, String state, String zipCode) {
+        this.street = street;
+        this.city = city;
+        this.state = state;
+        this.zipCode = zipCode;
+    }
+
+    void write(TaggedWriter out) {
+        out.writeString(STREET, street).writeString(CITY, city).writeString(STATE, state)
+                .writeString(ZIP_CODE, zipCode);
+    }
+
+    static ArchivedAddress read(RecordView in) {
+        return new ArchivedAddress(in.getString(STREET, ""), in.getString(CITY, ""),
+                in.getString(STATE, ""), in.getString(ZIP_CODE, ""));
+    }
+
+    @Override
+    public String toString() {
+        return street + ", " + city + ", " + state + " " + zipCode;
+    }
+}
+
+/**
+ * Employee as a tagged record with a nested address.
+ */
+class ArchivedEmployee {
+    static final int NAME = 1;
+    static final int AGE = 2;
+    static final int DEPARTMENT = 3;
+    static final int ADDRESS = 4;
+
+    final String name;
+    final int age;
+    final String department;
+    final ArchivedAddress address;
+
+    ArchivedEmployee(String name, int age, String department, ArchivedAddress address) {
+        this.name = name;
+        this.age = age;
+        this.department = department;
+        this.address = address;
+    }
+
+    void write(TaggedWriter out) {
+        out.writeString(NAME, name).writeInt(AGE, age).writeString(DEPARTMENT, department);
+        if (address != null) {
+            TaggedWriter nested = new TaggedWriter();
+            address.write(nested);
+            out.writeRecord(ADDRESS, nested);
+        }
+    }
+
+    static ArchivedEmployee read(RecordView in) {
+        RecordView address = in.getRecord(ADDRESS);
+        return new ArchivedEmployee(in.getString(NAME, ""), in.getInt(AGE, 0), in.getString(DEPARTMENT, ""),
+                address == null ? null : ArchivedAddress.read(address));
+    }
+
+    @Override
+    public String toString() {
+        return "Employee{name='" + name + "', age=" + age + ", department='" + department
+                + "', address=" + address + "}";
+    }
+}
+
+/**
+ * User as a tagged record. The password is never written; tag 2 is
+ * reserved for it so that it is never reused for another field.
+ */
+class ArchivedUser {
+    static final int USERNAME = 1;
+    // Tag 2 is reserved: it was the password in an early version
+    static final int LAST_LOGIN_MILLIS = 3;
+
+    final String username;
+    final String password;
+    final long lastLoginMillis;
+
+    ArchivedUser(String username, String password, long lastLoginMillis) {
+        this.username = username;
+        this.password = password;
+        this.lastLoginMillis = lastLoginMillis;
+    }
+
+    void write(TaggedWriter out) {
+        out.writeString(USERNAME, username).writeLong(LAST_LOGIN_MILLIS, lastLoginMillis);
+    }
+
+    static ArchivedUser read(RecordView in) {
+        return new ArchivedUser(in.getString(USERNAME, ""), null, in.getLong(LAST_LOGIN_MILLIS, 0));
+    }
+
+    @Override
+    public String toString() {
+        return "User{username='" + username + "', password='" + password + "', lastLoginMillis="
+                + lastLoginMillis + "}";
+    }
+}
+
+/**
+ * Product as a tagged record. Version 1 had tags 1-3; version 2 added a
+ * category and a stock count, which old data does not have.
+ */
+class ArchivedProduct {
+    static final int ID = 1;
+    static final int NAME = 2;
+    static final int PRICE = 3;
+    static final int CATEGORY = 4;   // added in version 2
+    static final int STOCK = 5;      // added in version 2
+
+    final int id;
+    final String name;
+    final double price;
+    final String category;
+    final int stock;
+
+    ArchivedProduct(int id, String name, double price, String category, int stock) {
+        this.id = id;
+        this.name = name;
+        this.price = price;
+        this.category = category;
+        this.stock = stock;
+    }
+
+    void write(TaggedWriter out) {
+        out.writeInt(ID, id).writeString(NAME, name).writeDouble(PRICE, price)
+                .writeString(CATEGORY, category).writeInt(STOCK, stock);
+    }
+
+    static ArchivedProduct read(RecordView in) {
+        return new ArchivedProduct(in.getInt(ID, 0), in.getString(NAME, ""), in.getDouble(PRICE, 0),
+                in.getString(CATEGORY, "uncategorized"), in.getInt(STOCK, 0));
+    }
+
+    @Override
+    public String toString() {
+        return "Product{id=" + id + ", name='" + name + "', price=" + price + ", category='" + category
+                + "', stock=" + stock + "}";
+    }
+}
@@ -0,0 +1,761 @@
+/**
+ * Utf8TextExample.java
+ * This program demonstrates fast UTF-8 text reading, writing and transcoding.
+ * BufferedReader.readLine creates a new String per line after decoding the
+ * bytes through a general-purpose CharsetDecoder. Most log and data files are
+ * almost entirely 7-bit ASCII, so the classes here check 8 bytes at a time
+ * for ASCII and copy those runs directly. Only the remaining bytes go through
+ * the full UTF-8 rules. Lines are returned as a reusable CharSequence instead
+ * of a new String, and text can be transcoded between charsets block by
+ * block with no per-line objects.
+ */
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+public class Utf8TextExample {
+    public static void main(String[] args) {
+        System.out.println("--- UTF-8 Text Examples ---");
+
+        // Size of the benchmark log in MB (pass 5120 for a 5GB run)
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+
+        // Example 1: Reading lines in different scripts
+        System.out.println("\nExample 1: Reading lines in different scripts");
+        readMixedText();
+
+        // Example 2: Line reading compared with BufferedReader
+        System.out.println("\nExample 2: Line reading compared with BufferedReader");
+        Path log = Paths.get("utf8_benchmark.log");
+        try {
+            createLogFile(log, megabytes * 1_000_000L);
+            benchmarkReading(log);
+
+            // Example 3: Transcoding compared with a Reader/Writer copy
+            System.out.println("\nExample 3: Transcoding compared with a Reader/Writer copy");
+            benchmarkTranscoding(log);
+        } catch (IOException e) {
+            System.out.println("Error in benchmark: " + e.getMessage());
+        }
+
+        try {
+            Files.deleteIfExists(log);
+        } catch (IOException e) {
+            System.out.println("Error cleaning up: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Demonstrates that the reader decodes the same text as String does,
+     * including multi-byte characters, CRLF endings and malformed bytes.
+     */
+    public static void readMixedText() {
+        String text = "Hello, World!\r\n"
+                + "Café crème, naïve, Zürich\n"
+                + "Привет мир\n"
+                + "こんにちは世界\n"
+                + "Emoji outside the BMP: 😀\n"
+                + "A long ASCII line that is copied eight bytes at a time by the fast path";
+
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        String[] expected = text.split("\r?\n");
+
+        try (Utf8LineReader reader = new Utf8LineReader(new ByteArrayInputStream(bytes), 16)) {
+            CharSequence line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                boolean same = expected[number].contentEquals(line);
+                System.out.println("Line " + (number + 1) + " (" + line.length() + " chars, "
+                        + (same ? "matches String" : "DIFFERS") + "): " + line);
+                number++;
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading text: " + e.getMessage());
+        }
+
+        // Malformed input is replaced with U+FFFD per maximal invalid subsequence, so a
+        // truncated sequence gives one replacement, the same as new String(bytes, UTF_8)
+        byte[][] malformed = {
+            {'o', 'k', ' ', (byte) 0xC3, ' ', (byte) 0xFF, '!'},
+            {'e', 'u', 'r', 'o', ' ', (byte) 0xE2, (byte) 0x82, '!'},
+            {'e', 'm', 'o', 'j', 'i', ' ', (byte) 0xF0, (byte) 0x9F, (byte) 0x98, '!'},
+            {'s', 'u', 'r', 'r', ' ', (byte) 0xED, (byte) 0xA0, (byte) 0x80, '!'},
+            {'o', 'v', 'e', 'r', ' ', (byte) 0xC0, (byte) 0xAF, '!'}
+        };
+        for (byte[] input : malformed) {
+            try (Utf8LineReader reader = new Utf8LineReader(new ByteArrayInputStream(input), 16)) {
+                CharSequence line = reader.readLine();
+                boolean same = new String(input, StandardCharsets.UTF_8).contentEquals(line);
+                System.out.println("Malformed bytes decoded as (" + line.length() + " chars, "
+                        + (same ? "matches String" : "DIFFERS") + "): " + line);
+            } catch (IOException e) {
+                System.out.println("Error reading text: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads the log with BufferedReader and with Utf8LineReader, doing the
+     * same work per line, and reports lines/s, allocation and GC counts.
+     */
+    public static void benchmarkReading(Path log) throws IOException {
+        long size = Files.size(log);
+        System.out.printf("Log file: %.1f MB%n", size / 1e6);
+
+        for (int round = 1; round <= 2; round++) {
+            long allocated = allocatedBytes();
+            long collections = gcCount();
+            long start = System.nanoTime();
+            long lines = 0;
+            long chars = 0;
+            long errors = 0;
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(log.toFile()), StandardCharsets.UTF_8), 1 << 16)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines++;
+                    chars += line.length();
+                    if (line.length() > 25 && line.charAt(25) == 'E') {
+                        errors++;
+                    }
+                }
+            }
+            double readerSeconds = (System.nanoTime() - start) / 1e9;
+            long readerAllocated = allocatedBytes() - allocated;
+            long readerCollections = gcCount() - collections;
+
+            allocated = allocatedBytes();
+            collections = gcCount();
+            start = System.nanoTime();
+            long fastLines = 0;
+            long fastChars = 0;
+            long fastErrors = 0;
+            try (Utf8LineReader reader = new Utf8LineReader(new FileInputStream(log.toFile()), 1 << 16)) {
+                CharSequence line;
+                while ((line = reader.readLine()) != null) {
+                    fastLines++;
+                    fastChars += line.length();
+                    if (line.length() > 25 && line.charAt(25) == 'E') {
+                        fastErrors++;
+                    }
+                }
+            }
+            double fastSeconds = (System.nanoTime() - start) / 1e9;
+            long fastAllocated = allocatedBytes() - allocated;
+            long fastCollections = gcCount() - collections;
+
+            System.out.printf("Round %d: BufferedReader %,.0f lines/s (%d bytes/line allocated, %d GCs), "
+                    + "Utf8LineReader %,.0f lines/s (%d bytes/line allocated, %d GCs)%n",
+                    round, lines / readerSeconds, readerAllocated / lines, readerCollections,
+                    fastLines / fastSeconds, fastAllocated / fastLines, fastCollections);
+            if (round == 2) {
+                System.out.printf("Lines %d/%d, chars %d/%d, errors %d/%d%n",
+                        lines, fastLines, chars, fastChars, errors, fastErrors);
+            }
+        }
+    }
+
+    /**
+     * Converts the UTF-8 log to ISO-8859-1 with a Reader/Writer line copy
+     * and with TextTranscoder, and checks the results are identical.
+     */
+    public static void benchmarkTranscoding(Path log) throws IOException {
+        Path copied = Paths.get("utf8_copy_reader.log");
+        Path transcoded = Paths.get("utf8_copy_transcoder.log");
+        long size = Files.size(log);
+
+        try {
+            for (int round = 1; round <= 2; round++) {
+                long allocated = allocatedBytes();
+                long start = System.nanoTime();
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(new FileInputStream(log.toFile()), StandardCharsets.UTF_8), 1 << 16);
+                        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                                new FileOutputStream(copied.toFile()), StandardCharsets.ISO_8859_1), 1 << 16)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        writer.write(line);
+                        writer.write('\n');
+                    }
+                }
+                double copySeconds = (System.nanoTime() - start) / 1e9;
+                long copyAllocated = allocatedBytes() - allocated;
+
+                allocated = allocatedBytes();
+                start = System.nanoTime();
+                try (InputStream in = new FileInputStream(log.toFile());
+                        OutputStream out = new FileOutputStream(transcoded.toFile())) {
+                    TextTranscoder.transcode(in, StandardCharsets.UTF_8, out, StandardCharsets.ISO_8859_1, 1 << 16);
+                }
+                double transcodeSeconds = (System.nanoTime() - start) / 1e9;
+                long transcodeAllocated = allocatedBytes() - allocated;
+
+                System.out.printf("Round %d: Reader/Writer copy %.1f MB/s (%,d KB allocated), "
+                        + "TextTranscoder %.1f MB/s (%,d KB allocated)%n",
+                        round, size / 1e6 / copySeconds, copyAllocated / 1024,
+                        size / 1e6 / transcodeSeconds, transcodeAllocated / 1024);
+            }
+
+            long mismatch = Files.mismatch(copied, transcoded);
+            System.out.println(mismatch == -1 ? "Both ISO-8859-1 copies are identical"
+                    : "Copies differ at byte " + mismatch);
+        } finally {
+            Files.deleteIfExists(copied);
+            Files.deleteIfExists(transcoded);
+        }
+    }
+
+    /**
+     * Helper method to write a log file with Utf8TextWriter. About one line
+     * in eight contains Latin-1 characters outside ASCII.
+     */
+    private static void createLogFile(Path path, long bytes) throws IOException {
+        String[] levels = {"INFO ", "DEBUG", "WARN ", "ERROR"};
+        String[] cities = {"London", "Paris", "Zürich", "Berlin", "Montréal", "Lisbon", "Tokyo", "København"};
+        StringBuilder line = new StringBuilder(128);
+        long written = 0;
+
+        try (Utf8TextWriter writer = new Utf8TextWriter(new FileOutputStream(path.toFile()), 1 << 16)) {
+            for (long i = 0; written < bytes; i++) {
+                line.setLength(0);
+                line.append("2026-10-19T12:").append(10 + i % 50).append(':').append(10 + i % 49)
+                        .append(".123Z ").append(levels[(int) (i % 7 == 0 ? 3 : i % 3)])
+                        .append(" [worker-").append(i % 16).append("] Request ").append(i)
+                        .append(" from ").append(cities[(int) (i % cities.length)])
+                        .append(" completed in ").append(i % 997).append(" ms");
+                writer.write(line);
+                writer.newLine();
+                written += line.length() + 1;
+            }
+        }
+    }
+
+    /**
+     * Helper method returning the bytes allocated so far by this thread, or
+     * 0 if the JVM does not report it.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * Helper method returning the total number of garbage collections so far.
+     */
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+}
+
+/**
+ * ASCII helpers shared by the reader, writer and transcoder.
+ */
+class Ascii {
+    // Reads 8 bytes of a byte[] as one long, so 8 bytes can be tested at once
+    static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    static final long HIGH_BITS = 0x8080808080808080L;
+
+    /**
+     * Returns how many bytes from 'from' (up to 'to') are 7-bit ASCII.
+     */
+    static int run(byte[] bytes, int from, int to) {
+        int i = from;
+        while (i + 8 <= to && ((long) LONGS.get(bytes, i) & HIGH_BITS) == 0) {
+            i += 8;
+        }
+        while (i < to && bytes[i] >= 0) {
+            i++;
+        }
+        return i - from;
+    }
+}
+
+/**
+ * A reusable view of the characters of one line. It is only valid until the
+ * next call to readLine(); call toString() to keep a copy.
+ */
+class LineView implements CharSequence {
+    char[] chars = new char[256];
+    int length;
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of line length " + length);
+        }
+        return chars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("Range " + start + "-" + end + " out of line length " + length);
+        }
+        return new String(chars, start, end - start);
+    }
+
+    public boolean startsWith(String prefix) {
+        if (prefix.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (chars[i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+}
+
+/**
+ * Reads UTF-8 lines ending in "\n" or "\r\n" from a stream.
+ *
+ * A newline byte never occurs inside a multi-byte UTF-8 character, so lines
+ * are found by scanning bytes and only complete lines are decoded. Malformed
+ * input is replaced with U+FFFD, one per maximal invalid subsequence, which
+ * is what the JDK's UTF-8 decoder does.
+ */
+class Utf8LineReader implements AutoCloseable {
+    private static final char REPLACEMENT = '�';
+
+    private final InputStream in;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private boolean endOfStream;
+    private final LineView line = new LineView();
+
+    public Utf8LineReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[Math.max(bufferSize, 16)];
+    }
+
+    /**
+     * Returns the next line without its line ending, or null at the end of
+     * the stream. The returned object is reused by the next call.
+     */
+    public CharSequence readLine() throws IOException {
+        int searched = position;
+        while (true) {
+            for (int i = searched; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    decode(position, i);
+                    position = i + 1;
+                    return line;
+                }
+            }
+            if (endOfStream) {
+                if (position == limit) {
+                    return null;
+                }
+                decode(position, limit);
+                position = limit;
+                return line;
+            }
+            searched = limit - position;
+            fill();
+            searched += position;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Moves unread bytes to the start of the buffer (growing it for a line
+     * longer than the buffer) and reads more.
+     */
+    private void fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        } else if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            endOfStream = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    private void decode(int from, int to) {
+        if (to > from && buffer[to - 1] == '\r') {
+            to--;
+        }
+        // A UTF-8 line never has more chars than bytes
+        if (line.chars.length < to - from) {
+            line.chars = new char[Math.max(to - from, line.chars.length * 2)];
+        }
+        char[] chars = line.chars;
+        byte[] bytes = buffer;
+        int n = 0;
+        int i = from;
+
+        while (i < to) {
+            // Fast path: copy 8 ASCII bytes at a time
+            if (i + 8 <= to && ((long) Ascii.LONGS.get(bytes, i) & Ascii.HIGH_BITS) == 0) {
+                for (int end = i + 8; i < end; i++) {
+                    chars[n++] = (char) bytes[i];
+                }
+                continue;
+            }
+            int b0 = bytes[i];
+            if (b0 >= 0) {
+                chars[n++] = (char) b0;
+                i++;
+                continue;
+            }
+
+            // The lead byte sets how many continuation bytes follow and the range of the
+            // first one, which rules out overlong forms and values above U+10FFFF
+            b0 &= 0xFF;
+            int needed;
+            int low = 0x80;
+            int high = 0xBF;
+            if (b0 >= 0xC2 && b0 <= 0xDF) {
+                needed = 1;
+            } else if (b0 >= 0xE0 && b0 <= 0xEF) {
+                needed = 2;
+                low = b0 == 0xE0 ? 0xA0 : 0x80;
+            } else if (b0 >= 0xF0 && b0 <= 0xF4) {
+                needed = 3;
+                low = b0 == 0xF0 ? 0x90 : 0x80;
+                high = b0 == 0xF4 ? 0x8F : 0xBF;
+            } else {
+                chars[n++] = REPLACEMENT;
+                i++;
+                continue;
+            }
+
+            int c = b0 & (0x3F >> needed);
+            int j = i + 1;
+            while (j - i <= needed && j < to) {
+                int b = bytes[j] & 0xFF;
+                if (b < low || b > high) {
+                    break;
+                }
+                c = (c << 6) | (b & 0x3F);
+                low = 0x80;
+                high = 0xBF;
+                j++;
+            }
+            if (j - i <= needed || (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)) {
+                // A truncated sequence (a maximal subpart) or an encoded surrogate
+                // becomes a single U+FFFD, as in the JDK decoder
+                chars[n++] = REPLACEMENT;
+            } else if (c >= 0x10000) {
+                chars[n++] = Character.highSurrogate(c);
+                chars[n++] = Character.lowSurrogate(c);
+            } else {
+                chars[n++] = (char) c;
+            }
+            i = j;
+        }
+        line.length = n;
+    }
+}
+
+/**
+ * Writes CharSequences to a stream as UTF-8 through a reusable byte buffer.
+ * Lone surrogates are written as '?', as String.getBytes does.
+ */
+class Utf8TextWriter implements AutoCloseable {
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int count;
+
+    public Utf8TextWriter(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.buffer = new byte[Math.max(bufferSize, 16)];
+    }
+
+    public void write(CharSequence text) throws IOException {
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            // At most 4 bytes are written per iteration
+            if (count + 4 > buffer.length) {
+                flushBuffer();
+            }
+            // Fast path: ASCII chars while there is room in the buffer
+            int room = Math.min(length - i, buffer.length - count);
+            int end = i + room;
+            while (i < end) {
+                char c = text.charAt(i);
+                if (c >= 0x80) {
+                    break;
+                }
+                buffer[count++] = (byte) c;
+                i++;
+            }
+            if (i == length || count + 4 > buffer.length) {
+                continue;
+            }
+
+            char c = text.charAt(i++);
+            if (c < 0x80) {
+                buffer[count++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[count++] = (byte) (0xC0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i < length && Character.isLowSurrogate(text.charAt(i))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(i++));
+                buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer[count++] = '?';
+            } else {
+                buffer[count++] = (byte) (0xE0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    public void newLine() throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = '\n';
+    }
+
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, count);
+        count = 0;
+    }
+}
+
+/**
+ * Streams text from one charset to another in blocks, without creating any
+ * per-line objects.
+ *
+ * When the source decodes ASCII bytes as themselves (UTF-8, US-ASCII,
+ * ISO-8859-1) and the target encodes ASCII chars as themselves, runs of
+ * ASCII bytes are copied straight from input to output. Everything else
+ * goes through a CharsetDecoder and CharsetEncoder, with malformed or
+ * unmappable characters replaced.
+ */
+class TextTranscoder {
+    // Shortest ASCII run worth leaving the decoder for
+    private static final int MIN_ASCII_RUN = 16;
+
+    /**
+     * Copies all of 'in' to 'out' and returns the number of bytes written.
+     */
+    static long transcode(InputStream in, Charset from, OutputStream out, Charset to, int bufferSize)
+            throws IOException {
+        CharsetDecoder decoder = from.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharsetEncoder encoder = to.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        boolean fastPath = decodesAsciiAsItself(from) && encodesAsciiAsItself(to);
+
+        byte[] inputArray = new byte[Math.max(bufferSize, 64)];
+        ByteBuffer input = ByteBuffer.wrap(inputArray);
+        input.limit(0);
+        CharBuffer chars = CharBuffer.allocate(inputArray.length);
+        ByteBuffer output = ByteBuffer.allocate(inputArray.length * 2);
+        long written = 0;
+
+        while (true) {
+            // Keep any incomplete character from the previous block and read more
+            input.compact();
+            int read = in.read(inputArray, input.position(), input.remaining());
+            if (read > 0) {
+                input.position(input.position() + read);
+            }
+            input.flip();
+            boolean endOfInput = read < 0;
+
+            while (input.hasRemaining()) {
+                int start = input.position();
+                int limit = input.limit();
+                if (!fastPath) {
+                    written += convert(decoder, encoder, input, chars, output, out, endOfInput);
+                    break;
+                }
+
+                int run = Ascii.run(inputArray, start, limit);
+                if (run > 0) {
+                    written += copyAscii(inputArray, start, run, output, out);
+                    input.position(start + run);
+                    continue;
+                }
+
+                // Decode up to and including the first byte of the next long ASCII run.
+                // Ending on an ASCII byte lets the decoder see where a bad sequence stops.
+                int sliceEnd = nextAsciiRun(inputArray, start, limit);
+                input.limit(Math.min(sliceEnd + 1, limit));
+                written += convert(decoder, encoder, input, chars, output, out, endOfInput && sliceEnd >= limit);
+                input.limit(limit);
+                if (input.position() == start) {
+                    break;   // an incomplete character at the end of the block
+                }
+            }
+
+            if (endOfInput) {
+                break;
+            }
+        }
+
+        // End the input (replacing any truncated character) and flush both coders
+        written += convert(decoder, encoder, input, chars, output, out, true);
+        decoder.flush(chars);
+        chars.flip();
+        while (encoder.encode(chars, output, true).isOverflow()) {
+            written += drain(output, out);
+        }
+        while (encoder.flush(output).isOverflow()) {
+            written += drain(output, out);
+        }
+        written += drain(output, out);
+        return written;
+    }
+
+    /**
+     * Decodes from 'input' and encodes the chars into 'output', writing
+     * 'output' to the stream whenever it fills.
+     */
+    private static long convert(CharsetDecoder decoder, CharsetEncoder encoder, ByteBuffer input,
+            CharBuffer chars, ByteBuffer output, OutputStream out, boolean endOfInput) throws IOException {
+        long written = 0;
+        CoderResult decoded;
+        do {
+            decoded = decoder.decode(input, chars, endOfInput);
+            chars.flip();
+            while (encoder.encode(chars, output, false).isOverflow()) {
+                written += drain(output, out);
+            }
+            // Keep a high surrogate whose low half has not been decoded yet
+            chars.compact();
+        } while (decoded.isOverflow());
+        return written;
+    }
+
+    private static long copyAscii(byte[] bytes, int from, int length, ByteBuffer output, OutputStream out)
+            throws IOException {
+        long written = 0;
+        while (length > 0) {
+            if (!output.hasRemaining()) {
+                written += drain(output, out);
+            }
+            int chunk = Math.min(length, output.remaining());
+            output.put(bytes, from, chunk);
+            from += chunk;
+            length -= chunk;
+        }
+        return written;
+    }
+
+    private static long drain(ByteBuffer output, OutputStream out) throws IOException {
+        int length = output.position();
+        out.write(output.array(), 0, length);
+        output.clear();
+        return length;
+    }
+
+    /**
+     * Returns the start of the next run of at least MIN_ASCII_RUN ASCII bytes,
+     * or 'to' if there is none.
+     */
+    private static int nextAsciiRun(byte[] bytes, int from, int to) {
+        int runStart = from;
+        for (int i = from; i < to; i++) {
+            if (bytes[i] < 0) {
+                runStart = i + 1;
+            } else if (i - runStart + 1 >= MIN_ASCII_RUN) {
+                return runStart;
+            }
+        }
+        return to;
+    }
+
+    private static boolean decodesAsciiAsItself(Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Checks once whether the charset writes every ASCII char as that byte.
+     */
+    private static boolean encodesAsciiAsItself(Charset charset) {
+        if (!charset.canEncode()) {
+            return false;
+        }
+        char[] ascii = new char[128];
+        for (int i = 0; i < ascii.length; i++) {
+            ascii[i] = (char) i;
+        }
+        ByteBuffer encoded = charset.encode(CharBuffer.wrap(ascii));
+        if (encoded.remaining() != ascii.length) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length; i++) {
+            if (encoded.get(i) != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
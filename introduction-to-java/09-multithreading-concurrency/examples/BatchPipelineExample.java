@@ -0,0 +1,644 @@
+/**
+ * BatchPipelineExample.java
+ * This program demonstrates a multi-stage producer/consumer pipeline that
+ * works in batches. Exercise 2 passes items between a Producer and a
+ * Consumer one at a time, so every item pays for a lock and a signal on
+ * the queue. Here each stage takes up to N items at once, or whatever
+ * arrived within T microseconds, and passes its whole output on under a
+ * single lock. Stages are joined by bounded queues: when a stage falls
+ * behind, its input queue fills, the stage before it blocks, and the
+ * backpressure spreads upstream to the caller. A QueueMonitor reports each
+ * stage's queue depth, throughput and time spent waiting.
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class BatchPipelineExample {
+    public static void main(String[] args) {
+        System.out.println("--- Batch Pipeline Examples ---");
+
+        // Items pushed through the pipeline in the comparison
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+
+        // Example 1: A three-stage ingestion pipeline
+        System.out.println("\nExample 1: A three-stage ingestion pipeline");
+        ingestionPipeline();
+
+        // Example 2: Backpressure from a slow stage
+        System.out.println("\nExample 2: Backpressure from a slow stage");
+        backpressure();
+
+        // Example 3: A stage that fails
+        System.out.println("\nExample 3: A stage that fails");
+        failingStage();
+
+        // Example 4: Batches of 1 versus batches of 1,000
+        System.out.println("\nExample 4: Batches of 1 versus batches of 1,000");
+        compareBatchSizes(items);
+
+        System.out.println("\nMain thread exiting.");
+    }
+
+    /**
+     * Demonstrates parsing, filtering and summing lines of text in three
+     * stages.
+     */
+    private static void ingestionPipeline() {
+        AtomicLong total = new AtomicLong();
+        AtomicLong records = new AtomicLong();
+
+        Pipeline<String> pipeline = Pipeline.<String>source(10_000)
+                .batching(1000, 200)
+                .stage("parse", 2, (List<String> lines, List<long[]> out) -> {
+                    for (String line : lines) {
+                        int comma = line.indexOf(',');
+                        out.add(new long[] {Long.parseLong(line.substring(0, comma)),
+                                Long.parseLong(line.substring(comma + 1))});
+                    }
+                })
+                .stage("filter", 1, (List<long[]> batch, List<long[]> out) -> {
+                    for (long[] record : batch) {
+                        if (record[1] % 10 != 0) {
+                            out.add(record);
+                        }
+                    }
+                })
+                .sink("sum", 1, batch -> {
+                    long sum = 0;
+                    for (long[] record : batch) {
+                        sum += record[1];
+                    }
+                    total.addAndGet(sum);
+                    records.addAndGet(batch.size());
+                });
+
+        for (int i = 0; i < 100_000; i++) {
+            pipeline.submit(i + "," + i);
+        }
+        pipeline.close();
+
+        long expected = 0;
+        long expectedRecords = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (i % 10 != 0) {
+                expected += i;
+                expectedRecords++;
+            }
+        }
+        System.out.println("Records summed: " + records.get() + " (expected " + expectedRecords + ")");
+        System.out.println("Total: " + total.get() + " (expected " + expected + ")");
+        new QueueMonitor(pipeline, 0).report();
+    }
+
+    /**
+     * Demonstrates a slow last stage filling the queues before it and
+     * slowing down the caller, as seen by a QueueMonitor thread.
+     */
+    private static void backpressure() {
+        Pipeline<Integer> pipeline = Pipeline.<Integer>source(2000)
+                .batching(500, 1000)
+                .stage("double", 1, (List<Integer> batch, List<Integer> out) -> {
+                    for (int value : batch) {
+                        out.add(value * 2);
+                    }
+                })
+                .sink("slow-write", 1, batch -> {
+                    // Stands in for a slow database or network write: 2 ms per batch
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+
+        QueueMonitor monitor = new QueueMonitor(pipeline, 100);
+        Thread monitorThread = new Thread(monitor, "queue-monitor");
+        monitorThread.setDaemon(true);
+        monitorThread.start();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 60_000; i++) {
+            pipeline.submit(i);
+        }
+        long submitMillis = (System.nanoTime() - start) / 1_000_000;
+        pipeline.close();
+        monitorThread.interrupt();
+
+        System.out.println("Submitting 60,000 items took " + submitMillis
+                + " ms: the caller was held back by the slow stage");
+        monitor.report();
+    }
+
+    /**
+     * Demonstrates a stage throwing on bad input: the caller's submit
+     * fails instead of blocking on a queue nobody drains any more.
+     */
+    private static void failingStage() {
+        Pipeline<String> pipeline = Pipeline.<String>source(1000)
+                .batching(100, 200)
+                .stage("parse", 1, (List<String> lines, List<Integer> out) -> {
+                    for (String line : lines) {
+                        out.add(Integer.parseInt(line));
+                    }
+                })
+                .sink("discard", 1, batch -> { });
+
+        int submitted = 0;
+        try {
+            for (int i = 0; i < 100_000; i++) {
+                pipeline.submit(i == 5000 ? "oops" : Integer.toString(i));
+                submitted++;
+            }
+        } catch (IllegalStateException e) {
+            System.out.println("Submit failed after " + submitted + " items: " + e.getMessage()
+                    + " (" + e.getCause().getMessage() + ")");
+        }
+        try {
+            pipeline.close();
+        } catch (IllegalStateException e) {
+            System.out.println("Close reported: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Pushes the same work through the pipeline with batches of one item
+     * and with batches of up to 1,000 items.
+     */
+    private static void compareBatchSizes(int items) {
+        for (int round = 1; round <= 2; round++) {
+            for (int batchSize : new int[] {1, 1000}) {
+                AtomicLong checksum = new AtomicLong();
+                Pipeline<Long> pipeline = Pipeline.<Long>source(8192)
+                        .batching(batchSize, 500)
+                        .stage("square", 2, (List<Long> batch, List<Long> out) -> {
+                            for (long value : batch) {
+                                out.add(value * value);
+                            }
+                        })
+                        .stage("mod", 2, (List<Long> batch, List<Long> out) -> {
+                            for (long value : batch) {
+                                out.add(value % 1_000_003);
+                            }
+                        })
+                        .sink("sum", 1, batch -> {
+                            long sum = 0;
+                            for (long value : batch) {
+                                sum += value;
+                            }
+                            checksum.addAndGet(sum);
+                        });
+
+                long start = System.nanoTime();
+                List<Long> chunk = new ArrayList<>(batchSize);
+                for (long i = 0; i < items; i++) {
+                    chunk.add(i);
+                    if (chunk.size() == batchSize) {
+                        pipeline.submitAll(chunk);
+                        chunk.clear();
+                    }
+                }
+                pipeline.submitAll(chunk);
+                pipeline.close();
+                double seconds = (System.nanoTime() - start) / 1e9;
+
+                if (round == 2) {
+                    System.out.printf("Batch size %4d: %,12.0f items/s (checksum %d)%n", batchSize,
+                            items / seconds, checksum.get());
+                }
+            }
+        }
+    }
+
+    /**
+     * Turns a batch of inputs into any number of outputs.
+     */
+    interface BatchFunction<I, O> {
+        void apply(List<I> batch, List<O> out);
+    }
+
+    /**
+     * Consumes a batch at the end of a pipeline.
+     */
+    interface BatchConsumer<I> {
+        void accept(List<I> batch);
+    }
+
+    /**
+     * A bounded queue whose producers add whole lists and whose consumers
+     * take whole batches, each under one acquisition of the lock. Time
+     * spent blocked on either side is recorded for the monitor.
+     */
+    static class BatchQueue<T> {
+        private final Object[] items;
+        private int head;
+        private int count;
+        private boolean closed;
+        private Throwable failure;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+
+        final AtomicLong producerWaitNanos = new AtomicLong();
+        final AtomicLong consumerWaitNanos = new AtomicLong();
+
+        BatchQueue(int capacity) {
+            items = new Object[capacity];
+        }
+
+        /**
+         * Adds every element, waiting for room as often as needed. Returns
+         * how many were added, which is fewer than all of them only if the
+         * thread was interrupted while waiting; the interrupt flag is then
+         * set again.
+         */
+        public int putAll(List<? extends T> elements) {
+            int next = 0;
+            lock.lock();
+            try {
+                while (next < elements.size()) {
+                    if (closed) {
+                        throw failure != null
+                                ? new IllegalStateException("Queue failed", failure)
+                                : new IllegalStateException("Queue is closed");
+                    }
+                    if (count == items.length) {
+                        long start = System.nanoTime();
+                        try {
+                            while (count == items.length && !closed) {
+                                notFull.await();
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return next;
+                        } finally {
+                            producerWaitNanos.addAndGet(System.nanoTime() - start);
+                        }
+                        continue;
+                    }
+                    int room = Math.min(items.length - count, elements.size() - next);
+                    for (int i = 0; i < room; i++) {
+                        items[(head + count + i) % items.length] = elements.get(next + i);
+                    }
+                    count += room;
+                    next += room;
+                    notEmpty.signal();
+                }
+                return next;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Moves up to max elements into the list. Waits for the first one,
+         * then keeps collecting until max are taken or maxWaitNanos have
+         * passed since the first arrived. Returns false when the queue is
+         * closed and empty.
+         */
+        @SuppressWarnings("unchecked")
+        public boolean drain(List<T> out, int max, long maxWaitNanos) throws InterruptedException {
+            lock.lock();
+            try {
+                long start = System.nanoTime();
+                while (count == 0 && !closed) {
+                    notEmpty.await();
+                }
+                if (count == 0) {
+                    return false;
+                }
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (true) {
+                    int taken = Math.min(count, max - out.size());
+                    for (int i = 0; i < taken; i++) {
+                        out.add((T) items[head]);
+                        items[head] = null;
+                        head = (head + 1) % items.length;
+                    }
+                    count -= taken;
+                    if (taken > 0) {
+                        notFull.signalAll();
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (out.size() >= max || closed || remaining <= 0) {
+                        break;
+                    }
+                    notEmpty.awaitNanos(remaining);
+                }
+                consumerWaitNanos.addAndGet(System.nanoTime() - start);
+                // Let another consumer see what is left
+                if (count > 0) {
+                    notEmpty.signal();
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Stops accepting elements; consumers drain what is left and then stop.
+         */
+        public void close() {
+            lock.lock();
+            try {
+                closed = true;
+                notEmpty.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Closes the queue and discards what is in it, because nobody is
+         * left to consume it. Producers, including any waiting for room,
+         * get an IllegalStateException carrying the cause.
+         */
+        public void fail(Throwable cause) {
+            lock.lock();
+            try {
+                closed = true;
+                failure = cause;
+                Arrays.fill(items, null);
+                head = 0;
+                count = 0;
+                notEmpty.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public int size() {
+            lock.lock();
+            try {
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public int capacity() {
+            return items.length;
+        }
+    }
+
+    /**
+     * One stage: its input queue, its worker threads and its counters.
+     */
+    static class Stage {
+        final String name;
+        final BatchQueue<Object> input;
+        final List<Thread> workers = new ArrayList<>();
+        final AtomicLong items = new AtomicLong();
+        final AtomicLong batches = new AtomicLong();
+        final AtomicLong busyNanos = new AtomicLong();
+        volatile Throwable failure;
+
+        Stage(String name, BatchQueue<Object> input) {
+            this.name = name;
+            this.input = input;
+        }
+    }
+
+    /**
+     * Builds a pipeline stage by stage. O is the type the last stage added
+     * produces.
+     */
+    static class PipelineBuilder<I, O> {
+        private final List<Stage> stages;
+        private final BatchQueue<Object> source;
+        private final AtomicReference<IllegalStateException> failure = new AtomicReference<>();
+        private BatchQueue<Object> tail;
+        private final int capacity;
+        private int batchSize = 1000;
+        private long maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(500);
+
+        PipelineBuilder(int capacity) {
+            this.capacity = capacity;
+            this.stages = new ArrayList<>();
+            this.source = new BatchQueue<>(capacity);
+            this.tail = source;
+        }
+
+        /**
+         * Sets the batch limits for the stages added after this call.
+         */
+        public PipelineBuilder<I, O> batching(int batchSize, long maxWaitMicros) {
+            this.batchSize = batchSize;
+            this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+            return this;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <R> PipelineBuilder<I, R> stage(String name, int workers, BatchFunction<O, R> function) {
+            BatchQueue<Object> output = new BatchQueue<>(capacity);
+            addStage(name, workers, (BatchFunction<Object, Object>) function, output);
+            tail = output;
+            return (PipelineBuilder<I, R>) this;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Pipeline<I> sink(String name, int workers, BatchConsumer<O> consumer) {
+            addStage(name, workers, (batch, out) -> consumer.accept((List<O>) batch), null);
+            return new Pipeline<>(source, stages, failure);
+        }
+
+        private void addStage(String name, int workers, BatchFunction<Object, Object> function,
+                              BatchQueue<Object> output) {
+            Stage stage = new Stage(name, tail);
+            AtomicInteger running = new AtomicInteger(workers);
+            int size = batchSize;
+            long wait = maxWaitNanos;
+
+            for (int w = 0; w < workers; w++) {
+                Thread worker = new Thread(() -> {
+                    List<Object> batch = new ArrayList<>(size);
+                    List<Object> out = new ArrayList<>(size);
+                    try {
+                        while (stage.input.drain(batch, size, wait)) {
+                            long start = System.nanoTime();
+                            function.apply(batch, out);
+                            stage.busyNanos.addAndGet(System.nanoTime() - start);
+                            stage.items.addAndGet(batch.size());
+                            stage.batches.incrementAndGet();
+                            if (output != null && !out.isEmpty() && output.putAll(out) < out.size()) {
+                                break;
+                            }
+                            batch.clear();
+                            out.clear();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (RuntimeException | Error e) {
+                        // Only the first failure is the cause; the stages upstream of it fail
+                        // in turn when their putAll finds this stage's queue failed
+                        stage.failure = e;
+                        failure.compareAndSet(null, new IllegalStateException("Stage " + name + " failed", e));
+                        stage.input.fail(e);
+                    } finally {
+                        // The last worker out closes the next queue, so the next stage finishes too
+                        if (running.decrementAndGet() == 0 && output != null) {
+                            output.close();
+                        }
+                    }
+                }, name + "-" + w);
+                stage.workers.add(worker);
+                worker.start();
+            }
+            stages.add(stage);
+        }
+    }
+
+    /**
+     * A running pipeline. Submitting blocks while the first queue is full.
+     * If a stage function throws, that stage stops taking input and the
+     * stages before it stop in turn, so submit and close throw an
+     * IllegalStateException naming the stage instead of blocking.
+     */
+    static class Pipeline<I> {
+        private final BatchQueue<Object> source;
+        private final List<Stage> stages;
+        private final AtomicReference<IllegalStateException> failure;
+        private final long startedNanos = System.nanoTime();
+
+        Pipeline(BatchQueue<Object> source, List<Stage> stages,
+                 AtomicReference<IllegalStateException> failure) {
+            this.source = source;
+            this.stages = stages;
+            this.failure = failure;
+        }
+
+        static <T> PipelineBuilder<T, T> source(int capacity) {
+            return new PipelineBuilder<>(capacity);
+        }
+
+        /**
+         * Returns false if the thread was interrupted before the item was
+         * accepted.
+         */
+        public boolean submit(I item) {
+            return submitAll(List.of(item)) == 1;
+        }
+
+        /**
+         * Returns how many of the items were accepted, in order. Fewer than
+         * all of them means the thread was interrupted while waiting for
+         * room, and its interrupt flag is set.
+         */
+        public int submitAll(List<I> items) {
+            try {
+                return source.putAll(items);
+            } catch (IllegalStateException e) {
+                throwIfFailed();
+                throw e;
+            }
+        }
+
+        /**
+         * Closes the input and waits until every stage has finished. Throws
+         * if a stage failed, since the items it dropped never reached the
+         * end.
+         */
+        public void close() {
+            source.close();
+            try {
+                for (Stage stage : stages) {
+                    for (Thread worker : stage.workers) {
+                        worker.join();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            throwIfFailed();
+        }
+
+        private void throwIfFailed() {
+            IllegalStateException first = failure.get();
+            if (first != null) {
+                throw new IllegalStateException(first.getMessage(), first.getCause());
+            }
+        }
+
+        List<Stage> stages() {
+            return stages;
+        }
+
+        BatchQueue<Object> source() {
+            return source;
+        }
+
+        long startedNanos() {
+            return startedNanos;
+        }
+    }
+
+    /**
+     * Reports per-stage queue depth, throughput, batch size and waiting
+     * time. Run as a thread it prints a line per stage every period;
+     * report() prints totals.
+     */
+    static class QueueMonitor implements Runnable {
+        private final Pipeline<?> pipeline;
+        private final long periodMillis;
+
+        QueueMonitor(Pipeline<?> pipeline, long periodMillis) {
+            this.pipeline = pipeline;
+            this.periodMillis = periodMillis;
+        }
+
+        @Override
+        public void run() {
+            long[] lastItems = new long[pipeline.stages().size()];
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(periodMillis);
+                    StringBuilder line = new StringBuilder("Monitor:");
+                    for (int i = 0; i < lastItems.length; i++) {
+                        Stage stage = pipeline.stages().get(i);
+                        long items = stage.items.get();
+                        line.append(String.format(" %s depth %d/%d, %,d items/s;", stage.name,
+                                stage.input.size(), stage.input.capacity(),
+                                (items - lastItems[i]) * 1000 / periodMillis));
+                        lastItems[i] = items;
+                    }
+                    System.out.println(line);
+                }
+            } catch (InterruptedException e) {
+                // Stopped by the owner
+            }
+        }
+
+        /**
+         * Prints totals for every stage since the pipeline was built.
+         */
+        public void report() {
+            double seconds = (System.nanoTime() - pipeline.startedNanos()) / 1e9;
+            System.out.printf("  %-12s %12s %10s %10s %10s %12s %12s%n", "stage", "items/s", "batches",
+                    "avg batch", "busy ms", "input wait", "output wait");
+            System.out.printf("  %-12s %12s %10s %10s %10s %12s %11.0fms%n", "(caller)", "", "", "", "", "",
+                    pipeline.source().producerWaitNanos.get() / 1e6);
+            List<Stage> stages = pipeline.stages();
+            for (int i = 0; i < stages.size(); i++) {
+                Stage stage = stages.get(i);
+                long batches = stage.batches.get();
+                // The time a stage spends blocked on output is recorded by the next stage's queue
+                long outputWait = i + 1 < stages.size() ? stages.get(i + 1).input.producerWaitNanos.get() : 0;
+                System.out.printf("  %-12s %,12.0f %,10d %10.1f %10.0f %10.0fms %10.0fms%n", stage.name,
+                        stage.items.get() / seconds, batches,
+                        batches == 0 ? 0.0 : stage.items.get() / (double) batches,
+                        stage.busyNanos.get() / 1e6, stage.input.consumerWaitNanos.get() / 1e6, outputWait / 1e6);
+            }
+        }
+    }
+}
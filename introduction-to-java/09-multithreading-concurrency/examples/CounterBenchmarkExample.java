@@ -0,0 +1,369 @@
+/**
+ * CounterBenchmarkExample.java
+ * This program benchmarks the thread-safe counters from Exercise 1
+ * (synchronized, ReentrantLock, AtomicLong and a hand-written CAS loop)
+ * against LongAdder and a striped counter, with and without padding
+ * against false sharing. Each counter is measured at several thread counts
+ * and read/write mixes, after a warm-up, and the median of several timed
+ * iterations is reported together with how it scales from one thread.
+ */
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+public class CounterBenchmarkExample {
+    // Consumes the read results so that the reads are not optimized away
+    private static final AtomicLong BLACKHOLE = new AtomicLong();
+
+    public static void main(String[] args) {
+        System.out.println("--- Counter Benchmark Examples ---");
+
+        // "full" runs thread counts up to 64 with longer iterations; the default stops at 8
+        boolean full = args.length > 0 && args[0].equals("full");
+        int[] threadCounts = full ? new int[] {1, 2, 4, 8, 16, 32, 64} : new int[] {1, 2, 4, 8};
+        int warmupMillis = full ? 500 : 50;
+        int measureMillis = full ? 500 : 100;
+        int iterations = full ? 5 : 2;
+
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+
+        // Example 1: Checking that every counter counts correctly
+        System.out.println("\nExample 1: Checking that every counter counts correctly");
+        verifyCounters();
+
+        // Example 2: Throughput and scaling for several read/write mixes
+        System.out.println("\nExample 2: Throughput and scaling for several read/write mixes");
+        for (int writePercent : new int[] {100, 50, 10}) {
+            benchmark(writePercent, threadCounts, warmupMillis, measureMillis, iterations);
+        }
+
+        System.out.println("\nMain thread exiting.");
+    }
+
+    /**
+     * Returns the counters to compare, by name.
+     */
+    private static Map<String, Supplier<Counter>> counters() {
+        Map<String, Supplier<Counter>> counters = new LinkedHashMap<>();
+        counters.put("synchronized", SynchronizedCounter::new);
+        counters.put("ReentrantLock", LockCounter::new);
+        counters.put("AtomicLong", AtomicCounter::new);
+        counters.put("CAS loop", CASCounter::new);
+        counters.put("LongAdder", LongAdderCounter::new);
+        counters.put("striped", () -> new StripedCounter(false));
+        counters.put("striped, padded", () -> new StripedCounter(true));
+        return counters;
+    }
+
+    /**
+     * Runs 8 threads of increments against each counter and checks the total.
+     */
+    private static void verifyCounters() {
+        for (Map.Entry<String, Supplier<Counter>> entry : counters().entrySet()) {
+            Counter counter = entry.getValue().get();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < 100_000; i++) {
+                        counter.increment();
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            try {
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            } catch (InterruptedException e) {
+                System.out.println("Main thread interrupted.");
+                return;
+            }
+            System.out.printf("  %-16s %,d (expected 800,000)%n", entry.getKey(), counter.get());
+        }
+    }
+
+    /**
+     * Measures every counter at every thread count for one read/write mix
+     * and prints millions of operations per second, with the speed-up over
+     * one thread in brackets.
+     */
+    private static void benchmark(int writePercent, int[] threadCounts, int warmupMillis,
+                                  int measureMillis, int iterations) {
+        System.out.println("\n" + writePercent + "% increments, " + (100 - writePercent) + "% reads (Mops/s):");
+        StringBuilder header = new StringBuilder(String.format("  %-16s", "counter"));
+        for (int threads : threadCounts) {
+            header.append(String.format("%16s", threads + (threads == 1 ? " thread" : " threads")));
+        }
+        System.out.println(header);
+
+        for (Map.Entry<String, Supplier<Counter>> entry : counters().entrySet()) {
+            StringBuilder row = new StringBuilder(String.format("  %-16s", entry.getKey()));
+            double single = 0;
+            for (int threads : threadCounts) {
+                Counter counter = entry.getValue().get();
+
+                // Warm-up, so that the JIT has compiled the counter before timing starts
+                run(counter, threads, writePercent, warmupMillis);
+
+                double[] results = new double[iterations];
+                for (int i = 0; i < iterations; i++) {
+                    results[i] = run(counter, threads, writePercent, measureMillis);
+                }
+                Arrays.sort(results);
+                double median = results[iterations / 2];
+                if (threads == threadCounts[0]) {
+                    single = median;
+                }
+                row.append(String.format("%9.1f (%3.1fx)", median / 1e6, median / single));
+            }
+            System.out.println(row);
+        }
+    }
+
+    /**
+     * Runs the threads for the given time and returns operations per second.
+     * Every thread waits at a barrier so that they all start together, and
+     * the values read are summed so that the JIT cannot remove the reads.
+     */
+    private static double run(Counter counter, int threads, int writePercent, int millis) {
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        StopFlag stop = new StopFlag();
+        long[] operations = new long[threads];
+        long[] sinks = new long[threads];
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            Thread worker = new Thread(() -> {
+                long count = 0;
+                long sink = 0;
+                int step = id * 37 % 100;
+                try {
+                    start.await();
+                } catch (Exception e) {
+                    return;
+                }
+                while (!stop.stopped) {
+                    // Check the flag every 64 operations to keep it out of the measurement
+                    for (int i = 0; i < 64; i++) {
+                        step = step == 99 ? 0 : step + 1;
+                        if (step < writePercent) {
+                            counter.increment();
+                        } else {
+                            sink += counter.get();
+                        }
+                    }
+                    count += 64;
+                }
+                operations[id] = count;
+                sinks[id] = sink;
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        long elapsed;
+        try {
+            start.await();
+            long begin = System.nanoTime();
+            Thread.sleep(millis);
+            stop.stopped = true;
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            elapsed = System.nanoTime() - begin;
+        } catch (Exception e) {
+            System.out.println("Benchmark interrupted: " + e.getMessage());
+            return 0;
+        }
+
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            total += operations[t];
+            BLACKHOLE.addAndGet(sinks[t] & 1);
+        }
+        return total / (elapsed / 1e9);
+    }
+
+    /**
+     * The volatile flag that tells benchmark threads to stop.
+     */
+    private static class StopFlag {
+        volatile boolean stopped;
+    }
+
+    /**
+     * The operations every counter supports.
+     */
+    private interface Counter {
+        void increment();
+
+        long get();
+    }
+
+    /**
+     * A counter guarded by synchronized methods.
+     */
+    private static class SynchronizedCounter implements Counter {
+        private long value;
+
+        public synchronized void increment() {
+            value++;
+        }
+
+        public synchronized long get() {
+            return value;
+        }
+    }
+
+    /**
+     * A counter guarded by a ReentrantLock.
+     */
+    private static class LockCounter implements Counter {
+        private final ReentrantLock lock = new ReentrantLock();
+        private long value;
+
+        public void increment() {
+            lock.lock();
+            try {
+                value++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public long get() {
+            lock.lock();
+            try {
+                return value;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A counter backed by an AtomicLong.
+     */
+    private static class AtomicCounter implements Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    /**
+     * A counter using a volatile field and a compare-and-set retry loop.
+     */
+    private static class CASCounter implements Counter {
+        private static final VarHandle VALUE;
+
+        static {
+            try {
+                VALUE = MethodHandles.lookup().findVarHandle(CASCounter.class, "value", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private volatile long value;
+
+        public void increment() {
+            long current;
+            do {
+                current = value;
+            } while (!VALUE.compareAndSet(this, current, current + 1));
+        }
+
+        public long get() {
+            return value;
+        }
+    }
+
+    /**
+     * A counter backed by a LongAdder, which adds cells under contention.
+     */
+    private static class LongAdderCounter implements Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * A counter split into one cell per stripe, picked by a per-thread probe
+     * seeded from the thread's id. When a CAS on its cell fails, the thread
+     * moves its probe on, as LongAdder does, so two threads that hash to the
+     * same stripe do not keep colliding. Increments on different stripes do
+     * not contend; a read sums all cells. Without padding, neighbouring
+     * cells share a cache line, so threads on different cores still
+     * invalidate each other's caches (false sharing). With padding, each
+     * cell sits 128 bytes from the next.
+     */
+    private static class StripedCounter implements Counter {
+        // 16 longs = 128 bytes, which also covers adjacent-line prefetching
+        private static final int PADDED_STRIDE = 16;
+
+        private static final ThreadLocal<int[]> PROBE = ThreadLocal.withInitial(() -> {
+            int seed = (int) (Thread.currentThread().getId() * 0x9E3779B9L >>> 16);
+            return new int[] {seed == 0 ? 1 : seed};
+        });
+
+        private final int stripes;
+        private final int stride;
+        private final AtomicLongArray cells;
+
+        StripedCounter(boolean padded) {
+            int processors = Runtime.getRuntime().availableProcessors();
+            this.stripes = Integer.highestOneBit(Math.max(1, processors * 2 - 1)) * 2;
+            this.stride = padded ? PADDED_STRIDE : 1;
+            // Leave one stride free at each end so that no cell shares a line with the array header
+            this.cells = new AtomicLongArray((stripes + 2) * stride);
+        }
+
+        public void increment() {
+            int[] probe = PROBE.get();
+            int index = ((probe[0] & (stripes - 1)) + 1) * stride;
+            long value = cells.get(index);
+            while (!cells.compareAndSet(index, value, value + 1)) {
+                // Another thread shares this stripe: xorshift the probe to move elsewhere
+                int h = probe[0];
+                h ^= h << 13;
+                h ^= h >>> 17;
+                h ^= h << 5;
+                probe[0] = h;
+                index = ((h & (stripes - 1)) + 1) * stride;
+                value = cells.get(index);
+            }
+        }
+
+        public long get() {
+            long sum = 0;
+            for (int stripe = 1; stripe <= stripes; stripe++) {
+                sum += cells.get(stripe * stride);
+            }
+            return sum;
+        }
+    }
+}
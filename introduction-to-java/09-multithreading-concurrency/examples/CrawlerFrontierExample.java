@@ -0,0 +1,731 @@
+/**
+ * CrawlerFrontierExample.java
+ * This program demonstrates the frontier of a polite web crawler, the part
+ * that decides which URL to fetch next. Exercise 4 suggests one shared
+ * queue, which lets many threads hit the same host at once. Here the
+ * frontier keeps one queue per host and a heap of hosts ordered by the time
+ * each may next be contacted. A host is handed to one fetch at a time and
+ * only goes back on the heap once its crawl delay has passed since the last
+ * response. A semaphore caps the number of fetches in flight across all
+ * hosts, and robots.txt is fetched once per host and cached.
+ *
+ * The crawl runs against a local stub server that serves a synthetic link
+ * graph across many hosts and independently counts every request that
+ * breaks a host's crawl delay or robots.txt rules.
+ */
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class CrawlerFrontierExample {
+    public static void main(String[] args) {
+        System.out.println("--- Crawler Frontier Examples ---");
+
+        // Pages in the synthetic web; pass 1000000 for a full-size crawl
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+
+        StubWeb web = new StubWeb(64, pages, 20);
+        try {
+            web.start();
+
+            // Example 1: A polite crawl of the whole graph
+            System.out.println("\nExample 1: A polite crawl of the whole graph");
+            politeCrawl(web);
+
+            // Example 2: Throughput for different in-flight limits
+            System.out.println("\nExample 2: Throughput for different in-flight limits");
+            compareInFlightLimits(web, Math.min(pages, 2_000));
+        } catch (IOException e) {
+            System.out.println("Error starting the stub server: " + e.getMessage());
+        } catch (InterruptedException e) {
+            System.out.println("Main thread interrupted.");
+        } finally {
+            web.stop();
+        }
+
+        System.out.println("\nMain thread exiting.");
+    }
+
+    /**
+     * Demonstrates crawling every page reachable from page 0 with a
+     * progress report each second.
+     */
+    private static void politeCrawl(StubWeb web) throws InterruptedException {
+        System.out.printf("Synthetic web: %,d pages on %d hosts, crawl delays of 5-20 ms, %d ms per response%n",
+                web.pages, web.sites, web.latencyMillis);
+        web.resetCounters();
+
+        WebCrawler crawler = new WebCrawler(64, Integer.MAX_VALUE);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        long start = System.nanoTime();
+        reporter.scheduleAtFixedRate(() -> {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("  %5.1f s: %,d pages, %,d URLs waiting, %,.0f pages/sec%n", seconds,
+                    crawler.statistics().pages.sum(), crawler.frontier().waiting(),
+                    crawler.statistics().pages.sum() / seconds);
+        }, 1, 1, TimeUnit.SECONDS);
+
+        CrawlStatistics statistics;
+        try {
+            statistics = crawler.crawl(web.url(0));
+        } finally {
+            reporter.shutdownNow();
+        }
+        statistics.print();
+        System.out.printf("Stub server: %,d requests, %d politeness violations%n", web.requests.sum(),
+                web.violations.sum());
+        System.out.println("Example title: " + crawler.sampleTitle());
+    }
+
+    /**
+     * Compares crawl rates with few and many fetches in flight. With few,
+     * the rate is bound by response latency; with many, by the crawl delays
+     * or the CPU.
+     */
+    private static void compareInFlightLimits(StubWeb web, int pageLimit) throws InterruptedException {
+        System.out.printf("  %-9s %8s %10s %10s %11s%n", "in-flight", "pages", "pages/sec", "peak", "violations");
+        for (int limit : new int[] {4, 16, 64}) {
+            web.resetCounters();
+            WebCrawler crawler = new WebCrawler(limit, pageLimit);
+            CrawlStatistics statistics = crawler.crawl(web.url(0));
+            System.out.printf("  %-9d %,8d %,10.0f %10d %11d%n", limit, statistics.pages.sum(),
+                    statistics.pagesPerSecond(), statistics.peakInFlight.get(), web.violations.sum());
+        }
+    }
+
+    /**
+     * A crawler with a per-host frontier. A dispatcher thread takes a
+     * permit and then a ready host, and hands the fetch to a worker.
+     */
+    static class WebCrawler {
+        // Applied when robots.txt gives no Crawl-delay, and before it is read
+        private static final long DEFAULT_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+        private final int maxInFlight;
+        private final RobotsTxtParser robots = new RobotsTxtParser();
+        private final Frontier frontier;
+        private final CrawlStatistics statistics = new CrawlStatistics();
+        private final HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        private volatile String sampleTitle;
+
+        WebCrawler(int maxInFlight, int maxPages) {
+            this.maxInFlight = maxInFlight;
+            this.frontier = new Frontier(robots, maxPages);
+        }
+
+        Frontier frontier() {
+            return frontier;
+        }
+
+        CrawlStatistics statistics() {
+            return statistics;
+        }
+
+        String sampleTitle() {
+            return sampleTitle;
+        }
+
+        CrawlStatistics crawl(String startUrl) throws InterruptedException {
+            Semaphore permits = new Semaphore(maxInFlight);
+            AtomicInteger inFlight = new AtomicInteger();
+            // Each fetch blocks its own thread; on Java 21 this would be
+            // Executors.newVirtualThreadPerTaskExecutor()
+            ExecutorService workers = Executors.newCachedThreadPool();
+            long start = System.nanoTime();
+            try {
+                frontier.add(URI.create(startUrl));
+                while (true) {
+                    // The permit comes first, so a host is never held while waiting for one
+                    permits.acquire();
+                    Frontier.Lease lease = frontier.take();
+                    if (lease == null) {
+                        break;
+                    }
+                    statistics.peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    workers.execute(() -> {
+                        try {
+                            new CrawlTask(lease).run();
+                        } finally {
+                            inFlight.decrementAndGet();
+                            permits.release();
+                        }
+                    });
+                }
+            } finally {
+                workers.shutdown();
+                workers.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            statistics.elapsedNanos = System.nanoTime() - start;
+            statistics.disallowed = frontier.disallowed();
+            return statistics;
+        }
+
+        /**
+         * Fetches one URL of a leased host, or the host's robots.txt if it
+         * has not been read yet, and returns the host to the frontier.
+         */
+        class CrawlTask implements Runnable {
+            private final Frontier.Lease lease;
+
+            CrawlTask(Frontier.Lease lease) {
+                this.lease = lease;
+            }
+
+            @Override
+            public void run() {
+                String host = lease.host.name;
+                RobotsTxtParser.Rules rules = robots.cached(host);
+                if (rules == null) {
+                    // The robots.txt request is this lease's one request; the page waits its turn
+                    String body = fetch(lease.uri.resolve("/robots.txt"));
+                    rules = robots.parse(host, body == null ? "" : body);
+                    statistics.robotsFetches.increment();
+                    frontier.complete(lease, lease.uri, delayNanos(rules));
+                    return;
+                }
+
+                String body = fetch(lease.uri);
+                if (body != null) {
+                    PageResult page = PageResult.parse(lease.uri, body);
+                    statistics.pages.increment();
+                    statistics.bytes.add(body.length());
+                    statistics.links.add(page.links.size());
+                    if (sampleTitle == null) {
+                        sampleTitle = page.title;
+                    }
+                    for (URI link : page.links) {
+                        frontier.add(link);
+                    }
+                }
+                // Links go in before the host is returned, so the frontier never looks empty too early
+                frontier.complete(lease, null, delayNanos(rules));
+            }
+
+            private long delayNanos(RobotsTxtParser.Rules rules) {
+                return rules.crawlDelayNanos > 0 ? rules.crawlDelayNanos : DEFAULT_DELAY_NANOS;
+            }
+        }
+
+        /**
+         * Helper method returning a response body, or null on an error.
+         */
+        private String fetch(URI uri) {
+            try {
+                HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(10)).build();
+                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() == 200) {
+                    return response.body();
+                }
+                statistics.errors.increment();
+            } catch (IOException e) {
+                statistics.errors.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The crawl frontier: a queue of URLs per host and a heap of hosts that
+     * have URLs waiting, ordered by the time each may next be contacted.
+     * take() hands out a host together with its next URL and removes the
+     * host from the heap until complete() returns it with a new ready time,
+     * so no host ever has two fetches in flight.
+     */
+    static class Frontier {
+        private final RobotsTxtParser robots;
+        private final int maxUrls;
+        private final Set<String> seen = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger admitted = new AtomicInteger();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final Map<String, HostQueue> hosts = new HashMap<>();
+        private final PriorityQueue<HostQueue> ready =
+                new PriorityQueue<>(Comparator.comparingLong((HostQueue host) -> host.readyAt));
+        private int leased;
+        private int waiting;
+        private long disallowed;
+
+        Frontier(RobotsTxtParser robots, int maxUrls) {
+            this.robots = robots;
+            this.maxUrls = maxUrls;
+        }
+
+        /**
+         * Adds a URL unless it has been seen before, robots.txt forbids it,
+         * or the limit is reached.
+         */
+        void add(URI uri) {
+            String url = uri.toString();
+            if (admitted.get() >= maxUrls || !seen.add(url)) {
+                return;
+            }
+            String name = uri.getHost() + ":" + uri.getPort();
+            RobotsTxtParser.Rules rules = robots.cached(name);
+            if (rules != null && !rules.allows(uri.getRawPath())) {
+                lock.lock();
+                try {
+                    disallowed++;
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+            if (admitted.incrementAndGet() > maxUrls) {
+                return;
+            }
+            lock.lock();
+            try {
+                HostQueue host = hosts.computeIfAbsent(name, HostQueue::new);
+                host.urls.addLast(uri);
+                waiting++;
+                if (!host.leased && !host.inHeap) {
+                    host.inHeap = true;
+                    ready.add(host);
+                    changed.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Waits for a host whose delay has passed and leases it with its
+         * next allowed URL. Returns null once no host has URLs waiting and
+         * none is leased, since then nothing new can arrive.
+         */
+        Lease take() throws InterruptedException {
+            lock.lock();
+            try {
+                while (true) {
+                    HostQueue host = ready.peek();
+                    if (host == null) {
+                        if (leased == 0) {
+                            return null;
+                        }
+                        changed.await();
+                        continue;
+                    }
+                    long wait = host.readyAt - System.nanoTime();
+                    if (wait > 0) {
+                        changed.awaitNanos(wait);
+                        continue;
+                    }
+                    ready.poll();
+                    host.inHeap = false;
+                    URI uri = nextAllowed(host);
+                    if (uri != null) {
+                        host.leased = true;
+                        leased++;
+                        return new Lease(host, uri);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Returns a leased host. The host becomes ready again delayNanos
+         * after now; retry, if not null, is put back at the front of its
+         * queue.
+         */
+        void complete(Lease lease, URI retry, long delayNanos) {
+            lock.lock();
+            try {
+                HostQueue host = lease.host;
+                if (retry != null) {
+                    host.urls.addFirst(retry);
+                    waiting++;
+                }
+                host.leased = false;
+                leased--;
+                host.readyAt = System.nanoTime() + delayNanos;
+                if (!host.urls.isEmpty()) {
+                    host.inHeap = true;
+                    ready.add(host);
+                }
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int waiting() {
+            lock.lock();
+            try {
+                return waiting;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long disallowed() {
+            lock.lock();
+            try {
+                return disallowed;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Helper method skipping URLs that robots.txt forbids, which only
+         * happens to URLs queued before the rules were known.
+         */
+        private URI nextAllowed(HostQueue host) {
+            RobotsTxtParser.Rules rules = robots.cached(host.name);
+            URI uri;
+            while ((uri = host.urls.pollFirst()) != null) {
+                waiting--;
+                if (rules == null || rules.allows(uri.getRawPath())) {
+                    return uri;
+                }
+                disallowed++;
+            }
+            return null;
+        }
+
+        /**
+         * The URLs waiting for one host and when it may next be contacted.
+         */
+        static class HostQueue {
+            final String name;
+            final ArrayDeque<URI> urls = new ArrayDeque<>();
+            long readyAt;
+            boolean leased;
+            boolean inHeap;
+
+            HostQueue(String name) {
+                this.name = name;
+            }
+        }
+
+        /**
+         * A host handed to one fetch, with the URL to fetch.
+         */
+        static class Lease {
+            final HostQueue host;
+            final URI uri;
+
+            Lease(HostQueue host, URI uri) {
+                this.host = host;
+                this.uri = uri;
+            }
+        }
+    }
+
+    /**
+     * Parses robots.txt for all user agents and caches the rules per host.
+     * Only the rules in the "User-agent: *" group are used.
+     */
+    static class RobotsTxtParser {
+        private final Map<String, Rules> cache = new ConcurrentHashMap<>();
+
+        Rules cached(String host) {
+            return cache.get(host);
+        }
+
+        Rules parse(String host, String text) {
+            List<String> disallowed = new ArrayList<>();
+            long crawlDelayNanos = 0;
+            boolean inGroup = false;
+            for (String line : text.split("\n")) {
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                int colon = line.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String field = line.substring(0, colon).trim().toLowerCase();
+                String value = line.substring(colon + 1).trim();
+                if (field.equals("user-agent")) {
+                    inGroup = value.equals("*");
+                } else if (inGroup && field.equals("disallow") && !value.isEmpty()) {
+                    disallowed.add(value);
+                } else if (inGroup && field.equals("crawl-delay")) {
+                    try {
+                        crawlDelayNanos = (long) (Double.parseDouble(value) * 1e9);
+                    } catch (NumberFormatException e) {
+                        System.out.println("Error parsing Crawl-delay for " + host + ": " + e.getMessage());
+                    }
+                }
+            }
+            Rules rules = new Rules(disallowed, crawlDelayNanos);
+            cache.put(host, rules);
+            return rules;
+        }
+
+        static class Rules {
+            final List<String> disallowedPrefixes;
+            final long crawlDelayNanos;
+
+            Rules(List<String> disallowedPrefixes, long crawlDelayNanos) {
+                this.disallowedPrefixes = disallowedPrefixes;
+                this.crawlDelayNanos = crawlDelayNanos;
+            }
+
+            boolean allows(String path) {
+                for (String prefix : disallowedPrefixes) {
+                    if (path.startsWith(prefix)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * The title and links of one page, found by scanning the HTML for
+     * title tags and href attributes.
+     */
+    static class PageResult {
+        final String title;
+        final List<URI> links;
+
+        PageResult(String title, List<URI> links) {
+            this.title = title;
+            this.links = links;
+        }
+
+        static PageResult parse(URI base, String html) {
+            String title = "";
+            int titleStart = html.indexOf("<title>");
+            int titleEnd = html.indexOf("</title>");
+            if (titleStart >= 0 && titleEnd > titleStart) {
+                title = html.substring(titleStart + 7, titleEnd);
+            }
+            List<URI> links = new ArrayList<>();
+            int from = 0;
+            int href;
+            while ((href = html.indexOf("href=\"", from)) >= 0) {
+                int end = html.indexOf('"', href + 6);
+                if (end < 0) {
+                    break;
+                }
+                try {
+                    URI link = base.resolve(html.substring(href + 6, end));
+                    if ("http".equals(link.getScheme())) {
+                        links.add(link);
+                    }
+                } catch (IllegalArgumentException e) {
+                    // A malformed link is skipped
+                }
+                from = end + 1;
+            }
+            return new PageResult(title, links);
+        }
+    }
+
+    /**
+     * Counters updated by the fetch threads.
+     */
+    static class CrawlStatistics {
+        final LongAdder pages = new LongAdder();
+        final LongAdder robotsFetches = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder links = new LongAdder();
+        final AtomicInteger peakInFlight = new AtomicInteger();
+        volatile long elapsedNanos;
+        volatile long disallowed;
+
+        double pagesPerSecond() {
+            return pages.sum() / (elapsedNanos / 1e9);
+        }
+
+        void print() {
+            System.out.printf("Crawled %,d pages in %.1f s (%,.0f pages/sec)%n", pages.sum(), elapsedNanos / 1e9,
+                    pagesPerSecond());
+            System.out.printf("robots.txt fetches: %d, disallowed URLs skipped: %,d, errors: %d%n",
+                    robotsFetches.sum(), disallowed, errors.sum());
+            System.out.printf("Links found: %,d, bytes read: %,d, peak fetches in flight: %d%n", links.sum(),
+                    bytes.sum(), peakInFlight.get());
+        }
+    }
+
+    /**
+     * A local web of many hosts, one HttpServer per host on its own port.
+     * Page i lives on host i % sites and links to pages 2i+1 and 2i+2, so
+     * every page is reachable from page 0, plus a few pseudo-random pages
+     * and one page under /private/ that robots.txt forbids. The server
+     * counts a violation for any request that arrives within the host's
+     * crawl delay of the previous one, overlaps another request to the
+     * same host, or asks for a forbidden page.
+     */
+    static class StubWeb {
+        final int sites;
+        final int pages;
+        final int latencyMillis;
+        final LongAdder requests = new LongAdder();
+        final LongAdder violations = new LongAdder();
+        private final HttpServer[] servers;
+        private final int[] ports;
+        private final long[] delayNanos;
+        private final AtomicLong[] lastArrival;
+        private final AtomicInteger[] active;
+        private ExecutorService executor;
+
+        StubWeb(int sites, int pages, int latencyMillis) {
+            this.sites = sites;
+            this.pages = pages;
+            this.latencyMillis = latencyMillis;
+            this.servers = new HttpServer[sites];
+            this.ports = new int[sites];
+            this.delayNanos = new long[sites];
+            this.lastArrival = new AtomicLong[sites];
+            this.active = new AtomicInteger[sites];
+            for (int s = 0; s < sites; s++) {
+                delayNanos[s] = TimeUnit.MILLISECONDS.toNanos(5 + (s % 4) * 5);
+                lastArrival[s] = new AtomicLong();
+                active[s] = new AtomicInteger();
+            }
+        }
+
+        void start() throws IOException {
+            // Enough threads that the server is never the bottleneck
+            executor = Executors.newFixedThreadPool(128);
+            InetAddress loopback = InetAddress.getLoopbackAddress();
+            for (int s = 0; s < sites; s++) {
+                int site = s;
+                servers[s] = HttpServer.create(new InetSocketAddress(loopback, 0), 256);
+                servers[s].createContext("/", exchange -> {
+                    byte[] body;
+                    int status = 200;
+                    checkPoliteness(site, exchange.getRequestURI().getPath());
+                    try {
+                        Thread.sleep(latencyMillis);
+                        body = respond(site, exchange.getRequestURI().getPath());
+                        if (body == null) {
+                            status = 404;
+                            body = new byte[0];
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        status = 503;
+                        body = new byte[0];
+                    } finally {
+                        active[site].decrementAndGet();
+                    }
+                    exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                servers[s].setExecutor(executor);
+                servers[s].start();
+                ports[s] = servers[s].getAddress().getPort();
+            }
+        }
+
+        void stop() {
+            for (HttpServer server : servers) {
+                if (server != null) {
+                    server.stop(0);
+                }
+            }
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+
+        void resetCounters() {
+            requests.reset();
+            violations.reset();
+            for (int s = 0; s < sites; s++) {
+                // A new crawler starts without any history for the host
+                lastArrival[s].set(0);
+            }
+        }
+
+        String url(int page) {
+            return "http://127.0.0.1:" + ports[page % sites] + "/p/" + page;
+        }
+
+        private void checkPoliteness(int site, String path) {
+            requests.increment();
+            long now = System.nanoTime();
+            long previous = lastArrival[site].getAndSet(now);
+            boolean violation = previous != 0 && now - previous < delayNanos[site];
+            if (active[site].incrementAndGet() > 1) {
+                violation = true;
+            }
+            if (path.startsWith("/private/")) {
+                violation = true;
+            }
+            if (violation) {
+                violations.increment();
+            }
+        }
+
+        private byte[] respond(int site, String path) {
+            if (path.equals("/robots.txt")) {
+                String robots = "User-agent: *\nDisallow: /private/\nCrawl-delay: "
+                        + delayNanos[site] / 1e9 + "\n";
+                return robots.getBytes(StandardCharsets.UTF_8);
+            }
+            int id;
+            try {
+                id = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (id < 0 || id >= pages || id % sites != site) {
+                return null;
+            }
+            StringBuilder html = new StringBuilder(512);
+            html.append("<html><head><title>Page ").append(id).append("</title></head><body>\n");
+            for (int i = 1; i <= 2; i++) {
+                if (2L * id + i < pages) {
+                    link(html, url((int) (2L * id + i)));
+                }
+            }
+            long hash = id * 0x9E3779B97F4A7C15L;
+            for (int i = 0; i < 4; i++) {
+                hash = (hash ^ (hash >>> 29)) * 0xBF58476D1CE4E5B9L;
+                link(html, url((int) Math.floorMod(hash >>> 1, (long) pages)));
+            }
+            link(html, "/private/" + id);
+            html.append("</body></html>\n");
+            return html.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static void link(StringBuilder html, String href) {
+            html.append("<a href=\"").append(href).append("\">").append(href).append("</a>\n");
+        }
+    }
+}
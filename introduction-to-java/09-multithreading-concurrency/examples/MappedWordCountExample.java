@@ -0,0 +1,615 @@
+/**
+ * MappedWordCountExample.java
+ * This program demonstrates counting lines, words and characters and
+ * finding the most frequent word across many files, as Exercise 3's
+ * FileProcessor does, without turning any text into Strings. Each file is
+ * split into chunks that start and end on line boundaries. Each chunk is
+ * scanned byte by byte from a MappedByteBuffer on a thread pool, and words
+ * are counted in an open-addressing hash table keyed by the bytes of the
+ * word. The chunk tables are merged once per file and once for the total.
+ * A BufferedReader.readLine + split + HashMap version processes the same
+ * files for comparison.
+ */
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class MappedWordCountExample {
+    public static void main(String[] args) {
+        System.out.println("--- Mapped Word Count Examples ---");
+
+        // Megabytes of generated text
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        Path directory = Paths.get("wordcount_data");
+
+        try {
+            // Example 1: Generating test files
+            System.out.println("\nExample 1: Generating test files");
+            List<Path> files = generateFiles(directory, megabytes);
+
+            // Example 2: Counting with mapped chunks
+            System.out.println("\nExample 2: Counting with mapped chunks");
+            int threads = Runtime.getRuntime().availableProcessors();
+            List<WordCountResult> mapped = countMapped(files, threads, 8 << 20);
+            printResults(mapped);
+
+            // Example 3: Mapped chunks versus readLine + split + HashMap
+            System.out.println("\nExample 3: Mapped chunks versus readLine + split + HashMap");
+            compare(files, threads);
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            System.out.println("Error counting words: " + e);
+        } finally {
+            deleteDirectory(directory);
+        }
+
+        System.out.println("\nMain thread exiting.");
+    }
+
+    /**
+     * Writes one large file (half the total) and 16 small ones. Words come
+     * from a skewed vocabulary, a few with accented letters.
+     */
+    private static List<Path> generateFiles(Path directory, int megabytes) throws IOException {
+        Files.createDirectories(directory);
+        String[] vocabulary = new String[5000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            vocabulary[i] = (i % 97 == 1 ? "café" : "word") + Integer.toString(i, 36);
+        }
+
+        Random random = new Random(42);
+        List<Path> files = new ArrayList<>();
+        long total = megabytes * 1_000_000L;
+        long[] sizes = new long[17];
+        sizes[0] = total / 2;
+        for (int i = 1; i < sizes.length; i++) {
+            sizes[i] = total / 2 / 16;
+        }
+
+        for (int f = 0; f < sizes.length; f++) {
+            Path file = directory.resolve(String.format("file%02d.txt", f));
+            long written = 0;
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                StringBuilder line = new StringBuilder();
+                while (written < sizes[f]) {
+                    line.setLength(0);
+                    int words = 5 + random.nextInt(11);
+                    for (int w = 0; w < words; w++) {
+                        if (w > 0) {
+                            line.append(random.nextInt(8) == 0 ? "  " : " ");
+                        }
+                        // Squaring a uniform value favours low indexes, like word frequencies in real text
+                        double u = random.nextDouble();
+                        line.append(vocabulary[(int) (u * u * vocabulary.length)]);
+                    }
+                    line.append('\n');
+                    writer.append(line);
+                    written += line.length();
+                }
+                // The last file ends without a newline
+                if (f == sizes.length - 1) {
+                    writer.append("final line without newline");
+                }
+            }
+            files.add(file);
+        }
+        System.out.println("Generated " + files.size() + " files, " + megabytes + " MB in " + directory);
+        return files;
+    }
+
+    /**
+     * Splits every file into line-aligned chunks, counts the chunks on a
+     * fixed thread pool and merges the chunk tables per file.
+     */
+    private static List<WordCountResult> countMapped(List<Path> files, int threads, long chunkSize)
+            throws IOException, InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ConcurrentLinkedQueue<WordTable> pool = new ConcurrentLinkedQueue<>();
+        try {
+            // Submit every chunk of every file first so the pool never runs dry between files
+            List<List<Future<ChunkCount>>> perFile = new ArrayList<>();
+            for (Path file : files) {
+                List<Future<ChunkCount>> chunks = new ArrayList<>();
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    long size = channel.size();
+                    long start = 0;
+                    while (start < size) {
+                        long end = start + chunkSize >= size ? size : alignToLineStart(channel, start + chunkSize);
+                        chunks.add(executor.submit(new ChunkTask(file, start, end, end == size, pool)));
+                        start = end;
+                    }
+                }
+                perFile.add(chunks);
+            }
+
+            List<WordCountResult> results = new ArrayList<>();
+            WordTable overall = new WordTable(1 << 14);
+            for (int f = 0; f < files.size(); f++) {
+                WordCountResult result = new WordCountResult(files.get(f).getFileName().toString());
+                WordTable fileTable = null;
+                for (Future<ChunkCount> future : perFile.get(f)) {
+                    ChunkCount chunk = future.get();
+                    result.lines += chunk.lines;
+                    result.words += chunk.words;
+                    result.characters += chunk.characters;
+                    if (fileTable == null) {
+                        fileTable = chunk.table;
+                    } else {
+                        fileTable.mergeFrom(chunk.table);
+                        chunk.table.clear();
+                        pool.add(chunk.table);
+                    }
+                }
+                if (fileTable != null) {
+                    int top = fileTable.mostFrequent();
+                    if (top >= 0) {
+                        result.topWord = fileTable.keyAsString(top);
+                        result.topCount = fileTable.count(top);
+                    }
+                    overall.mergeFrom(fileTable);
+                    fileTable.clear();
+                    pool.add(fileTable);
+                }
+                results.add(result);
+            }
+
+            WordCountResult total = new WordCountResult("(all files)");
+            for (WordCountResult result : results) {
+                total.lines += result.lines;
+                total.words += result.words;
+                total.characters += result.characters;
+            }
+            int top = overall.mostFrequent();
+            if (top >= 0) {
+                total.topWord = overall.keyAsString(top);
+                total.topCount = overall.count(top);
+            }
+            results.add(total);
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Helper method returning the position just after the first newline
+     * at or after the given position, or the file size if there is none.
+     */
+    private static long alignToLineStart(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long size = channel.size();
+        // Starting one byte early makes a boundary that already follows a newline stay put
+        long offset = position - 1;
+        while (offset < size) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += read;
+        }
+        return size;
+    }
+
+    /**
+     * Counts every file with one BufferedReader task per file, the way a
+     * straightforward FileProcessorTask would.
+     */
+    private static List<WordCountResult> countWithReader(List<Path> files, int threads)
+            throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Object[]>> futures = new ArrayList<>();
+            for (Path file : files) {
+                futures.add(executor.submit(() -> {
+                    WordCountResult result = new WordCountResult(file.getFileName().toString());
+                    Map<String, Integer> counts = new HashMap<>();
+                    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            result.lines++;
+                            result.characters += line.codePointCount(0, line.length());
+                            for (String word : line.split("\\s+")) {
+                                if (!word.isEmpty()) {
+                                    result.words++;
+                                    counts.merge(word, 1, Integer::sum);
+                                }
+                            }
+                        }
+                    }
+                    // readLine drops the newlines; count them back, except after an unterminated last line
+                    long size = Files.size(file);
+                    boolean endsWithNewline = size > 0 && endsWithNewline(file);
+                    result.characters += endsWithNewline ? result.lines : Math.max(0, result.lines - 1);
+                    return new Object[] {result, counts};
+                }));
+            }
+
+            List<WordCountResult> results = new ArrayList<>();
+            Map<String, Integer> overall = new HashMap<>();
+            WordCountResult total = new WordCountResult("(all files)");
+            for (Future<Object[]> future : futures) {
+                Object[] pair = future.get();
+                WordCountResult result = (WordCountResult) pair[0];
+                @SuppressWarnings("unchecked")
+                Map<String, Integer> counts = (Map<String, Integer>) pair[1];
+                Map.Entry<String, Integer> top = mostFrequent(counts);
+                if (top != null) {
+                    result.topWord = top.getKey();
+                    result.topCount = top.getValue();
+                }
+                counts.forEach((word, count) -> overall.merge(word, count, Integer::sum));
+                total.lines += result.lines;
+                total.words += result.words;
+                total.characters += result.characters;
+                results.add(result);
+            }
+            Map.Entry<String, Integer> top = mostFrequent(overall);
+            if (top != null) {
+                total.topWord = top.getKey();
+                total.topCount = top.getValue();
+            }
+            results.add(total);
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static boolean endsWithNewline(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, channel.size() - 1);
+            return last.get(0) == '\n';
+        }
+    }
+
+    /**
+     * Helper method picking the highest count, breaking ties by the
+     * smallest word so that both versions agree.
+     */
+    private static Map.Entry<String, Integer> mostFrequent(Map<String, Integer> counts) {
+        return counts.entrySet().stream()
+                .max(Comparator.<Map.Entry<String, Integer>>comparingInt(Map.Entry::getValue)
+                        .thenComparing(Map.Entry::getKey, Comparator.reverseOrder()))
+                .orElse(null);
+    }
+
+    /**
+     * Times both versions twice and checks that they agree.
+     */
+    private static void compare(List<Path> files, int threads) throws IOException, InterruptedException,
+            ExecutionException {
+        long bytes = 0;
+        for (Path file : files) {
+            bytes += Files.size(file);
+        }
+
+        for (int round = 1; round <= 2; round++) {
+            long start = System.nanoTime();
+            List<WordCountResult> reader = countWithReader(files, threads);
+            double readerSeconds = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            List<WordCountResult> mapped = countMapped(files, threads, 8 << 20);
+            double mappedSeconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("Round %d: readLine + split + HashMap %.2f s (%.0f MB/s), "
+                    + "mapped chunks %.2f s (%.0f MB/s)%n", round, readerSeconds, bytes / 1e6 / readerSeconds,
+                    mappedSeconds, bytes / 1e6 / mappedSeconds);
+            if (round == 2) {
+                System.out.println("Results identical: " + reader.toString().equals(mapped.toString()));
+            }
+        }
+    }
+
+    private static void printResults(List<WordCountResult> results) {
+        for (WordCountResult result : results) {
+            System.out.println("  " + result);
+        }
+    }
+
+    private static void deleteDirectory(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        } catch (IOException e) {
+            System.out.println("Error cleaning up: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Counts for one file, or for all files together.
+     */
+    private static class WordCountResult {
+        final String name;
+        long lines;
+        long words;
+        long characters;
+        String topWord = "";
+        long topCount;
+
+        WordCountResult(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-12s %,10d lines %,11d words %,13d chars, most frequent '%s' (%,d)",
+                    name, lines, words, characters, topWord, topCount);
+        }
+    }
+
+    /**
+     * The counts and word table of one chunk.
+     */
+    private static class ChunkCount {
+        long lines;
+        long words;
+        long characters;
+        WordTable table;
+    }
+
+    /**
+     * Scans one line-aligned chunk of a file from a MappedByteBuffer.
+     * Words are runs of bytes other than ASCII whitespace; characters are
+     * bytes that do not continue a UTF-8 sequence. Every word is hashed as
+     * it is scanned and counted in the table without being copied out,
+     * unless it is new.
+     */
+    private static class ChunkTask implements Callable<ChunkCount> {
+        private static final boolean[] WHITESPACE = new boolean[256];
+
+        static {
+            for (char c : new char[] {' ', '\t', '\n', '\r', '\f', 0x0B}) {
+                WHITESPACE[c] = true;
+            }
+        }
+
+        private final Path file;
+        private final long start;
+        private final long end;
+        private final boolean lastChunk;
+        private final ConcurrentLinkedQueue<WordTable> pool;
+
+        ChunkTask(Path file, long start, long end, boolean lastChunk, ConcurrentLinkedQueue<WordTable> pool) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+            this.lastChunk = lastChunk;
+            this.pool = pool;
+        }
+
+        @Override
+        public ChunkCount call() throws IOException {
+            ChunkCount count = new ChunkCount();
+            WordTable table = pool.poll();
+            count.table = table != null ? table : new WordTable(1 << 12);
+
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            }
+
+            int length = buffer.limit();
+            long lines = 0;
+            long words = 0;
+            long characters = 0;
+            int wordStart = -1;
+            int hash = 0;
+            for (int i = 0; i < length; i++) {
+                byte b = buffer.get(i);
+                if ((b & 0xC0) != 0x80) {
+                    characters++;
+                }
+                if (WHITESPACE[b & 0xFF]) {
+                    if (b == '\n') {
+                        lines++;
+                    }
+                    if (wordStart >= 0) {
+                        count.table.add(buffer, wordStart, i - wordStart, hash, 1);
+                        words++;
+                        wordStart = -1;
+                    }
+                } else {
+                    if (wordStart < 0) {
+                        wordStart = i;
+                        hash = 0x811C9DC5;
+                    }
+                    hash = (hash ^ (b & 0xFF)) * 0x01000193;
+                }
+            }
+            if (wordStart >= 0) {
+                count.table.add(buffer, wordStart, length - wordStart, hash, 1);
+                words++;
+            }
+            // A last line without a newline still counts as a line
+            if (lastChunk && length > 0 && buffer.get(length - 1) != '\n') {
+                lines++;
+            }
+
+            count.lines = lines;
+            count.words = words;
+            count.characters = characters;
+            return count;
+        }
+    }
+
+    /**
+     * An open-addressing hash table from byte strings to counts. Keys are
+     * copied once, into a shared byte array, when first seen; lookups
+     * compare bytes in place. Linear probing, resized at half full.
+     */
+    private static class WordTable {
+        private int[] hashes;
+        private int[] offsets;
+        private int[] lengths;
+        private long[] counts;
+        private byte[] arena = new byte[1 << 16];
+        private int arenaSize;
+        private int size;
+
+        WordTable(int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            hashes = new int[capacity];
+            offsets = new int[capacity];
+            lengths = new int[capacity];
+            counts = new long[capacity];
+            Arrays.fill(offsets, -1);
+        }
+
+        /**
+         * Adds to the count of the key buffer[from, from + length), whose
+         * FNV-1a hash the caller has already computed.
+         */
+        void add(ByteBuffer buffer, int from, int length, int hash, long amount) {
+            int mask = offsets.length - 1;
+            int slot = mix(hash) & mask;
+            while (offsets[slot] >= 0) {
+                if (hashes[slot] == hash && lengths[slot] == length && equalsKey(slot, buffer, from, length)) {
+                    counts[slot] += amount;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            ensureArena(length);
+            buffer.get(from, arena, arenaSize, length);
+            insert(slot, hash, arenaSize, length, amount);
+            arenaSize += length;
+        }
+
+        /**
+         * Adds every entry of the other table to this one.
+         */
+        void mergeFrom(WordTable other) {
+            ByteBuffer keys = ByteBuffer.wrap(other.arena);
+            for (int slot = 0; slot < other.offsets.length; slot++) {
+                if (other.offsets[slot] >= 0) {
+                    add(keys, other.offsets[slot], other.lengths[slot], other.hashes[slot], other.counts[slot]);
+                }
+            }
+        }
+
+        /**
+         * Returns the slot with the highest count, ties going to the
+         * smallest key, or -1 if the table is empty.
+         */
+        int mostFrequent() {
+            int best = -1;
+            for (int slot = 0; slot < offsets.length; slot++) {
+                if (offsets[slot] >= 0 && (best < 0 || counts[slot] > counts[best]
+                        || counts[slot] == counts[best] && compareKeys(slot, best) < 0)) {
+                    best = slot;
+                }
+            }
+            return best;
+        }
+
+        long count(int slot) {
+            return counts[slot];
+        }
+
+        String keyAsString(int slot) {
+            return new String(arena, offsets[slot], lengths[slot], StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Empties the table but keeps its arrays for the next chunk.
+         */
+        void clear() {
+            Arrays.fill(offsets, -1);
+            arenaSize = 0;
+            size = 0;
+        }
+
+        private void insert(int slot, int hash, int offset, int length, long amount) {
+            hashes[slot] = hash;
+            offsets[slot] = offset;
+            lengths[slot] = length;
+            counts[slot] = amount;
+            if (++size * 2 > offsets.length) {
+                resize();
+            }
+        }
+
+        private void resize() {
+            int[] oldHashes = hashes;
+            int[] oldOffsets = offsets;
+            int[] oldLengths = lengths;
+            long[] oldCounts = counts;
+            allocate(oldOffsets.length * 2);
+            int mask = offsets.length - 1;
+            for (int i = 0; i < oldOffsets.length; i++) {
+                if (oldOffsets[i] >= 0) {
+                    int slot = mix(oldHashes[i]) & mask;
+                    while (offsets[slot] >= 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    hashes[slot] = oldHashes[i];
+                    offsets[slot] = oldOffsets[i];
+                    lengths[slot] = oldLengths[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+
+        private boolean equalsKey(int slot, ByteBuffer buffer, int from, int length) {
+            int offset = offsets[slot];
+            for (int i = 0; i < length; i++) {
+                if (arena[offset + i] != buffer.get(from + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int compareKeys(int a, int b) {
+            return Arrays.compareUnsigned(arena, offsets[a], offsets[a] + lengths[a],
+                    arena, offsets[b], offsets[b] + lengths[b]);
+        }
+
+        private void ensureArena(int length) {
+            if (arenaSize + length > arena.length) {
+                arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + length));
+            }
+        }
+
+        private static int mix(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
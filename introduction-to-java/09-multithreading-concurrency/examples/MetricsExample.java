@@ -0,0 +1,535 @@
+/**
+ * MetricsExample.java
+ * This program demonstrates a small metrics library for hot code paths.
+ * Counters are LongAdders, so threads on different cores update different
+ * cache lines. A max/min tracker is striped the same way over padded cells
+ * and only writes when a value beats the current extreme. A registry takes snapshots
+ * by reading every cell without blocking writers, and an exporter writes the
+ * snapshots in the Prometheus text format to a file or serves them over HTTP.
+ */
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+public class MetricsExample {
+    // One cell per 128 bytes: 16 longs. This is the padding @Contended would add.
+    private static final int STRIDE = 16;
+
+    private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    // Each thread's cell-choosing hash, moved on whenever a CAS on its cell fails
+    private static final ThreadLocal<int[]> PROBE = ThreadLocal.withInitial(() -> {
+        int seed = (int) ((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> 32);
+        return new int[] {seed == 0 ? 1 : seed};
+    });
+
+    public static void main(String[] args) {
+        System.out.println("--- Metrics Examples ---");
+
+        // Example 1: Recording from several threads
+        System.out.println("\nExample 1: Recording from several threads");
+        MetricsRegistry registry = new MetricsRegistry();
+        recordFromThreads(registry);
+
+        // Example 2: Exporting snapshots to a file
+        System.out.println("\nExample 2: Exporting snapshots to a file");
+        exportToFile(registry);
+
+        // Example 3: Serving snapshots over HTTP
+        System.out.println("\nExample 3: Serving snapshots over HTTP");
+        serveOverHttp(registry);
+
+        // Example 4: Cost of recording
+        System.out.println("\nExample 4: Cost of recording");
+        compareRecordingCost();
+
+        System.out.println("\nMain thread exiting.");
+    }
+
+    /**
+     * Demonstrates four threads counting requests and tracking latencies
+     * while the main thread takes snapshots.
+     */
+    private static void recordFromThreads(MetricsRegistry registry) {
+        StripedCounter requests = registry.counter("http_requests", "Requests handled");
+        StripedCounter errors = registry.counter("http_errors", "Requests that failed");
+        MaxMinTracker latency = registry.maxMin("http_latency_micros", "Request latency in microseconds");
+        registry.gauge("jvm_threads", "Live threads", () -> Thread.activeCount());
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            int id = i;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 250_000; j++) {
+                    requests.increment();
+                    if (j % 1000 == id) {
+                        errors.increment();
+                    }
+                    latency.record(100 + (j * 7919L + id) % 5000);
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        // Snapshots taken while the threads are still writing
+        for (int i = 0; i < 3; i++) {
+            System.out.println("Snapshot while running: http_requests=" + requests.sum());
+            Thread.yield();
+        }
+
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            System.out.println("Main thread interrupted.");
+        }
+
+        for (MetricSnapshot snapshot : registry.snapshot()) {
+            System.out.println("  " + snapshot);
+        }
+    }
+
+    /**
+     * Demonstrates writing the Prometheus text format to a file.
+     */
+    private static void exportToFile(MetricsRegistry registry) {
+        Path file = Paths.get("metrics.prom");
+        PrometheusExporter exporter = new PrometheusExporter(registry);
+
+        try {
+            exporter.writeTo(file);
+            System.out.println("Wrote " + file + ":");
+            for (String line : Files.readAllLines(file)) {
+                System.out.println("  " + line);
+            }
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.out.println("Error exporting metrics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Demonstrates serving the snapshots on an HTTP port and scraping them.
+     */
+    private static void serveOverHttp(MetricsRegistry registry) {
+        PrometheusExporter exporter = new PrometheusExporter(registry);
+
+        try {
+            // Port 0 picks a free port
+            HttpServer server = exporter.serve(0);
+            int port = server.getAddress().getPort();
+            try {
+                URL url = new URL("http://localhost:" + port + "/metrics");
+                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                try (InputStream in = connection.getInputStream()) {
+                    String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                    System.out.println("GET /metrics -> " + connection.getResponseCode() + ", "
+                            + body.lines().count() + " lines, content type "
+                            + connection.getContentType());
+                    body.lines().filter(line -> line.startsWith("http_requests")).forEach(
+                            line -> System.out.println("  " + line));
+                }
+            } finally {
+                server.stop(0);
+            }
+        } catch (IOException e) {
+            System.out.println("Error serving metrics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compares the time per call of an AtomicLong increment, a
+     * StripedCounter increment and a MaxMinTracker record, from one thread
+     * and from four threads.
+     */
+    private static void compareRecordingCost() {
+        int increments = 20_000_000;
+
+        for (int threads : new int[] {1, 4}) {
+            for (int round = 1; round <= 2; round++) {
+                AtomicLong atomic = new AtomicLong();
+                StripedCounter striped = new StripedCounter("bench", "");
+                MaxMinTracker tracker = new MaxMinTracker("bench", "");
+                AtomicLong next = new AtomicLong();
+
+                double atomicNanos = timeIncrements(threads, increments, atomic::incrementAndGet);
+                double stripedNanos = timeIncrements(threads, increments, striped::increment);
+                double trackerNanos = timeIncrements(threads, increments,
+                        () -> tracker.record(ThreadLocalRandom.current().nextLong(1000)));
+
+                if (round == 2) {
+                    System.out.printf("%d thread(s): AtomicLong %.1f ns, StripedCounter %.1f ns, "
+                            + "MaxMinTracker %.1f ns per call (totals %d, %d; max %d)%n", threads, atomicNanos,
+                            stripedNanos, trackerNanos, atomic.get(), striped.sum(), tracker.max());
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method returning the wall-clock nanoseconds per increment.
+     */
+    private static double timeIncrements(int threads, int increments, Runnable increment) {
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> {
+                for (int j = 0; j < increments / threads; j++) {
+                    increment.run();
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            System.out.println("Main thread interrupted.");
+        }
+        return (System.nanoTime() - start) / (double) increments;
+    }
+
+    /**
+     * Helper returning the cell count for the max/min tracker: the next power of
+     * two of twice the processor count, so that most threads get a cell
+     * of their own.
+     */
+    private static int cellCount() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return Integer.highestOneBit(Math.max(1, processors * 2 - 1)) * 2;
+    }
+
+    /**
+     * Helper moving the calling thread's probe on after a failed CAS, so
+     * that two threads which collide on a cell stop sharing it (xorshift,
+     * as LongAdder does).
+     */
+    private static int advanceProbe(int[] probe) {
+        int h = probe[0];
+        h ^= h << 13;
+        h ^= h >>> 17;
+        h ^= h << 5;
+        probe[0] = h;
+        return h;
+    }
+
+    /**
+     * A monotonic counter. It is a LongAdder, which starts with one cell,
+     * adds padded cells as threads contend and moves a thread to another
+     * cell whenever its CAS fails; a read sums the cells.
+     */
+    static class StripedCounter implements Metric {
+        private final String name;
+        private final String help;
+        private final LongAdder adder = new LongAdder();
+
+        StripedCounter(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        public void increment() {
+            adder.increment();
+        }
+
+        public void add(long amount) {
+            if (amount < 0) {
+                throw new IllegalArgumentException("Counters only go up: " + amount);
+            }
+            adder.add(amount);
+        }
+
+        /**
+         * Returns the sum of the cells. Concurrent increments may or may not
+         * be included, but the result never goes backwards.
+         */
+        public long sum() {
+            return adder.sum();
+        }
+
+        public MetricSnapshot snapshot() {
+            return new MetricSnapshot(name, help, "counter", new String[] {"_total"}, new long[] {sum()});
+        }
+    }
+
+    /**
+     * Tracks the largest and smallest values recorded since the last reset.
+     * A record reads its cell and only does a CAS when the value beats the
+     * cell's current maximum or minimum, which stops happening quickly once
+     * the extremes are known. A failed CAS moves the thread to another cell.
+     */
+    static class MaxMinTracker implements Metric {
+        private final String name;
+        private final String help;
+        private final int mask;
+        private final long[] maxCells;
+        private final long[] minCells;
+
+        MaxMinTracker(String name, String help) {
+            this.name = name;
+            this.help = help;
+            int count = cellCount();
+            this.mask = count - 1;
+            this.maxCells = new long[(count + 2) * STRIDE];
+            this.minCells = new long[(count + 2) * STRIDE];
+            reset();
+        }
+
+        public void record(long value) {
+            int[] probe = PROBE.get();
+            int index = cellOffset(probe[0]);
+            long max = (long) CELLS.getOpaque(maxCells, index);
+            while (value > max) {
+                long witness = (long) CELLS.compareAndExchange(maxCells, index, max, value);
+                if (witness == max) {
+                    break;
+                }
+                index = cellOffset(advanceProbe(probe));
+                max = (long) CELLS.getOpaque(maxCells, index);
+            }
+            long min = (long) CELLS.getOpaque(minCells, index);
+            while (value < min) {
+                long witness = (long) CELLS.compareAndExchange(minCells, index, min, value);
+                if (witness == min) {
+                    break;
+                }
+                index = cellOffset(advanceProbe(probe));
+                min = (long) CELLS.getOpaque(minCells, index);
+            }
+        }
+
+        private int cellOffset(int probe) {
+            // One spare stride at each end keeps the outer cells off the array header's line
+            return ((probe & mask) + 1) * STRIDE;
+        }
+
+        public long max() {
+            long max = Long.MIN_VALUE;
+            for (int i = 1; i <= mask + 1; i++) {
+                max = Math.max(max, (long) CELLS.getVolatile(maxCells, i * STRIDE));
+            }
+            return max;
+        }
+
+        public long min() {
+            long min = Long.MAX_VALUE;
+            for (int i = 1; i <= mask + 1; i++) {
+                min = Math.min(min, (long) CELLS.getVolatile(minCells, i * STRIDE));
+            }
+            return min;
+        }
+
+        /**
+         * Starts a new window. A value recorded during the reset may land in
+         * either window.
+         */
+        public void reset() {
+            for (int i = 1; i <= mask + 1; i++) {
+                CELLS.setVolatile(maxCells, i * STRIDE, Long.MIN_VALUE);
+                CELLS.setVolatile(minCells, i * STRIDE, Long.MAX_VALUE);
+            }
+        }
+
+        public MetricSnapshot snapshot() {
+            long max = max();
+            long min = min();
+            // Report an empty window as zero rather than as the sentinels
+            if (max == Long.MIN_VALUE) {
+                max = 0;
+                min = 0;
+            }
+            return new MetricSnapshot(name, help, "gauge", new String[] {"_max", "_min"}, new long[] {max, min});
+        }
+    }
+
+    /**
+     * A gauge whose value is read from a callback when a snapshot is taken.
+     */
+    static class CallbackGauge implements Metric {
+        private final String name;
+        private final String help;
+        private final LongSupplier value;
+
+        CallbackGauge(String name, String help, LongSupplier value) {
+            this.name = name;
+            this.help = help;
+            this.value = value;
+        }
+
+        public MetricSnapshot snapshot() {
+            return new MetricSnapshot(name, help, "gauge", new String[] {""}, new long[] {value.getAsLong()});
+        }
+    }
+
+    /**
+     * Anything the registry can take a snapshot of.
+     */
+    interface Metric {
+        MetricSnapshot snapshot();
+    }
+
+    /**
+     * The values of one metric at one moment. A metric can report several
+     * series, named by appending a suffix to the metric name.
+     */
+    static class MetricSnapshot {
+        final String name;
+        final String help;
+        final String type;
+        final String[] suffixes;
+        final long[] values;
+
+        MetricSnapshot(String name, String help, String type, String[] suffixes, long[] values) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.suffixes = suffixes;
+            this.values = values;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(name).append(" (").append(type).append("):");
+            for (int i = 0; i < values.length; i++) {
+                text.append(' ').append(suffixes[i].isEmpty() ? "value" : suffixes[i].substring(1))
+                        .append('=').append(values[i]);
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * Holds metrics by name. Registering the same name twice returns the
+     * existing metric, so callers can look metrics up where they use them.
+     * Snapshots read the metrics without locking, so writers never wait.
+     */
+    static class MetricsRegistry {
+        private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+        public StripedCounter counter(String name, String help) {
+            return register(name, StripedCounter.class, new StripedCounter(name, help));
+        }
+
+        public MaxMinTracker maxMin(String name, String help) {
+            return register(name, MaxMinTracker.class, new MaxMinTracker(name, help));
+        }
+
+        public CallbackGauge gauge(String name, String help, LongSupplier value) {
+            return register(name, CallbackGauge.class, new CallbackGauge(name, help, value));
+        }
+
+        /**
+         * Returns the snapshots of all metrics, sorted by name.
+         */
+        public List<MetricSnapshot> snapshot() {
+            List<MetricSnapshot> snapshots = new ArrayList<>(metrics.size());
+            for (Metric metric : metrics.values()) {
+                snapshots.add(metric.snapshot());
+            }
+            return snapshots;
+        }
+
+        private <T extends Metric> T register(String name, Class<T> type, T metric) {
+            if (!name.matches("[a-zA-Z_:][a-zA-Z0-9_:]*")) {
+                throw new IllegalArgumentException("Invalid metric name: " + name);
+            }
+            Metric existing = metrics.putIfAbsent(name, metric);
+            if (existing == null) {
+                return metric;
+            }
+            if (!type.isInstance(existing)) {
+                throw new IllegalArgumentException("Metric " + name + " is already registered as "
+                        + existing.getClass().getSimpleName());
+            }
+            return type.cast(existing);
+        }
+    }
+
+    /**
+     * Renders registry snapshots in the Prometheus text exposition format.
+     */
+    static class PrometheusExporter {
+        private final MetricsRegistry registry;
+
+        PrometheusExporter(MetricsRegistry registry) {
+            this.registry = registry;
+        }
+
+        public String render() {
+            StringBuilder text = new StringBuilder();
+            for (MetricSnapshot snapshot : registry.snapshot()) {
+                String help = snapshot.help.replace("\\", "\\\\").replace("\n", "\\n");
+                for (int i = 0; i < snapshot.values.length; i++) {
+                    // A counter's _total sample belongs to the counter; gauge series are families of their own
+                    String family = snapshot.type.equals("counter") ? snapshot.name : snapshot.name + snapshot.suffixes[i];
+                    if (i == 0 || !snapshot.type.equals("counter")) {
+                        text.append("# HELP ").append(family).append(' ').append(help).append('\n');
+                        text.append("# TYPE ").append(family).append(' ').append(snapshot.type).append('\n');
+                    }
+                    text.append(snapshot.name).append(snapshot.suffixes[i]).append(' ')
+                            .append(snapshot.values[i]).append('\n');
+                }
+            }
+            return text.toString();
+        }
+
+        /**
+         * Writes a snapshot to a temporary file and renames it over the
+         * target, so a scraper reading the file never sees half of it.
+         */
+        public void writeTo(Path file) throws IOException {
+            Path absolute = file.toAbsolutePath();
+            Path temp = Files.createTempFile(absolute.getParent(), "metrics", ".tmp");
+            try {
+                Files.writeString(temp, render(), StandardCharsets.UTF_8);
+                Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        /**
+         * Starts an HTTP server answering GET /metrics with a fresh snapshot.
+         */
+        public HttpServer serve(int port) throws IOException {
+            HttpServer server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = render().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+            return server;
+        }
+    }
+}
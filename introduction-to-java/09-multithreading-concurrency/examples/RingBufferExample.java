@@ -0,0 +1,509 @@
+/**
+ * RingBufferExample.java
+ * This program demonstrates a bounded, lock-free, multi-producer and
+ * multi-consumer ring buffer in the style of Dmitry Vyukov's queue.
+ * ThreadCommunicationExample.MessageQueue (and the BlockingQueue of
+ * Exercise 2) take a monitor for every put and take and wake waiters with
+ * notify. Here every slot carries a sequence number that says whether it
+ * is ready to be written or read. Producers and consumers claim slots with
+ * one CAS on a shared cursor and never lock. What a blocked thread does
+ * while it waits is left to a pluggable wait strategy.
+ */
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+public class RingBufferExample {
+    public static void main(String[] args) {
+        System.out.println("--- Ring Buffer Examples ---");
+
+        // Items handed over per benchmark run
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 400_000;
+
+        // Example 1: Offering, polling and draining
+        System.out.println("\nExample 1: Offering, polling and draining");
+        offerPollAndDrain();
+
+        // Example 2: Many producers and consumers
+        System.out.println("\nExample 2: Many producers and consumers");
+        verifyHandoff();
+
+        // Example 3: Throughput and latency against monitor-based queues
+        System.out.println("\nExample 3: Throughput and latency against monitor-based queues");
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+        for (int pairs : new int[] {1, 4, 16}) {
+            benchmark(pairs, items);
+        }
+
+        System.out.println("\nMain thread exiting.");
+    }
+
+    /**
+     * Demonstrates the non-blocking operations on a small buffer.
+     */
+    private static void offerPollAndDrain() {
+        MpmcRingBuffer<String> ring = new MpmcRingBuffer<>(4, WaitStrategy.YIELD);
+
+        for (int i = 1; i <= 5; i++) {
+            System.out.println("offer(message-" + i + "): " + ring.offer("message-" + i));
+        }
+        System.out.println("poll(): " + ring.poll());
+        System.out.println("size(): " + ring.size());
+
+        List<String> batch = new ArrayList<>();
+        int drained = ring.drainTo(batch::add, 10);
+        System.out.println("drainTo() took " + drained + " items: " + batch);
+        System.out.println("poll() on an empty buffer: " + ring.poll());
+    }
+
+    /**
+     * Demonstrates that 4 producers and 4 consumers hand over every item
+     * exactly once.
+     */
+    private static void verifyHandoff() {
+        MpmcRingBuffer<Integer> ring = new MpmcRingBuffer<>(64, WaitStrategy.PARK);
+        int perProducer = 50_000;
+        long[] sums = new long[4];
+        List<Thread> threads = new ArrayList<>();
+
+        for (int p = 0; p < 4; p++) {
+            int base = p * perProducer;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    ring.put(base + i);
+                }
+            }));
+        }
+        for (int c = 0; c < 4; c++) {
+            int id = c;
+            threads.add(new Thread(() -> {
+                long sum = 0;
+                for (int i = 0; i < perProducer; i++) {
+                    sum += ring.take();
+                }
+                sums[id] = sum;
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            System.out.println("Main thread interrupted.");
+        }
+
+        long total = Arrays.stream(sums).sum();
+        long expected = (long) (4 * perProducer) * (4 * perProducer - 1) / 2;
+        System.out.println("Sum of taken items: " + total + " (expected " + expected + ")");
+    }
+
+    /**
+     * Runs the given number of producer/consumer pairs against each queue
+     * and prints throughput and handoff latency.
+     */
+    private static void benchmark(int pairs, int items) {
+        System.out.println("\n" + pairs + " producer(s), " + pairs + " consumer(s), " + items + " items:");
+        int perThread = items / pairs;
+
+        for (int round = 1; round <= 2; round++) {
+            List<String> lines = new ArrayList<>();
+            lines.add(run("synchronized wait/notifyAll", new MonitorQueue<>(1024), pairs, perThread));
+            lines.add(run("ArrayBlockingQueue", new BlockingQueueAdapter<>(new ArrayBlockingQueue<>(1024)), pairs,
+                    perThread));
+            for (WaitStrategy strategy : WaitStrategy.values()) {
+                lines.add(run("ring buffer, " + strategy, new MpmcRingBuffer<>(1024, strategy), pairs, perThread));
+            }
+            if (round == 2) {
+                lines.forEach(System.out::println);
+            }
+        }
+    }
+
+    /**
+     * Helper method timing one run. Each producer sends its own
+     * preallocated messages, stamped just before the put, and consumers
+     * sample the time from stamp to take.
+     */
+    private static String run(String label, HandoffQueue<Message> queue, int pairs, int perThread) {
+        CountDownLatch ready = new CountDownLatch(pairs * 2);
+        CountDownLatch start = new CountDownLatch(1);
+        long[][] latencies = new long[pairs][];
+        List<Thread> threads = new ArrayList<>();
+
+        for (int p = 0; p < pairs; p++) {
+            Message[] messages = new Message[perThread];
+            for (int i = 0; i < perThread; i++) {
+                messages[i] = new Message();
+            }
+            threads.add(new Thread(() -> {
+                ready.countDown();
+                awaitQuietly(start);
+                for (Message message : messages) {
+                    message.sentNanos = System.nanoTime();
+                    queue.put(message);
+                }
+            }));
+        }
+        for (int c = 0; c < pairs; c++) {
+            int id = c;
+            threads.add(new Thread(() -> {
+                // Every 8th handoff is timed
+                long[] samples = new long[perThread / 8 + 1];
+                int count = 0;
+                ready.countDown();
+                awaitQuietly(start);
+                for (int i = 0; i < perThread; i++) {
+                    Message message = queue.take();
+                    if ((i & 7) == 0) {
+                        samples[count++] = System.nanoTime() - message.sentNanos;
+                    }
+                }
+                latencies[id] = Arrays.copyOf(samples, count);
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        long elapsed;
+        try {
+            ready.await();
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            elapsed = System.nanoTime() - begin;
+        } catch (InterruptedException e) {
+            return label + ": interrupted";
+        }
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        return String.format("  %-30s %,12.0f items/s, p50 %,9.1f us, p99 %,10.1f us", label,
+                pairs * (double) perThread / (elapsed / 1e9), all[all.length / 2] / 1e3,
+                all[(int) (all.length * 0.99)] / 1e3);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A benchmark message stamped by its producer.
+     */
+    private static class Message {
+        long sentNanos;
+    }
+
+    /**
+     * The blocking operations the benchmark needs from every queue.
+     */
+    interface HandoffQueue<E> {
+        void put(E element);
+
+        E take();
+    }
+
+    /**
+     * What a thread does while it waits for a slot or an element. The
+     * attempt count starts at zero for each wait, so strategies can back
+     * off the longer a wait lasts.
+     */
+    enum WaitStrategy {
+        /** Busy-spins: the lowest latency, but it holds a core for the whole wait. */
+        SPIN {
+            void idle(int attempt) {
+                Thread.onSpinWait();
+            }
+        },
+        /** Spins briefly, then gives the core to other threads between checks. */
+        YIELD {
+            void idle(int attempt) {
+                if (attempt < 100) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+            }
+        },
+        /**
+         * Spins, yields, then sleeps for growing intervals up to 100
+         * microseconds. Sleepers are not woken early, which bounds the
+         * extra latency instead of paying for a wake-up on every handoff.
+         */
+        PARK {
+            void idle(int attempt) {
+                if (attempt < 100) {
+                    Thread.onSpinWait();
+                } else if (attempt < 110) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(Math.min(100_000L, 1_000L << Math.min(attempt - 110, 7)));
+                }
+            }
+        };
+
+        abstract void idle(int attempt);
+    }
+
+    /**
+     * A bounded lock-free queue for any number of producers and consumers.
+     *
+     * Slot i holds a sequence number. It equals the position a producer
+     * may write (the slot is free) or that position + 1 (the slot is full
+     * and a consumer may read it). A producer reads the tail position, CASes
+     * it one step forward, stores its element and publishes it by setting
+     * the slot's sequence to position + 1. A consumer does the same with the
+     * head and hands the slot back by setting its sequence to position +
+     * capacity, the position the next lap's producer will write. offer and
+     * poll allocate nothing.
+     */
+    static class MpmcRingBuffer<E> implements HandoffQueue<E> {
+        private static final VarHandle SEQUENCES = MethodHandles.arrayElementVarHandle(long[].class);
+        private static final VarHandle CURSORS = MethodHandles.arrayElementVarHandle(long[].class);
+
+        // The head and tail live 128 bytes apart so producers and consumers do not share a cache line
+        private static final int TAIL = 15;
+        private static final int HEAD = 31;
+
+        private final int mask;
+        private final long[] sequences;
+        private final Object[] elements;
+        private final long[] cursors = new long[47];
+        private final WaitStrategy waitStrategy;
+
+        MpmcRingBuffer(int capacity, WaitStrategy waitStrategy) {
+            if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+                throw new IllegalArgumentException("Capacity must be a power of two of at least 2: " + capacity);
+            }
+            this.mask = capacity - 1;
+            this.sequences = new long[capacity];
+            this.elements = new Object[capacity];
+            this.waitStrategy = waitStrategy;
+            for (int i = 0; i < capacity; i++) {
+                sequences[i] = i;
+            }
+        }
+
+        /**
+         * Adds the element if there is room and returns whether it did.
+         */
+        public boolean offer(E element) {
+            if (element == null) {
+                throw new NullPointerException("Null elements are not allowed");
+            }
+            long position = (long) CURSORS.getVolatile(cursors, TAIL);
+            while (true) {
+                int index = (int) position & mask;
+                long sequence = (long) SEQUENCES.getAcquire(sequences, index);
+                long difference = sequence - position;
+                if (difference == 0) {
+                    if (CURSORS.compareAndSet(cursors, TAIL, position, position + 1)) {
+                        elements[index] = element;
+                        SEQUENCES.setRelease(sequences, index, position + 1);
+                        return true;
+                    }
+                    position = (long) CURSORS.getVolatile(cursors, TAIL);
+                } else if (difference < 0) {
+                    // The slot still holds an element from the previous lap: the buffer is full
+                    return false;
+                } else {
+                    // Another producer claimed this position first
+                    position = (long) CURSORS.getVolatile(cursors, TAIL);
+                }
+            }
+        }
+
+        /**
+         * Removes and returns the oldest element, or null if the buffer is empty.
+         */
+        @SuppressWarnings("unchecked")
+        public E poll() {
+            long position = (long) CURSORS.getVolatile(cursors, HEAD);
+            while (true) {
+                int index = (int) position & mask;
+                long sequence = (long) SEQUENCES.getAcquire(sequences, index);
+                long difference = sequence - (position + 1);
+                if (difference == 0) {
+                    if (CURSORS.compareAndSet(cursors, HEAD, position, position + 1)) {
+                        E element = (E) elements[index];
+                        elements[index] = null;
+                        SEQUENCES.setRelease(sequences, index, position + mask + 1);
+                        return element;
+                    }
+                    position = (long) CURSORS.getVolatile(cursors, HEAD);
+                } else if (difference < 0) {
+                    return null;
+                } else {
+                    position = (long) CURSORS.getVolatile(cursors, HEAD);
+                }
+            }
+        }
+
+        /**
+         * Removes up to max elements that are ready and passes them to the
+         * sink in order. The whole run is claimed with one CAS on the head.
+         * Returns how many elements were drained. If the sink throws, the
+         * exception is passed on and the rest of the run is discarded.
+         */
+        @SuppressWarnings("unchecked")
+        public int drainTo(Consumer<? super E> sink, int max) {
+            while (true) {
+                long position = (long) CURSORS.getVolatile(cursors, HEAD);
+                int ready = 0;
+                while (ready < max && ready <= mask
+                        && (long) SEQUENCES.getAcquire(sequences, (int) (position + ready) & mask)
+                            == position + ready + 1) {
+                    ready++;
+                }
+                if (ready == 0) {
+                    return 0;
+                }
+                if (!CURSORS.compareAndSet(cursors, HEAD, position, position + ready)) {
+                    continue;
+                }
+                int released = 0;
+                try {
+                    while (released < ready) {
+                        int index = (int) (position + released) & mask;
+                        E element = (E) elements[index];
+                        elements[index] = null;
+                        SEQUENCES.setRelease(sequences, index, position + released + mask + 1);
+                        released++;
+                        sink.accept(element);
+                    }
+                } finally {
+                    // If the sink threw, free the rest of the claimed run, or producers that
+                    // wrap onto those slots would wait for them forever
+                    for (; released < ready; released++) {
+                        int index = (int) (position + released) & mask;
+                        elements[index] = null;
+                        SEQUENCES.setRelease(sequences, index, position + released + mask + 1);
+                    }
+                }
+                return ready;
+            }
+        }
+
+        /**
+         * Adds the element, waiting with the wait strategy while the buffer is full.
+         */
+        public void put(E element) {
+            for (int attempt = 0; !offer(element); attempt++) {
+                waitStrategy.idle(attempt);
+            }
+        }
+
+        /**
+         * Removes the oldest element, waiting with the wait strategy while
+         * the buffer is empty.
+         */
+        public E take() {
+            E element;
+            for (int attempt = 0; (element = poll()) == null; attempt++) {
+                waitStrategy.idle(attempt);
+            }
+            return element;
+        }
+
+        /**
+         * Returns the number of elements; only an estimate while other
+         * threads are using the buffer.
+         */
+        public int size() {
+            long head = (long) CURSORS.getVolatile(cursors, HEAD);
+            long tail = (long) CURSORS.getVolatile(cursors, TAIL);
+            return (int) Math.max(0, Math.min(tail - head, mask + 1));
+        }
+    }
+
+    /**
+     * The monitor-based queue of ThreadCommunicationExample.MessageQueue,
+     * without the printing, waking every waiter with notifyAll.
+     */
+    private static class MonitorQueue<E> implements HandoffQueue<E> {
+        private final Object[] buffer;
+        private int count;
+        private int putIndex;
+        private int takeIndex;
+
+        MonitorQueue(int capacity) {
+            buffer = new Object[capacity];
+        }
+
+        public synchronized void put(E element) {
+            while (count == buffer.length) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            buffer[putIndex] = element;
+            putIndex = (putIndex + 1) % buffer.length;
+            count++;
+            notifyAll();
+        }
+
+        @SuppressWarnings("unchecked")
+        public synchronized E take() {
+            while (count == 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            E element = (E) buffer[takeIndex];
+            buffer[takeIndex] = null;
+            takeIndex = (takeIndex + 1) % buffer.length;
+            count--;
+            notifyAll();
+            return element;
+        }
+    }
+
+    /**
+     * Adapts a java.util.concurrent.BlockingQueue to the benchmark.
+     */
+    private static class BlockingQueueAdapter<E> implements HandoffQueue<E> {
+        private final java.util.concurrent.BlockingQueue<E> queue;
+
+        BlockingQueueAdapter(java.util.concurrent.BlockingQueue<E> queue) {
+            this.queue = queue;
+        }
+
+        public void put(E element) {
+            try {
+                queue.put(element);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public E take() {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,466 @@
+/**
+ * StreamingAggregationExample.java
+ * This program demonstrates aggregating per-file word counts as the files
+ * finish, using memory that does not grow with the vocabulary. The
+ * AggregateResult of Exercise 3 would keep every file's result and one
+ * global map of every word ever seen. Here an ExecutorCompletionService
+ * hands over each file's result as soon as it is ready. The aggregator
+ * adds the words to a Count-Min sketch (approximate counts in a fixed-size
+ * table), keeps the K words with the highest estimates in a heavy-hitter
+ * list, and then lets the file's own map go. Progress reports show the
+ * running totals and top words while the files are still being processed.
+ */
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class StreamingAggregationExample {
+    public static void main(String[] args) {
+        System.out.println("--- Streaming Aggregation Examples ---");
+
+        Path directory = Paths.get("aggregation_data");
+        try {
+            List<Path> files = generateFiles(directory, 24, 400_000);
+
+            // Example 1: Live progress while files complete
+            System.out.println("\nExample 1: Live progress while files complete");
+            StreamingAggregator aggregator = new StreamingAggregator(0.0005, 0.01, 50, 5);
+            aggregate(files, aggregator, report -> System.out.println("  " + report));
+            System.out.println("Final top 10:");
+            for (StreamingAggregator.TopWord word : aggregator.topWords(10)) {
+                System.out.println("  " + word);
+            }
+
+            // Example 2: Accuracy and memory for several settings
+            System.out.println("\nExample 2: Accuracy and memory for several settings");
+            checkAccuracy(files);
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            System.out.println("Error aggregating: " + e);
+        } finally {
+            deleteDirectory(directory);
+        }
+
+        System.out.println("\nMain thread exiting.");
+    }
+
+    /**
+     * Writes files whose words follow a long-tailed distribution over a
+     * vocabulary of a few hundred thousand words.
+     */
+    private static List<Path> generateFiles(Path directory, int count, int wordsPerFile) throws IOException {
+        Files.createDirectories(directory);
+        Random random = new Random(7);
+        List<Path> files = new ArrayList<>();
+        for (int f = 0; f < count; f++) {
+            Path file = directory.resolve(String.format("part%02d.txt", f));
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                for (int w = 0; w < wordsPerFile; w++) {
+                    // Rank r is drawn with probability roughly proportional to 1/r (Zipf's law)
+                    int rank = (int) Math.floor(Math.exp(random.nextDouble() * Math.log(300_000)));
+                    writer.write("w" + rank);
+                    writer.write(w % 12 == 11 ? '\n' : ' ');
+                }
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * Counts every file on a thread pool and feeds each result to the
+     * aggregator in the order the files finish.
+     */
+    private static void aggregate(List<Path> files, StreamingAggregator aggregator, Consumer<String> progress)
+            throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            CompletionService<FileWordCounts> completion = new ExecutorCompletionService<>(executor);
+            for (Path file : files) {
+                completion.submit(() -> countFile(file));
+            }
+            for (int i = 0; i < files.size(); i++) {
+                aggregator.add(completion.take().get(), progress);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Helper method counting the lines and words of one file.
+     */
+    private static FileWordCounts countFile(Path file) throws IOException {
+        FileWordCounts counts = new FileWordCounts(file.getFileName().toString());
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                counts.lines++;
+                for (String word : line.split(" ")) {
+                    if (!word.isEmpty()) {
+                        counts.words++;
+                        counts.wordCounts.merge(word, 1L, Long::sum);
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Runs the aggregation with several sketch sizes and top-K lengths and
+     * compares them with exact counts: the sketch's mean over-count, the
+     * share of words over-counted by more than the bound, and how many of
+     * the true top 20 words the heavy-hitter list found.
+     */
+    private static void checkAccuracy(List<Path> files) throws IOException {
+        // The files are counted once and replayed into each aggregator
+        List<FileWordCounts> results = new ArrayList<>();
+        for (Path file : files) {
+            results.add(countFile(file));
+        }
+
+        // Exact counts, only for checking
+        Map<String, Long> exact = new HashMap<>();
+        for (FileWordCounts result : results) {
+            result.wordCounts.forEach((word, count) -> exact.merge(word, count, Long::sum));
+        }
+        long total = exact.values().stream().mapToLong(Long::longValue).sum();
+        List<String> trueTop = exact.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .limit(20).map(Map.Entry::getKey).collect(Collectors.toList());
+        // A HashMap entry for a short word costs roughly 100 bytes with its key and boxed count
+        System.out.printf("Exact map: %,d distinct words, %,d total, about %,d KB%n", exact.size(), total,
+                exact.size() * 100L / 1024);
+
+        System.out.printf("  %-9s %-6s %-4s %9s %12s %14s %14s %13s%n", "epsilon", "delta", "K", "memory",
+                "bound eps*N", "mean overcount", "over bound", "top-20 found");
+        for (double epsilon : new double[] {0.01, 0.001, 0.0001}) {
+            for (int k : new int[] {20, 100}) {
+                StreamingAggregator aggregator = new StreamingAggregator(epsilon, 0.01, k, Integer.MAX_VALUE);
+                for (FileWordCounts result : results) {
+                    aggregator.add(result, report -> { });
+                }
+
+                long bound = (long) Math.ceil(epsilon * total);
+                long overBound = 0;
+                long errorSum = 0;
+                for (Map.Entry<String, Long> entry : exact.entrySet()) {
+                    long error = aggregator.estimate(entry.getKey()) - entry.getValue();
+                    if (error < 0) {
+                        System.out.println("Error: the sketch under-counted " + entry.getKey());
+                    }
+                    if (error > bound) {
+                        overBound++;
+                    }
+                    errorSum += error;
+                }
+                Set<String> found = new HashSet<>();
+                for (StreamingAggregator.TopWord word : aggregator.topWords(k)) {
+                    found.add(word.word);
+                }
+                long recalled = trueTop.stream().filter(found::contains).count();
+
+                // At most a delta fraction of the words should exceed the bound
+                System.out.printf("  %-9s %-6s %-4d %6d KB %,12d %,14.1f %13.2f%% %10d/20%n", epsilon, 0.01, k,
+                        aggregator.memoryBytes() / 1024, bound, errorSum / (double) exact.size(),
+                        100.0 * overBound / exact.size(), recalled);
+            }
+        }
+    }
+
+    private static void deleteDirectory(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        } catch (IOException e) {
+            System.out.println("Error cleaning up: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The counts for one file. Its word map lives only until the
+     * aggregator has merged it.
+     */
+    private static class FileWordCounts {
+        final String name;
+        long lines;
+        long words;
+        final Map<String, Long> wordCounts = new HashMap<>();
+
+        FileWordCounts(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Merges file results one at a time into fixed-size summaries.
+     * Only the thread taking results from the CompletionService calls add,
+     * so nothing here needs locking.
+     */
+    static class StreamingAggregator {
+        private final CountMinSketch sketch;
+        private final HeavyHitters topK;
+        private final int reportEvery;
+        private long files;
+        private long lines;
+        private long words;
+
+        /**
+         * The sketch over-counts any word by at most epsilon times the total
+         * number of words, with probability 1 - delta. The top-K list keeps
+         * k words.
+         */
+        StreamingAggregator(double epsilon, double delta, int k, int reportEvery) {
+            this.sketch = new CountMinSketch(epsilon, delta);
+            this.topK = new HeavyHitters(k);
+            this.reportEvery = reportEvery;
+        }
+
+        void add(FileWordCounts result, Consumer<String> progress) {
+            files++;
+            lines += result.lines;
+            words += result.words;
+            for (Map.Entry<String, Long> entry : result.wordCounts.entrySet()) {
+                sketch.add(entry.getKey(), entry.getValue());
+                topK.offer(entry.getKey(), sketch.estimate(entry.getKey()));
+            }
+            if (files % reportEvery == 0) {
+                String top = topWords(3).stream().map(word -> word.word + "~" + word.estimate)
+                        .collect(Collectors.joining(", "));
+                progress.accept(String.format("after %d files (last %s): %,d lines, %,d words, top %s", files,
+                        result.name, lines, words, top));
+            }
+        }
+
+        long estimate(String word) {
+            return sketch.estimate(word);
+        }
+
+        /**
+         * Returns up to n heavy hitters with their estimates, largest first.
+         */
+        List<TopWord> topWords(int n) {
+            List<TopWord> result = new ArrayList<>();
+            for (HeavyHitters.Entry entry : topK.entries()) {
+                result.add(new TopWord(entry.word, entry.estimate));
+            }
+            result.sort(Comparator.comparingLong((TopWord word) -> word.estimate).reversed()
+                    .thenComparing(word -> word.word));
+            return result.subList(0, Math.min(n, result.size()));
+        }
+
+        long memoryBytes() {
+            return sketch.memoryBytes() + topK.memoryBytes();
+        }
+
+        /**
+         * One word in the top-K report.
+         */
+        static class TopWord {
+            final String word;
+            final long estimate;
+
+            TopWord(String word, long estimate) {
+                this.word = word;
+                this.estimate = estimate;
+            }
+
+            @Override
+            public String toString() {
+                return String.format("%-8s about %,d", word, estimate);
+            }
+        }
+    }
+
+    /**
+     * A Count-Min sketch: depth rows of width counters. Adding a word adds
+     * to one counter per row; the estimate is the smallest of those
+     * counters. Other words sharing a counter can only push it up, so the
+     * estimate never under-counts.
+     */
+    static class CountMinSketch {
+        private static final long HASH_SEED = 0x2545F4914F6CDD1DL;
+
+        private final int width;
+        private final long[][] rows;
+
+        CountMinSketch(double epsilon, double delta) {
+            this.width = (int) Math.ceil(Math.E / epsilon);
+            int depth = (int) Math.ceil(Math.log(1 / delta));
+            this.rows = new long[depth][width];
+        }
+
+        void add(String word, long count) {
+            long hash = hash64(word);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int row = 0; row < rows.length; row++) {
+                // Double hashing gives each row its own independent-enough position
+                rows[row][Math.floorMod(h1 + row * h2, width)] += count;
+            }
+        }
+
+        long estimate(String word) {
+            long hash = hash64(word);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            long min = Long.MAX_VALUE;
+            for (int row = 0; row < rows.length; row++) {
+                min = Math.min(min, rows[row][Math.floorMod(h1 + row * h2, width)]);
+            }
+            return min;
+        }
+
+        long memoryBytes() {
+            return (long) rows.length * width * Long.BYTES;
+        }
+
+        /**
+         * Helper hashing the word's chars straight to 64 bits: a seeded
+         * murmur-style round per char, then the SplitMix64 finalizer. Words
+         * that collide on the 32-bit String.hashCode ("Aa" and "BB") still
+         * get different row positions.
+         */
+        private static long hash64(String word) {
+            long z = HASH_SEED ^ (word.length() * 0x9E3779B97F4A7C15L);
+            for (int i = 0; i < word.length(); i++) {
+                long k = Long.rotateLeft(word.charAt(i) * 0x87C37B91114253D5L, 31) * 0x4CF5AD432745937FL;
+                z = Long.rotateLeft(z ^ k, 27) * 5 + 0x52DCE729L;
+            }
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+
+    /**
+     * The K words with the highest sketch estimates, kept like the
+     * Space-Saving algorithm's counters: a fixed number of slots, where a
+     * newcomer can only take the slot of the current minimum. Plain
+     * Space-Saving starts every newcomer from that minimum, which, when
+     * whole files of rare words are merged at once, pushes the minimum up
+     * until rare words crowd out real heavy hitters. Ranking by the sketch
+     * estimate instead lets a word in only once its estimate beats the
+     * minimum. Slots sit in a min-heap that knows each entry's position,
+     * so an update costs O(log k) and a rare word costs one comparison.
+     */
+    static class HeavyHitters {
+        private final Entry[] heap;
+        private final Map<String, Entry> index;
+        private int size;
+
+        HeavyHitters(int k) {
+            this.heap = new Entry[k];
+            this.index = new HashMap<>(k * 2);
+        }
+
+        /**
+         * Records a word's latest estimate, which only ever grows.
+         */
+        void offer(String word, long estimate) {
+            Entry entry = index.get(word);
+            if (entry != null) {
+                entry.estimate = estimate;
+                siftDown(entry.position);
+            } else if (size < heap.length) {
+                entry = new Entry(word, estimate);
+                entry.position = size;
+                heap[size++] = entry;
+                index.put(word, entry);
+                siftUp(entry.position);
+            } else if (estimate > heap[0].estimate) {
+                Entry smallest = heap[0];
+                index.remove(smallest.word);
+                smallest.word = word;
+                smallest.estimate = estimate;
+                index.put(word, smallest);
+                siftDown(0);
+            }
+        }
+
+        List<Entry> entries() {
+            return Arrays.asList(Arrays.copyOf(heap, size));
+        }
+
+        long memoryBytes() {
+            // Entry, key and map node for each tracked word, roughly
+            return (long) heap.length * 120;
+        }
+
+        private void siftUp(int position) {
+            Entry entry = heap[position];
+            while (position > 0) {
+                int parent = (position - 1) / 2;
+                if (heap[parent].estimate <= entry.estimate) {
+                    break;
+                }
+                place(heap[parent], position);
+                position = parent;
+            }
+            place(entry, position);
+        }
+
+        private void siftDown(int position) {
+            Entry entry = heap[position];
+            while (true) {
+                int child = 2 * position + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && heap[child + 1].estimate < heap[child].estimate) {
+                    child++;
+                }
+                if (entry.estimate <= heap[child].estimate) {
+                    break;
+                }
+                place(heap[child], position);
+                position = child;
+            }
+            place(entry, position);
+        }
+
+        private void place(Entry entry, int position) {
+            heap[position] = entry;
+            entry.position = position;
+        }
+
+        /**
+         * A tracked word and its position in the heap.
+         */
+        static class Entry {
+            String word;
+            long estimate;
+            int position;
+
+            Entry(String word, long estimate) {
+                this.word = word;
+                this.estimate = estimate;
+            }
+        }
+    }
+}
@@ -0,0 +1,1169 @@
+/**
+ * TinyLfuCacheExample.java
+ * This program demonstrates a bounded concurrent cache. The Cache in
+ * LocksExample.readWriteLockExample guards a HashMap with one
+ * ReentrantReadWriteLock: it never evicts anything, and every put blocks
+ * every reader. Here entries live in a ConcurrentHashMap, so reads take no
+ * lock. A read only records the access in a small striped buffer, and
+ * writes queue their changes in a write buffer. Whichever thread gets a
+ * try-lock first replays both buffers into the eviction policy, so the
+ * cost of eviction is shared out in batches instead of paid on every call.
+ *
+ * The policy is W-TinyLFU: new entries start in a small LRU window, and an
+ * entry leaving the window only gets into the main region if a frequency
+ * sketch says it is used more often than the entry it would push out. The
+ * cache is bounded by entry count or total weight, can expire entries after
+ * write or after access, coalesces concurrent loads of the same key and
+ * keeps hit, load and eviction statistics.
+ */
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+public class TinyLfuCacheExample {
+    public static void main(String[] args) {
+        System.out.println("--- TinyLFU Cache Examples ---");
+
+        // Operations per thread in the comparison; pass a larger count for a longer run
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+        // Example 1: Hit rate against an LRU cache
+        System.out.println("\nExample 1: Hit rate against an LRU cache");
+        compareHitRates();
+
+        // Example 2: A weight bound
+        System.out.println("\nExample 2: A weight bound");
+        weightBound();
+
+        // Example 3: Expiry after write and after access
+        System.out.println("\nExample 3: Expiry after write and after access");
+        expiry();
+
+        // Example 4: Coalesced loads
+        System.out.println("\nExample 4: Coalesced loads");
+        try {
+            coalescedLoads();
+
+            // Example 5: Throughput against the ReadWriteLock cache
+            System.out.println("\nExample 5: Throughput against the ReadWriteLock cache");
+            compareThroughput(32, operations);
+        } catch (InterruptedException e) {
+            System.out.println("Main thread interrupted.");
+        }
+
+        System.out.println("\nMain thread exiting.");
+    }
+
+    /**
+     * Demonstrates the hit rates of a TinyLFU cache and an LRU cache of the
+     * same size on popular keys mixed with a stream of keys used only once,
+     * which push popular keys out of an LRU cache.
+     */
+    private static void compareHitRates() {
+        int capacity = 1000;
+        TinyLfuCache<Integer, Integer> tinyLfu = TinyLfuCache.<Integer, Integer>newBuilder()
+                .maximumSize(capacity)
+                .build();
+        LruCache<Integer, Integer> lru = new LruCache<>(capacity);
+
+        Random random = new Random(42);
+        int[] keys = new int[1_000_000];
+        int oneOff = 1_000_000;
+        for (int i = 0; i < keys.length; i++) {
+            // Every third key is new and never used again; the rest follow Zipf's law over 50,000 keys
+            keys[i] = i % 3 == 0 ? oneOff++ : zipf(random, 50_000);
+        }
+
+        long tinyLfuHits = 0;
+        long lruHits = 0;
+        for (int key : keys) {
+            if (tinyLfu.get(key) != null) {
+                tinyLfuHits++;
+            } else {
+                tinyLfu.put(key, key);
+            }
+            if (lru.get(key) != null) {
+                lruHits++;
+            } else {
+                lru.put(key, key);
+            }
+        }
+        System.out.printf("Cache of %,d entries, %,d requests, a third of them for one-off keys%n", capacity,
+                keys.length);
+        System.out.printf("  TinyLFU hit rate: %.1f%%%n", 100.0 * tinyLfuHits / keys.length);
+        System.out.printf("  LRU hit rate:     %.1f%%%n", 100.0 * lruHits / keys.length);
+        System.out.println("  " + tinyLfu.stats());
+    }
+
+    /**
+     * Demonstrates a cache bounded by the total size of its values rather
+     * than by the number of entries.
+     */
+    private static void weightBound() {
+        TinyLfuCache<String, byte[]> cache = TinyLfuCache.<String, byte[]>newBuilder()
+                .maximumWeight(64 * 1024)
+                .weigher((String key, byte[] value) -> value.length)
+                .build();
+        Random random = new Random(1);
+        long written = 0;
+        for (int i = 0; i < 1000; i++) {
+            byte[] value = new byte[100 + random.nextInt(1900)];
+            cache.put("blob-" + i, value);
+            written += value.length;
+        }
+        cache.cleanUp();
+        System.out.printf("Wrote %,d bytes in 1,000 values; the cache holds %d values, %,d of at most %,d bytes%n",
+                written, cache.estimatedSize(), cache.weightedSize(), 64 * 1024);
+        System.out.println("  " + cache.stats());
+    }
+
+    /**
+     * Demonstrates both expiry rules with a clock the example moves by
+     * hand, so nothing has to sleep.
+     */
+    private static void expiry() {
+        AtomicLong now = new AtomicLong();
+        TinyLfuCache<String, String> cache = TinyLfuCache.<String, String>newBuilder()
+                .maximumSize(100)
+                .expireAfterWrite(10, TimeUnit.MINUTES)
+                .expireAfterAccess(2, TimeUnit.MINUTES)
+                .ticker(now::get)
+                .build();
+        cache.put("session", "alice");
+        cache.put("report", "draft");
+
+        for (int minute = 1; minute <= 11; minute++) {
+            now.addAndGet(TimeUnit.MINUTES.toNanos(1));
+            // The session is read every minute; the report is only peeked at, which is not an access
+            String session = cache.get("session");
+            String report = minute % 3 == 0 ? cache.getIfPresentQuietly("report") : "(not read)";
+            if (minute == 1 || minute == 3 || minute == 9 || minute == 10 || minute == 11) {
+                System.out.printf("  minute %2d: session = %s, report = %s%n", minute, session, report);
+            }
+        }
+        cache.cleanUp();
+        System.out.println("  The report expired 2 minutes after its last access, the session 10 minutes after"
+                + " its write");
+        System.out.println("  " + cache.stats());
+    }
+
+    /**
+     * Demonstrates sixteen threads asking for the same missing key at once.
+     * The loader runs once, and the other threads wait for its result.
+     */
+    private static void coalescedLoads() throws InterruptedException {
+        TinyLfuCache<String, String> cache = TinyLfuCache.<String, String>newBuilder()
+                .maximumSize(100)
+                .build();
+        AtomicInteger loaderCalls = new AtomicInteger();
+        Function<String, String> loader = key -> {
+            loaderCalls.incrementAndGet();
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return key + "-loaded-at-" + System.currentTimeMillis() % 100_000;
+        };
+
+        Thread[] threads = new Thread[16];
+        String[] results = new String[threads.length];
+        for (int i = 0; i < threads.length; i++) {
+            int index = i;
+            threads[i] = new Thread(() -> results[index] = cache.getOrLoad("config", loader));
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long distinct = java.util.Arrays.stream(results).distinct().count();
+        System.out.printf("16 threads asked for \"config\": the loader ran %d time(s), %d distinct value(s): %s%n",
+                loaderCalls.get(), distinct, results[0]);
+
+        // A failing loader fails every waiter, and nothing is cached
+        try {
+            cache.getOrLoad("broken", key -> {
+                throw new IllegalStateException("backend unavailable");
+            });
+        } catch (IllegalStateException e) {
+            System.out.println("Error loading \"broken\": " + e.getMessage());
+        }
+        System.out.println("  " + cache.stats());
+    }
+
+    /**
+     * Compares the TinyLFU cache with the ReadWriteLock cache of
+     * LocksExample at 90/10 and 50/50 read/write mixes. Keys follow Zipf's
+     * law over 100,000 keys, and the TinyLFU cache holds a quarter of them.
+     * Writes of missing keys cost the TinyLFU cache an eviction each, which
+     * the unbounded cache never pays; the read-write lock costs most when
+     * many cores contend for it.
+     */
+    private static void compareThroughput(int threads, int operations) throws InterruptedException {
+        int keySpace = 100_000;
+        Integer[][] keys = new Integer[threads][1 << 16];
+        Random random = new Random(3);
+        for (Integer[] threadKeys : keys) {
+            for (int i = 0; i < threadKeys.length; i++) {
+                threadKeys[i] = zipf(random, keySpace);
+            }
+        }
+
+        System.out.printf("%d threads, %,d operations each, Zipf keys over %,d keys%n", threads, operations,
+                keySpace);
+        System.out.printf("  %-8s %-26s %14s %9s%n", "reads", "cache", "ops/sec", "hit rate");
+        for (int readPercent : new int[] {90, 50}) {
+            // The first round warms up the JIT; the second is reported
+            for (int round = 1; round <= 2; round++) {
+                RwLockCache<Integer, Integer> rwCache = new RwLockCache<>();
+                TinyLfuCache<Integer, Integer> tinyLfu = TinyLfuCache.<Integer, Integer>newBuilder()
+                        .maximumSize(keySpace / 4)
+                        .build();
+                for (int key = 1; key <= keySpace; key++) {
+                    rwCache.put(key, key);
+                    tinyLfu.put(key, key);
+                }
+
+                LongAdder rwHits = new LongAdder();
+                long rwNanos = run(threads, operations, readPercent, keys, key -> {
+                    if (rwCache.get(key) != null) {
+                        rwHits.increment();
+                    }
+                }, key -> rwCache.put(key, key));
+                LongAdder tinyHits = new LongAdder();
+                long tinyNanos = run(threads, operations, readPercent, keys, key -> {
+                    if (tinyLfu.get(key) != null) {
+                        tinyHits.increment();
+                    }
+                }, key -> tinyLfu.put(key, key));
+
+                if (round == 2) {
+                    long reads = (long) threads * operations * readPercent / 100;
+                    printRow(readPercent, "ReadWriteLock (unbounded)", threads, operations, rwNanos,
+                            rwHits.sum(), reads);
+                    printRow(readPercent, "TinyLFU (25% of keys)", threads, operations, tinyNanos,
+                            tinyHits.sum(), reads);
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method timing threads that each perform a read or a write on
+     * their own key sequence.
+     */
+    private static long run(int threads, int operations, int readPercent, Integer[][] keys,
+            KeyOperation read, KeyOperation write) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            Integer[] threadKeys = keys[t];
+            new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                int mask = threadKeys.length - 1;
+                for (int i = 0; i < operations; i++) {
+                    Integer key = threadKeys[i & mask];
+                    if (i % 100 < readPercent) {
+                        read.apply(key);
+                    } else {
+                        write.apply(key);
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return System.nanoTime() - begin;
+    }
+
+    private static void printRow(int readPercent, String name, int threads, int operations, long nanos, long hits,
+            long reads) {
+        System.out.printf("  %-8s %-26s %,14.0f %8.1f%%%n", readPercent + "%", name,
+                (double) threads * operations / (nanos / 1e9), 100.0 * hits / reads);
+    }
+
+    /**
+     * Helper method drawing a key from 1 to n with probability roughly
+     * proportional to 1/key.
+     */
+    private static int zipf(Random random, int n) {
+        return (int) Math.floor(Math.exp(random.nextDouble() * Math.log(n)));
+    }
+
+    @FunctionalInterface
+    interface KeyOperation {
+        void apply(Integer key);
+    }
+
+    @FunctionalInterface
+    interface Weigher<K, V> {
+        int weigh(K key, V value);
+    }
+
+    /**
+     * The Cache of LocksExample.readWriteLockExample: a HashMap behind one
+     * ReentrantReadWriteLock, with no bound.
+     */
+    static class RwLockCache<K, V> {
+        private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
+        private final Lock readLock = rwLock.readLock();
+        private final Lock writeLock = rwLock.writeLock();
+        private final Map<K, V> map = new java.util.HashMap<>();
+
+        public V get(K key) {
+            readLock.lock();
+            try {
+                return map.get(key);
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        public void put(K key, V value) {
+            writeLock.lock();
+            try {
+                map.put(key, value);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A single-threaded LRU cache on an access-ordered LinkedHashMap, for
+     * comparing hit rates.
+     */
+    static class LruCache<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        LruCache(int capacity) {
+            super(capacity * 2, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    /**
+     * The cache. Reads and writes go straight to a ConcurrentHashMap of
+     * nodes; everything the eviction policy needs to know is replayed later
+     * by whichever thread holds the eviction lock, which owns the LRU
+     * queues, the frequency sketch and the weights.
+     */
+    static class TinyLfuCache<K, V> {
+        // Pending writes beyond which a writer waits for the lock instead of trying it
+        private static final int WRITE_BUFFER_LIMIT = 4096;
+
+        private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<K, CompletableFuture<V>> loads = new ConcurrentHashMap<>();
+        private final long maximum;
+        private final Weigher<? super K, ? super V> weigher;
+        private final long expireAfterWriteNanos;
+        private final long expireAfterAccessNanos;
+        private final LongSupplier ticker;
+
+        private final ReadBuffer<Node<K, V>> readBuffer = new ReadBuffer<>();
+        private final ConcurrentLinkedQueue<Runnable> writeBuffer = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingWrites = new AtomicInteger();
+        private final ReentrantLock evictionLock = new ReentrantLock();
+
+        // Guarded by evictionLock
+        private final FrequencySketch sketch;
+        private final AccessQueue<K, V> window = new AccessQueue<>();
+        private final AccessQueue<K, V> probation = new AccessQueue<>();
+        private final AccessQueue<K, V> protectedQueue = new AccessQueue<>();
+        private final WriteQueue<K, V> writeOrder = new WriteQueue<>();
+        private final long windowMaximum;
+        private final long protectedMaximum;
+        private long weightedSize;
+        private long windowWeight;
+        private long protectedWeight;
+
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder loadSuccesses = new LongAdder();
+        private final LongAdder loadFailures = new LongAdder();
+        private final LongAdder loadNanos = new LongAdder();
+        private final LongAdder coalescedLoads = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private final LongAdder evictedWeight = new LongAdder();
+        private final LongAdder expirations = new LongAdder();
+
+        private TinyLfuCache(Builder<K, V> builder) {
+            this.maximum = builder.maximum;
+            this.weigher = builder.weigher;
+            this.expireAfterWriteNanos = builder.expireAfterWriteNanos;
+            this.expireAfterAccessNanos = builder.expireAfterAccessNanos;
+            this.ticker = builder.ticker;
+            // 1% of the weight for the window, and 80% of the rest for entries used more than once
+            this.windowMaximum = Math.max(1, maximum / 100);
+            this.protectedMaximum = (long) ((maximum - windowMaximum) * 0.8);
+            this.sketch = new FrequencySketch(builder.weigher == null ? maximum : Math.min(maximum, 1 << 20));
+        }
+
+        static <K, V> Builder<K, V> newBuilder() {
+            return new Builder<>();
+        }
+
+        /**
+         * Returns the value for a key, or null if it is missing or has
+         * expired. Takes no lock.
+         */
+        V get(K key) {
+            Node<K, V> node = data.get(key);
+            if (node == null) {
+                misses.increment();
+                return null;
+            }
+            long now = ticker.getAsLong();
+            if (hasExpired(node, now)) {
+                misses.increment();
+                tryMaintenance();
+                return null;
+            }
+            if (expireAfterAccessNanos > 0) {
+                node.accessTime = now;
+            }
+            // A full stripe means the policy is behind; a lost access only makes it slightly less precise
+            if (readBuffer.offer(node) == ReadBuffer.FULL) {
+                tryMaintenance();
+            }
+            hits.increment();
+            return node.value;
+        }
+
+        /**
+         * Returns the value for a key without recording a hit, a miss or an
+         * access.
+         */
+        V getIfPresentQuietly(K key) {
+            Node<K, V> node = data.get(key);
+            return node == null || hasExpired(node, ticker.getAsLong()) ? null : node.value;
+        }
+
+        void put(K key, V value) {
+            int weight = weigher == null ? 1 : weigher.weigh(key, value);
+            long now = ticker.getAsLong();
+            Node<K, V> current = data.get(key);
+            if (current != null && current.alive) {
+                // Replacing a value in place needs no map lock; a put racing with the eviction of
+                // the same key may be lost, as if the entry had been evicted just afterwards
+                int oldWeight = current.weight;
+                current.value = value;
+                current.weight = weight;
+                current.writeTime = now;
+                current.accessTime = now;
+                if (weight == oldWeight && expireAfterWriteNanos == 0) {
+                    // Nothing but recency changed, so this is recorded like a read
+                    if (readBuffer.offer(current) == ReadBuffer.FULL) {
+                        tryMaintenance();
+                    }
+                } else {
+                    afterWrite(() -> onUpdate(current));
+                }
+                return;
+            }
+            List<Node<K, V>> added = new ArrayList<>(1);
+            Node<K, V> node = data.compute(key, (k, existing) -> {
+                if (existing == null) {
+                    Node<K, V> created = new Node<>(k, value, weight, now);
+                    added.add(created);
+                    return created;
+                }
+                existing.value = value;
+                existing.weight = weight;
+                existing.writeTime = now;
+                existing.accessTime = now;
+                return existing;
+            });
+            if (added.isEmpty()) {
+                afterWrite(() -> onUpdate(node));
+            } else {
+                afterWrite(() -> onAdd(node));
+            }
+        }
+
+        V remove(K key) {
+            List<Node<K, V>> removed = new ArrayList<>(1);
+            data.computeIfPresent(key, (k, existing) -> {
+                existing.alive = false;
+                removed.add(existing);
+                return null;
+            });
+            if (removed.isEmpty()) {
+                return null;
+            }
+            Node<K, V> node = removed.get(0);
+            afterWrite(() -> onRemove(node));
+            return node.value;
+        }
+
+        /**
+         * Returns the value for a key, loading it if it is missing. When
+         * several threads miss the same key at once, one of them runs the
+         * loader and the others wait for its result or its exception. A
+         * null result is returned but not cached.
+         */
+        V getOrLoad(K key, Function<? super K, ? extends V> loader) {
+            V value = get(key);
+            if (value != null) {
+                return value;
+            }
+            CompletableFuture<V> future = new CompletableFuture<>();
+            CompletableFuture<V> inProgress = loads.putIfAbsent(key, future);
+            if (inProgress != null) {
+                coalescedLoads.increment();
+                try {
+                    return inProgress.join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+            try {
+                // Another thread may have finished loading between the miss and putIfAbsent
+                value = getIfPresentQuietly(key);
+                if (value == null) {
+                    long start = System.nanoTime();
+                    boolean loaded = false;
+                    try {
+                        value = loader.apply(key);
+                        loaded = true;
+                    } finally {
+                        loadNanos.add(System.nanoTime() - start);
+                        (loaded ? loadSuccesses : loadFailures).increment();
+                    }
+                    if (value != null) {
+                        put(key, value);
+                    }
+                }
+                future.complete(value);
+                return value;
+            } catch (Throwable t) {
+                // Whatever failed, from the loader to the weigher, the waiters must not wait forever
+                future.completeExceptionally(t);
+                throw t;
+            } finally {
+                loads.remove(key, future);
+            }
+        }
+
+        /**
+         * Replays all buffered work and evicts until the cache is within
+         * its bounds, waiting for the lock if necessary.
+         */
+        void cleanUp() {
+            evictionLock.lock();
+            try {
+                maintenance();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+
+        long estimatedSize() {
+            return data.size();
+        }
+
+        long weightedSize() {
+            evictionLock.lock();
+            try {
+                return weightedSize;
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+
+        CacheStats stats() {
+            return new CacheStats(hits.sum(), misses.sum(), loadSuccesses.sum(), loadFailures.sum(),
+                    loadNanos.sum(), coalescedLoads.sum(), evictions.sum(), evictedWeight.sum(), expirations.sum());
+        }
+
+        private boolean hasExpired(Node<K, V> node, long now) {
+            return (expireAfterWriteNanos > 0 && now - node.writeTime >= expireAfterWriteNanos)
+                    || (expireAfterAccessNanos > 0 && now - node.accessTime >= expireAfterAccessNanos);
+        }
+
+        /**
+         * Helper method queueing a policy update. A writer that finds the
+         * lock taken leaves its update to the holder, which checks the
+         * buffer again after unlocking; only when the buffer is far behind
+         * does a writer wait.
+         */
+        private void afterWrite(Runnable task) {
+            writeBuffer.add(task);
+            if (pendingWrites.incrementAndGet() > WRITE_BUFFER_LIMIT) {
+                cleanUp();
+            } else {
+                tryMaintenance();
+            }
+        }
+
+        private void tryMaintenance() {
+            do {
+                if (!evictionLock.tryLock()) {
+                    return;
+                }
+                try {
+                    maintenance();
+                } finally {
+                    evictionLock.unlock();
+                }
+            } while (pendingWrites.get() > 0);
+        }
+
+        private void maintenance() {
+            readBuffer.drainTo(this::onAccess);
+            Runnable task;
+            while ((task = writeBuffer.poll()) != null) {
+                pendingWrites.decrementAndGet();
+                task.run();
+            }
+            expireEntries(ticker.getAsLong());
+            evictEntries();
+        }
+
+        private void onAdd(Node<K, V> node) {
+            // A node removed before its add was replayed never enters the policy
+            if (!node.alive || node.queue != Node.NONE) {
+                return;
+            }
+            node.policyWeight = node.weight;
+            weightedSize += node.policyWeight;
+            windowWeight += node.policyWeight;
+            window.linkLast(node);
+            node.queue = Node.WINDOW;
+            writeOrder.linkLast(node);
+            sketch.increment(node.key);
+        }
+
+        private void onUpdate(Node<K, V> node) {
+            if (node.queue == Node.NONE) {
+                return;
+            }
+            long delta = node.weight - node.policyWeight;
+            node.policyWeight = node.weight;
+            weightedSize += delta;
+            if (node.queue == Node.WINDOW) {
+                windowWeight += delta;
+            } else if (node.queue == Node.PROTECTED) {
+                protectedWeight += delta;
+            }
+            writeOrder.moveToBack(node);
+            onAccess(node);
+        }
+
+        private void onRemove(Node<K, V> node) {
+            if (node.queue != Node.NONE) {
+                unlink(node);
+            }
+        }
+
+        /**
+         * Helper method recording a use: counted in the sketch, moved to the
+         * back of its queue, and promoted from probation to protected.
+         */
+        private void onAccess(Node<K, V> node) {
+            if (node.queue == Node.NONE) {
+                return;
+            }
+            sketch.increment(node.key);
+            if (node.queue == Node.WINDOW) {
+                window.moveToBack(node);
+            } else if (node.queue == Node.PROTECTED) {
+                protectedQueue.moveToBack(node);
+            } else {
+                probation.unlink(node);
+                protectedQueue.linkLast(node);
+                node.queue = Node.PROTECTED;
+                protectedWeight += node.policyWeight;
+                while (protectedWeight > protectedMaximum) {
+                    Node<K, V> demoted = protectedQueue.peekFirst();
+                    protectedQueue.unlink(demoted);
+                    protectedWeight -= demoted.policyWeight;
+                    probation.linkLast(demoted);
+                    demoted.queue = Node.PROBATION;
+                }
+            }
+        }
+
+        /**
+         * Helper method removing expired entries from the front of the
+         * queues. Queue order only approximates time order, so an expired
+         * entry further back waits for a later pass or for eviction; reads
+         * never return it.
+         */
+        private void expireEntries(long now) {
+            if (expireAfterAccessNanos > 0) {
+                for (AccessQueue<K, V> queue : List.of(window, probation, protectedQueue)) {
+                    Node<K, V> node;
+                    while ((node = queue.peekFirst()) != null && hasExpired(node, now)) {
+                        evict(node, true);
+                    }
+                }
+            }
+            if (expireAfterWriteNanos > 0) {
+                Node<K, V> node;
+                while ((node = writeOrder.peekFirst()) != null && now - node.writeTime >= expireAfterWriteNanos) {
+                    evict(node, true);
+                }
+            }
+        }
+
+        /**
+         * Helper method moving entries that overflow the window into
+         * probation. While the cache is over its bound, each such candidate
+         * competes with the main region's least recently used entry, and
+         * the one the sketch has seen less often is evicted.
+         */
+        private void evictEntries() {
+            Node<K, V> candidate;
+            while (windowWeight > windowMaximum && (candidate = window.peekFirst()) != null) {
+                window.unlink(candidate);
+                windowWeight -= candidate.policyWeight;
+                probation.linkLast(candidate);
+                candidate.queue = Node.PROBATION;
+
+                while (weightedSize > maximum && candidate.queue == Node.PROBATION) {
+                    Node<K, V> victim = probation.peekFirst();
+                    if (victim == candidate) {
+                        victim = protectedQueue.peekFirst();
+                    }
+                    if (victim == null || sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                        evict(candidate, false);
+                    } else {
+                        evict(victim, false);
+                    }
+                }
+            }
+            // Still over, e.g. after a single very heavy entry: evict in order of least value
+            while (weightedSize > maximum) {
+                Node<K, V> victim = probation.peekFirst();
+                if (victim == null) {
+                    victim = protectedQueue.peekFirst();
+                }
+                if (victim == null) {
+                    victim = window.peekFirst();
+                }
+                if (victim == null) {
+                    break;
+                }
+                evict(victim, false);
+            }
+        }
+
+        private void evict(Node<K, V> node, boolean expired) {
+            // Conditional on the node, in case the key was removed and written again meanwhile
+            data.computeIfPresent(node.key, (key, existing) -> {
+                if (existing == node) {
+                    node.alive = false;
+                    return null;
+                }
+                return existing;
+            });
+            unlink(node);
+            if (expired) {
+                expirations.increment();
+            } else {
+                evictions.increment();
+                evictedWeight.add(node.policyWeight);
+            }
+        }
+
+        private void unlink(Node<K, V> node) {
+            weightedSize -= node.policyWeight;
+            if (node.queue == Node.WINDOW) {
+                window.unlink(node);
+                windowWeight -= node.policyWeight;
+            } else if (node.queue == Node.PROBATION) {
+                probation.unlink(node);
+            } else {
+                protectedQueue.unlink(node);
+                protectedWeight -= node.policyWeight;
+            }
+            writeOrder.unlink(node);
+            node.queue = Node.NONE;
+        }
+
+        static class Builder<K, V> {
+            private long maximum = Long.MAX_VALUE;
+            private Weigher<? super K, ? super V> weigher;
+            private long expireAfterWriteNanos;
+            private long expireAfterAccessNanos;
+            private LongSupplier ticker = System::nanoTime;
+
+            public Builder<K, V> maximumSize(long maximumSize) {
+                this.maximum = maximumSize;
+                return this;
+            }
+
+            /**
+             * Bounds the total weight instead of the number of entries;
+             * requires a weigher.
+             */
+            public Builder<K, V> maximumWeight(long maximumWeight) {
+                this.maximum = maximumWeight;
+                return this;
+            }
+
+            public Builder<K, V> weigher(Weigher<? super K, ? super V> weigher) {
+                this.weigher = weigher;
+                return this;
+            }
+
+            public Builder<K, V> expireAfterWrite(long duration, TimeUnit unit) {
+                this.expireAfterWriteNanos = unit.toNanos(duration);
+                return this;
+            }
+
+            public Builder<K, V> expireAfterAccess(long duration, TimeUnit unit) {
+                this.expireAfterAccessNanos = unit.toNanos(duration);
+                return this;
+            }
+
+            public Builder<K, V> ticker(LongSupplier ticker) {
+                this.ticker = ticker;
+                return this;
+            }
+
+            public TinyLfuCache<K, V> build() {
+                if (maximum == Long.MAX_VALUE) {
+                    throw new IllegalStateException("maximumSize or maximumWeight is required");
+                }
+                return new TinyLfuCache<>(this);
+            }
+        }
+    }
+
+    /**
+     * A cache entry. The value and times are read without locks; the
+     * queue links and policy weight belong to the thread holding the
+     * eviction lock.
+     */
+    static class Node<K, V> {
+        static final int NONE = 0;
+        static final int WINDOW = 1;
+        static final int PROBATION = 2;
+        static final int PROTECTED = 3;
+
+        final K key;
+        volatile V value;
+        volatile int weight;
+        volatile long writeTime;
+        volatile long accessTime;
+        volatile boolean alive = true;
+
+        int policyWeight;
+        int queue = NONE;
+        Node<K, V> previous;
+        Node<K, V> next;
+        Node<K, V> previousInWriteOrder;
+        Node<K, V> nextInWriteOrder;
+
+        Node(K key, V value, int weight, long now) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.writeTime = now;
+            this.accessTime = now;
+        }
+    }
+
+    /**
+     * A doubly linked list of nodes in access order, least recent first.
+     */
+    static class AccessQueue<K, V> {
+        private Node<K, V> first;
+        private Node<K, V> last;
+
+        Node<K, V> peekFirst() {
+            return first;
+        }
+
+        void linkLast(Node<K, V> node) {
+            node.previous = last;
+            node.next = null;
+            if (last == null) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+        }
+
+        void unlink(Node<K, V> node) {
+            if (node.previous == null) {
+                first = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                last = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+        }
+
+        void moveToBack(Node<K, V> node) {
+            if (node != last) {
+                unlink(node);
+                linkLast(node);
+            }
+        }
+    }
+
+    /**
+     * A doubly linked list of nodes in write order, oldest first.
+     */
+    static class WriteQueue<K, V> {
+        private Node<K, V> first;
+        private Node<K, V> last;
+
+        Node<K, V> peekFirst() {
+            return first;
+        }
+
+        void linkLast(Node<K, V> node) {
+            node.previousInWriteOrder = last;
+            node.nextInWriteOrder = null;
+            if (last == null) {
+                first = node;
+            } else {
+                last.nextInWriteOrder = node;
+            }
+            last = node;
+        }
+
+        void unlink(Node<K, V> node) {
+            if (node.previousInWriteOrder == null) {
+                first = node.nextInWriteOrder;
+            } else {
+                node.previousInWriteOrder.nextInWriteOrder = node.nextInWriteOrder;
+            }
+            if (node.nextInWriteOrder == null) {
+                last = node.previousInWriteOrder;
+            } else {
+                node.nextInWriteOrder.previousInWriteOrder = node.previousInWriteOrder;
+            }
+            node.previousInWriteOrder = null;
+            node.nextInWriteOrder = null;
+        }
+
+        void moveToBack(Node<K, V> node) {
+            if (node != last) {
+                unlink(node);
+                linkLast(node);
+            }
+        }
+    }
+
+    /**
+     * Lossy buffers of recent reads, striped by thread so that readers
+     * rarely contend on the same counter. Each stripe is a small ring:
+     * readers claim a slot with one CAS and drop the record if the ring is
+     * full or the CAS fails; the lock holder empties the rings.
+     */
+    static class ReadBuffer<E> {
+        static final int SUCCESS = 0;
+        static final int FAILED = 1;
+        static final int FULL = 2;
+
+        private static final int STRIPES = 16;
+        private static final int SIZE = 16;
+
+        private final AtomicLong[] heads = new AtomicLong[STRIPES];
+        private final AtomicLong[] tails = new AtomicLong[STRIPES];
+        private final AtomicReferenceArray<E>[] rings;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ReadBuffer() {
+            rings = new AtomicReferenceArray[STRIPES];
+            for (int i = 0; i < STRIPES; i++) {
+                heads[i] = new AtomicLong();
+                tails[i] = new AtomicLong();
+                rings[i] = new AtomicReferenceArray<>(SIZE);
+            }
+        }
+
+        int offer(E element) {
+            int stripe = (int) (Thread.currentThread().getId() * 0x9E3779B9L >>> 16) & (STRIPES - 1);
+            long head = heads[stripe].get();
+            long tail = tails[stripe].get();
+            if (tail - head >= SIZE) {
+                return FULL;
+            }
+            if (!tails[stripe].compareAndSet(tail, tail + 1)) {
+                return FAILED;
+            }
+            rings[stripe].lazySet((int) tail & (SIZE - 1), element);
+            return SUCCESS;
+        }
+
+        /**
+         * Passes every published element to the consumer. Called only by
+         * the eviction lock holder.
+         */
+        void drainTo(java.util.function.Consumer<E> consumer) {
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                long head = heads[stripe].get();
+                long tail = tails[stripe].get();
+                AtomicReferenceArray<E> ring = rings[stripe];
+                for (; head < tail; head++) {
+                    int index = (int) head & (SIZE - 1);
+                    E element = ring.get(index);
+                    if (element == null) {
+                        // Claimed but not yet written; picked up on the next drain
+                        break;
+                    }
+                    ring.lazySet(index, null);
+                    consumer.accept(element);
+                }
+                heads[stripe].lazySet(head);
+            }
+        }
+    }
+
+    /**
+     * How often each key has been used recently: a Count-Min sketch of
+     * 4-bit counters, sixteen to a long. Every counter is halved once the
+     * sketch has seen ten times its size in increments, so old popularity
+     * fades.
+     */
+    static class FrequencySketch {
+        private static final long[] SEEDS = {
+            0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L
+        };
+
+        private final long[] table;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(long expectedEntries) {
+            int size = Integer.highestOneBit((int) Math.max(16, Math.min(expectedEntries, 1 << 24)) - 1) << 1;
+            this.table = new long[size];
+            this.sampleSize = 10 * size;
+        }
+
+        int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int start = (hash & 3) << 2;
+            int frequency = 15;
+            for (int i = 0; i < 4; i++) {
+                int offset = (start + i) << 2;
+                int count = (int) ((table[indexOf(hash, i)] >>> offset) & 0xF);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        void increment(Object key) {
+            int hash = spread(key.hashCode());
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = (start + i) << 2;
+                if (((table[index] >>> offset) & 0xF) != 0xF) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+                }
+                additions /= 2;
+            }
+        }
+
+        private int indexOf(int hash, int depth) {
+            long h = (hash + SEEDS[depth]) * SEEDS[depth];
+            h += h >>> 32;
+            return (int) h & (table.length - 1);
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45D9F3B;
+            x = ((x >>> 16) ^ x) * 0x45D9F3B;
+            return (x >>> 16) ^ x;
+        }
+    }
+
+    /**
+     * A snapshot of the cache's counters.
+     */
+    static class CacheStats {
+        final long hits;
+        final long misses;
+        final long loadSuccesses;
+        final long loadFailures;
+        final long loadNanos;
+        final long coalescedLoads;
+        final long evictions;
+        final long evictedWeight;
+        final long expirations;
+
+        CacheStats(long hits, long misses, long loadSuccesses, long loadFailures, long loadNanos,
+                long coalescedLoads, long evictions, long evictedWeight, long expirations) {
+            this.hits = hits;
+            this.misses = misses;
+            this.loadSuccesses = loadSuccesses;
+            this.loadFailures = loadFailures;
+            this.loadNanos = loadNanos;
+            this.coalescedLoads = coalescedLoads;
+            this.evictions = evictions;
+            this.evictedWeight = evictedWeight;
+            this.expirations = expirations;
+        }
+
+        double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 1.0 : (double) hits / requests;
+        }
+
+        @Override
+        public String toString() {
+            long loads = loadSuccesses + loadFailures;
+            return String.format("Stats: hit rate %.1f%% (%,d hits, %,d misses), %d loads (%d failed, %.1f ms"
+                    + " average, %d coalesced), %,d evictions (weight %,d), %d expirations", 100 * hitRate(), hits,
+                    misses, loads, loadFailures, loads == 0 ? 0.0 : loadNanos / 1e6 / loads, coalescedLoads,
+                    evictions, evictedWeight, expirations);
+        }
+    }
+}
@@ -0,0 +1,540 @@
+/**
+ * VisitedSetExample.java
+ * This program demonstrates a compact set of visited URLs for a crawler.
+ * The thread-safe visited set of Exercise 4 would naturally be a
+ * ConcurrentHashMap of URL strings, which costs well over a hundred bytes
+ * per URL and gigabytes at a hundred million URLs. Here each URL is first
+ * put into a canonical form, so that equivalent spellings count once, and
+ * then reduced to a 64-bit fingerprint. A blocked Bloom filter on a long[]
+ * answers "never seen" without touching the exact set, and the exact set
+ * stores the fingerprints themselves in open-addressed long[] tables. Both
+ * are split into stripes, each guarded by its own lock, so threads working
+ * on different URLs rarely wait for each other.
+ */
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class VisitedSetExample {
+    public static void main(String[] args) {
+        System.out.println("--- Visited Set Examples ---");
+
+        // Distinct URLs in the comparison; pass a larger count for a full-size run
+        int urls = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+
+        // Example 1: URL normalization
+        System.out.println("\nExample 1: URL normalization");
+        normalization();
+
+        // Example 2: Bloom filter false-positive rate
+        System.out.println("\nExample 2: Bloom filter false-positive rate");
+        falsePositiveRates();
+
+        // Example 3: Memory and throughput with 16 threads
+        System.out.println("\nExample 3: Memory and throughput with 16 threads");
+        try {
+            compareVisitedSets(urls, 16);
+        } catch (InterruptedException e) {
+            System.out.println("Main thread interrupted.");
+        }
+
+        System.out.println("\nMain thread exiting.");
+    }
+
+    /**
+     * Demonstrates spellings of the same page that normalize to one URL.
+     */
+    private static void normalization() {
+        String[] spellings = {
+            "http://Example.COM/a/b/../c/index.html",
+            "HTTP://example.com:80/a/c/index.html#section-2",
+            "http://example.com/a/./c/%69ndex.html",
+            "http://example.com/a/c/index.html?",
+            "http://example.com/search?q=java&page=2",
+            "http://example.com/search?page=2&q=java",
+            "https://example.com:443",
+            "http://example.com/%7euser/%2fdata%2F",
+            "not a url"
+        };
+        VisitedSet visited = new VisitedSet(1000, 0.01, 16);
+        for (String spelling : spellings) {
+            try {
+                String canonical = UrlNormalizer.normalize(spelling);
+                boolean added = visited.add(canonical);
+                System.out.printf("  %-50s -> %-40s %s%n", spelling, canonical, added ? "new" : "already visited");
+            } catch (IllegalArgumentException e) {
+                System.out.println("  Error normalizing \"" + spelling + "\": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Fills Bloom filters of several target rates and measures the share
+     * of unseen URLs they wrongly report as possibly seen.
+     */
+    private static void falsePositiveRates() {
+        int count = 200_000;
+        System.out.printf("  %-8s %12s %10s %8s %14s%n", "target", "bits/URL", "hashes", "bytes", "measured rate");
+        for (double target : new double[] {0.1, 0.01, 0.001}) {
+            BloomFilter filter = new BloomFilter(count, target, 1);
+            for (int i = 0; i < count; i++) {
+                filter.put(Fingerprints.of(url(i, 0)));
+            }
+            int positives = 0;
+            for (int i = count; i < 2 * count; i++) {
+                if (filter.mightContain(Fingerprints.of(url(i, 0)))) {
+                    positives++;
+                }
+            }
+            System.out.printf("  %-8s %12.1f %10d %,8d %13.3f%%%n", target, filter.bits() / (double) count,
+                    filter.hashes(), filter.bytes(), 100.0 * positives / count);
+        }
+    }
+
+    /**
+     * Compares the visited set with a ConcurrentHashMap key set of the
+     * canonical URLs. Every thread adds its share of the URLs, adds them
+     * again in a different spelling and asks about as many URLs that were
+     * never added.
+     */
+    private static void compareVisitedSets(int urls, int threads) throws InterruptedException {
+        System.out.printf("%,d distinct URLs, %d threads, 3 operations per URL%n", urls, threads);
+
+        // The first round warms up the JIT; the second is reported
+        for (int round = 1; round <= 2; round++) {
+            long before = usedMemory();
+            Set<String> strings = ConcurrentHashMap.newKeySet();
+            long[] stringResult = run(urls, threads, strings::add, strings::contains);
+            long stringBytes = usedMemory() - before;
+            // Dropped so the next measurement does not include it
+            strings = null;
+
+            before = usedMemory();
+            VisitedSet visited = new VisitedSet(urls, 0.01, 64);
+            long[] visitedResult = run(urls, threads, visited::add, visited::contains);
+            long visitedBytes = usedMemory() - before;
+
+            if (round == 2) {
+                System.out.printf("  %-18s %10s %12s %10s %11s%n", "set", "bytes/URL", "ops/sec", "new URLs",
+                        "false hits");
+                printRow("ConcurrentHashMap", stringBytes, urls, stringResult);
+                printRow("VisitedSet", visitedBytes, urls, visitedResult);
+                System.out.printf("VisitedSet arrays: %,d bytes of Bloom filter, %,d bytes of fingerprint tables%n",
+                        visited.bloomBytes(), visited.tableBytes());
+                System.out.printf("Bloom filter false positives: %.3f%% of the lookups for unseen URLs%n",
+                        100.0 * visited.bloomFalsePositives() / (2L * urls));
+            }
+        }
+    }
+
+    /**
+     * Helper method running the three passes and returning the elapsed
+     * nanoseconds, the number of adds that returned true and the number of
+     * never-added URLs that were reported as present.
+     */
+    private static long[] run(int urls, int threads, UrlOperation add, UrlOperation contains)
+            throws InterruptedException {
+        LongAdder added = new LongAdder();
+        LongAdder falseHits = new LongAdder();
+        CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int first = (int) ((long) urls * t / threads);
+            int last = (int) ((long) urls * (t + 1) / threads);
+            Thread thread = new Thread(() -> {
+                long newUrls = 0;
+                long hits = 0;
+                for (int i = first; i < last; i++) {
+                    if (add.apply(UrlNormalizer.normalize(url(i, 0)))) {
+                        newUrls++;
+                    }
+                }
+                for (int i = first; i < last; i++) {
+                    if (add.apply(UrlNormalizer.normalize(url(i, 1)))) {
+                        newUrls++;
+                    }
+                    if (contains.apply(UrlNormalizer.normalize(url(urls + i, 0)))) {
+                        hits++;
+                    }
+                }
+                added.add(newUrls);
+                falseHits.add(hits);
+                done.countDown();
+            });
+            thread.start();
+        }
+        done.await();
+        return new long[] {System.nanoTime() - start, added.sum(), falseHits.sum()};
+    }
+
+    private static void printRow(String name, long bytes, int urls, long[] result) {
+        System.out.printf("  %-18s %10.1f %,12.0f %,10d %11d%n", name, bytes / (double) urls,
+                3.0 * urls / (result[0] / 1e9), result[1], result[2]);
+    }
+
+    /**
+     * Helper method returning URL number i in one of two spellings that
+     * normalize to the same canonical URL.
+     */
+    private static String url(int i, int spelling) {
+        int host = i % 5000;
+        if (spelling == 0) {
+            return "http://www.site" + host + ".example.com/articles/" + (i / 5000) + "/page.html?lang=en&id=" + i;
+        }
+        return "HTTP://WWW.SITE" + host + ".Example.com:80/articles/./" + (i / 5000) + "/page.html?id=" + i
+                + "&lang=en#comments";
+    }
+
+    /**
+     * Helper method returning the heap in use after a garbage collection.
+     */
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @FunctionalInterface
+    interface UrlOperation {
+        boolean apply(String url);
+    }
+
+    /**
+     * Puts URLs into one canonical form: lower-case scheme and host, no
+     * default port, no fragment, "." and ".." segments resolved, percent
+     * escapes of unreserved characters decoded and the rest in upper case,
+     * an empty path written as "/" and query parameters sorted.
+     */
+    static class UrlNormalizer {
+        static String normalize(String url) {
+            URI uri;
+            try {
+                uri = new URI(url.trim()).normalize();
+            } catch (URISyntaxException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+            String scheme = uri.getScheme();
+            String host = uri.getHost();
+            if (scheme == null || host == null) {
+                throw new IllegalArgumentException("not an absolute URL with a host");
+            }
+            scheme = scheme.toLowerCase(Locale.ROOT);
+            StringBuilder canonical = new StringBuilder(url.length());
+            canonical.append(scheme).append("://").append(host.toLowerCase(Locale.ROOT));
+            int port = uri.getPort();
+            if (port != -1 && !(port == 80 && scheme.equals("http")) && !(port == 443 && scheme.equals("https"))) {
+                canonical.append(':').append(port);
+            }
+            String path = uri.getRawPath();
+            appendEscaped(canonical, path == null || path.isEmpty() ? "/" : path);
+            String query = uri.getRawQuery();
+            if (query != null && !query.isEmpty()) {
+                String[] parameters = query.split("&");
+                Arrays.sort(parameters);
+                char separator = '?';
+                for (String parameter : parameters) {
+                    if (!parameter.isEmpty()) {
+                        canonical.append(separator);
+                        appendEscaped(canonical, parameter);
+                        separator = '&';
+                    }
+                }
+            }
+            return canonical.toString();
+        }
+
+        /**
+         * Helper method copying text, decoding escapes such as %7E of
+         * characters that never need escaping and upper-casing the others.
+         */
+        private static void appendEscaped(StringBuilder out, String text) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '%' && i + 2 < text.length()) {
+                    int value = Character.digit(text.charAt(i + 1), 16) * 16 + Character.digit(text.charAt(i + 2), 16);
+                    if (value >= 0 && isUnreserved((char) value)) {
+                        out.append((char) value);
+                    } else {
+                        out.append('%').append(Character.toUpperCase(text.charAt(i + 1)))
+                                .append(Character.toUpperCase(text.charAt(i + 2)));
+                    }
+                    i += 2;
+                } else {
+                    out.append(c);
+                }
+            }
+        }
+
+        private static boolean isUnreserved(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '.' || c == '_' || c == '~';
+        }
+    }
+
+    /**
+     * 64-bit fingerprints of canonical URLs. With n URLs the chance that
+     * any two share a fingerprint is about n * n / 2^65, around one in
+     * four thousand at a hundred million URLs. Zero marks an empty slot in
+     * the tables, so it is never returned.
+     */
+    static class Fingerprints {
+        static long of(String url) {
+            // FNV-1a over the characters, then a finalizer to spread the bits
+            long hash = 0xCBF29CE484222325L;
+            for (int i = 0; i < url.length(); i++) {
+                hash = (hash ^ url.charAt(i)) * 0x100000001B3L;
+            }
+            hash = mix(hash);
+            return hash == 0 ? 1 : hash;
+        }
+
+        static long mix(long x) {
+            x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+            x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+            return x ^ (x >>> 31);
+        }
+    }
+
+    /**
+     * A blocked Bloom filter: each fingerprint picks one 512-bit block, a
+     * single cache line, and sets k bits inside it. It never reports a
+     * fingerprint that was put as absent, and reports an absent one as
+     * possibly present at roughly the configured rate. The caller guards
+     * each block with the lock of its stripe.
+     */
+    static class BloomFilter {
+        private static final int BLOCK_BITS = 512;
+
+        private final long[] words;
+        private final int blockMask;
+        private final int hashes;
+
+        BloomFilter(long expected, double falsePositiveRate, int minBlocks) {
+            // m = -n ln p / (ln 2)^2 bits and k = m / n ln 2 hashes are optimal for a plain Bloom filter
+            double bits = -expected * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+            long blocks = Math.max(minBlocks, (long) Math.ceil(bits / BLOCK_BITS));
+            int powerOfTwo = Integer.highestOneBit((int) Math.min(blocks, 1 << 24));
+            if (powerOfTwo < blocks) {
+                powerOfTwo <<= 1;
+            }
+            this.words = new long[powerOfTwo * (BLOCK_BITS / 64)];
+            this.blockMask = powerOfTwo - 1;
+            this.hashes = Math.max(1, (int) Math.round(bits / expected * Math.log(2)));
+        }
+
+        int block(long fingerprint) {
+            return (int) (fingerprint >>> 32) & blockMask;
+        }
+
+        void put(long fingerprint) {
+            int base = block(fingerprint) * (BLOCK_BITS / 64);
+            // Double hashing: bit i is h1 + i * h2 within the block
+            int h1 = (int) fingerprint;
+            int h2 = (int) Fingerprints.mix(fingerprint) | 1;
+            for (int i = 0; i < hashes; i++) {
+                int bit = (h1 + i * h2) & (BLOCK_BITS - 1);
+                words[base + (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        boolean mightContain(long fingerprint) {
+            int base = block(fingerprint) * (BLOCK_BITS / 64);
+            int h1 = (int) fingerprint;
+            int h2 = (int) Fingerprints.mix(fingerprint) | 1;
+            for (int i = 0; i < hashes; i++) {
+                int bit = (h1 + i * h2) & (BLOCK_BITS - 1);
+                if ((words[base + (bit >>> 6)] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long bits() {
+            return words.length * 64L;
+        }
+
+        int hashes() {
+            return hashes;
+        }
+
+        long bytes() {
+            return words.length * 8L;
+        }
+    }
+
+    /**
+     * An exact set of fingerprints in an open-addressed long[] table with
+     * linear probing, where zero marks an empty slot. Not thread-safe; the
+     * visited set keeps one per stripe.
+     */
+    static class FingerprintTable {
+        private long[] slots = new long[64];
+        private int size;
+
+        boolean contains(long fingerprint) {
+            int mask = slots.length - 1;
+            for (int i = index(fingerprint, mask); ; i = (i + 1) & mask) {
+                long slot = slots[i];
+                if (slot == fingerprint) {
+                    return true;
+                }
+                if (slot == 0) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Adds a fingerprint the caller knows is absent.
+         */
+        void addAbsent(long fingerprint) {
+            if (size + 1 > slots.length * 3 / 4) {
+                resize();
+            }
+            insert(slots, fingerprint);
+            size++;
+        }
+
+        long bytes() {
+            return slots.length * 8L;
+        }
+
+        private void resize() {
+            long[] bigger = new long[slots.length * 2];
+            for (long slot : slots) {
+                if (slot != 0) {
+                    insert(bigger, slot);
+                }
+            }
+            slots = bigger;
+        }
+
+        private static void insert(long[] table, long fingerprint) {
+            int mask = table.length - 1;
+            int i = index(fingerprint, mask);
+            while (table[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            table[i] = fingerprint;
+        }
+
+        private static int index(long fingerprint, int mask) {
+            // The high bits chose the Bloom block, so the table uses the low ones
+            return (int) fingerprint & mask;
+        }
+    }
+
+    /**
+     * The visited set: a Bloom filter in front of exact fingerprint tables,
+     * both split into stripes. A fingerprint's Bloom block decides its
+     * stripe, and the stripe's lock covers both the block and the table,
+     * so "check, then add" is atomic per URL. When the Bloom filter says a
+     * fingerprint was never put, the table is not searched at all.
+     */
+    static class VisitedSet {
+        private final BloomFilter bloom;
+        private final ReentrantLock[] locks;
+        private final FingerprintTable[] tables;
+        private final long[] falsePositives;
+        private final int stripeMask;
+
+        VisitedSet(long expected, double falsePositiveRate, int stripes) {
+            this.bloom = new BloomFilter(expected, falsePositiveRate, stripes);
+            this.locks = new ReentrantLock[stripes];
+            this.tables = new FingerprintTable[stripes];
+            // Spaced eight apart so counters of different stripes do not share a cache line
+            this.falsePositives = new long[stripes * 8];
+            this.stripeMask = stripes - 1;
+            for (int i = 0; i < stripes; i++) {
+                locks[i] = new ReentrantLock();
+                tables[i] = new FingerprintTable();
+            }
+        }
+
+        /**
+         * Adds a canonical URL, returning false if it was already visited.
+         */
+        boolean add(String canonicalUrl) {
+            long fingerprint = Fingerprints.of(canonicalUrl);
+            int stripe = bloom.block(fingerprint) & stripeMask;
+            ReentrantLock lock = locks[stripe];
+            lock.lock();
+            try {
+                if (bloom.mightContain(fingerprint)) {
+                    if (tables[stripe].contains(fingerprint)) {
+                        return false;
+                    }
+                    falsePositives[stripe * 8]++;
+                } else {
+                    bloom.put(fingerprint);
+                }
+                tables[stripe].addAbsent(fingerprint);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean contains(String canonicalUrl) {
+            long fingerprint = Fingerprints.of(canonicalUrl);
+            int stripe = bloom.block(fingerprint) & stripeMask;
+            ReentrantLock lock = locks[stripe];
+            lock.lock();
+            try {
+                if (!bloom.mightContain(fingerprint)) {
+                    return false;
+                }
+                if (tables[stripe].contains(fingerprint)) {
+                    return true;
+                }
+                falsePositives[stripe * 8]++;
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Returns how often the Bloom filter said "maybe" for a fingerprint
+         * the table did not hold.
+         */
+        long bloomFalsePositives() {
+            long sum = 0;
+            for (int i = 0; i < locks.length; i++) {
+                locks[i].lock();
+                try {
+                    sum += falsePositives[i * 8];
+                } finally {
+                    locks[i].unlock();
+                }
+            }
+            return sum;
+        }
+
+        long bloomBytes() {
+            return bloom.bytes();
+        }
+
+        long tableBytes() {
+            long sum = 0;
+            for (int i = 0; i < locks.length; i++) {
+                locks[i].lock();
+                try {
+                    sum += tables[i].bytes();
+                } finally {
+                    locks[i].unlock();
+                }
+            }
+            return sum;
+        }
+    }
+}